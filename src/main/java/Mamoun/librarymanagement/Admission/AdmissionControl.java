@@ -0,0 +1,176 @@
+package Mamoun.librarymanagement.Admission;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.server.PathContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+// Token buckets per client and per patron for each endpoint group, so one busy caller can't take
+// every database connection. Each bucket is a single AtomicLong holding the time its next request
+// is due (the generic cell rate algorithm): admitting a request is one compare-and-set, callers
+// never lock and different buckets never touch the same memory. Buckets idle longer than
+// library.admission.idle-timeout are dropped, which only forgets a bucket that had refilled anyway.
+@Component
+public class AdmissionControl implements MeterBinder {
+
+    public enum Scope {
+        CLIENT,
+        PATRON
+    }
+
+    public static final long ADMITTED = 0;
+
+    private record BucketKey(String group, Scope scope, String id) {
+    }
+
+    private final List<Group> groups;
+    private final LongSupplier clock;
+    // Time the next request of each bucket is due, in clock nanos
+    private final Cache<BucketKey, AtomicLong> buckets;
+
+    @Autowired
+    public AdmissionControl(LibraryProperties libraryProperties) {
+        this(libraryProperties, System::nanoTime);
+    }
+
+    AdmissionControl(LibraryProperties libraryProperties, LongSupplier clock) {
+        LibraryProperties.Admission admission = libraryProperties.getAdmission();
+        this.clock = clock;
+        this.groups = admission.getGroups().entrySet().stream()
+                .map(entry -> new Group(entry.getKey(), entry.getValue()))
+                .toList();
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(admission.getMaxBuckets())
+                .expireAfterAccess(admission.getIdleTimeout())
+                .ticker(clock::getAsLong)
+                .recordStats()
+                .build();
+    }
+
+    // The first group matching the request, null when no group limits it
+    public Group match(String method, String path) {
+        PathContainer pathContainer = PathContainer.parsePath(path);
+        for (Group group : groups)
+            if (group.matches(method, pathContainer))
+                return group;
+        return null;
+    }
+
+    // ADMITTED, or the nanoseconds until the request would be. The patron bucket is only charged
+    // once the client's admits the request, and the client gets its token back if the patron's
+    // refuses it. patronId may be null.
+    public long admit(Group group, String clientId, String patronId) {
+        long wait = acquire(group, Scope.CLIENT, clientId);
+        if (wait == ADMITTED && patronId != null) {
+            wait = acquire(group, Scope.PATRON, patronId);
+            if (wait != ADMITTED)
+                refund(group, Scope.CLIENT, clientId);
+        }
+        if (wait == ADMITTED)
+            group.admitted.increment();
+        return wait;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, buckets, "admission.buckets");
+        Gauge.builder("library.admission.buckets", buckets, Cache::estimatedSize)
+                .description("Token buckets of clients and patrons seen recently")
+                .register(registry);
+        for (Group group : groups) {
+            FunctionCounter.builder("library.admission.admitted", group.admitted, LongAdder::sum)
+                    .tag("group", group.name)
+                    .description("Requests let through by admission control")
+                    .register(registry);
+            for (Scope scope : Scope.values())
+                FunctionCounter.builder("library.admission.rejections", group.rejections[scope.ordinal()], LongAdder::sum)
+                        .tag("group", group.name)
+                        .tag("scope", scope.name().toLowerCase(Locale.ROOT))
+                        .description("Requests refused with 429 because a token bucket was empty")
+                        .register(registry);
+        }
+    }
+
+    private long acquire(Group group, Scope scope, String id) {
+        LibraryProperties.Admission.Limit limit = group.limits[scope.ordinal()];
+        if (limit.getRate() <= 0)
+            return ADMITTED;
+        long interval = interval(limit);
+        long tolerance = interval * Math.max(1, limit.getBurst());
+        AtomicLong due = buckets.get(new BucketKey(group.name, scope, id), key -> new AtomicLong(clock.getAsLong()));
+        while (true) {
+            long now = clock.getAsLong();
+            long current = due.get();
+            long next = Math.max(current, now) + interval;
+            long wait = next - now - tolerance;
+            if (wait > 0) {
+                group.rejections[scope.ordinal()].increment();
+                return wait;
+            }
+            if (due.compareAndSet(current, next))
+                return ADMITTED;
+        }
+    }
+
+    // Moves the bucket's due time back by the token just taken. A bucket dropped meanwhile had refilled anyway.
+    private void refund(Group group, Scope scope, String id) {
+        LibraryProperties.Admission.Limit limit = group.limits[scope.ordinal()];
+        if (limit.getRate() <= 0)
+            return;
+        AtomicLong due = buckets.getIfPresent(new BucketKey(group.name, scope, id));
+        if (due != null)
+            due.addAndGet(-interval(limit));
+    }
+
+    private static long interval(LibraryProperties.Admission.Limit limit) {
+        return Math.max(1, (long) (1_000_000_000 / limit.getRate()));
+    }
+
+    public static final class Group {
+
+        private final String name;
+        private final List<PathPattern> paths;
+        // Empty means every method
+        private final Set<String> methods;
+        private final LibraryProperties.Admission.Limit[] limits;
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder[] rejections = {new LongAdder(), new LongAdder()};
+
+        private Group(String name, LibraryProperties.Admission.Group properties) {
+            this.name = name;
+            this.paths = properties.getPaths().stream().map(PathPatternParser.defaultInstance::parse).toList();
+            this.methods = properties.getMethods().stream().map(method -> method.toUpperCase(Locale.ROOT)).collect(Collectors.toSet());
+            this.limits = new LibraryProperties.Admission.Limit[]{properties.getPerClient(), properties.getPerPatron()};
+        }
+
+        public String name() {
+            return name;
+        }
+
+        private boolean matches(String method, PathContainer path) {
+            if (!methods.isEmpty() && !methods.contains(method))
+                return false;
+            for (PathPattern pattern : paths)
+                if (pattern.matches(path))
+                    return true;
+            return false;
+        }
+    }
+}
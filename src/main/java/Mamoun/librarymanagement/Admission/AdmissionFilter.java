@@ -0,0 +1,61 @@
+package Mamoun.librarymanagement.Admission;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Refuses requests with 429 and a Retry-After once their client's or patron's token bucket is
+// empty, before they reach a controller or the database. The client is resolved by ClientIdentity,
+// a client header from anyone but a trusted proxy is refused with 400 so callers can't rotate it
+// for fresh buckets. The patron is read from the path.
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    // /patron/{patronId} on loans and holds, /patrons/{id} on the patron endpoints
+    private static final Pattern PATRON_ID = Pattern.compile("/patrons?/(\\d+)(?:/|$)");
+
+    private final AdmissionControl admissionControl;
+    private final ClientIdentity clientIdentity;
+
+    public AdmissionFilter(AdmissionControl admissionControl, ClientIdentity clientIdentity) {
+        this.admissionControl = admissionControl;
+        this.clientIdentity = clientIdentity;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        AdmissionControl.Group group = admissionControl.match(request.getMethod(), path);
+        if (group == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        if (clientIdentity.untrusted(request)) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getWriter().write(clientIdentity.header() + " is only accepted from a trusted proxy");
+            return;
+        }
+        Matcher patron = PATRON_ID.matcher(path);
+        long wait = admissionControl.admit(group, clientIdentity.resolve(request), patron.find() ? patron.group(1) : null);
+        if (wait != AdmissionControl.ADMITTED) {
+            long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1));
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter));
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getWriter().write("Too many requests, retry after " + retryAfter + " seconds");
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+}
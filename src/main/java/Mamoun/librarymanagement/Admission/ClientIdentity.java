@@ -0,0 +1,47 @@
+package Mamoun.librarymanagement.Admission;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.security.Principal;
+import java.util.Set;
+
+// Who a request comes from, for the admission buckets and idempotency keys. An authenticated
+// principal names the client. The client header is only believed from the trusted proxies, which
+// set it for the callers behind them, anything else is keyed by its remote address. The kinds of
+// id are prefixed so a header can't pass itself off as an address.
+@Component
+public class ClientIdentity {
+
+    private final String header;
+    private final Set<String> trustedProxies;
+
+    @Autowired
+    public ClientIdentity(LibraryProperties libraryProperties) {
+        LibraryProperties.Admission admission = libraryProperties.getAdmission();
+        this.header = admission.getClientHeader();
+        this.trustedProxies = Set.copyOf(admission.getTrustedProxies());
+    }
+
+    public String header() {
+        return header;
+    }
+
+    public String resolve(HttpServletRequest request) {
+        Principal principal = request.getUserPrincipal();
+        if (principal != null)
+            return "principal:" + principal.getName();
+        String named = request.getHeader(header);
+        if (named != null && !named.isBlank() && trustedProxies.contains(request.getRemoteAddr()))
+            return "client:" + named;
+        return "address:" + request.getRemoteAddr();
+    }
+
+    // The request names a client without coming from a trusted proxy
+    public boolean untrusted(HttpServletRequest request) {
+        String named = request.getHeader(header);
+        return named != null && !named.isBlank() && !trustedProxies.contains(request.getRemoteAddr());
+    }
+}
@@ -0,0 +1,171 @@
+package Mamoun.librarymanagement.Cache;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.DTO.KeysetPageDTO;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// Serialized JSON of book details and catalog pages, so repeated reads skip JPA and Jackson.
+// Entries are evicted from BookChangedEvents once the writing transaction has committed.
+@Component
+public class BookResponseCache implements MeterBinder {
+
+    private final ObjectMapper objectMapper;
+    private final Cache<Long, CachedBook> books;
+    private final Cache<PageKey, CachedPage> pages;
+    private final AtomicLong bookInvalidations = new AtomicLong();
+    private final AtomicLong pageInvalidations = new AtomicLong();
+    // Bumped before every eviction. A read that started before the bump may have
+    // seen the old rows, so it drops what it just cached.
+    private final AtomicLong generation = new AtomicLong();
+
+    @Autowired
+    public BookResponseCache(ObjectMapper objectMapper, LibraryProperties libraryProperties) {
+        this.objectMapper = objectMapper;
+        LibraryProperties.ResponseCache responseCache = libraryProperties.getResponseCache();
+        this.books = Caffeine.newBuilder().maximumSize(responseCache.getMaxBooks()).recordStats().build();
+        this.pages = Caffeine.newBuilder().maximumSize(responseCache.getMaxPages()).recordStats().build();
+    }
+
+    public CachedBook book(long id, Supplier<BookDTO> loader) {
+        CachedBook cached = books.getIfPresent(id);
+        if (cached != null)
+            return cached;
+        long startedAt = generation.get();
+        BookDTO book = loader.get();
+        CachedBook entry = new CachedBook(serialize(book), book.getVersion());
+        books.put(id, entry);
+        if (generation.get() != startedAt)
+            books.invalidate(id);
+        return entry;
+    }
+
+    // Version of the cached book, lets a conditional GET skip the database
+    public OptionalLong version(long id) {
+        CachedBook cached = books.getIfPresent(id);
+        return cached == null ? OptionalLong.empty() : OptionalLong.of(cached.version());
+    }
+
+    public byte[] page(String cursor, Integer size, String sort, Supplier<KeysetPageDTO<BookDTO>> loader) {
+        return page(cursor, size, sort, false, loader);
+    }
+
+    // available marks pages holding only books that are not borrowed
+    public byte[] page(String cursor, Integer size, String sort, boolean available, Supplier<KeysetPageDTO<BookDTO>> loader) {
+        PageKey key = new PageKey(cursor, size, sort, available);
+        CachedPage cached = pages.getIfPresent(key);
+        if (cached != null)
+            return cached.body();
+        long startedAt = generation.get();
+        KeysetPageDTO<BookDTO> page = loader.get();
+        Set<Long> ids = new HashSet<>();
+        page.getContent().forEach(book -> ids.add(book.getId()));
+        byte[] body = serialize(page);
+        pages.put(key, new CachedPage(body, ids, page.getNextCursor() == null));
+        if (generation.get() != startedAt)
+            pages.invalidate(key);
+        return body;
+    }
+
+    // Only the entries a change can show up in are dropped. Ids never change, so pages
+    // ordered by id only move when a book is added at the end the page sits on.
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBookChanged(BookChangedEvent event) {
+        generation.incrementAndGet();
+        Collection<Long> ids = event.getBookIds();
+        books.invalidateAll(ids);
+        bookInvalidations.addAndGet(ids.size());
+        Predicate<CachedPage> containsChangedBook = page -> ids.stream().anyMatch(page.bookIds()::contains);
+        switch (event.getType()) {
+            case ADDED -> evictPages((key, page) -> switch (key.order()) {
+                case ID_ASC -> page.last();
+                case ID_DESC -> key.cursor() == null;
+                case OTHER -> true;
+            });
+            case UPDATED -> evictPages((key, page) -> key.order() == PageOrder.OTHER || key.available() || containsChangedBook.test(page));
+            case DELETED -> evictPages((key, page) -> containsChangedBook.test(page));
+            // A returned book can show up on any page of available books
+            case BORROWED, RETURNED -> evictPages((key, page) -> key.available() || containsChangedBook.test(page));
+        }
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        books.invalidateAll();
+        pages.invalidateAll();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, books, "books.detail");
+        CaffeineCacheMetrics.monitor(registry, pages, "books.pages");
+        FunctionCounter.builder("library.cache.invalidations", bookInvalidations, AtomicLong::get)
+                .tag("cache", "books.detail")
+                .register(registry);
+        FunctionCounter.builder("library.cache.invalidations", pageInvalidations, AtomicLong::get)
+                .tag("cache", "books.pages")
+                .register(registry);
+    }
+
+    private void evictPages(PageFilter filter) {
+        pages.asMap().forEach((key, page) -> {
+            if (filter.test(key, page) && pages.asMap().remove(key, page))
+                pageInvalidations.incrementAndGet();
+        });
+    }
+
+    private byte[] serialize(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public record CachedBook(byte[] body, long version) {
+    }
+
+    private interface PageFilter {
+        boolean test(PageKey key, CachedPage page);
+    }
+
+    private enum PageOrder {
+        ID_ASC,
+        ID_DESC,
+        OTHER
+    }
+
+    private record PageKey(String cursor, Integer size, String sort, boolean available) {
+        PageOrder order() {
+            String first = sort == null || sort.isBlank() ? "id" : sort.split(",")[0].trim();
+            return switch (first) {
+                case "id" -> PageOrder.ID_ASC;
+                case "-id" -> PageOrder.ID_DESC;
+                default -> PageOrder.OTHER;
+            };
+        }
+    }
+
+    private record CachedPage(byte[] body, Set<Long> bookIds, boolean last) {
+    }
+}
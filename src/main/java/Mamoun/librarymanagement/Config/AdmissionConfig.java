@@ -0,0 +1,26 @@
+package Mamoun.librarymanagement.Config;
+
+import Mamoun.librarymanagement.Admission.AdmissionControl;
+import Mamoun.librarymanagement.Admission.AdmissionFilter;
+import Mamoun.librarymanagement.Admission.ClientIdentity;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+// Puts admission control in front of the API, ahead of every other filter so refused requests cost
+// as little as possible. library.admission.enabled=false leaves it out.
+@Configuration
+public class AdmissionConfig {
+
+    @Bean
+    public FilterRegistrationBean<AdmissionFilter> admissionFilter(AdmissionControl admissionControl, ClientIdentity clientIdentity,
+                                                                   LibraryProperties libraryProperties) {
+        FilterRegistrationBean<AdmissionFilter> registration =
+                new FilterRegistrationBean<>(new AdmissionFilter(admissionControl, clientIdentity));
+        registration.addUrlPatterns("/api/*");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        registration.setEnabled(libraryProperties.getAdmission().isEnabled());
+        return registration;
+    }
+}
@@ -0,0 +1,51 @@
+package Mamoun.librarymanagement.Config;
+
+import Mamoun.librarymanagement.Exceptions.BookNotAvailableException;
+import Mamoun.librarymanagement.Exceptions.DeleteException;
+import Mamoun.librarymanagement.Exceptions.DuplicateIsbnException;
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
+import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Exceptions.PreconditionFailedException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+// Value of the "outcome" tag shared by the service and repository timers,
+// follows the HTTP status the controllers answer with for each exception
+enum CallOutcome {
+    OK("ok"),
+    NOT_FOUND("not_found"),
+    CONFLICT("conflict"),
+    BAD_REQUEST("bad_request"),
+    PRECONDITION_FAILED("precondition_failed"),
+    ERROR("error");
+
+    private final String tag;
+
+    CallOutcome(String tag) {
+        this.tag = tag;
+    }
+
+    String tag() {
+        return tag;
+    }
+
+    static CallOutcome of(Throwable exception) {
+        if (exception == null) {
+            return OK;
+        }
+        if (exception instanceof NotFoundException) {
+            return NOT_FOUND;
+        }
+        if (exception instanceof BookNotAvailableException || exception instanceof DeleteException || exception instanceof DuplicateIsbnException
+                || exception instanceof OptimisticLockingFailureException || exception instanceof DataIntegrityViolationException) {
+            return CONFLICT;
+        }
+        if (exception instanceof InvalidRequestException) {
+            return BAD_REQUEST;
+        }
+        if (exception instanceof PreconditionFailedException) {
+            return PRECONDITION_FAILED;
+        }
+        return ERROR;
+    }
+}
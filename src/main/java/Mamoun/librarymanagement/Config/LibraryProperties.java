@@ -0,0 +1,184 @@
+package Mamoun.librarymanagement.Config;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.Getter;
+import org.hibernate.validator.constraints.time.DurationMin;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Getter
+@Setter
+@Validated
+@ConfigurationProperties(prefix = "library")
+public class LibraryProperties {
+
+    @Valid
+    private final Books books = new Books();
+    @Valid
+    private final Borrowings borrowings = new Borrowings();
+    @Valid
+    private final Jdbc jdbc = new Jdbc();
+    private final ResponseCache responseCache = new ResponseCache();
+    @Valid
+    private final Journal journal = new Journal();
+    private final Overdue overdue = new Overdue();
+    private final Stats stats = new Stats();
+    private final Holds holds = new Holds();
+    private final Idempotency idempotency = new Idempotency();
+    private final Admission admission = new Admission();
+
+    @Getter
+    @Setter
+    public static class Books {
+        // Page size used when the client does not ask for one
+        @Positive
+        private int defaultPageSize = 20;
+        // Largest page a client can request, bigger sizes are capped to this
+        @Positive
+        private int maxPageSize = 100;
+        // Rows sent per JDBC batch by the bulk import, also used as hibernate.jdbc.batch_size
+        @Positive
+        private int bulkBatchSize = 50;
+        // Largest number of books accepted by a single bulk import request
+        private int maxBulkSize = 10_000;
+        // How long a catalog export may keep streaming before the request times out
+        private Duration exportTimeout = Duration.ofMinutes(30);
+    }
+
+    @Getter
+    @Setter
+    public static class Borrowings {
+        // Loans per page of a patron's history when the client does not ask for a size
+        @Positive
+        private int defaultPageSize = 20;
+        // Largest page of a patron's history a client can request
+        @Positive
+        private int maxPageSize = 100;
+        // Most books a single batch borrow or return may hold
+        @Positive
+        private int maxBatchSize = 100;
+        // Time a patron has before a loan is overdue
+        private Period loanPeriod = Period.ofDays(14);
+        // Books a patron can hold at once
+        @Positive
+        private int maxLoansPerPatron = 10;
+    }
+
+    @Getter
+    @Setter
+    public static class Jdbc {
+        // Connections handed out at once when requests run on virtual threads
+        @Positive
+        private int maxConcurrency = 10;
+        // How long a request waits for a connection permit before failing
+        @DurationMin(nanos = 0)
+        private Duration acquireTimeout = Duration.ofSeconds(30);
+    }
+
+    @Getter
+    @Setter
+    public static class ResponseCache {
+        // Serialized book details kept in memory
+        private long maxBooks = 10_000;
+        // Serialized catalog pages kept in memory
+        private long maxPages = 1_000;
+    }
+
+    @Getter
+    @Setter
+    public static class Journal {
+        // Whether committed book changes are appended to the event journal
+        private boolean enabled = true;
+        // Directory holding the journal segments, relative to the working directory
+        private String directory = "journal";
+        // Size of each memory-mapped segment file, a full segment rolls to a new one
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+        // Events waiting for the writer before committing requests have to wait
+        private int queueCapacity = 65_536;
+        // How often written events are forced to disk
+        private Duration flushInterval = Duration.ofSeconds(1);
+        // Segments kept on disk, the oldest are deleted as new ones roll. 0 keeps every segment.
+        @PositiveOrZero
+        private int maxSegments = 0;
+    }
+
+    @Getter
+    @Setter
+    public static class Overdue {
+        // When the overdue scan runs, "-" turns the schedule off
+        private String cron = "0 0 2 * * *";
+        // Overdue loans read and handed to the notice sink at a time
+        private int chunkSize = 1_000;
+    }
+
+    @Getter
+    @Setter
+    public static class Stats {
+        // How long between reconciling the inventory counters with the database, ISO-8601 since @Scheduled reads it too
+        private Duration reconcileInterval = Duration.ofMinutes(5);
+    }
+
+    @Getter
+    @Setter
+    public static class Holds {
+        // Longest a client can wait on a hold in one request
+        private Duration maxWait = Duration.ofSeconds(30);
+    }
+
+    @Getter
+    @Setter
+    public static class Idempotency {
+        // Responses kept for replaying retried requests, the least used go first beyond this
+        private long maxKeys = 100_000;
+        // How long a response stays replayable after it was stored
+        private Duration ttl = Duration.ofHours(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Admission {
+        // Whether requests to the API go through the per client and per patron token buckets
+        private boolean enabled = true;
+        // Header a trusted proxy names the client behind it with, requests without it are keyed by remote address
+        private String clientHeader = "X-Client-Id";
+        // Remote addresses allowed to send the client header, anyone else sending it is refused
+        private List<String> trustedProxies = new ArrayList<>();
+        // Buckets kept in memory, the least recently used go first beyond this
+        private long maxBuckets = 100_000;
+        // Buckets unused this long are dropped, keep it above burst / rate so only full buckets go
+        private Duration idleTimeout = Duration.ofMinutes(10);
+        // Endpoint groups by name, a request is limited by the first group matching it
+        private final Map<String, Group> groups = new LinkedHashMap<>();
+
+        @Getter
+        @Setter
+        public static class Group {
+            // Path patterns of the group, e.g. /api/books/**
+            private List<String> paths = new ArrayList<>();
+            // HTTP methods of the group, empty for all
+            private List<String> methods = new ArrayList<>();
+            private final Limit perClient = new Limit();
+            private final Limit perPatron = new Limit();
+        }
+
+        @Getter
+        @Setter
+        public static class Limit {
+            // Requests per second refilled into the bucket, 0 for no limit
+            private double rate;
+            // Requests the bucket holds when full, how many can arrive at once
+            private int burst = 1;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package Mamoun.librarymanagement.Config;
+
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.boot.actuate.metrics.data.DefaultRepositoryTagsProvider;
+import org.springframework.boot.actuate.metrics.data.RepositoryTagsProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.repository.core.support.RepositoryMethodInvocationListener.RepositoryMethodInvocation;
+
+@Configuration
+public class MetricsConfig {
+
+    // Spring Boot already times repository calls as spring.data.repository.invocations,
+    // this adds the same outcome tag the service timers carry
+    @Bean
+    public RepositoryTagsProvider repositoryTagsProvider() {
+        DefaultRepositoryTagsProvider defaults = new DefaultRepositoryTagsProvider();
+        return invocation -> Tags.of(defaults.repositoryTags(invocation))
+                .and(Tag.of("outcome", CallOutcome.of(exceptionOf(invocation)).tag()));
+    }
+
+    private static Throwable exceptionOf(RepositoryMethodInvocation invocation) {
+        return invocation.getResult() == null ? null : invocation.getResult().getError();
+    }
+}
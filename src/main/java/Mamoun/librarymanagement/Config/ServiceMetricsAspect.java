@@ -0,0 +1,44 @@
+package Mamoun.librarymanagement.Config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+// Times every public service call as library.service.calls{service, method, outcome, exception}.
+// The percentile histogram is switched on in application.properties.
+@Aspect
+@Component
+public class ServiceMetricsAspect {
+
+    public static final String METRIC_NAME = "library.service.calls";
+
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public ServiceMetricsAspect(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Around("execution(public * Mamoun.librarymanagement.Services..*(..))")
+    public Object time(ProceedingJoinPoint joinPoint) throws Throwable {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        Throwable failure = null;
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            sample.stop(Timer.builder(METRIC_NAME)
+                    .tag("service", joinPoint.getSignature().getDeclaringType().getSimpleName())
+                    .tag("method", joinPoint.getSignature().getName())
+                    .tag("outcome", CallOutcome.of(failure).tag())
+                    .tag("exception", failure == null ? "none" : failure.getClass().getSimpleName())
+                    .register(meterRegistry));
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package Mamoun.librarymanagement.Config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+// Requests are served on virtual threads when spring.threads.virtual.enabled=true.
+// Nothing then bounds how many of them reach the database at once, so the DataSource
+// is put behind a permit gate sized by library.jdbc.max-concurrency.
+@Configuration
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+    @Bean
+    public static BeanPostProcessor jdbcConcurrencyGate(ObjectProvider<LibraryProperties> libraryProperties) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof ConcurrencyLimitedDataSource)) {
+                    LibraryProperties.Jdbc jdbc = libraryProperties.getObject().getJdbc();
+                    return new ConcurrencyLimitedDataSource(dataSource, jdbc.getMaxConcurrency(), jdbc.getAcquireTimeout());
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -1,11 +1,27 @@
 package Mamoun.librarymanagement.Controllers;
 
+import Mamoun.librarymanagement.Cache.BookResponseCache;
+import Mamoun.librarymanagement.Config.LibraryProperties;
 import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.DTO.KeysetPageDTO;
 import Mamoun.librarymanagement.Exceptions.DeleteException;
+import Mamoun.librarymanagement.Exceptions.DuplicateIsbnException;
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
 import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Exceptions.PreconditionFailedException;
+import Mamoun.librarymanagement.Idempotency.Idempotent;
 import Mamoun.librarymanagement.Services.BookService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -13,41 +29,131 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 @RestController
 @RequestMapping("/api/books")
 public class BookController {
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
     private final BookService bookService;
+    private final BookResponseCache bookResponseCache;
+    private final ObjectWriter exportWriter;
+    private final LibraryProperties libraryProperties;
 
     @Autowired
-    public BookController(BookService bookService) {
+    public BookController(BookService bookService, BookResponseCache bookResponseCache, ObjectMapper objectMapper,
+                          LibraryProperties libraryProperties) {
         this.bookService = bookService;
+        this.bookResponseCache = bookResponseCache;
+        this.libraryProperties = libraryProperties;
+        this.exportWriter = objectMapper.writerFor(BookDTO.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
     }
 
-    // Get all books
+    // Get a page of books, pass the nextCursor of the previous page to continue. available=true
+    // only lists books on the shelf, in id order. Pages and details are served from the response
+    // cache until a write touches them.
     @GetMapping
-    public ResponseEntity<?> getAllBooks() {
+    public ResponseEntity<?> getAllBooks(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size,
+            @RequestParam(required = false) String sort,
+            @RequestParam(defaultValue = "false") boolean available) {
+        try {
+            byte[] books = available
+                    ? bookResponseCache.page(cursor, size, sort, true, () -> bookService.getAvailableBooks(cursor, size, sort))
+                    : bookResponseCache.page(cursor, size, sort, () -> bookService.getBooks(cursor, size, sort));
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(books);
+        } catch (InvalidRequestException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.BAD_REQUEST);
+        } catch (Exception e){
+            return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+    }
+
+    // How many books there are and how many are available, from memory
+    @GetMapping("/availability")
+    public ResponseEntity<?> getAvailabilitySummary() {
+        try {
+            return ResponseEntity.ok(bookService.getAvailabilitySummary());
+        } catch (Exception e){
+            return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    // Whether one book is on the shelf, without loading it
+    @GetMapping("/{id}/availability")
+    public ResponseEntity<?> getBookAvailability(@PathVariable Long id) {
         try {
-            List<BookDTO> books = bookService.getAllBooks();
+            return ResponseEntity.ok(bookService.getBookAvailability(id));
+        } catch (NotFoundException e ){
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.NOT_FOUND);
+        } catch (Exception e){
+            return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    // Full text search over titles and authors, best matches first
+    @GetMapping("/search")
+    public ResponseEntity<?> searchBooks(
+            @RequestParam String q,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size) {
+        try {
+            KeysetPageDTO<BookDTO> books = bookService.searchBooks(q, cursor, size);
             return ResponseEntity.ok(books);
+        } catch (InvalidRequestException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.BAD_REQUEST);
         } catch (Exception e){
             return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
     }
 
-    // Get book by ID
+    // Stream the whole catalog as newline delimited JSON, one book per line. The stream runs as an async
+    // request, only this one gets library.books.export-timeout instead of the default async timeout.
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportBooks(HttpServletRequest request) {
+        setAsyncTimeout(request, libraryProperties.getBooks().getExportTimeout());
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = exportWriter.createGenerator(outputStream)) {
+                generator.setRootValueSeparator(null);
+                bookService.exportBooks(book -> {
+                    try {
+                        exportWriter.writeValue(generator, book);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    // Get book by ID. A matching If-None-Match is answered with 304 from the version alone
     @GetMapping("/{id}")
-    public ResponseEntity<?> getBookById(@PathVariable Long id) {
+    public ResponseEntity<?> getBookById(@PathVariable Long id,
+                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
-            BookDTO book = bookService.getBookById(id);
-            return ResponseEntity.ok(book);
+            return bookResponse(id, ifNoneMatch);
         }
         catch (NotFoundException e ){
             return new ResponseEntity<>(e.getMessage(),HttpStatus.NOT_FOUND);
@@ -58,8 +164,27 @@ public class BookController {
 
     }
 
+    // Get book by ISBN-10 or ISBN-13, the id is resolved in memory
+    @GetMapping("/isbn/{isbn}")
+    public ResponseEntity<?> getBookByIsbn(@PathVariable String isbn,
+                                           @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        try {
+            return bookResponse(bookService.getBookIdByIsbn(isbn), ifNoneMatch);
+        }
+        catch (InvalidRequestException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.BAD_REQUEST);
+        }
+        catch (NotFoundException e ){
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.NOT_FOUND);
+        }catch (Exception e){
+            return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+    }
+
     // Add a new book
     @PostMapping
+    @Idempotent
     public ResponseEntity<?> addBook(@RequestBody BookDTO bookDTO) {
         try {
             BookDTO addedBook = bookService.addBook(bookDTO);
@@ -67,25 +192,61 @@ public class BookController {
         }catch (HttpClientErrorException.BadRequest e) {
             return new ResponseEntity<>(e.getMessage(),HttpStatus.BAD_REQUEST );
         }
+        catch (DuplicateIsbnException | DataIntegrityViolationException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.CONFLICT);
+        }
         catch (Exception e){
             return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
     }
 
-    // Update a book
-    @PutMapping("/{id}")
-    public ResponseEntity<?> updateBook(@PathVariable Long id, @RequestBody BookDTO updatedBookDTO) {
+    // Add many books at once, inserted in JDBC batches
+    @PostMapping("/bulk")
+    @Idempotent
+    public ResponseEntity<?> addBooks(@RequestBody List<BookDTO> bookDTOs) {
         try {
+            List<BookDTO> addedBooks = bookService.addBooks(bookDTOs);
+            return new ResponseEntity<>(addedBooks, HttpStatus.CREATED);
+        } catch (InvalidRequestException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.BAD_REQUEST);
+        }
+        catch (DuplicateIsbnException | DataIntegrityViolationException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.CONFLICT);
+        }
+        catch (Exception e){
+            return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+    }
 
-            BookDTO updatedBook = bookService.updateBook(id, updatedBookDTO);
-            return ResponseEntity.ok(updatedBook);
+    // Update a book. With If-Match the update only applies if the book is still at that version
+    @PutMapping("/{id}")
+    @Idempotent
+    public ResponseEntity<?> updateBook(@PathVariable Long id, @RequestBody BookDTO updatedBookDTO,
+                                        @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        try {
+            Long expectedVersion = null;
+            if (ifMatch != null) {
+                long version = bookService.getBookVersion(id);
+                if (!ETags.matchHits(ifMatch, version))
+                    return new ResponseEntity<>("Book with id: " + id + " has changed, its current ETag is " + ETags.of(version), HttpStatus.PRECONDITION_FAILED);
+                expectedVersion = version;
+            }
+            BookDTO updatedBook = bookService.updateBook(id, updatedBookDTO, expectedVersion);
+            return ResponseEntity.ok().eTag(ETags.of(updatedBook.getVersion())).body(updatedBook);
             }catch (HttpClientErrorException.BadRequest e) {
               return new ResponseEntity<>(e.getMessage(),HttpStatus.BAD_REQUEST );
         }
         catch (NotFoundException e ){
             return new ResponseEntity<>(e.getMessage(),HttpStatus.NOT_FOUND);
         }
+        catch (PreconditionFailedException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.PRECONDITION_FAILED);
+        }
+        catch (DuplicateIsbnException | DataIntegrityViolationException | OptimisticLockingFailureException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.CONFLICT);
+        }
         catch (Exception e){
             return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
         }
@@ -95,6 +256,7 @@ public class BookController {
 
     // Delete a book
     @DeleteMapping("/{id}")
+    @Idempotent
     public ResponseEntity<?> deleteBook(@PathVariable Long id) {
         try {
             bookService.deleteBook(id);
@@ -108,4 +270,25 @@ public class BookController {
 
 
     }
+
+    // The version comes from the cached entry or a version-only query, the book itself is only loaded on a miss
+    private ResponseEntity<?> bookResponse(long id, String ifNoneMatch) {
+        if (ifNoneMatch != null) {
+            long version = bookResponseCache.version(id).orElseGet(() -> bookService.getBookVersion(id));
+            if (ETags.noneMatchHits(ifNoneMatch, version))
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(ETags.of(version)).build();
+        }
+        BookResponseCache.CachedBook book = bookResponseCache.book(id, () -> bookService.getBookById(id));
+        return ResponseEntity.ok().eTag(ETags.of(book.version())).contentType(MediaType.APPLICATION_JSON).body(book.body());
+    }
+
+    // Applied when the streaming body starts async processing, after the default timeout was set
+    private static void setAsyncTimeout(HttpServletRequest request, Duration timeout) {
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(BookController.class.getName() + ".asyncTimeout", new CallableProcessingInterceptor() {
+            @Override
+            public <T> void beforeConcurrentHandling(NativeWebRequest webRequest, Callable<T> task) {
+                ((AsyncWebRequest) webRequest).setTimeout(timeout.toMillis());
+            }
+        });
+    }
 }
@@ -0,0 +1,58 @@
+package Mamoun.librarymanagement.Controllers;
+
+import Mamoun.librarymanagement.DTO.BookCopyDTO;
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
+import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Idempotency.Idempotent;
+import Mamoun.librarymanagement.Services.BookCopyService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/books/{id}/copies")
+public class BookCopyController {
+
+    private final BookCopyService bookCopyService;
+
+    @Autowired
+    public BookCopyController(BookCopyService bookCopyService) {
+        this.bookCopyService = bookCopyService;
+    }
+
+    // Every copy of the title, in id order
+    @GetMapping
+    public ResponseEntity<?> getCopies(@PathVariable Long id) {
+        try {
+            return ResponseEntity.ok(bookCopyService.getCopies(id));
+        } catch (NotFoundException e ){
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.NOT_FOUND);
+        } catch (Exception e){
+            return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    // Add count new copies of the title
+    @PostMapping
+    @Idempotent
+    public ResponseEntity<?> addCopies(@PathVariable Long id, @RequestParam(defaultValue = "1") int count) {
+        try {
+            List<BookCopyDTO> copies = bookCopyService.addCopies(id, count);
+            return new ResponseEntity<>(copies, HttpStatus.CREATED);
+        } catch (InvalidRequestException e){
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.BAD_REQUEST);
+        } catch (NotFoundException e ){
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.NOT_FOUND);
+        } catch (Exception e){
+            return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+}
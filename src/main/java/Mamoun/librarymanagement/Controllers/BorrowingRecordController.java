@@ -2,8 +2,12 @@ package Mamoun.librarymanagement.Controllers;
 
 
 import Mamoun.librarymanagement.DTO.BorrowingRecordDTO;
+import Mamoun.librarymanagement.DTO.LoanResultDTO;
 import Mamoun.librarymanagement.Exceptions.BookNotAvailableException;
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
+import Mamoun.librarymanagement.Exceptions.LoanLimitExceededException;
 import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Idempotency.Idempotent;
 import Mamoun.librarymanagement.Services.BorrowingRecordService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -11,6 +15,8 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.HttpClientErrorException;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("/api")
 public class BorrowingRecordController {
@@ -23,6 +29,7 @@ public class BorrowingRecordController {
     }
 
     @PostMapping("/borrow/{bookId}/patron/{patronId}")
+    @Idempotent
     public ResponseEntity<?> borrowBook(
             @PathVariable("bookId") long bookId,
             @PathVariable("patronId") long patronId) {
@@ -35,12 +42,16 @@ public class BorrowingRecordController {
         catch (BookNotAvailableException e) {
             return new ResponseEntity<>(e.getMessage(),HttpStatus.CONFLICT);
         }
+        catch (LoanLimitExceededException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.CONFLICT);
+        }
         catch (Exception e) {
             return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
     @PutMapping("/return/{bookId}/patron/{patronId}")
+    @Idempotent
     public ResponseEntity<?> returnBook(
             @PathVariable("bookId") long bookId,
             @PathVariable("patronId") long patronId) {
@@ -62,4 +73,67 @@ public class BorrowingRecordController {
         }
 
     }
+
+    // Borrow any free copy of a title, returned through the usual return endpoints
+    @PostMapping("/borrow/title/{bookId}/patron/{patronId}")
+    @Idempotent
+    public ResponseEntity<?> borrowCopy(
+            @PathVariable("bookId") long bookId,
+            @PathVariable("patronId") long patronId) {
+        try {
+            BorrowingRecordDTO borrowedCopy = borrowingRecordService.borrowCopy(bookId, patronId);
+            return new ResponseEntity<>(borrowedCopy, HttpStatus.CREATED);
+        }
+        catch (NotFoundException e){
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.NOT_FOUND);
+        }
+        catch (BookNotAvailableException | LoanLimitExceededException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.CONFLICT);
+        }
+        catch (Exception e) {
+            return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    // Borrow several books for one patron, each book gets its own result
+    @PostMapping("/borrow/patron/{patronId}")
+    @Idempotent
+    public ResponseEntity<?> borrowBooks(
+            @PathVariable("patronId") long patronId,
+            @RequestBody List<Long> bookIds) {
+        try {
+            List<LoanResultDTO> results = borrowingRecordService.borrowBooks(patronId, bookIds);
+            return new ResponseEntity<>(results, HttpStatus.OK);
+        }
+        catch (InvalidRequestException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.BAD_REQUEST);
+        }
+        catch (NotFoundException e){
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.NOT_FOUND);
+        }
+        catch (Exception e) {
+            return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    // Return several books for one patron, each book gets its own result
+    @PutMapping("/return/patron/{patronId}")
+    @Idempotent
+    public ResponseEntity<?> returnBooks(
+            @PathVariable("patronId") long patronId,
+            @RequestBody List<Long> bookIds) {
+        try {
+            List<LoanResultDTO> results = borrowingRecordService.returnBooks(patronId, bookIds);
+            return new ResponseEntity<>(results, HttpStatus.OK);
+        }
+        catch (InvalidRequestException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.BAD_REQUEST);
+        }
+        catch (NotFoundException e){
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.NOT_FOUND);
+        }
+        catch (Exception e) {
+            return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
 }
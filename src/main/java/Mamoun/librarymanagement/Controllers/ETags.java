@@ -0,0 +1,36 @@
+package Mamoun.librarymanagement.Controllers;
+
+// Strong entity tags built from an entity's @Version
+final class ETags {
+
+    private ETags() {
+    }
+
+    static String of(long version) {
+        return "\"" + version + "\"";
+    }
+
+    // If-None-Match compares weakly, so W/"3" matches version 3
+    static boolean noneMatchHits(String ifNoneMatch, long version) {
+        return matches(ifNoneMatch, version, true);
+    }
+
+    // If-Match compares strongly, a weak tag never matches
+    static boolean matchHits(String ifMatch, long version) {
+        return matches(ifMatch, version, false);
+    }
+
+    private static boolean matches(String header, long version, boolean weak) {
+        String tag = of(version);
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*"))
+                return true;
+            if (weak && candidate.startsWith("W/"))
+                candidate = candidate.substring(2);
+            if (candidate.equals(tag))
+                return true;
+        }
+        return false;
+    }
+}
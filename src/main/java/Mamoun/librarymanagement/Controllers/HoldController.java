@@ -0,0 +1,115 @@
+package Mamoun.librarymanagement.Controllers;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.DTO.HoldDTO;
+import Mamoun.librarymanagement.Exceptions.HoldConflictException;
+import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Idempotency.Idempotent;
+import Mamoun.librarymanagement.Services.HoldService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+@RestController
+@RequestMapping("/api/holds")
+public class HoldController {
+
+    private final HoldService holdService;
+    private final LibraryProperties libraryProperties;
+
+    @Autowired
+    public HoldController(HoldService holdService, LibraryProperties libraryProperties) {
+        this.holdService = holdService;
+        this.libraryProperties = libraryProperties;
+    }
+
+    // Queue a patron for a book that is out
+    @PostMapping("/book/{bookId}/patron/{patronId}")
+    @Idempotent
+    public ResponseEntity<?> placeHold(
+            @PathVariable("bookId") long bookId,
+            @PathVariable("patronId") long patronId) {
+        try {
+            HoldDTO hold = holdService.placeHold(bookId, patronId);
+            return new ResponseEntity<>(hold, HttpStatus.CREATED);
+        }
+        catch (NotFoundException e){
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.NOT_FOUND);
+        }
+        catch (HoldConflictException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.CONFLICT);
+        }
+        catch (Exception e) {
+            return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    // With waitSeconds the request is held open until the hold is fulfilled or cancelled, or the wait runs out,
+    // and answered with the hold as it is then. No request thread is held while waiting.
+    @GetMapping("/{holdId}")
+    public DeferredResult<ResponseEntity<?>> getHold(
+            @PathVariable("holdId") long holdId,
+            @RequestParam(value = "waitSeconds", defaultValue = "0") long waitSeconds) {
+        if (waitSeconds < 0) {
+            DeferredResult<ResponseEntity<?>> rejected = new DeferredResult<>();
+            rejected.setResult(new ResponseEntity<>("waitSeconds must not be negative, got: " + waitSeconds, HttpStatus.BAD_REQUEST));
+            return rejected;
+        }
+        // toMillis saturates, so a huge wait is capped instead of overflowing
+        long maxWait = libraryProperties.getHolds().getMaxWait().toMillis();
+        long timeout = Math.max(1, Math.min(maxWait, TimeUnit.SECONDS.toMillis(waitSeconds)));
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(timeout);
+        try {
+            CompletableFuture<HoldDTO> settled = waitSeconds > 0
+                    ? holdService.awaitHold(holdId)
+                    : CompletableFuture.completedFuture(holdService.getHold(holdId));
+            result.onTimeout(() -> result.setResult(current(holdId)));
+            settled.thenAccept(hold -> result.setResult(ResponseEntity.ok(hold)));
+        }
+        catch (NotFoundException e){
+            result.setResult(new ResponseEntity<>(e.getMessage(),HttpStatus.NOT_FOUND));
+        }
+        catch (Exception e) {
+            result.setResult(new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR));
+        }
+        return result;
+    }
+
+    @DeleteMapping("/{holdId}")
+    @Idempotent
+    public ResponseEntity<?> cancelHold(@PathVariable("holdId") long holdId) {
+        try {
+            return ResponseEntity.ok(holdService.cancelHold(holdId));
+        }
+        catch (NotFoundException e){
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.NOT_FOUND);
+        }
+        catch (HoldConflictException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.CONFLICT);
+        }
+        catch (Exception e) {
+            return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    // Still waiting when the wait ran out, answered with the current position in the queue
+    private ResponseEntity<?> current(long holdId) {
+        try {
+            return ResponseEntity.ok(holdService.getHold(holdId));
+        }
+        catch (NotFoundException e){
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.NOT_FOUND);
+        }
+    }
+}
@@ -1,10 +1,17 @@
 package Mamoun.librarymanagement.Controllers;
 
+import Mamoun.librarymanagement.DTO.BorrowingHistoryDTO;
+import Mamoun.librarymanagement.DTO.KeysetPageDTO;
 import Mamoun.librarymanagement.DTO.PatronDTO;
 import Mamoun.librarymanagement.Exceptions.DeleteException;
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
 import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Exceptions.PreconditionFailedException;
+import Mamoun.librarymanagement.Idempotency.Idempotent;
 import Mamoun.librarymanagement.Services.PatronService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -35,11 +42,18 @@ public class PatronController {
 
     }
 
+    // A matching If-None-Match is answered with 304 from the version alone
     @GetMapping("/{id}")
-    public ResponseEntity<?> getPatronById(@PathVariable Long id) {
+    public ResponseEntity<?> getPatronById(@PathVariable Long id,
+                                           @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
+            if (ifNoneMatch != null) {
+                long version = patronService.getPatronVersion(id);
+                if (ETags.noneMatchHits(ifNoneMatch, version))
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(ETags.of(version)).build();
+            }
             PatronDTO patron = patronService.getPatronById(id);
-            return ResponseEntity.ok(patron);
+            return ResponseEntity.ok().eTag(ETags.of(patron.getVersion())).body(patron);
         }
         catch (NotFoundException e ){
             return new ResponseEntity<>(e.getMessage(),HttpStatus.NOT_FOUND);
@@ -50,7 +64,30 @@ public class PatronController {
 
     }
 
+    // The patron's loans, newest first. Pass the nextCursor of the previous page to continue
+    @GetMapping("/{id}/borrowings")
+    public ResponseEntity<?> getBorrowings(
+            @PathVariable Long id,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size) {
+        try {
+            KeysetPageDTO<BorrowingHistoryDTO> borrowings = patronService.getBorrowings(id, cursor, size);
+            return ResponseEntity.ok(borrowings);
+        }
+        catch (NotFoundException e ){
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.NOT_FOUND);
+        }
+        catch (InvalidRequestException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.BAD_REQUEST);
+        }
+        catch (Exception e){
+            return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+    }
+
     @PostMapping
+    @Idempotent
     public ResponseEntity<?> addPatron(@RequestBody PatronDTO patronDTO) {
         try {
             PatronDTO addedPatron = patronService.addPatron(patronDTO);
@@ -66,17 +103,33 @@ public class PatronController {
 
     }
 
+    // With If-Match the update only applies if the patron is still at that version
     @PutMapping("/{id}")
-    public ResponseEntity<?> updatePatron(@PathVariable Long id, @RequestBody PatronDTO updatedPatronDTO) {
+    @Idempotent
+    public ResponseEntity<?> updatePatron(@PathVariable Long id, @RequestBody PatronDTO updatedPatronDTO,
+                                          @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         try {
-            PatronDTO updatedPatron = patronService.updatePatron(id, updatedPatronDTO);
-            return ResponseEntity.ok(updatedPatron);
+            Long expectedVersion = null;
+            if (ifMatch != null) {
+                long version = patronService.getPatronVersion(id);
+                if (!ETags.matchHits(ifMatch, version))
+                    return new ResponseEntity<>("Patron with id: " + id + " has changed, its current ETag is " + ETags.of(version), HttpStatus.PRECONDITION_FAILED);
+                expectedVersion = version;
+            }
+            PatronDTO updatedPatron = patronService.updatePatron(id, updatedPatronDTO, expectedVersion);
+            return ResponseEntity.ok().eTag(ETags.of(updatedPatron.getVersion())).body(updatedPatron);
         }catch (HttpClientErrorException.BadRequest e) {
             return new ResponseEntity<>(e.getMessage(),HttpStatus.BAD_REQUEST );
         }
         catch (NotFoundException e ){
             return new ResponseEntity<>(e.getMessage(),HttpStatus.NOT_FOUND);
         }
+        catch (PreconditionFailedException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.PRECONDITION_FAILED);
+        }
+        catch (OptimisticLockingFailureException e) {
+            return new ResponseEntity<>(e.getMessage(),HttpStatus.CONFLICT);
+        }
         catch (Exception e){
             return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
         }
@@ -85,6 +138,7 @@ public class PatronController {
     }
 
     @DeleteMapping("/{id}")
+    @Idempotent
     public ResponseEntity<?> deletePatron(@PathVariable Long id) {
         try {
             patronService.deletePatron(id);
@@ -0,0 +1,31 @@
+package Mamoun.librarymanagement.Controllers;
+
+import Mamoun.librarymanagement.Stats.InventoryCounters;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/stats")
+public class StatsController {
+
+    private final InventoryCounters inventoryCounters;
+
+    @Autowired
+    public StatsController(InventoryCounters inventoryCounters) {
+        this.inventoryCounters = inventoryCounters;
+    }
+
+    // Totals of books, loans and patrons, from memory
+    @GetMapping
+    public ResponseEntity<?> getStats() {
+        try {
+            return ResponseEntity.ok(inventoryCounters.snapshot());
+        } catch (Exception e){
+            return new ResponseEntity<>("Internal Server Error occurred while serving the request\nMessage: " + e.getMessage(),HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+}
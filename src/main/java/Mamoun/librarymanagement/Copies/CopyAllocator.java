@@ -0,0 +1,116 @@
+package Mamoun.librarymanagement.Copies;
+
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Repositories.BookCopyRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// Free copies of every title, each in a lock-free queue. Concurrent borrowers of the same title
+// take different copies off the queue, so their conditional updates never meet on one row and
+// no borrower waits for another's transaction. Copies only go back on a queue once they are
+// free in the database, and the database stays the authority: a copy whose conditional update
+// fails anyway is dropped. Loaded before the web server starts.
+@Component
+public class CopyAllocator implements SmartInitializingSingleton, MeterBinder {
+
+    public static final long NONE = -1;
+
+    private final BookCopyRepository bookCopyRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    private final ConcurrentHashMap<Long, ConcurrentLinkedQueue<Long>> freeCopies = new ConcurrentHashMap<>();
+    private final AtomicLong handedOut = new AtomicLong();
+    private final AtomicLong emptyPolls = new AtomicLong();
+
+    @Autowired
+    public CopyAllocator(BookCopyRepository bookCopyRepository, PlatformTransactionManager transactionManager) {
+        this.bookCopyRepository = bookCopyRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<BookCopyRepository.FreeCopy> copies = bookCopyRepository.streamFreeCopies()) {
+                copies.forEach(copy -> offer(copy.getBookId(), copy.getId()));
+            }
+        });
+    }
+
+    // A free copy of the title, NONE when there is none. Inside a transaction the copy goes back
+    // on the queue if it rolls back.
+    public long poll(long bookId) {
+        ConcurrentLinkedQueue<Long> queue = freeCopies.get(bookId);
+        Long copyId = queue == null ? null : queue.poll();
+        if (copyId == null) {
+            emptyPolls.incrementAndGet();
+            return NONE;
+        }
+        handedOut.incrementAndGet();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED)
+                        offer(bookId, copyId);
+                }
+            });
+        }
+        return copyId;
+    }
+
+    // Returned or new copies, only offered once they are free in the database
+    public void offerAfterCommit(long bookId, Collection<Long> copyIds) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            copyIds.forEach(copyId -> offer(bookId, copyId));
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                copyIds.forEach(copyId -> offer(bookId, copyId));
+            }
+        });
+    }
+
+    public int available(long bookId) {
+        ConcurrentLinkedQueue<Long> queue = freeCopies.get(bookId);
+        return queue == null ? 0 : queue.size();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBookChanged(BookChangedEvent event) {
+        if (event.getType() == BookChangedEvent.Type.DELETED)
+            event.getBookIds().forEach(freeCopies::remove);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("library.copies.handed.out", handedOut, AtomicLong::get)
+                .description("Copies taken off the free queues for a borrow")
+                .register(registry);
+        FunctionCounter.builder("library.copies.empty.polls", emptyPolls, AtomicLong::get)
+                .description("Borrows that found no free copy")
+                .register(registry);
+    }
+
+    private void offer(long bookId, long copyId) {
+        freeCopies.computeIfAbsent(bookId, id -> new ConcurrentLinkedQueue<>()).offer(copyId);
+    }
+}
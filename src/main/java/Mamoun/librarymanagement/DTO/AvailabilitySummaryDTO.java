@@ -0,0 +1,17 @@
+package Mamoun.librarymanagement.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// How many books the library has and how many of them are on the shelf
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class AvailabilitySummaryDTO {
+    private long total;
+    private long available;
+    private long borrowed;
+}
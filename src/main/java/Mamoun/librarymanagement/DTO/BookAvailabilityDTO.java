@@ -0,0 +1,15 @@
+package Mamoun.librarymanagement.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookAvailabilityDTO {
+    private long bookId;
+    private boolean available;
+}
@@ -0,0 +1,17 @@
+package Mamoun.librarymanagement.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// One physical copy of a title
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookCopyDTO {
+    private long id;
+    private long bookId;
+    private boolean borrowed;
+}
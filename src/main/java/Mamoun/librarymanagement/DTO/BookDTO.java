@@ -1,5 +1,6 @@
 package Mamoun.librarymanagement.DTO;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
@@ -24,4 +25,7 @@ public class BookDTO {
     private String isbn;
     @NonNull
     private boolean isBorrowed;
+    // Sent as the ETag header rather than in the body, a version in a request body is ignored
+    @JsonIgnore
+    private Long version;
 }
\ No newline at end of file
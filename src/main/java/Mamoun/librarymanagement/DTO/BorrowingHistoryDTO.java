@@ -0,0 +1,25 @@
+package Mamoun.librarymanagement.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDate;
+
+// One loan in a patron's history, read straight from the query without loading entities
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BorrowingHistoryDTO {
+    private long id;
+    private long bookId;
+    private long patronId;
+    private String bookTitle;
+    private LocalDate borrowingDate;
+    private LocalDate dueDate;
+    // Null while the book is still out
+    private LocalDate returnDate;
+    private boolean active;
+}
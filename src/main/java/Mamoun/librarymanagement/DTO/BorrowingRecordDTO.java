@@ -23,7 +23,13 @@ public class BorrowingRecordDTO {
     private long patronId;
     @NonNull
     private LocalDate borrowingDate;
-    @NonNull
+
+    private LocalDate dueDate;
+    // Null while the book is still out
     private LocalDate returnDate;
 
+    private boolean active;
+    // Null unless a copy of the title was lent
+    private Long copyId;
+
 }
@@ -0,0 +1,33 @@
+package Mamoun.librarymanagement.DTO;
+
+import Mamoun.librarymanagement.Entities.Hold;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder(toBuilder = true)
+public class HoldDTO {
+
+    private long id;
+
+    private long bookId;
+
+    private long patronId;
+
+    private LocalDateTime placedAt;
+
+    private Hold.Status status;
+    // 1 for the next patron in line, null once the hold stopped waiting
+    private Integer position;
+    // The loan the hold turned into, null until it is fulfilled
+    private Long loanId;
+
+}
@@ -0,0 +1,18 @@
+package Mamoun.librarymanagement.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class KeysetPageDTO<T> {
+    private List<T> content;
+    // Opaque token for the next page, null on the last page
+    private String nextCursor;
+}
@@ -0,0 +1,38 @@
+package Mamoun.librarymanagement.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// Outcome of one book in a batch borrow or return
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanResultDTO {
+
+    public enum Status {
+        BORROWED,
+        RETURNED,
+        NOT_FOUND,
+        NOT_AVAILABLE,
+        NO_ACTIVE_LOAN,
+        LOAN_LIMIT_REACHED
+    }
+
+    private long bookId;
+    private Status status;
+    // Why the book was skipped, null when it succeeded
+    private String message;
+    // The created or closed record, null when the book was skipped
+    private BorrowingRecordDTO record;
+
+    public static LoanResultDTO succeeded(long bookId, Status status, BorrowingRecordDTO record) {
+        return new LoanResultDTO(bookId, status, null, record);
+    }
+
+    public static LoanResultDTO failed(long bookId, Status status, String message) {
+        return new LoanResultDTO(bookId, status, message, null);
+    }
+}
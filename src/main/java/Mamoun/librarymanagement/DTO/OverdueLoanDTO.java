@@ -0,0 +1,24 @@
+package Mamoun.librarymanagement.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDate;
+
+// An open loan past its due date, with what a notice needs about the book and the patron
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class OverdueLoanDTO {
+    private long id;
+    private long bookId;
+    private long patronId;
+    private String bookTitle;
+    private String patronName;
+    private String patronContactInformation;
+    private LocalDate borrowingDate;
+    private LocalDate dueDate;
+}
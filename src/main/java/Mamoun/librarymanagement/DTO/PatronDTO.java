@@ -1,5 +1,6 @@
 package Mamoun.librarymanagement.DTO;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
@@ -19,5 +20,8 @@ public class PatronDTO {
     private String name;
     @NonNull
     private String contactInformation;
+    // Sent as the ETag header rather than in the body, a version in a request body is ignored
+    @JsonIgnore
+    private Long version;
 
 }
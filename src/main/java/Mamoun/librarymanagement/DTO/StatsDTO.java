@@ -0,0 +1,21 @@
+package Mamoun.librarymanagement.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// Inventory totals of the whole library, read from the maintained counters. Patrons are all the
+// registered ones, active patrons those holding at least one book.
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class StatsDTO {
+    private long totalBooks;
+    private long borrowedBooks;
+    private long availableBooks;
+    private long patrons;
+    private long activePatrons;
+    private long openLoans;
+}
@@ -4,6 +4,10 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import jakarta.persistence.Column;
 
 import lombok.AllArgsConstructor;
@@ -19,11 +23,12 @@ import lombok.Setter;
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
-
-
+// Valid ISBNs are stored in their 13 digit form, so the same book can't be added twice
+@Table(indexes = @Index(name = "idx_book_isbn", columnList = "isbn", unique = true))
 public class Book {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "book_seq")
+    @SequenceGenerator(name = "book_seq", sequenceName = "book_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false)
@@ -44,6 +49,10 @@ public class Book {
 
     private boolean isBorrowed;
 
+    // Bumped on every change, including borrowing and returning. It is the book's ETag
+    @Version
+    private Long version;
+
 }
 
 
@@ -0,0 +1,49 @@
+package Mamoun.librarymanagement.Entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+
+// One physical item of a title. A book row with copies is the title, borrowing it hands out any free copy.
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+// Finds a title's free copies without reading the borrowed ones
+@Table(indexes = @Index(name = "idx_book_copy_book_borrowed", columnList = "book_id, borrowed, id"))
+public class BookCopy {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "book_copy_seq")
+    @SequenceGenerator(name = "book_copy_seq", sequenceName = "book_copy_seq", allocationSize = 50)
+    private Long id;
+
+    // Deleting the title deletes its copies, a title with loans can't be deleted in the first place
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "book_id")
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private Book book;
+
+    @Column(nullable = false)
+
+    private boolean borrowed;
+
+}
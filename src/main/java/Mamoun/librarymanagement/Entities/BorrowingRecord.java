@@ -13,28 +13,57 @@ import java.time.LocalDate;
 @AllArgsConstructor
 @Builder
 @Entity
-
+// The active indexes keep open loans together, away from the returned history. The single
+// column ones back the foreign keys, the existence checks done before deleting a book or a patron
+// and a patron's borrowing history. The due date one lets the overdue scan walk only late loans.
+// The unique constraint allows a patron one open loan per book, returned loans leave it.
+@Table(
+        uniqueConstraints = @UniqueConstraint(name = "uk_borrowing_record_open_loan", columnNames = {"patron_id", "active_book_id"}),
+        indexes = {
+                @Index(name = "idx_borrowing_record_active_book", columnList = "active, book_id"),
+                @Index(name = "idx_borrowing_record_active_due", columnList = "active, due_date, id"),
+                @Index(name = "idx_borrowing_record_active_patron", columnList = "active, patron_id"),
+                @Index(name = "idx_borrowing_record_book", columnList = "book_id"),
+                @Index(name = "idx_borrowing_record_patron", columnList = "patron_id")
+        })
 public class BorrowingRecord {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "borrowing_record_seq")
+    @SequenceGenerator(name = "borrowing_record_seq", sequenceName = "borrowing_record_seq", allocationSize = 50)
     private long id;
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     private Book book;
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     private Patron patron;
 
     @Column(nullable = false)
 
     private LocalDate borrowingDate;
+    // Null for loans made before due dates existed, those never become overdue
+    private LocalDate dueDate;
+    // Null while the book is still out
+    private LocalDate returnDate;
     @Column(nullable = false)
 
-    private LocalDate returnDate;
+    private boolean active;
+    // The copy handed out when a title with copies was borrowed, null when the book row itself was lent
+    @ManyToOne(fetch = FetchType.LAZY)
+    private BookCopy copy;
+    // The book while the loan is open, null once it is returned. Only backs the open loan constraint.
+    private Long activeBookId;
 
     public BorrowingRecord(Book book, Patron patron, LocalDate borrowingDate, LocalDate returnDate) {
+        this(book, patron, borrowingDate, null, returnDate);
+    }
+
+    public BorrowingRecord(Book book, Patron patron, LocalDate borrowingDate, LocalDate dueDate, LocalDate returnDate) {
         this.book = book;
         this.patron = patron;
         this.borrowingDate = borrowingDate;
+        this.dueDate = dueDate;
         this.returnDate = returnDate;
+        this.active = returnDate == null;
+        this.activeBookId = active && book != null ? book.getId() : null;
     }
 
 }
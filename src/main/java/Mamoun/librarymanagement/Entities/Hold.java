@@ -0,0 +1,75 @@
+package Mamoun.librarymanagement.Entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+// A patron's place in the queue for a borrowed title. Returns hand the book to the oldest waiting hold.
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+// The book one keeps each title's waiting holds in queue order, the patron one backs the duplicate check
+@Table(name = "book_hold", indexes = {
+        @Index(name = "idx_book_hold_book_status", columnList = "book_id, status, id"),
+        @Index(name = "idx_book_hold_patron_status", columnList = "patron_id, status")
+})
+public class Hold {
+
+    public enum Status {
+        WAITING,
+        FULFILLED,
+        CANCELLED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "book_hold_seq")
+    @SequenceGenerator(name = "book_hold_seq", sequenceName = "book_hold_seq", allocationSize = 50)
+    private Long id;
+
+    // Holds go with their book or patron
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "book_id")
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private Book book;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "patron_id")
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private Patron patron;
+
+    @Column(nullable = false)
+
+    private LocalDateTime placedAt;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Status status;
+
+    // The loan a fulfilled hold turned into
+    @ManyToOne(fetch = FetchType.LAZY)
+    private BorrowingRecord loan;
+
+}
@@ -16,7 +16,8 @@ import org.aspectj.lang.annotation.RequiredTypes;
 @Builder
 public class Patron {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "patron_seq")
+    @SequenceGenerator(name = "patron_seq", sequenceName = "patron_seq", allocationSize = 50)
     private Long id;
     @Column(nullable = false)
 
@@ -24,4 +25,8 @@ public class Patron {
     @Column(nullable = false)
 
     private String contactInformation;
+
+    // Bumped on every change, it is the patron's ETag
+    @Version
+    private Long version;
 }
@@ -0,0 +1,60 @@
+package Mamoun.librarymanagement.Events;
+
+import Mamoun.librarymanagement.DTO.BookDTO;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+// Published by the services whenever books are written. Listeners that keep
+// derived state (caches, indexes) react after the transaction commits.
+@Getter
+@AllArgsConstructor
+public class BookChangedEvent {
+
+    public enum Type {
+        ADDED,
+        UPDATED,
+        DELETED,
+        BORROWED,
+        RETURNED
+    }
+
+    private final Type type;
+    private final List<Long> bookIds;
+    // State of the books after the change, empty when only the ids are known
+    private final List<BookDTO> books;
+    // Patron who borrowed or returned the books, null for catalog changes
+    private final Long patronId;
+    // Copies lent or returned, one per book id. Empty when the book rows themselves were, only those
+    // change a title's borrowed flag. A title stocked as copies goes out or back in an UPDATED event.
+    private final List<Long> copyIds;
+
+    public static BookChangedEvent of(Type type, List<BookDTO> books) {
+        return new BookChangedEvent(type, books.stream().map(BookDTO::getId).toList(), books, null, List.of());
+    }
+
+    public static BookChangedEvent of(Type type, BookDTO book) {
+        return of(type, List.of(book));
+    }
+
+    public static BookChangedEvent ofId(Type type, long bookId) {
+        return ofIds(type, List.of(bookId));
+    }
+
+    public static BookChangedEvent ofIds(Type type, List<Long> bookIds) {
+        return new BookChangedEvent(type, bookIds, List.of(), null, List.of());
+    }
+
+    public static BookChangedEvent ofLoan(Type type, List<Long> bookIds, long patronId) {
+        return new BookChangedEvent(type, bookIds, List.of(), patronId, List.of());
+    }
+
+    public static BookChangedEvent ofCopyLoans(Type type, List<Long> bookIds, List<Long> copyIds, long patronId) {
+        return new BookChangedEvent(type, bookIds, List.of(), patronId, copyIds);
+    }
+
+    public boolean isCopyLoan() {
+        return !copyIds.isEmpty();
+    }
+}
@@ -0,0 +1,11 @@
+package Mamoun.librarymanagement.Exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.CONFLICT)
+public class DuplicateIsbnException extends RuntimeException {
+    public DuplicateIsbnException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package Mamoun.librarymanagement.Exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.CONFLICT)
+public class HoldConflictException extends RuntimeException {
+    public HoldConflictException(String message) {
+        super(message);
+    }
+}
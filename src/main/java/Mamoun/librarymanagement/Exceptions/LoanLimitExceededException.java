@@ -0,0 +1,11 @@
+package Mamoun.librarymanagement.Exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.CONFLICT)
+public class LoanLimitExceededException extends RuntimeException {
+    public LoanLimitExceededException(String message) {
+        super(message);
+    }
+}
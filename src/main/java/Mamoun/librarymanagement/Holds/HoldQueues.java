@@ -0,0 +1,186 @@
+package Mamoun.librarymanagement.Holds;
+
+import Mamoun.librarymanagement.Entities.Hold;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Repositories.HoldRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// The waiting holds of every title in queue order, so a return finds the next patron without a query
+// and clients can wait for their hold instead of polling. Holds are added and taken out with the
+// title's book row locked, which orders them the same way as in the database. The database stays
+// the authority: a hold that turns out not to be waiting there anymore is dropped. Loaded before
+// the web server starts.
+@Component
+public class HoldQueues implements SmartInitializingSingleton, MeterBinder {
+
+    // How a hold stopped waiting
+    public record Outcome(Hold.Status status, Long loanId) {
+    }
+
+    public static final class Waiting {
+        private final long holdId;
+        private final long patronId;
+        private final CompletableFuture<Outcome> settled = new CompletableFuture<>();
+
+        Waiting(long holdId, long patronId) {
+            this.holdId = holdId;
+            this.patronId = patronId;
+        }
+
+        public long holdId() {
+            return holdId;
+        }
+
+        public long patronId() {
+            return patronId;
+        }
+    }
+
+    private final HoldRepository holdRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    private final ConcurrentHashMap<Long, ConcurrentLinkedDeque<Waiting>> queues = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Waiting> byHoldId = new ConcurrentHashMap<>();
+    private final AtomicLong fulfilled = new AtomicLong();
+
+    @Autowired
+    public HoldQueues(HoldRepository holdRepository, PlatformTransactionManager transactionManager) {
+        this.holdRepository = holdRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<HoldRepository.WaitingHold> holds = holdRepository.streamByStatus(Hold.Status.WAITING)) {
+                holds.forEach(hold -> append(hold.getBookId(), new Waiting(hold.getId(), hold.getPatronId())));
+            }
+        });
+    }
+
+    // Queued straight away so a return waiting for the book lock sees it once the hold commits,
+    // taken out again if the transaction rolls back
+    public void add(long bookId, long holdId, long patronId) {
+        Waiting waiting = new Waiting(holdId, patronId);
+        append(bookId, waiting);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED)
+                        settle(bookId, waiting, new Outcome(Hold.Status.CANCELLED, null));
+                }
+            });
+        }
+    }
+
+    // Oldest first. Weakly consistent, holds added or settled meanwhile may or may not show up.
+    public Iterable<Waiting> waiting(long bookId) {
+        ConcurrentLinkedDeque<Waiting> queue = queues.get(bookId);
+        return queue == null ? List.of() : queue;
+    }
+
+    // 1 for the next in line, 0 when the hold isn't waiting
+    public int position(long bookId, long holdId) {
+        int position = 0;
+        for (Waiting waiting : waiting(bookId)) {
+            position++;
+            if (waiting.holdId == holdId)
+                return position;
+        }
+        return 0;
+    }
+
+    public int waitingCount(long bookId) {
+        ConcurrentLinkedDeque<Waiting> queue = queues.get(bookId);
+        return queue == null ? 0 : queue.size();
+    }
+
+    // Completes once the hold stops waiting, straight away when it isn't waiting now
+    public CompletableFuture<Outcome> settled(long holdId) {
+        Waiting waiting = byHoldId.get(holdId);
+        return waiting == null ? CompletableFuture.completedFuture(null) : waiting.settled;
+    }
+
+    // Inside a transaction the hold leaves the queue and its waiters hear about it once it commits
+    public void settleAfterCommit(long bookId, long holdId, Outcome outcome) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            settle(bookId, holdId, outcome);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                settle(bookId, holdId, outcome);
+            }
+        });
+    }
+
+    // For a hold the database no longer has waiting, no need to wait for a commit
+    public void drop(long bookId, Waiting waiting) {
+        settle(bookId, waiting, new Outcome(Hold.Status.CANCELLED, null));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBookChanged(BookChangedEvent event) {
+        if (event.getType() != BookChangedEvent.Type.DELETED)
+            return;
+        for (Long bookId : event.getBookIds()) {
+            ConcurrentLinkedDeque<Waiting> queue = queues.remove(bookId);
+            if (queue != null)
+                queue.forEach(waiting -> settle(bookId, waiting, new Outcome(Hold.Status.CANCELLED, null)));
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("library.holds.waiting", byHoldId, ConcurrentHashMap::size)
+                .description("Holds waiting for a book to come back")
+                .register(registry);
+        FunctionCounter.builder("library.holds.fulfilled", fulfilled, AtomicLong::get)
+                .description("Holds handed a returned book or a new copy")
+                .register(registry);
+    }
+
+    private void append(long bookId, Waiting waiting) {
+        byHoldId.put(waiting.holdId, waiting);
+        queues.computeIfAbsent(bookId, id -> new ConcurrentLinkedDeque<>()).offerLast(waiting);
+    }
+
+    private void settle(long bookId, long holdId, Outcome outcome) {
+        Waiting waiting = byHoldId.get(holdId);
+        if (waiting != null)
+            settle(bookId, waiting, outcome);
+    }
+
+    private void settle(long bookId, Waiting waiting, Outcome outcome) {
+        if (!byHoldId.remove(waiting.holdId, waiting))
+            return;
+        // An emptied queue stays for the title's next hold rather than racing a concurrent add
+        ConcurrentLinkedDeque<Waiting> queue = queues.get(bookId);
+        if (queue != null)
+            queue.remove(waiting);
+        if (outcome.status() == Hold.Status.FULFILLED)
+            fulfilled.incrementAndGet();
+        waiting.settled.complete(outcome);
+    }
+}
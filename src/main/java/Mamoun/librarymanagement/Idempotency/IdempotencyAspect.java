@@ -0,0 +1,74 @@
+package Mamoun.librarymanagement.Idempotency;
+
+import Mamoun.librarymanagement.Admission.ClientIdentity;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.lang.annotation.Annotation;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+// Runs @Idempotent endpoints through the idempotency store when the request carries an Idempotency-Key.
+// Requests without one run as before. Keys are scoped to the client admission control resolves, so one
+// client can't replay another's response.
+@Aspect
+@Component
+public class IdempotencyAspect {
+
+    public static final String HEADER = "Idempotency-Key";
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final IdempotencyStore idempotencyStore;
+    private final ClientIdentity clientIdentity;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public IdempotencyAspect(IdempotencyStore idempotencyStore, ClientIdentity clientIdentity, ObjectMapper objectMapper) {
+        this.idempotencyStore = idempotencyStore;
+        this.clientIdentity = clientIdentity;
+        this.objectMapper = objectMapper;
+    }
+
+    @Around("@annotation(Mamoun.librarymanagement.Idempotency.Idempotent)")
+    public Object deduplicate(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes))
+            return joinPoint.proceed();
+        HttpServletRequest request = attributes.getRequest();
+        String idempotencyKey = request.getHeader(HEADER);
+        if (idempotencyKey == null)
+            return joinPoint.proceed();
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH)
+            return new ResponseEntity<>(HEADER + " must be between 1 and " + MAX_KEY_LENGTH + " characters", HttpStatus.BAD_REQUEST);
+
+        String path = request.getQueryString() == null ? request.getRequestURI() : request.getRequestURI() + "?" + request.getQueryString();
+        IdempotencyStore.Key key = new IdempotencyStore.Key(clientIdentity.resolve(request), request.getMethod(), path, idempotencyKey);
+        return idempotencyStore.execute(key, fingerprint(joinPoint), () -> (ResponseEntity<?>) joinPoint.proceed());
+    }
+
+    // SHA-256 of the @RequestBody arguments as JSON, empty for endpoints without a body
+    private String fingerprint(ProceedingJoinPoint joinPoint) throws Exception {
+        Annotation[][] annotations = ((MethodSignature) joinPoint.getSignature()).getMethod().getParameterAnnotations();
+        Object[] args = joinPoint.getArgs();
+        List<Object> bodies = new ArrayList<>();
+        for (int i = 0; i < args.length; i++)
+            for (Annotation annotation : annotations[i])
+                if (annotation instanceof RequestBody)
+                    bodies.add(args[i]);
+        if (bodies.isEmpty())
+            return "";
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(bodies)));
+    }
+}
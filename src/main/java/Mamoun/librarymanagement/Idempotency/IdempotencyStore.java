@@ -0,0 +1,93 @@
+package Mamoun.librarymanagement.Idempotency;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Responses of requests sent with an Idempotency-Key, so a retried borrow or return gets the original
+// response instead of running again. Bounded in size and dropped a fixed time after they were stored.
+// The first request for a key runs, duplicates arriving meanwhile wait for its response. Server errors
+// and exceptions are not kept, so retrying those runs the request again. Kept per instance, in memory.
+// Each entry remembers a fingerprint of the request body, reusing a key with a different body gets 422.
+@Component
+public class IdempotencyStore implements MeterBinder {
+
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    // The same key sent by another client or to another endpoint is a different request
+    public record Key(String clientId, String method, String path, String idempotencyKey) {
+    }
+
+    private record Entry(String fingerprint, CompletableFuture<ResponseEntity<?>> response) {
+    }
+
+    public interface Call {
+        ResponseEntity<?> proceed() throws Throwable;
+    }
+
+    private final Cache<Key, Entry> responses;
+    private final AtomicLong replays = new AtomicLong();
+
+    @Autowired
+    public IdempotencyStore(LibraryProperties libraryProperties) {
+        LibraryProperties.Idempotency idempotency = libraryProperties.getIdempotency();
+        this.responses = Caffeine.newBuilder()
+                .maximumSize(idempotency.getMaxKeys())
+                .expireAfterWrite(idempotency.getTtl())
+                .recordStats()
+                .build();
+    }
+
+    public ResponseEntity<?> execute(Key key, String fingerprint, Call call) throws Throwable {
+        Entry mine = new Entry(fingerprint, new CompletableFuture<>());
+        Entry first = responses.asMap().putIfAbsent(key, mine);
+        if (first != null) {
+            if (!first.fingerprint().equals(fingerprint))
+                return ResponseEntity.unprocessableEntity().body(
+                        IdempotencyAspect.HEADER + " was already used with a different request body");
+            replays.incrementAndGet();
+            try {
+                return replayed(first.response().join());
+            } catch (CompletionException e) {
+                throw e.getCause();
+            }
+        }
+        try {
+            ResponseEntity<?> response = call.proceed();
+            if (response.getStatusCode().is5xxServerError())
+                responses.asMap().remove(key, mine);
+            mine.response().complete(response);
+            return response;
+        } catch (Throwable e) {
+            responses.asMap().remove(key, mine);
+            mine.response().completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, responses, "idempotency.responses");
+        FunctionCounter.builder("library.idempotency.replays", replays, AtomicLong::get)
+                .description("Requests answered with the response stored for their Idempotency-Key")
+                .register(registry);
+    }
+
+    private static ResponseEntity<?> replayed(ResponseEntity<?> response) {
+        return ResponseEntity.status(response.getStatusCode())
+                .headers(response.getHeaders())
+                .header(REPLAYED_HEADER, "true")
+                .body(response.getBody());
+    }
+}
@@ -0,0 +1,12 @@
+package Mamoun.librarymanagement.Idempotency;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Marks a mutating endpoint that honours the Idempotency-Key header. The method must return a ResponseEntity.
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Idempotent {
+}
@@ -0,0 +1,327 @@
+package Mamoun.librarymanagement.Journal;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+// Append-only log of every committed book change, so audit and analytics readers can replay
+// history without querying the live tables. Committed changes are queued by the request
+// thread and written to memory-mapped segment files by a single writer thread, which rolls
+// to a new segment when the current one is full and forces the pages to disk periodically.
+// Only the segment being written stays mapped. With library.journal.max-segments set the
+// oldest segments are deleted as new ones are rolled, and their events can't be read any more.
+@Component
+@ConditionalOnProperty(prefix = "library.journal", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class EventJournal implements MeterBinder, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(EventJournal.class);
+    private static final String LOCK_FILE = "journal.lock";
+    // Queued by close() so the writer stops once everything before it is written
+    private static final Pending CLOSE = new Pending(0, null, 0, 0);
+
+    private final Path directory;
+    private final long segmentSize;
+    private final long flushIntervalNanos;
+    private final int maxSegments;
+    private final BlockingQueue<Pending> queue;
+    private final FileChannel lockChannel;
+    private final FileLock directoryLock;
+    // Keyed by first sequence, so the segment holding a sequence is its floor entry
+    private final ConcurrentSkipListMap<Long, JournalSegment> segments = new ConcurrentSkipListMap<>();
+    private final Thread writer;
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Last sequence readers may see. Only the writer thread moves it.
+    private volatile long committedSequence;
+    private volatile boolean running = true;
+    private volatile boolean failed;
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final Condition committed = commitLock.newCondition();
+
+    @Autowired
+    public EventJournal(LibraryProperties libraryProperties) {
+        LibraryProperties.Journal journal = libraryProperties.getJournal();
+        this.directory = Path.of(journal.getDirectory()).toAbsolutePath();
+        this.segmentSize = journal.getSegmentSize().toBytes();
+        this.flushIntervalNanos = journal.getFlushInterval().toNanos();
+        this.maxSegments = journal.getMaxSegments();
+        if (segmentSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("library.journal.segment-size must be below 2GB, got " + journal.getSegmentSize());
+        this.queue = new ArrayBlockingQueue<>(journal.getQueueCapacity());
+        try {
+            Files.createDirectories(directory);
+            this.lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            this.directoryLock = lock(lockChannel);
+            try {
+                recover();
+            } catch (IOException | RuntimeException e) {
+                for (JournalSegment segment : segments.values())
+                    segment.close();
+                lockChannel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the journal in " + directory, e);
+        }
+        this.writer = Thread.ofPlatform().name("event-journal-writer").daemon().unstarted(this::writeLoop);
+        this.writer.start();
+    }
+
+    // Runs on the thread that committed the change. Blocks when the writer falls a whole
+    // queue behind, so a burst slows requests down instead of losing events.
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBookChanged(BookChangedEvent event) {
+        long timestamp = System.currentTimeMillis();
+        long patronId = event.getPatronId() == null ? 0 : event.getPatronId();
+        for (Long bookId : event.getBookIds()) {
+            if (failed || !running) {
+                dropped.incrementAndGet();
+                continue;
+            }
+            try {
+                queue.put(new Pending(timestamp, event.getType(), bookId, patronId));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    public long lastSequence() {
+        return committedSequence;
+    }
+
+    // Oldest sequence still kept, later than 1 once retention has deleted segments
+    public long firstSequence() {
+        return segments.firstKey();
+    }
+
+    // Up to limit events starting at fromSequence, fewer when the journal ends first. Events whose
+    // segment was deleted are skipped, the list starts at the oldest one still kept.
+    public List<JournalEvent> read(long fromSequence, int limit) {
+        if (fromSequence < 1)
+            throw new IllegalArgumentException("Journal sequences start at 1, got " + fromSequence);
+        long last = Math.min(committedSequence, fromSequence + limit - 1);
+        List<JournalEvent> events = new ArrayList<>((int) Math.max(0, last - fromSequence + 1));
+        long sequence = fromSequence;
+        while (sequence <= last) {
+            Map.Entry<Long, JournalSegment> entry = segments.floorEntry(sequence);
+            if (entry == null) {
+                Long kept = segments.ceilingKey(sequence);
+                if (kept == null)
+                    break;
+                sequence = kept;
+                continue;
+            }
+            JournalSegment segment = entry.getValue();
+            long segmentLast = Math.min(last, segment.nextSequence() - 1);
+            if (segmentLast < sequence)
+                break;
+            try {
+                segment.read(sequence, segmentLast, events);
+            } catch (IOException e) {
+                // Deleted by retention since it was looked up, the next lookup moves past it
+                if (segments.get(entry.getKey()) != segment)
+                    continue;
+                throw new UncheckedIOException("Could not read journal segment " + segment.file(), e);
+            }
+            sequence = segmentLast + 1;
+        }
+        return events;
+    }
+
+    // Waits until sequence has been written, for readers tailing the journal.
+    // Returns false when the timeout passes first.
+    public boolean awaitSequence(long sequence, Duration timeout) throws InterruptedException {
+        if (committedSequence >= sequence)
+            return true;
+        long remaining = timeout.toNanos();
+        commitLock.lock();
+        try {
+            while (committedSequence < sequence) {
+                if (remaining <= 0)
+                    return false;
+                remaining = committed.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    // Drains what is already queued, forces it to disk and releases the directory
+    @Override
+    public void close() throws IOException {
+        if (!running)
+            return;
+        running = false;
+        try {
+            if (writer.isAlive())
+                queue.put(CLOSE);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dropped.addAndGet(queue.size());
+        for (JournalSegment segment : segments.values())
+            segment.close();
+        directoryLock.release();
+        lockChannel.close();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("library.journal.events", this, EventJournal::lastSequence)
+                .description("Events written to the journal")
+                .register(registry);
+        FunctionCounter.builder("library.journal.dropped", dropped, AtomicLong::get)
+                .description("Events that could not be queued for the journal")
+                .register(registry);
+        Gauge.builder("library.journal.queue", queue, BlockingQueue::size)
+                .description("Events waiting for the journal writer")
+                .register(registry);
+        Gauge.builder("library.journal.segments", segments, Map::size)
+                .register(registry);
+    }
+
+    // A second writer on the same files would interleave sequences, in this process or another
+    private FileLock lock(FileChannel channel) throws IOException {
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IllegalStateException("Journal directory " + directory + " is already in use");
+        }
+        return lock;
+    }
+
+    // Opens every segment in the directory. Only the last one can end in a torn record,
+    // appends carry on right after its last valid one. The others are sealed once counted.
+    private void recover() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(f -> f.getFileName().toString().endsWith(".journal")).sorted().toList()) {
+                JournalSegment segment = JournalSegment.open(file);
+                JournalSegment previous = segments.isEmpty() ? null : segments.lastEntry().getValue();
+                segments.put(segment.firstSequence(), segment);
+                if (previous != null)
+                    previous.seal();
+            }
+        }
+        if (segments.isEmpty())
+            segments.put(1L, JournalSegment.create(directory, 1, segmentSize));
+        committedSequence = segments.lastEntry().getValue().nextSequence() - 1;
+        retain();
+    }
+
+    private void writeLoop() {
+        ArrayDeque<Pending> batch = new ArrayDeque<>();
+        long lastForce = System.nanoTime();
+        boolean dirty = false;
+        try {
+            while (true) {
+                Pending first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    boolean closing = false;
+                    while (!batch.isEmpty()) {
+                        if (batch.peekFirst() == CLOSE) {
+                            closing = true;
+                            break;
+                        }
+                        append(batch.peekFirst());
+                        batch.pollFirst();
+                    }
+                    batch.clear();
+                    publish(segments.lastEntry().getValue().nextSequence() - 1);
+                    if (closing)
+                        return;
+                    dirty = true;
+                }
+                if (dirty && System.nanoTime() - lastForce >= flushIntervalNanos) {
+                    segments.lastEntry().getValue().force();
+                    lastForce = System.nanoTime();
+                    dirty = false;
+                }
+            }
+        } catch (InterruptedException e) {
+            failed = true;
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            dropped.addAndGet(batch.size() + queue.size());
+            queue.clear();
+            log.error("Event journal writer stopped, later changes are not journaled", e);
+        }
+    }
+
+    private void append(Pending pending) throws IOException {
+        JournalSegment current = segments.lastEntry().getValue();
+        if (current.append(pending.timestamp(), pending.type(), pending.bookId(), pending.patronId()))
+            return;
+        // Readers still on the full segment keep the buffer they read from
+        long nextSequence = current.nextSequence();
+        current.seal();
+        publish(nextSequence - 1);
+        JournalSegment next = JournalSegment.create(directory, nextSequence, segmentSize);
+        segments.put(nextSequence, next);
+        next.append(pending.timestamp(), pending.type(), pending.bookId(), pending.patronId());
+        retain();
+    }
+
+    // Deletes the oldest segments beyond max-segments, never the one being written
+    private void retain() throws IOException {
+        while (maxSegments > 0 && segments.size() > maxSegments) {
+            Map.Entry<Long, JournalSegment> oldest = segments.pollFirstEntry();
+            oldest.getValue().delete();
+            log.info("Deleted journal segment {}, the journal now starts at sequence {}", oldest.getValue().file(), segments.firstKey());
+        }
+    }
+
+    private void publish(long sequence) {
+        committedSequence = sequence;
+        commitLock.lock();
+        try {
+            committed.signalAll();
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    private record Pending(long timestamp, BookChangedEvent.Type type, long bookId, long patronId) {
+    }
+}
@@ -0,0 +1,8 @@
+package Mamoun.librarymanagement.Journal;
+
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+
+// One book changing, as stored in the journal. A batch or bulk change is written as one
+// event per book, sharing the timestamp. patronId is 0 for catalog changes.
+public record JournalEvent(long sequence, long timestamp, BookChangedEvent.Type type, long bookId, long patronId) {
+}
@@ -0,0 +1,205 @@
+package Mamoun.librarymanagement.Journal;
+
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+// One memory-mapped journal file. A 16 byte header (magic, format version, first sequence)
+// is followed by fixed 40 byte records:
+//   sequence(8) timestamp(8) bookId(8) patronId(8) type(1) padding(3) crc32c(4)
+// Only the writer thread appends. Readers use absolute reads on the shared buffer and never
+// look past the sequence the writer has published, so they see fully written records.
+// Once the journal rolls past it a segment is sealed: its file is closed and the mapping
+// dropped, readers of old history map it read-only for as long as they read it.
+final class JournalSegment implements AutoCloseable {
+
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 40;
+    private static final int MAGIC = 0x4C4A4E4C;
+    private static final int FORMAT_VERSION = 1;
+    private static final int CHECKED_SIZE = 36;
+    // Index is the type code on disk, so new types may only be added at the end
+    private static final BookChangedEvent.Type[] TYPES = {
+            BookChangedEvent.Type.ADDED,
+            BookChangedEvent.Type.UPDATED,
+            BookChangedEvent.Type.DELETED,
+            BookChangedEvent.Type.BORROWED,
+            BookChangedEvent.Type.RETURNED
+    };
+
+    private final Path file;
+    private final long firstSequence;
+    private final int capacity;
+    private final CRC32C crc = new CRC32C();
+    // Written by the writer thread, read by others only after the journal publishes a sequence
+    private volatile int count;
+    // Null once sealed. Readers keep the buffer they got, so it stays valid while they read.
+    private volatile MappedByteBuffer buffer;
+    private FileChannel channel;
+
+    private JournalSegment(Path file, FileChannel channel, MappedByteBuffer buffer, long firstSequence, int count) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.firstSequence = firstSequence;
+        this.capacity = (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE;
+        this.count = count;
+    }
+
+    static Path fileName(Path directory, long firstSequence) {
+        return directory.resolve(String.format("%020d.journal", firstSequence));
+    }
+
+    static JournalSegment create(Path directory, long firstSequence, long size) throws IOException {
+        if (size < HEADER_SIZE + RECORD_SIZE)
+            throw new IllegalArgumentException("Journal segments must hold at least one record, got " + size + " bytes");
+        Path file = fileName(directory, firstSequence);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, FORMAT_VERSION);
+            buffer.putLong(8, firstSequence);
+            return new JournalSegment(file, channel, buffer, firstSequence, 0);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Maps an existing segment and counts the records that survived. A record torn by a crash
+    // fails its checksum, so it and everything after it are treated as never written.
+    static JournalSegment open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+                throw new IOException(file + " is not a journal segment");
+            if (buffer.getInt(4) != FORMAT_VERSION)
+                throw new IOException(file + " has unsupported journal format " + buffer.getInt(4));
+            long firstSequence = buffer.getLong(8);
+            JournalSegment segment = new JournalSegment(file, channel, buffer, firstSequence, 0);
+            int valid = 0;
+            while (valid < segment.capacity && segment.isValid(valid))
+                valid++;
+            segment.count = valid;
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Returns false when the segment is full and the journal has to roll
+    boolean append(long timestamp, BookChangedEvent.Type type, long bookId, long patronId) {
+        int index = count;
+        if (index == capacity)
+            return false;
+        int offset = offset(index);
+        buffer.putLong(offset, firstSequence + index);
+        buffer.putLong(offset + 8, timestamp);
+        buffer.putLong(offset + 16, bookId);
+        buffer.putLong(offset + 24, patronId);
+        buffer.put(offset + 32, code(type));
+        buffer.put(offset + 33, (byte) 0);
+        buffer.putShort(offset + 34, (short) 0);
+        buffer.putInt(offset + CHECKED_SIZE, checksum(offset));
+        count = index + 1;
+        return true;
+    }
+
+    // Adds the events from..to inclusive, all of them in this segment
+    void read(long from, long to, List<JournalEvent> into) throws IOException {
+        MappedByteBuffer records = buffer;
+        if (records == null)
+            records = mapForReading();
+        for (long sequence = from; sequence <= to; sequence++) {
+            int offset = offset((int) (sequence - firstSequence));
+            into.add(new JournalEvent(
+                    records.getLong(offset),
+                    records.getLong(offset + 8),
+                    TYPES[records.get(offset + 32)],
+                    records.getLong(offset + 16),
+                    records.getLong(offset + 24)));
+        }
+    }
+
+    void force() {
+        MappedByteBuffer records = buffer;
+        if (records != null)
+            records.force();
+    }
+
+    // Forces the records to disk and lets go of the file. The mapping goes once no reader holds it.
+    void seal() throws IOException {
+        if (channel == null)
+            return;
+        buffer.force();
+        buffer = null;
+        channel.close();
+        channel = null;
+    }
+
+    // Drops the segment from disk, readers that mapped it before keep their copy
+    void delete() throws IOException {
+        seal();
+        Files.deleteIfExists(file);
+    }
+
+    long firstSequence() {
+        return firstSequence;
+    }
+
+    // Sequence the next append gets
+    long nextSequence() {
+        return firstSequence + count;
+    }
+
+    Path file() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        seal();
+    }
+
+    // The mapping outlives the channel, it is unmapped once the reader drops it
+    private MappedByteBuffer mapForReading() throws IOException {
+        try (FileChannel readChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readChannel.map(FileChannel.MapMode.READ_ONLY, 0, readChannel.size());
+        }
+    }
+
+    private boolean isValid(int index) {
+        int offset = offset(index);
+        byte type = buffer.get(offset + 32);
+        return buffer.getLong(offset) == firstSequence + index
+                && type >= 0 && type < TYPES.length
+                && buffer.getInt(offset + CHECKED_SIZE) == checksum(offset);
+    }
+
+    private int checksum(int offset) {
+        crc.reset();
+        crc.update(buffer.slice(offset, CHECKED_SIZE));
+        return (int) crc.getValue();
+    }
+
+    private static byte code(BookChangedEvent.Type type) {
+        for (byte code = 0; code < TYPES.length; code++)
+            if (TYPES[code] == type)
+                return code;
+        throw new IllegalArgumentException("No journal code for " + type);
+    }
+
+    private static int offset(int index) {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+}
@@ -9,13 +9,13 @@ public class BookMapper{
 
     public  BookDTO toBookDTO(Book book){
         return new BookDTO(
-                book.getId(), book.getTitle(),book.getAuthor() ,book.getPublicationYear(),book.getIsbn(), book.isBorrowed()
+                book.getId(), book.getTitle(),book.getAuthor() ,book.getPublicationYear(),book.getIsbn(), book.isBorrowed(), book.getVersion()
         );
     }
 
     public  Book toBook(BookDTO bookDTO){
         return new Book(
-                bookDTO.getId(), bookDTO.getTitle(),bookDTO.getAuthor() ,bookDTO.getPublicationYear(),bookDTO.getIsbn(),bookDTO.isBorrowed()
+                bookDTO.getId(), bookDTO.getTitle(),bookDTO.getAuthor() ,bookDTO.getPublicationYear(),bookDTO.getIsbn(),bookDTO.isBorrowed(), bookDTO.getVersion()
         );
     }
 }
@@ -12,12 +12,14 @@ public class BorrowingRecordMapper {
 
         return new BorrowingRecord(
                 borrowingRecordDTO.getId(),book,patron,
-                borrowingRecordDTO.getBorrowingDate(),borrowingRecordDTO.getReturnDate());
+                borrowingRecordDTO.getBorrowingDate(),borrowingRecordDTO.getDueDate(),borrowingRecordDTO.getReturnDate(),borrowingRecordDTO.getReturnDate() == null, null,
+                borrowingRecordDTO.getReturnDate() == null && book != null ? book.getId() : null);
     }
     public BorrowingRecordDTO toBorrowingRecordDTo(BorrowingRecord borrowingRecord){
         return new BorrowingRecordDTO(
                 borrowingRecord.getId(),borrowingRecord.getBook().getId(),borrowingRecord.getPatron().getId(),
-                borrowingRecord.getBorrowingDate(),borrowingRecord.getReturnDate());
+                borrowingRecord.getBorrowingDate(),borrowingRecord.getDueDate(),borrowingRecord.getReturnDate(),borrowingRecord.isActive(),
+                borrowingRecord.getCopy() == null ? null : borrowingRecord.getCopy().getId());
     }
 
 
@@ -7,10 +7,10 @@ import org.springframework.stereotype.Component;
 @Component
 public class PatronMapper {
     public PatronDTO toPatronDTO (Patron patron){
-        return new PatronDTO(patron.getId(),patron.getName(),patron.getContactInformation());
+        return new PatronDTO(patron.getId(),patron.getName(),patron.getContactInformation(),patron.getVersion());
     }
     public Patron toPatron (PatronDTO patronDTO){
-        return new Patron(patronDTO.getId(),patronDTO.getName(),patronDTO.getContactInformation());
+        return new Patron(patronDTO.getId(),patronDTO.getName(),patronDTO.getContactInformation(),patronDTO.getVersion());
 
     }
 }
@@ -0,0 +1,21 @@
+package Mamoun.librarymanagement.Overdue;
+
+import Mamoun.librarymanagement.DTO.OverdueLoanDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+// Used when no other sink is registered, writes one line per overdue loan
+public class LoggingOverdueNoticeSink implements OverdueNoticeSink {
+
+    private static final Logger log = LoggerFactory.getLogger(LoggingOverdueNoticeSink.class);
+
+    @Override
+    public void send(List<OverdueLoanDTO> loans) {
+        for (OverdueLoanDTO loan : loans)
+            log.info("Loan {} of book {} ({}) by patron {} ({}, {}) was due on {}",
+                    loan.getId(), loan.getBookId(), loan.getBookTitle(), loan.getPatronId(),
+                    loan.getPatronName(), loan.getPatronContactInformation(), loan.getDueDate());
+    }
+}
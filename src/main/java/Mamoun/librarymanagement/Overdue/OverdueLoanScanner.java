@@ -0,0 +1,114 @@
+package Mamoun.librarymanagement.Overdue;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.DTO.OverdueLoanDTO;
+import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Finds open loans past their due date and hands them to the notice sink. Loans are read in
+// keyset chunks, each its own short read-only query, so memory stays at one chunk and no
+// transaction stays open while the sink works, however many loans are overdue.
+@Component
+public class OverdueLoanScanner implements MeterBinder {
+
+    // Before any real due date, so the first chunk starts at the oldest loan
+    private static final LocalDate FIRST_DUE_DATE = LocalDate.of(1, 1, 1);
+
+    private final BorrowingRecordRepository borrowingRecordRepository;
+    private final OverdueNoticeSink noticeSink;
+    private final LibraryProperties libraryProperties;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong notices = new AtomicLong();
+    // Loans handed to the sink by the scan in progress, or by the last one
+    private final AtomicLong progress = new AtomicLong();
+    private final AtomicLong lastDurationNanos = new AtomicLong();
+
+    @Autowired
+    public OverdueLoanScanner(BorrowingRecordRepository borrowingRecordRepository, ObjectProvider<OverdueNoticeSink> noticeSinks,
+                              LibraryProperties libraryProperties) {
+        this.borrowingRecordRepository = borrowingRecordRepository;
+        this.noticeSink = noticeSinks.getIfAvailable(LoggingOverdueNoticeSink::new);
+        this.libraryProperties = libraryProperties;
+    }
+
+    @Scheduled(cron = "${library.overdue.cron}")
+    public void scheduledScan() {
+        scan(LocalDate.now());
+    }
+
+    // Empty when a scan is already running, a second one would only send the same notices again
+    public Optional<ScanResult> scan(LocalDate today) {
+        if (!running.compareAndSet(false, true))
+            return Optional.empty();
+        long start = System.nanoTime();
+        progress.set(0);
+        try {
+            int chunkSize = libraryProperties.getOverdue().getChunkSize();
+            LocalDate afterDueDate = FIRST_DUE_DATE;
+            long afterId = 0;
+            int chunks = 0;
+            List<OverdueLoanDTO> chunk;
+            do {
+                chunk = borrowingRecordRepository.findOverdue(today, afterDueDate, afterId, Limit.of(chunkSize));
+                if (chunk.isEmpty())
+                    break;
+                noticeSink.send(chunk);
+                chunks++;
+                progress.addAndGet(chunk.size());
+                notices.addAndGet(chunk.size());
+                OverdueLoanDTO last = chunk.get(chunk.size() - 1);
+                afterDueDate = last.getDueDate();
+                afterId = last.getId();
+            } while (chunk.size() == chunkSize);
+            return Optional.of(new ScanResult(progress.get(), chunks, Duration.ofNanos(System.nanoTime() - start)));
+        } finally {
+            long took = System.nanoTime() - start;
+            lastDurationNanos.set(took);
+            totalNanos.addAndGet(took);
+            runs.incrementAndGet();
+            running.set(false);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionTimer.builder("library.overdue.scan", this, scanner -> scanner.runs.get(),
+                        scanner -> scanner.totalNanos.get(), TimeUnit.NANOSECONDS)
+                .description("Overdue scans and the time they took")
+                .register(registry);
+        Gauge.builder("library.overdue.scan.last.duration", lastDurationNanos, nanos -> nanos.get() / 1e9)
+                .baseUnit("seconds")
+                .register(registry);
+        Gauge.builder("library.overdue.scan.progress", progress, AtomicLong::get)
+                .description("Overdue loans handled by the running or last scan")
+                .register(registry);
+        Gauge.builder("library.overdue.scan.running", running, flag -> flag.get() ? 1 : 0)
+                .register(registry);
+        FunctionCounter.builder("library.overdue.notices", notices, AtomicLong::get)
+                .description("Overdue loans handed to the notice sink")
+                .register(registry);
+    }
+
+    public record ScanResult(long overdueLoans, int chunks, Duration duration) {
+    }
+}
@@ -0,0 +1,12 @@
+package Mamoun.librarymanagement.Overdue;
+
+import Mamoun.librarymanagement.DTO.OverdueLoanDTO;
+
+import java.util.List;
+
+// Where overdue notices go. Register a bean of this type to send them somewhere other than the log.
+public interface OverdueNoticeSink {
+
+    // Called once per chunk, outside any transaction, in due date order
+    void send(List<OverdueLoanDTO> loans);
+}
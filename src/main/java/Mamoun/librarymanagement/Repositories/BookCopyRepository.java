@@ -0,0 +1,51 @@
+package Mamoun.librarymanagement.Repositories;
+
+import Mamoun.librarymanagement.Entities.BookCopy;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+@Repository
+public interface BookCopyRepository extends JpaRepository<BookCopy, Long> {
+
+    interface FreeCopy {
+        Long getBookId();
+        Long getId();
+    }
+
+    // Every copy on the shelf, the copy allocator is loaded from it. Must be consumed inside a transaction.
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = BookRepository.STREAM_FETCH_SIZE))
+    @Query("select c.book.id as bookId, c.id as id from BookCopy c where c.borrowed = false")
+    Stream<FreeCopy> streamFreeCopies();
+
+    @Query("select c from BookCopy c where c.book.id = :bookId order by c.id")
+    List<BookCopy> findAllByBookId(@Param("bookId") long bookId);
+
+    @Query("select exists (select 1 from BookCopy c where c.book.id = :bookId)")
+    boolean existsByBookId(@Param("bookId") long bookId);
+
+    @Query("select distinct c.book.id from BookCopy c where c.book.id in :bookIds")
+    List<Long> findBookIdsWithCopies(@Param("bookIds") Collection<Long> bookIds);
+
+    @Query("select exists (select 1 from BookCopy c where c.book.id = :bookId and c.borrowed = false)")
+    boolean existsFreeByBookId(@Param("bookId") long bookId);
+
+    // Claims the copy in a single statement, returns 0 when it is missing or already borrowed
+    @Modifying
+    @Query("update BookCopy c set c.borrowed = true where c.id = :id and c.borrowed = false")
+    int markBorrowed(@Param("id") long id);
+
+    // Puts returned copies back on the shelf without loading them
+    @Modifying
+    @Query("update BookCopy c set c.borrowed = false where c.id in :ids")
+    int markReturned(@Param("ids") Collection<Long> ids);
+}
@@ -1,11 +1,84 @@
 package Mamoun.librarymanagement.Repositories;
 
 import Mamoun.librarymanagement.Entities.Book;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
 @Repository
 public interface BookRepository extends JpaRepository<Book, Long> {
+    // Rows pulled from the driver per round trip while streaming the catalog
+    String STREAM_FETCH_SIZE = "500";
+
+    Window<Book> findAllBy(ScrollPosition position, Sort sort, Limit limit);
+
+    // Must be consumed inside a transaction and closed afterwards
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    Stream<Book> streamAllByOrderByIdAsc();
+
+    interface IdAndIsbn {
+        Long getId();
+        String getIsbn();
+    }
+
+    // Just the columns the ISBN index is built from, must be consumed inside a transaction
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    Stream<IdAndIsbn> streamIdAndIsbnBy();
+
+    interface IdAndBorrowed {
+        Long getId();
+        boolean isBorrowed();
+    }
+
+    // Just the columns the availability index is built from, must be consumed inside a transaction
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    @Query("select b.id as id, b.isBorrowed as borrowed from Book b")
+    Stream<IdAndBorrowed> streamIdAndBorrowedBy();
+
+    // Locks the rows in id order, so two batches sharing books can't deadlock each other
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b from Book b where b.id in :ids order by b.id")
+    List<Book> findAllByIdForUpdate(@Param("ids") Collection<Long> ids);
+
+    // Serializes returns, new holds and new copies of one title, so a book can't go back on the shelf
+    // while a hold for it is being placed
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b from Book b where b.id = :id")
+    Optional<Book> findByIdForUpdate(@Param("id") long id);
+
+    // Answers conditional requests without loading the book
+    @Query("select b.version from Book b where b.id = :id")
+    Optional<Long> findVersionById(@Param("id") long id);
+
+    // Read before a delete or update so the inventory counters know what changed
+    @Query("select b.isBorrowed from Book b where b.id = :id")
+    Optional<Boolean> findBorrowedById(@Param("id") long id);
+
+    long countByIsBorrowedTrue();
+
+    // Claims the book in a single statement, returns 0 when it is missing, already borrowed or stocked as
+    // copies, which are lent one at a time. Bulk updates skip @Version, so the version is bumped by hand to
+    // change the ETag.
+    @Modifying
+    @Query("update Book b set b.isBorrowed = true, b.version = b.version + 1 where b.id = :id and b.isBorrowed = false"
+            + " and not exists (select 1 from BookCopy c where c.book.id = b.id)")
+    int markBorrowed(@Param("id") long id);
 }
 
 
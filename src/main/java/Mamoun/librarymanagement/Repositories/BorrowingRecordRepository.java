@@ -1,17 +1,62 @@
 package Mamoun.librarymanagement.Repositories;
 
+import Mamoun.librarymanagement.DTO.BorrowingHistoryDTO;
+import Mamoun.librarymanagement.DTO.OverdueLoanDTO;
 import Mamoun.librarymanagement.Entities.BorrowingRecord;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 @Repository
 
+// Queries filter on the foreign key columns directly. Derived queries join book and patron
+// for book.id / patron.id, which keeps H2 from using the borrowing_record indexes.
 public interface BorrowingRecordRepository extends JpaRepository<BorrowingRecord,Long> {
-    Optional<BorrowingRecord> findFirstByBookIdAndPatronIdOrderByBorrowingDateDesc(Long bookId, Long patronId);
-    boolean existsByBookId(Long bookId);
-    boolean existsByPatronId(Long patronId);
+    @Query("select r from BorrowingRecord r where r.active = true and r.book.id = :bookId and r.patron.id = :patronId")
+    Optional<BorrowingRecord> findActiveByBookIdAndPatronId(@Param("bookId") Long bookId, @Param("patronId") Long patronId);
+    @Query("select r from BorrowingRecord r join fetch r.book where r.active = true and r.patron.id = :patronId and r.book.id in :bookIds")
+    List<BorrowingRecord> findActiveByPatronIdAndBookIdIn(@Param("patronId") Long patronId, @Param("bookIds") Collection<Long> bookIds);
+    @Query("select exists (select 1 from BorrowingRecord r where r.book.id = :bookId)")
+    boolean existsByBookId(@Param("bookId") Long bookId);
+    @Query("select exists (select 1 from BorrowingRecord r where r.patron.id = :patronId)")
+    boolean existsByPatronId(@Param("patronId") Long patronId);
+    @Query("select count(r) from BorrowingRecord r where r.active = true")
+    long countByActiveTrue();
+    interface PatronOpenLoans {
+        Long getPatronId();
+        long getOpenLoans();
+    }
+    // Open loans of every patron holding any, the loan limits are seeded from it. Must be consumed inside a transaction.
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("select r.patron.id as patronId, count(r) as openLoans from BorrowingRecord r where r.active = true group by r.patron.id")
+    Stream<PatronOpenLoans> streamOpenLoansByPatron();
+    // Newest loans first, continuing below beforeId. Only the columns of the DTO are selected.
+    @Query("select new Mamoun.librarymanagement.DTO.BorrowingHistoryDTO(r.id, r.book.id, r.patron.id, b.title, r.borrowingDate, r.dueDate, r.returnDate, r.active) "
+            + "from BorrowingRecord r join r.book b where r.patron.id = :patronId and r.id < :beforeId order by r.id desc")
+    List<BorrowingHistoryDTO> findHistoryByPatronId(@Param("patronId") Long patronId, @Param("beforeId") Long beforeId, Limit limit);
+    // Open loans due before today, oldest due date first, continuing after the (afterDueDate, afterId) key.
+    // Walks the active/due date index, so each chunk only reads the loans it returns.
+    @Query("select new Mamoun.librarymanagement.DTO.OverdueLoanDTO(r.id, b.id, p.id, b.title, p.name, p.contactInformation, r.borrowingDate, r.dueDate) "
+            + "from BorrowingRecord r join r.book b join r.patron p where r.active = true and r.dueDate < :today "
+            + "and (r.dueDate > :afterDueDate or (r.dueDate = :afterDueDate and r.id > :afterId)) order by r.dueDate, r.id")
+    List<OverdueLoanDTO> findOverdue(@Param("today") LocalDate today, @Param("afterDueDate") LocalDate afterDueDate,
+                                     @Param("afterId") Long afterId, Limit limit);
 
 
+    // Closes the loans that are still open in a single statement and returns how many it closed.
+    // Managed copies of the records are left as they were loaded.
+    @Modifying
+    @Query("update BorrowingRecord r set r.active = false, r.activeBookId = null, r.returnDate = :returnDate where r.id in :ids and r.active = true")
+    int closeActive(@Param("ids") Collection<Long> ids, @Param("returnDate") LocalDate returnDate);
 }
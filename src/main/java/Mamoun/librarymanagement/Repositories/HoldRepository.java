@@ -0,0 +1,44 @@
+package Mamoun.librarymanagement.Repositories;
+
+import Mamoun.librarymanagement.Entities.BorrowingRecord;
+import Mamoun.librarymanagement.Entities.Hold;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.stream.Stream;
+
+@Repository
+public interface HoldRepository extends JpaRepository<Hold, Long> {
+
+    interface WaitingHold {
+        Long getId();
+        Long getBookId();
+        Long getPatronId();
+    }
+
+    // Holds in the given status in queue order, the hold queues are loaded from the waiting ones.
+    // Must be consumed inside a transaction.
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = BookRepository.STREAM_FETCH_SIZE))
+    @Query("select h.id as id, h.book.id as bookId, h.patron.id as patronId from Hold h where h.status = :status order by h.id")
+    Stream<WaitingHold> streamByStatus(@Param("status") Hold.Status status);
+
+    @Query("select exists (select 1 from Hold h where h.book.id = :bookId and h.patron.id = :patronId and h.status = :status)")
+    boolean existsByBookIdAndPatronIdAndStatus(@Param("bookId") long bookId, @Param("patronId") long patronId, @Param("status") Hold.Status status);
+
+    // Moves the hold on only while it is still in the expected status, returns 0 when it isn't,
+    // which covers holds that were rolled back or went with their patron
+    @Modifying
+    @Query("update Hold h set h.status = :to where h.id = :id and h.status = :from")
+    int changeStatus(@Param("id") long id, @Param("from") Hold.Status from, @Param("to") Hold.Status to);
+
+    // The loan was only just saved, so it is flushed first for the foreign key
+    @Modifying(flushAutomatically = true)
+    @Query("update Hold h set h.loan = :loan where h.id = :id")
+    int attachLoan(@Param("id") long id, @Param("loan") BorrowingRecord loan);
+}
@@ -2,9 +2,16 @@ package Mamoun.librarymanagement.Repositories;
 
 import Mamoun.librarymanagement.Entities.Patron;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
+
 @Repository
 
 public interface PatronRepository extends JpaRepository<Patron, Long> {
+    // Answers conditional requests without loading the patron
+    @Query("select p.version from Patron p where p.id = :id")
+    Optional<Long> findVersionById(@Param("id") long id);
 }
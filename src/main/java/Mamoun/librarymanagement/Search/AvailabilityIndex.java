@@ -0,0 +1,154 @@
+package Mamoun.librarymanagement.Search;
+
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+// Which books exist and which of them are out, as two compressed id bitmaps, so availability
+// checks, counts and listings never load a book. Loaded before the web server starts, then
+// follows BookChangedEvents once the borrow or return has committed.
+@Component
+public class AvailabilityIndex implements SmartInitializingSingleton {
+
+    public enum Status {
+        AVAILABLE,
+        BORROWED,
+        MISSING
+    }
+
+    private final BookRepository bookRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    private final IdBitmap books = new IdBitmap();
+    // Always a subset of books
+    private final IdBitmap borrowed = new IdBitmap();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Autowired
+    public AvailabilityIndex(BookRepository bookRepository, PlatformTransactionManager transactionManager) {
+        this.bookRepository = bookRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<BookRepository.IdAndBorrowed> rows = bookRepository.streamIdAndBorrowedBy()) {
+                rows.forEach(row -> put(row.getId(), row.isBorrowed()));
+            }
+        });
+    }
+
+    public Status status(long id) {
+        lock.readLock().lock();
+        try {
+            if (!books.contains(id))
+                return Status.MISSING;
+            return borrowed.contains(id) ? Status.BORROWED : Status.AVAILABLE;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return books.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long borrowedCount() {
+        lock.readLock().lock();
+        try {
+            return borrowed.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long availableCount() {
+        lock.readLock().lock();
+        try {
+            return books.cardinality() - borrowed.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Up to limit available ids between fromId and toId inclusive, ascending
+    public long[] availableIds(long fromId, long toId, int limit) {
+        lock.readLock().lock();
+        try {
+            return books.andNot(borrowed, fromId, toId, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBookChanged(BookChangedEvent event) {
+        switch (event.getType()) {
+            case ADDED, UPDATED -> event.getBooks().forEach(book -> put(book.getId(), book.isBorrowed()));
+            case DELETED -> event.getBookIds().forEach(this::remove);
+            // A copy loan leaves the title alone, the title going out or back with its copies arrives as an update
+            case BORROWED -> {
+                if (!event.isCopyLoan())
+                    event.getBookIds().forEach(id -> setBorrowed(id, true));
+            }
+            case RETURNED -> {
+                if (!event.isCopyLoan())
+                    event.getBookIds().forEach(id -> setBorrowed(id, false));
+            }
+        }
+    }
+
+    void put(long id, boolean isBorrowed) {
+        lock.writeLock().lock();
+        try {
+            books.add(id);
+            if (isBorrowed)
+                borrowed.add(id);
+            else
+                borrowed.remove(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            books.remove(id);
+            borrowed.remove(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // A loan event for a book deleted in the meantime is ignored
+    private void setBorrowed(long id, boolean isBorrowed) {
+        lock.writeLock().lock();
+        try {
+            if (!books.contains(id))
+                return;
+            if (isBorrowed)
+                borrowed.add(id);
+            else
+                borrowed.remove(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
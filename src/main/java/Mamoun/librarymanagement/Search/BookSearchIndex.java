@@ -0,0 +1,301 @@
+package Mamoun.librarymanagement.Search;
+
+import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Mappers.BookMapper;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import jakarta.persistence.EntityManager;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+// Inverted index over book titles and authors. It is filled from the database before the
+// application starts serving requests and then follows BookChangedEvents.
+@Component
+public class BookSearchIndex implements SmartInitializingSingleton {
+
+    // A term found in the title counts double one found in the author
+    private static final int TITLE_WEIGHT = 2;
+    private static final int AUTHOR_WEIGHT = 1;
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Comparator<Hit> RANKING = Comparator.comparingDouble(Hit::score).reversed()
+            .thenComparingLong(hit -> hit.book().getId());
+
+    public record Hit(BookDTO book, double score) {
+    }
+
+    private final BookRepository bookRepository;
+    private final BookMapper bookMapper;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+
+    private final Map<String, PostingList> postings = new HashMap<>();
+    private final Map<Long, BookDTO> books = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Autowired
+    public BookSearchIndex(BookRepository bookRepository, BookMapper bookMapper, EntityManager entityManager, PlatformTransactionManager transactionManager) {
+        this.bookRepository = bookRepository;
+        this.bookMapper = bookMapper;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    // Runs before the web server starts, so no write can slip between the scan and the events
+    @Override
+    public void afterSingletonsInstantiated() {
+        transactionTemplate.executeWithoutResult(status -> {
+            try (var stream = bookRepository.streamAllByOrderByIdAsc()) {
+                stream.forEach(book -> {
+                    entityManager.detach(book);
+                    put(bookMapper.toBookDTO(book));
+                });
+            }
+        });
+    }
+
+    // Books holding every term of the query, best matches first, continuing after (afterScore, afterId)
+    public List<Hit> search(String query, double afterScore, long afterId, int limit) {
+        Set<String> terms = tokenize(query);
+        if (terms.isEmpty())
+            return List.of();
+        lock.readLock().lock();
+        try {
+            List<PostingList> lists = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                PostingList list = postings.get(term);
+                if (list == null)
+                    return List.of();
+                lists.add(list);
+            }
+            lists.sort(Comparator.comparingInt(PostingList::size));
+            double[] idf = lists.stream().mapToDouble(list -> Math.log(1 + (double) books.size() / list.size())).toArray();
+
+            // No book can score above every term hitting every field it occurs in anywhere. Candidates come in
+            // id order and ties go to the lower id, so once the worst kept hit reaches that bound the scan is over.
+            double bestPossible = 0;
+            for (int t = 0; t < lists.size(); t++)
+                bestPossible += idf[t] * weight(lists.get(t).fieldsUnion());
+            TopHits best = new TopHits(limit);
+            PostingList rarest = lists.get(0);
+            int[] positions = new int[lists.size()];
+            candidates:
+            for (int i = 0; i < rarest.size(); i++) {
+                long id = rarest.idAt(i);
+                double score = idf[0] * weight(rarest.fieldsAt(i));
+                for (int t = 1; t < lists.size(); t++) {
+                    PostingList list = lists.get(t);
+                    int position = list.seek(id, positions[t]);
+                    positions[t] = position;
+                    if (position == list.size())
+                        break candidates;
+                    if (list.idAt(position) != id) {
+                        // Leapfrog: nothing in the rarest list below this id can be in every list
+                        i = rarest.seek(list.idAt(position), i + 1) - 1;
+                        continue candidates;
+                    }
+                    score += idf[t] * weight(list.fieldsAt(position));
+                }
+                if (score > afterScore || (score == afterScore && id <= afterId))
+                    continue;
+                best.offer(score, id);
+                if (best.isFull() && best.worstScore() >= bestPossible)
+                    break;
+            }
+            return best.drain(books);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return books.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBookChanged(BookChangedEvent event) {
+        switch (event.getType()) {
+            case ADDED, UPDATED -> event.getBooks().forEach(this::put);
+            case DELETED -> event.getBookIds().forEach(this::remove);
+            // A copy loan leaves the title alone, the title going out or back with its copies arrives as an update
+            case BORROWED -> {
+                if (!event.isCopyLoan())
+                    event.getBookIds().forEach(id -> setBorrowed(id, true));
+            }
+            case RETURNED -> {
+                if (!event.isCopyLoan())
+                    event.getBookIds().forEach(id -> setBorrowed(id, false));
+            }
+        }
+    }
+
+    void put(BookDTO book) {
+        lock.writeLock().lock();
+        try {
+            BookDTO previous = books.put(book.getId(), book);
+            if (previous != null)
+                unindex(previous);
+            Map<String, Integer> fields = new HashMap<>();
+            tokenize(book.getTitle()).forEach(term -> fields.merge(term, PostingList.TITLE, (a, b) -> a | b));
+            tokenize(book.getAuthor()).forEach(term -> fields.merge(term, PostingList.AUTHOR, (a, b) -> a | b));
+            fields.forEach((term, flags) -> postings.computeIfAbsent(term, key -> new PostingList()).add(book.getId(), flags));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            BookDTO previous = books.remove(id);
+            if (previous != null)
+                unindex(previous);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Hits hand out the stored DTOs, so they are replaced rather than changed in place.
+    // The event doesn't carry the new version, so the copy has none.
+    private void setBorrowed(long id, boolean borrowed) {
+        lock.writeLock().lock();
+        try {
+            books.computeIfPresent(id, (key, book) -> new BookDTO(book.getId(), book.getTitle(), book.getAuthor(),
+                    book.getPublicationYear(), book.getIsbn(), borrowed, null));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void unindex(BookDTO book) {
+        Set<String> terms = tokenize(book.getTitle());
+        terms.addAll(tokenize(book.getAuthor()));
+        for (String term : terms) {
+            PostingList list = postings.get(term);
+            if (list == null)
+                continue;
+            list.remove(book.getId());
+            if (list.size() == 0)
+                postings.remove(term);
+        }
+    }
+
+    // Bounded heap of the best (score, id) pairs seen so far, the worst one at the root.
+    // Hits are only built for the survivors, nothing is allocated per candidate.
+    private static final class TopHits {
+        private final double[] scores;
+        private final long[] ids;
+        private int size;
+
+        TopHits(int limit) {
+            scores = new double[limit];
+            ids = new long[limit];
+        }
+
+        void offer(double score, long id) {
+            if (size < scores.length) {
+                scores[size] = score;
+                ids[size] = id;
+                siftUp(size++);
+            } else if (size > 0 && worse(scores[0], ids[0], score, id)) {
+                scores[0] = score;
+                ids[0] = id;
+                siftDown(0);
+            }
+        }
+
+        boolean isFull() {
+            return size == scores.length;
+        }
+
+        double worstScore() {
+            return scores[0];
+        }
+
+        List<Hit> drain(Map<Long, BookDTO> books) {
+            List<Hit> hits = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                hits.add(new Hit(books.get(ids[i]), scores[i]));
+            hits.sort(RANKING);
+            return hits;
+        }
+
+        // Ranking is by score descending, then id ascending
+        private static boolean worse(double score, long id, double otherScore, long otherId) {
+            return score < otherScore || (score == otherScore && id > otherId);
+        }
+
+        private void siftUp(int index) {
+            while (index > 0) {
+                int parent = (index - 1) / 2;
+                if (!worse(scores[index], ids[index], scores[parent], ids[parent]))
+                    return;
+                swap(index, parent);
+                index = parent;
+            }
+        }
+
+        private void siftDown(int index) {
+            while (true) {
+                int worst = index;
+                for (int child = 2 * index + 1; child <= 2 * index + 2 && child < size; child++) {
+                    if (worse(scores[child], ids[child], scores[worst], ids[worst]))
+                        worst = child;
+                }
+                if (worst == index)
+                    return;
+                swap(index, worst);
+                index = worst;
+            }
+        }
+
+        private void swap(int a, int b) {
+            double score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+            long id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+        }
+    }
+
+    private static int weight(int fields) {
+        return ((fields & PostingList.TITLE) != 0 ? TITLE_WEIGHT : 0) + ((fields & PostingList.AUTHOR) != 0 ? AUTHOR_WEIGHT : 0);
+    }
+
+    // Lower case words and numbers with accents stripped, so "Émile" matches "emile"
+    static Set<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null)
+            return terms;
+        String normalized = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFKD)).replaceAll("");
+        for (String term : SEPARATORS.split(normalized.toLowerCase(Locale.ROOT))) {
+            if (!term.isEmpty())
+                terms.add(term);
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,312 @@
+package Mamoun.librarymanagement.Search;
+
+import java.util.Arrays;
+
+// Set of non-negative ids, compressed the way Roaring bitmaps are. Ids are grouped into chunks
+// of 65536 by their high bits. A chunk holds a sorted char array while it has at most 4096 ids
+// and a 1024 word bitmap beyond that, so sparse and dense id ranges both stay small. Every chunk
+// keeps its own count, so removing from a bitmap chunk doesn't recount its words.
+// Not thread safe, the indexes using it guard it with their own lock.
+final class IdBitmap {
+
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int WORDS = 1024;
+
+    // High bits of each chunk, sorted, with the chunk at the same position
+    private long[] keys = new long[4];
+    private Object[] chunks = new Object[4];
+    private int chunkCount;
+    private long cardinality;
+
+    long cardinality() {
+        return cardinality;
+    }
+
+    boolean contains(long id) {
+        if (id < 0)
+            return false;
+        int index = Arrays.binarySearch(keys, 0, chunkCount, id >>> 16);
+        if (index < 0)
+            return false;
+        char low = (char) id;
+        return chunks[index] instanceof WordsChunk bitmap
+                ? (bitmap.words[low >>> 6] & 1L << low) != 0
+                : arrayContains((ArrayChunk) chunks[index], low);
+    }
+
+    // Returns false when the id was already there
+    boolean add(long id) {
+        if (id < 0)
+            throw new IllegalArgumentException("Ids must not be negative, got " + id);
+        long key = id >>> 16;
+        char low = (char) id;
+        int index = Arrays.binarySearch(keys, 0, chunkCount, key);
+        if (index < 0) {
+            index = -index - 1;
+            insertChunk(index, key, new ArrayChunk());
+        }
+        boolean added;
+        if (chunks[index] instanceof WordsChunk bitmap) {
+            long bit = 1L << low;
+            added = (bitmap.words[low >>> 6] & bit) == 0;
+            if (added) {
+                bitmap.words[low >>> 6] |= bit;
+                bitmap.cardinality++;
+            }
+        } else {
+            ArrayChunk array = (ArrayChunk) chunks[index];
+            added = arrayAdd(array, low);
+            if (array.size > ARRAY_LIMIT)
+                chunks[index] = toWords(array);
+        }
+        if (added)
+            cardinality++;
+        return added;
+    }
+
+    // Returns false when the id wasn't there
+    boolean remove(long id) {
+        if (id < 0)
+            return false;
+        int index = Arrays.binarySearch(keys, 0, chunkCount, id >>> 16);
+        if (index < 0)
+            return false;
+        char low = (char) id;
+        int remaining;
+        if (chunks[index] instanceof WordsChunk bitmap) {
+            long bit = 1L << low;
+            if ((bitmap.words[low >>> 6] & bit) == 0)
+                return false;
+            bitmap.words[low >>> 6] &= ~bit;
+            remaining = --bitmap.cardinality;
+            if (remaining <= ARRAY_LIMIT)
+                chunks[index] = toArray(bitmap);
+        } else {
+            ArrayChunk array = (ArrayChunk) chunks[index];
+            if (!arrayRemove(array, low))
+                return false;
+            remaining = array.size;
+        }
+        cardinality--;
+        if (remaining == 0)
+            removeChunk(index);
+        return true;
+    }
+
+    // Smallest id in the set that is >= from, -1 when there is none
+    long next(long from) {
+        from = Math.max(from, 0);
+        int index = Arrays.binarySearch(keys, 0, chunkCount, from >>> 16);
+        int low = (char) from;
+        if (index < 0) {
+            index = -index - 1;
+            low = 0;
+        }
+        for (; index < chunkCount; index++, low = 0) {
+            int found = chunks[index] instanceof WordsChunk bitmap ? wordsNext(bitmap.words, low) : arrayNext((ArrayChunk) chunks[index], low);
+            if (found >= 0)
+                return keys[index] << 16 | found;
+        }
+        return -1;
+    }
+
+    // Up to limit ids of this set that aren't in other, between from and to inclusive, ascending. Matching
+    // chunks are compared a 64 bit word at a time and words with nothing left are skipped whole, so
+    // dense runs of ids in other cost a mask each rather than a lookup per id.
+    long[] andNot(IdBitmap other, long from, long to, int limit) {
+        from = Math.max(from, 0);
+        IdSink sink = new IdSink(limit);
+        int index = Arrays.binarySearch(keys, 0, chunkCount, from >>> 16);
+        if (index < 0)
+            index = -index - 1;
+        for (; index < chunkCount && keys[index] <= to >>> 16 && !sink.full(); index++) {
+            long key = keys[index];
+            int lo = key == from >>> 16 ? (char) from : 0;
+            int hi = key == to >>> 16 ? (char) to : Character.MAX_VALUE;
+            if (lo > hi)
+                break;
+            int otherIndex = Arrays.binarySearch(other.keys, 0, other.chunkCount, key);
+            Object mask = otherIndex >= 0 ? other.chunks[otherIndex] : null;
+            if (chunks[index] instanceof WordsChunk bitmap)
+                wordsAndNot(bitmap.words, mask, lo, hi, key << 16, sink);
+            else
+                arrayAndNot((ArrayChunk) chunks[index], mask, lo, hi, key << 16, sink);
+        }
+        return sink.toArray();
+    }
+
+    private static void wordsAndNot(long[] words, Object mask, int lo, int hi, long base, IdSink sink) {
+        ArrayChunk maskArray = mask instanceof ArrayChunk array ? array : null;
+        int next = maskArray == null ? 0 : arrayIndex(maskArray, lo);
+        for (int word = lo >>> 6; word <= hi >>> 6; word++) {
+            long bits = words[word];
+            if (word == lo >>> 6)
+                bits &= -1L << lo;
+            if (word == hi >>> 6)
+                bits &= -1L >>> 63 - (hi & 63);
+            if (bits == 0)
+                continue;
+            if (mask instanceof WordsChunk maskBitmap) {
+                bits &= ~maskBitmap.words[word];
+            } else if (maskArray != null) {
+                while (next < maskArray.size && maskArray.values[next] >>> 6 < word)
+                    next++;
+                for (; next < maskArray.size && maskArray.values[next] >>> 6 == word; next++)
+                    bits &= ~(1L << maskArray.values[next]);
+            }
+            for (; bits != 0; bits &= bits - 1) {
+                if (!sink.add(base | word * 64 + Long.numberOfTrailingZeros(bits)))
+                    return;
+            }
+        }
+    }
+
+    private static void arrayAndNot(ArrayChunk array, Object mask, int lo, int hi, long base, IdSink sink) {
+        ArrayChunk maskArray = mask instanceof ArrayChunk other ? other : null;
+        int next = maskArray == null ? 0 : arrayIndex(maskArray, lo);
+        for (int i = arrayIndex(array, lo); i < array.size && array.values[i] <= hi; i++) {
+            char value = array.values[i];
+            if (mask instanceof WordsChunk maskBitmap) {
+                if ((maskBitmap.words[value >>> 6] & 1L << value) != 0)
+                    continue;
+            } else if (maskArray != null) {
+                while (next < maskArray.size && maskArray.values[next] < value)
+                    next++;
+                if (next < maskArray.size && maskArray.values[next] == value)
+                    continue;
+            }
+            if (!sink.add(base | value))
+                return;
+        }
+    }
+
+    private void insertChunk(int index, long key, Object chunk) {
+        if (chunkCount == keys.length) {
+            keys = Arrays.copyOf(keys, chunkCount * 2);
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, chunkCount - index);
+        System.arraycopy(chunks, index, chunks, index + 1, chunkCount - index);
+        keys[index] = key;
+        chunks[index] = chunk;
+        chunkCount++;
+    }
+
+    private void removeChunk(int index) {
+        System.arraycopy(keys, index + 1, keys, index, chunkCount - index - 1);
+        System.arraycopy(chunks, index + 1, chunks, index, chunkCount - index - 1);
+        chunkCount--;
+        chunks[chunkCount] = null;
+    }
+
+    private static boolean arrayContains(ArrayChunk array, char value) {
+        return Arrays.binarySearch(array.values, 0, array.size, value) >= 0;
+    }
+
+    private static boolean arrayAdd(ArrayChunk array, char value) {
+        // Ids come from a sequence, so they almost always go at the end
+        int index = array.size > 0 && array.values[array.size - 1] < value
+                ? -array.size - 1
+                : Arrays.binarySearch(array.values, 0, array.size, value);
+        if (index >= 0)
+            return false;
+        index = -index - 1;
+        if (array.size == array.values.length)
+            array.values = Arrays.copyOf(array.values, Math.min(array.size * 2, ARRAY_LIMIT + 1));
+        System.arraycopy(array.values, index, array.values, index + 1, array.size - index);
+        array.values[index] = value;
+        array.size++;
+        return true;
+    }
+
+    private static boolean arrayRemove(ArrayChunk array, char value) {
+        int index = Arrays.binarySearch(array.values, 0, array.size, value);
+        if (index < 0)
+            return false;
+        System.arraycopy(array.values, index + 1, array.values, index, array.size - index - 1);
+        array.size--;
+        return true;
+    }
+
+    private static int arrayNext(ArrayChunk array, int from) {
+        int index = arrayIndex(array, from);
+        return index < array.size ? array.values[index] : -1;
+    }
+
+    // Position of the first value >= from
+    private static int arrayIndex(ArrayChunk array, int from) {
+        int index = Arrays.binarySearch(array.values, 0, array.size, (char) from);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    private static int wordsNext(long[] words, int from) {
+        int word = from >>> 6;
+        long bits = words[word] & -1L << from;
+        while (true) {
+            if (bits != 0)
+                return word * 64 + Long.numberOfTrailingZeros(bits);
+            if (++word == WORDS)
+                return -1;
+            bits = words[word];
+        }
+    }
+
+    private static WordsChunk toWords(ArrayChunk array) {
+        WordsChunk bitmap = new WordsChunk();
+        for (int i = 0; i < array.size; i++)
+            bitmap.words[array.values[i] >>> 6] |= 1L << array.values[i];
+        bitmap.cardinality = array.size;
+        return bitmap;
+    }
+
+    private static ArrayChunk toArray(WordsChunk bitmap) {
+        ArrayChunk array = new ArrayChunk();
+        array.values = new char[bitmap.cardinality];
+        for (int word = 0; word < WORDS; word++) {
+            long bits = bitmap.words[word];
+            while (bits != 0) {
+                array.values[array.size++] = (char) (word * 64 + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+        return array;
+    }
+
+    private static final class ArrayChunk {
+        private char[] values = new char[4];
+        private int size;
+    }
+
+    private static final class WordsChunk {
+        private final long[] words = new long[WORDS];
+        private int cardinality;
+    }
+
+    // Collects ids up to a limit, growing its array as they come
+    private static final class IdSink {
+        private final int limit;
+        private long[] ids;
+        private int count;
+
+        private IdSink(int limit) {
+            this.limit = Math.max(limit, 0);
+            this.ids = new long[Math.min(this.limit, 1024)];
+        }
+
+        private boolean full() {
+            return count == limit;
+        }
+
+        // Returns false once the limit is reached
+        private boolean add(long id) {
+            if (count == ids.length)
+                ids = Arrays.copyOf(ids, (int) Math.min(limit, count * 2L));
+            ids[count++] = id;
+            return count < limit;
+        }
+
+        private long[] toArray() {
+            return Arrays.copyOf(ids, count);
+        }
+    }
+}
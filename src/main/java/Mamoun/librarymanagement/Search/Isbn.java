@@ -0,0 +1,87 @@
+package Mamoun.librarymanagement.Search;
+
+// ISBN-10 and ISBN-13 parsing. Valid ISBNs are kept in their 13 digit form, which fits in a long.
+public final class Isbn {
+
+    public static final long INVALID = -1;
+
+    private Isbn() {
+    }
+
+    // The 13 digit ISBN as a number, INVALID when raw is not a valid ISBN-10 or ISBN-13.
+    // Hyphens and spaces are ignored, an ISBN-10 is converted to its 978 form.
+    public static long parse(String raw) {
+        if (raw == null)
+            return INVALID;
+        StringBuilder digits = new StringBuilder(13);
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c == '-' || c == ' ')
+                continue;
+            if (digits.length() == 13)
+                return INVALID;
+            digits.append(c);
+        }
+        if (digits.length() == 10)
+            return parseIsbn10(digits);
+        if (digits.length() == 13)
+            return parseIsbn13(digits);
+        return INVALID;
+    }
+
+    public static String format(long isbn13) {
+        return Long.toString(isbn13);
+    }
+
+    // The 13 digit form of a valid ISBN, anything else is returned unchanged
+    public static String canonical(String raw) {
+        long isbn13 = parse(raw);
+        return isbn13 == INVALID ? raw : format(isbn13);
+    }
+
+    private static long parseIsbn10(CharSequence digits) {
+        int sum = 0;
+        long isbn13 = 978;
+        for (int i = 0; i < 10; i++) {
+            char c = digits.charAt(i);
+            int value;
+            if (c >= '0' && c <= '9')
+                value = c - '0';
+            else if (i == 9 && (c == 'X' || c == 'x'))
+                value = 10;
+            else
+                return INVALID;
+            sum += (10 - i) * value;
+            if (i < 9)
+                isbn13 = isbn13 * 10 + value;
+        }
+        if (sum % 11 != 0)
+            return INVALID;
+        return isbn13 * 10 + checkDigit13(isbn13);
+    }
+
+    private static long parseIsbn13(CharSequence digits) {
+        long isbn13 = 0;
+        for (int i = 0; i < 13; i++) {
+            char c = digits.charAt(i);
+            if (c < '0' || c > '9')
+                return INVALID;
+            isbn13 = isbn13 * 10 + (c - '0');
+        }
+        long prefix = isbn13 / 10_000_000_000L;
+        if (prefix != 978 && prefix != 979)
+            return INVALID;
+        return checkDigit13(isbn13 / 10) == isbn13 % 10 ? isbn13 : INVALID;
+    }
+
+    // EAN-13 check digit of the first twelve digits
+    private static int checkDigit13(long first12) {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            int digit = (int) (first12 % 10);
+            first12 /= 10;
+            sum += i % 2 == 0 ? digit * 3 : digit;
+        }
+        return (10 - sum % 10) % 10;
+    }
+}
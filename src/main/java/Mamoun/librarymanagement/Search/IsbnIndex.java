@@ -0,0 +1,104 @@
+package Mamoun.librarymanagement.Search;
+
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.OptionalLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Stream;
+
+// ISBN-13 -> book id for every book with a valid ISBN, so a barcode scan resolves its book
+// without a query. Loaded before the web server starts, then follows BookChangedEvents.
+@Component
+public class IsbnIndex implements SmartInitializingSingleton {
+
+    private static final int INITIAL_SIZE = 1 << 10;
+
+    private final BookRepository bookRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    private final LongLongMap idsByIsbn = new LongLongMap(INITIAL_SIZE);
+    // Reverse side, to drop the old ISBN when a book is updated or deleted
+    private final LongLongMap isbnsById = new LongLongMap(INITIAL_SIZE);
+    private final StampedLock lock = new StampedLock();
+
+    @Autowired
+    public IsbnIndex(BookRepository bookRepository, PlatformTransactionManager transactionManager) {
+        this.bookRepository = bookRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<BookRepository.IdAndIsbn> books = bookRepository.streamIdAndIsbnBy()) {
+                books.forEach(book -> put(book.getId(), book.getIsbn()));
+            }
+        });
+    }
+
+    public OptionalLong find(long isbn13) {
+        long stamp = lock.tryOptimisticRead();
+        long id = idsByIsbn.get(isbn13);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                id = idsByIsbn.get(isbn13);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return id == LongLongMap.MISSING ? OptionalLong.empty() : OptionalLong.of(id);
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return idsByIsbn.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBookChanged(BookChangedEvent event) {
+        switch (event.getType()) {
+            case ADDED, UPDATED -> event.getBooks().forEach(book -> put(book.getId(), book.getIsbn()));
+            case DELETED -> event.getBookIds().forEach(this::remove);
+            case BORROWED, RETURNED -> {
+            }
+        }
+    }
+
+    void put(long id, String isbn) {
+        long isbn13 = Isbn.parse(isbn);
+        long stamp = lock.writeLock();
+        try {
+            long previous = isbn13 == Isbn.INVALID ? isbnsById.remove(id) : isbnsById.put(id, isbn13);
+            if (previous != LongLongMap.MISSING && previous != isbn13 && idsByIsbn.get(previous) == id)
+                idsByIsbn.remove(previous);
+            if (isbn13 != Isbn.INVALID)
+                idsByIsbn.put(isbn13, id);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void remove(long id) {
+        long stamp = lock.writeLock();
+        try {
+            long previous = isbnsById.remove(id);
+            if (previous != LongLongMap.MISSING && idsByIsbn.get(previous) == id)
+                idsByIsbn.remove(previous);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package Mamoun.librarymanagement.Search;
+
+// Open addressing hash map from positive longs to longs, keys and values interleaved in one
+// array and probed linearly. Not thread safe: IsbnIndex guards it with a StampedLock.
+final class LongLongMap {
+
+    static final long MISSING = -1;
+
+    private static final long EMPTY = 0;
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+    private long[] table;
+    private int size;
+
+    LongLongMap(int expectedSize) {
+        table = new long[2 * capacityFor(expectedSize)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    // May run under an optimistic read, so it never trusts the table to be consistent
+    long get(long key) {
+        long[] table = this.table;
+        int slots = table.length >> 1;
+        int mask = slots - 1;
+        int slot = slotOf(key, mask);
+        for (int probes = 0; probes < slots; probes++) {
+            long current = table[slot << 1];
+            if (current == key)
+                return table[(slot << 1) + 1];
+            if (current == EMPTY)
+                return MISSING;
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    // Returns the previous value, MISSING if there was none
+    long put(long key, long value) {
+        if (key <= 0)
+            throw new IllegalArgumentException("Keys must be positive, got: " + key);
+        int mask = (table.length >> 1) - 1;
+        int slot = slotOf(key, mask);
+        while (table[slot << 1] != EMPTY) {
+            if (table[slot << 1] == key) {
+                long previous = table[(slot << 1) + 1];
+                table[(slot << 1) + 1] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot << 1] = key;
+        table[(slot << 1) + 1] = value;
+        if (++size > (table.length >> 2))
+            resize();
+        return MISSING;
+    }
+
+    // Backward shift deletion, so no tombstones pile up and lookups stay short
+    long remove(long key) {
+        int mask = (table.length >> 1) - 1;
+        int slot = slotOf(key, mask);
+        while (table[slot << 1] != key) {
+            if (table[slot << 1] == EMPTY)
+                return MISSING;
+            slot = (slot + 1) & mask;
+        }
+        long previous = table[(slot << 1) + 1];
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (table[next << 1] != EMPTY) {
+            int home = slotOf(table[next << 1], mask);
+            // Move the entry back unless its home slot lies cyclically in (hole, next]
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole << 1] = table[next << 1];
+                table[(hole << 1) + 1] = table[(next << 1) + 1];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[hole << 1] = EMPTY;
+        table[(hole << 1) + 1] = 0;
+        size--;
+        return previous;
+    }
+
+    private void resize() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        size = 0;
+        for (int i = 0; i < old.length; i += 2) {
+            if (old[i] != EMPTY)
+                put(old[i], old[i + 1]);
+        }
+    }
+
+    private static int slotOf(long key, int mask) {
+        return (int) ((key * GOLDEN_RATIO) >>> 32) & mask;
+    }
+
+    // Slots are kept at most half full
+    private static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2)
+            capacity <<= 1;
+        return capacity;
+    }
+}
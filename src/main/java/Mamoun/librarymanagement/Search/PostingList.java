@@ -0,0 +1,94 @@
+package Mamoun.librarymanagement.Search;
+
+import java.util.Arrays;
+
+// Ids of the books a term occurs in, kept sorted in a primitive array. Each entry is
+// the id shifted left by two with the fields the term was found in as the low bits.
+final class PostingList {
+
+    static final int TITLE = 1;
+    static final int AUTHOR = 2;
+
+    private long[] entries = new long[4];
+    private int size;
+    // Every field the term was ever added with. Not narrowed on removal, it only bounds scores.
+    private int fieldsUnion;
+
+    int size() {
+        return size;
+    }
+
+    long idAt(int index) {
+        return entries[index] >>> 2;
+    }
+
+    int fieldsUnion() {
+        return fieldsUnion;
+    }
+
+    int fieldsAt(int index) {
+        return (int) (entries[index] & 3);
+    }
+
+    // First position at or after from holding an id >= the given one, size when there is none.
+    // Gallops forward, so walking several lists in id order stays close to a linear merge.
+    int seek(long id, int from) {
+        int step = 1;
+        int low = from;
+        while (low + step < size && idAt(low + step) < id) {
+            low += step;
+            step <<= 1;
+        }
+        int high = Math.min(low + step, size);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (idAt(middle) < id)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    // Ids come from a sequence, so new books almost always land at the end
+    void add(long id, int fields) {
+        long entry = id << 2 | fields;
+        fieldsUnion |= fields;
+        if (size > 0 && idAt(size - 1) >= id) {
+            int index = indexOf(id);
+            if (index >= 0) {
+                entries[index] = entry;
+                return;
+            }
+            insertAt(-index - 1, entry);
+            return;
+        }
+        insertAt(size, entry);
+    }
+
+    void remove(long id) {
+        int index = indexOf(id);
+        if (index < 0)
+            return;
+        System.arraycopy(entries, index + 1, entries, index, size - index - 1);
+        size--;
+    }
+
+    private int indexOf(long id) {
+        int index = Arrays.binarySearch(entries, 0, size, id << 2);
+        if (index >= 0)
+            return index;
+        int insertion = -index - 1;
+        if (insertion < size && idAt(insertion) == id)
+            return insertion;
+        return index;
+    }
+
+    private void insertAt(int index, long entry) {
+        if (size == entries.length)
+            entries = Arrays.copyOf(entries, size * 2);
+        System.arraycopy(entries, index, entries, index + 1, size - index);
+        entries[index] = entry;
+        size++;
+    }
+}
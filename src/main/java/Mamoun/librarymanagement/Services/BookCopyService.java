@@ -0,0 +1,120 @@
+package Mamoun.librarymanagement.Services;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.Copies.CopyAllocator;
+import Mamoun.librarymanagement.DTO.BookCopyDTO;
+import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Entities.BookCopy;
+import Mamoun.librarymanagement.Entities.BorrowingRecord;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Exceptions.BookNotAvailableException;
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
+import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Mappers.BookMapper;
+import Mamoun.librarymanagement.Repositories.BookCopyRepository;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import Mamoun.librarymanagement.Search.AvailabilityIndex;
+import Mamoun.librarymanagement.Stats.InventoryCounters;
+import jakarta.transaction.Transactional;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+@Service
+public class BookCopyService {
+
+    private final BookCopyRepository bookCopyRepository;
+    private final BookRepository bookRepository;
+    private final CopyAllocator copyAllocator;
+    private final LibraryProperties libraryProperties;
+    private final HoldService holdService;
+    private final AvailabilityIndex availabilityIndex;
+    private final BookMapper bookMapper;
+    private final InventoryCounters inventoryCounters;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    public BookCopyService(BookCopyRepository bookCopyRepository, BookRepository bookRepository, CopyAllocator copyAllocator, LibraryProperties libraryProperties, HoldService holdService, AvailabilityIndex availabilityIndex, BookMapper bookMapper, InventoryCounters inventoryCounters, ApplicationEventPublisher eventPublisher) {
+        this.bookCopyRepository = bookCopyRepository;
+        this.bookRepository = bookRepository;
+        this.copyAllocator = copyAllocator;
+        this.libraryProperties = libraryProperties;
+        this.holdService = holdService;
+        this.availabilityIndex = availabilityIndex;
+        this.bookMapper = bookMapper;
+        this.inventoryCounters = inventoryCounters;
+        this.eventPublisher = eventPublisher;
+    }
+
+    public List<BookCopyDTO> getCopies(long bookId) {
+        if (!bookRepository.existsById(bookId))
+            throw new NotFoundException("Book not found with id: " + bookId);
+        return bookCopyRepository.findAllByBookId(bookId).stream()
+                .map(copy -> new BookCopyDTO(copy.getId(), bookId, copy.isBorrowed()))
+                .toList();
+    }
+
+    // New copies are inserted in one batch. Patrons waiting for the title get them first, under the book row
+    // lock like a return, the rest can be borrowed once the transaction commits. A book lent as a single
+    // row takes copies only once it is back, the two kinds of loan never mix on one title.
+    @Transactional
+    public List<BookCopyDTO> addCopies(long bookId, int count) {
+        int maxCount = libraryProperties.getBooks().getMaxBulkSize();
+        if (count < 1 || count > maxCount)
+            throw new InvalidRequestException("Between 1 and " + maxCount + " copies can be added at once, got: " + count);
+        Book book = bookRepository.findByIdForUpdate(bookId).orElseThrow(() -> new NotFoundException("Book not found with id: " + bookId));
+        if (book.isBorrowed() && !bookCopyRepository.existsByBookId(bookId))
+            throw new BookNotAvailableException("book with id: " + bookId + " is borrowed at the moment, add copies once it is returned");
+        List<BookCopy> copies = IntStream.range(0, count)
+                .mapToObj(i -> BookCopy.builder().book(book).borrowed(false).build())
+                .toList();
+        bookCopyRepository.saveAll(copies);
+        List<Long> shelved = new ArrayList<>(count);
+        for (BookCopy copy : copies) {
+            BorrowingRecord loan = shelved.isEmpty() ? holdService.handOver(book, copy) : null;
+            if (loan != null)
+                copy.setBorrowed(true);
+            else
+                shelved.add(copy.getId());
+        }
+        copyAllocator.offerAfterCommit(bookId, shelved);
+        if (!shelved.isEmpty())
+            copiesShelved(book);
+        return copies.stream().map(copy -> new BookCopyDTO(copy.getId(), bookId, copy.isBorrowed())).toList();
+    }
+
+    // A title stocked as copies counts as borrowed while none of them is on the shelf, so availability,
+    // holds, the search indexes and the statistics read it from the book row like any other book. Called
+    // after a copy was lent: the flag is set when the allocator has run dry and cleared when it has copies
+    // again. The book row is locked before the allocator is read a second time, so taking the last copy
+    // can't interleave with a return clearing the flag. A borrow that rolls back after taking the last
+    // copy, or a return that commits just as it goes, can leave the flag set for a moment, the next copy
+    // loan of the title puts it right. The index answers the common case where nothing changes.
+    public void copyLent(long bookId) {
+        boolean out = copyAllocator.available(bookId) == 0;
+        if (out == (availabilityIndex.status(bookId) == AvailabilityIndex.Status.BORROWED))
+            return;
+        Book book = bookRepository.findByIdForUpdate(bookId).orElseThrow(() -> new NotFoundException("Book not found with id: " + bookId));
+        setTitleBorrowed(book, copyAllocator.available(bookId) == 0);
+    }
+
+    // With the book row locked, once copies of it went back on the shelf
+    public void copiesShelved(Book book) {
+        setTitleBorrowed(book, false);
+    }
+
+    // The flag flip goes out as an update of the title, the copy loan's own event leaves it alone
+    private void setTitleBorrowed(Book book, boolean borrowed) {
+        if (book.isBorrowed() == borrowed)
+            return;
+        book.setBorrowed(borrowed);
+        BookDTO dto = bookMapper.toBookDTO(bookRepository.saveAndFlush(book));
+        inventoryCounters.record(InventoryCounters.Counter.BORROWED_BOOKS, borrowed ? 1 : -1);
+        eventPublisher.publishEvent(BookChangedEvent.of(BookChangedEvent.Type.UPDATED, dto));
+    }
+}
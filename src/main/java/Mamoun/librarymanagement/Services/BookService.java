@@ -1,43 +1,174 @@
 package Mamoun.librarymanagement.Services;
 
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.DTO.AvailabilitySummaryDTO;
+import Mamoun.librarymanagement.DTO.BookAvailabilityDTO;
 import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.DTO.KeysetPageDTO;
 import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
 import Mamoun.librarymanagement.Exceptions.DeleteException;
+import Mamoun.librarymanagement.Exceptions.DuplicateIsbnException;
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
 import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Exceptions.PreconditionFailedException;
 import Mamoun.librarymanagement.Mappers.BookMapper;
+import Mamoun.librarymanagement.Repositories.BookCopyRepository;
 import Mamoun.librarymanagement.Repositories.BookRepository;
 import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
+import Mamoun.librarymanagement.Search.AvailabilityIndex;
+import Mamoun.librarymanagement.Search.BookSearchIndex;
+import Mamoun.librarymanagement.Search.Isbn;
+import Mamoun.librarymanagement.Search.IsbnIndex;
+import Mamoun.librarymanagement.Stats.InventoryCounters;
+import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 
 @Service
 public class BookService {
 
+    // Properties a page of books can be sorted by, with the parser for their cursor values
+    private static final Map<String, Function<String, Object>> SORT_KEYS = Map.of(
+            "id", Long::valueOf,
+            "title", value -> value,
+            "author", value -> value,
+            "publicationYear", Integer::valueOf);
+
     private final BookRepository bookRepository;
     private final BorrowingRecordRepository borrowingRecordRepository;
     private final BookMapper bookMapper;
+    private final LibraryProperties libraryProperties;
+    private final EntityManager entityManager;
+    private final ApplicationEventPublisher eventPublisher;
+    private final BookSearchIndex bookSearchIndex;
+    private final IsbnIndex isbnIndex;
+    private final AvailabilityIndex availabilityIndex;
+    private final InventoryCounters inventoryCounters;
+    private final BookCopyRepository bookCopyRepository;
 
     @Autowired
-    public BookService(BookRepository bookRepository, BookMapper bookMapper , BorrowingRecordRepository borrowingRecordRepository) {
+    public BookService(BookRepository bookRepository, BookMapper bookMapper , BorrowingRecordRepository borrowingRecordRepository, LibraryProperties libraryProperties, EntityManager entityManager, ApplicationEventPublisher eventPublisher, BookSearchIndex bookSearchIndex, IsbnIndex isbnIndex, AvailabilityIndex availabilityIndex, InventoryCounters inventoryCounters, BookCopyRepository bookCopyRepository) {
         this.bookRepository = bookRepository;
         this.bookMapper = bookMapper;
         this.borrowingRecordRepository = borrowingRecordRepository;
+        this.libraryProperties = libraryProperties;
+        this.entityManager = entityManager;
+        this.eventPublisher = eventPublisher;
+        this.bookSearchIndex = bookSearchIndex;
+        this.isbnIndex = isbnIndex;
+        this.availabilityIndex = availabilityIndex;
+        this.inventoryCounters = inventoryCounters;
+        this.bookCopyRepository = bookCopyRepository;
     }
 
 
-    // Retrieve a list of all books
-    public List<BookDTO> getAllBooks() {
-        List<Book> books = bookRepository.findAll();
+    // Retrieve one page of books, continuing after the row the cursor points at.
+    // sort is a comma separated list of properties, a leading '-' sorts that property descending.
+    public KeysetPageDTO<BookDTO> getBooks(String cursor, Integer size, String sort) {
+        Sort order = parseSort(sort);
+        ScrollPosition position = cursor == null ? ScrollPosition.keyset() : ScrollPosition.forward(decodeCursor(cursor, order));
+        Window<Book> books = bookRepository.findAllBy(position, order, Limit.of(pageSize(size)));
+
+        List<BookDTO> content = books.stream()
+                .map(bookMapper::toBookDTO)
+                .toList();
+        String nextCursor = books.hasNext()
+                ? KeysetCursor.encode(((KeysetScrollPosition) books.positionAt(books.size() - 1)).getKeys())
+                : null;
+        return new KeysetPageDTO<>(content, nextCursor);
+    }
+
+    // One page of the books that are not borrowed, in id order. The ids come from the availability
+    // index, so only the books on the page are read. The cursor is the same as for id sorted pages.
+    public KeysetPageDTO<BookDTO> getAvailableBooks(String cursor, Integer size, String sort) {
+        Sort order = parseSort(sort);
+        Sort.Order first = order.iterator().next();
+        if (!first.getProperty().equals("id") || first.isDescending())
+            throw new InvalidRequestException("Available books can only be sorted by id");
+        long afterId = cursor == null ? 0 : (Long) decodeCursor(cursor, order).get("id");
+        int pageSize = pageSize(size);
+        long[] ids = availabilityIndex.availableIds(afterId + 1, Long.MAX_VALUE, pageSize + 1);
 
-        return books.stream()
+        List<Long> pageIds = Arrays.stream(ids).limit(pageSize).boxed().toList();
+        Map<Long, Book> books = new HashMap<>();
+        bookRepository.findAllById(pageIds).forEach(book -> books.put(book.getId(), book));
+        // A book borrowed or deleted since the index was read is left out rather than shown as available
+        List<BookDTO> content = pageIds.stream()
+                .map(books::get)
+                .filter(book -> book != null && !book.isBorrowed())
                 .map(bookMapper::toBookDTO)
-                .collect(Collectors.toList());
+                .toList();
+        String nextCursor = ids.length > pageSize ? KeysetCursor.encode(Map.of("id", pageIds.get(pageSize - 1))) : null;
+        return new KeysetPageDTO<>(content, nextCursor);
+    }
+
+    // Books matching every word of the query in their title or author, best matches first.
+    // The cursor holds the score and id of the last hit of the previous page.
+    public KeysetPageDTO<BookDTO> searchBooks(String query, String cursor, Integer size) {
+        if (query == null || query.isBlank())
+            throw new InvalidRequestException("Search query must not be empty");
+        int pageSize = pageSize(size);
+        double afterScore = Double.POSITIVE_INFINITY;
+        long afterId = Long.MIN_VALUE;
+        if (cursor != null) {
+            Map<String, String> values = KeysetCursor.decode(cursor);
+            if (values.size() != 2 || !values.containsKey("score") || !values.containsKey("id"))
+                throw new InvalidRequestException("Invalid cursor: " + cursor);
+            try {
+                afterScore = Double.parseDouble(values.get("score"));
+                afterId = Long.parseLong(values.get("id"));
+            } catch (NumberFormatException e) {
+                throw new InvalidRequestException("Invalid cursor: " + cursor);
+            }
+        }
+
+        List<BookSearchIndex.Hit> hits = bookSearchIndex.search(query, afterScore, afterId, pageSize + 1);
+        List<BookDTO> content = hits.stream().limit(pageSize).map(BookSearchIndex.Hit::book).toList();
+        String nextCursor = null;
+        if (hits.size() > pageSize) {
+            BookSearchIndex.Hit last = hits.get(pageSize - 1);
+            Map<String, Object> keys = new LinkedHashMap<>();
+            keys.put("score", last.score());
+            keys.put("id", last.book().getId());
+            nextCursor = KeysetCursor.encode(keys);
+        }
+        return new KeysetPageDTO<>(content, nextCursor);
+    }
+
+    // Hand every book to the sink in id order. Each entity is detached once mapped,
+    // so the persistence context stays empty however big the catalog is.
+    @Transactional
+    public void exportBooks(Consumer<BookDTO> sink) {
+        try (Stream<Book> books = bookRepository.streamAllByOrderByIdAsc()) {
+            books.forEach(book -> {
+                entityManager.detach(book);
+                sink.accept(bookMapper.toBookDTO(book));
+            });
+        }
     }
 
     // Retrieve details of a specific book by ID
@@ -52,33 +183,200 @@ public class BookService {
 
     }
 
+    // Answered from the availability index, the book isn't loaded
+    public BookAvailabilityDTO getBookAvailability(long id) {
+        return switch (availabilityIndex.status(id)) {
+            case AVAILABLE -> new BookAvailabilityDTO(id, true);
+            case BORROWED -> new BookAvailabilityDTO(id, false);
+            case MISSING -> throw new NotFoundException("Book not found with id: " + id);
+        };
+    }
+
+    // The counts are read one after the other, a loan in between can make them disagree by one
+    public AvailabilitySummaryDTO getAvailabilitySummary() {
+        long available = availabilityIndex.availableCount();
+        long borrowed = availabilityIndex.borrowedCount();
+        return new AvailabilitySummaryDTO(available + borrowed, available, borrowed);
+    }
+
+    // Current version of a book, read without loading it
+    public long getBookVersion(Long id) {
+        return bookRepository.findVersionById(id).orElseThrow(() -> new NotFoundException("Book not found with id: " + id));
+    }
+
+    // Resolve a scanned ISBN-10 or ISBN-13 to its book id from memory
+    public long getBookIdByIsbn(String isbn) {
+        long isbn13 = Isbn.parse(isbn);
+        if (isbn13 == Isbn.INVALID)
+            throw new InvalidRequestException("Invalid ISBN: " + isbn);
+        OptionalLong id = isbnIndex.find(isbn13);
+        if (id.isEmpty())
+            throw new NotFoundException("Book not found with isbn: " + isbn);
+        return id.getAsLong();
+    }
+
     // Add a new book to the library
     @Transactional
     public BookDTO addBook(BookDTO bookDTO) {
         Book book = bookMapper.toBook(bookDTO);
+        // The row is always new, a client-supplied id or version would turn the save into a merge
+        book.setId(null);
+        book.setVersion(null);
+        book.setIsbn(Isbn.canonical(book.getIsbn()));
+        requireUniqueIsbn(book.getIsbn(), null);
         Book savedBook = bookRepository.save(book);
-        return bookMapper.toBookDTO(savedBook);
+        BookDTO addedBook = bookMapper.toBookDTO(savedBook);
+        eventPublisher.publishEvent(BookChangedEvent.of(BookChangedEvent.Type.ADDED, addedBook));
+        recordAdded(List.of(addedBook));
+        return addedBook;
     }
 
-    // Update an existing book's information
+    // Add many books in one transaction. Rows are flushed in JDBC batches of
+    // bulkBatchSize and the persistence context is cleared after every batch.
     @Transactional
-    public BookDTO updateBook(Long id, BookDTO updatedBookDTO) {
+    public List<BookDTO> addBooks(List<BookDTO> bookDTOs) {
+        LibraryProperties.Books books = libraryProperties.getBooks();
+        if (bookDTOs.size() > books.getMaxBulkSize())
+            throw new InvalidRequestException("At most " + books.getMaxBulkSize() + " books can be imported at once, got: " + bookDTOs.size());
+        Set<String> isbns = new HashSet<>();
+        for (BookDTO bookDTO : bookDTOs) {
+            String isbn = Isbn.canonical(bookDTO.getIsbn());
+            if (!isbns.add(isbn))
+                throw new DuplicateIsbnException("isbn: " + bookDTO.getIsbn() + " appears more than once in the import");
+            requireUniqueIsbn(isbn, null);
+        }
 
-        if (bookRepository.existsById(id)) {
-            Book updatedBook = bookMapper.toBook(updatedBookDTO);
-            updatedBook.setId(id);
-            Book savedBook= bookRepository.save(updatedBook);
-            return bookMapper.toBookDTO(savedBook);
-        } else {
-            throw new NotFoundException("Book not found with id: " + id);
+        List<BookDTO> addedBooks = new ArrayList<>(bookDTOs.size());
+        for (int from = 0; from < bookDTOs.size(); from += books.getBulkBatchSize()) {
+            List<Book> batch = bookDTOs.subList(from, Math.min(from + books.getBulkBatchSize(), bookDTOs.size())).stream()
+                    .map(bookMapper::toBook)
+                    .toList();
+            batch.forEach(book -> {
+                book.setId(null);
+                book.setVersion(null);
+                book.setIsbn(Isbn.canonical(book.getIsbn()));
+            });
+            bookRepository.saveAll(batch);
+            bookRepository.flush();
+            batch.forEach(book -> addedBooks.add(bookMapper.toBookDTO(book)));
+            entityManager.clear();
         }
+        eventPublisher.publishEvent(BookChangedEvent.of(BookChangedEvent.Type.ADDED, addedBooks));
+        recordAdded(addedBooks);
+        return addedBooks;
+    }
+
+    // Update an existing book's information. With an expected version the update only applies to that version,
+    // without one it applies to whatever version is current. The merge rejects the update if the row changed meanwhile.
+    @Transactional
+    public BookDTO updateBook(Long id, BookDTO updatedBookDTO, Long expectedVersion) {
+        long version = getBookVersion(id);
+        if (expectedVersion != null && expectedVersion != version)
+            throw new PreconditionFailedException("Book with id: " + id + " is no longer at version " + expectedVersion);
+        boolean wasBorrowed = bookRepository.findBorrowedById(id).orElse(false);
+        Book updatedBook = bookMapper.toBook(updatedBookDTO);
+        updatedBook.setId(id);
+        updatedBook.setVersion(version);
+        // A title stocked as copies is borrowed while none of them is on the shelf, not when a client says so
+        if (bookCopyRepository.existsByBookId(id))
+            updatedBook.setBorrowed(wasBorrowed);
+        updatedBook.setIsbn(Isbn.canonical(updatedBook.getIsbn()));
+        requireUniqueIsbn(updatedBook.getIsbn(), id);
+        Book savedBook;
+        try {
+            // Flushed here so the returned version is the new one
+            savedBook = bookRepository.saveAndFlush(updatedBook);
+        } catch (OptimisticLockingFailureException e) {
+            if (expectedVersion == null)
+                throw e;
+            throw new PreconditionFailedException("Book with id: " + id + " is no longer at version " + expectedVersion);
+        }
+        BookDTO savedBookDTO = bookMapper.toBookDTO(savedBook);
+        eventPublisher.publishEvent(BookChangedEvent.of(BookChangedEvent.Type.UPDATED, savedBookDTO));
+        if (savedBook.isBorrowed() != wasBorrowed)
+            inventoryCounters.record(InventoryCounters.Counter.BORROWED_BOOKS, savedBook.isBorrowed() ? 1 : -1);
+        return savedBookDTO;
     }
 
     @Transactional
     public void deleteBook(Long id) {
         if(borrowingRecordRepository.existsByBookId(id))
             throw new DeleteException("Book with id: " + id + " can't be deleted because it has a borrowing record");
+        // Deleting a missing book succeeds quietly, it just mustn't be counted
+        Optional<Boolean> borrowed = bookRepository.findBorrowedById(id);
         bookRepository.deleteById(id);
+        eventPublisher.publishEvent(BookChangedEvent.ofId(BookChangedEvent.Type.DELETED, id));
+        if (borrowed.isPresent()) {
+            inventoryCounters.record(InventoryCounters.Counter.BOOKS, -1);
+            if (borrowed.get())
+                inventoryCounters.record(InventoryCounters.Counter.BORROWED_BOOKS, -1);
+        }
+    }
+
+    // Books can be imported already marked as borrowed
+    private void recordAdded(List<BookDTO> addedBooks) {
+        inventoryCounters.record(InventoryCounters.Counter.BOOKS, addedBooks.size());
+        inventoryCounters.record(InventoryCounters.Counter.BORROWED_BOOKS, addedBooks.stream().filter(BookDTO::isBorrowed).count());
+    }
+
+    // Checked against the ISBN index so the common case fails with a clear message,
+    // the unique index on the column still settles concurrent writes
+    private void requireUniqueIsbn(String isbn, Long id) {
+        long isbn13 = Isbn.parse(isbn);
+        if (isbn13 == Isbn.INVALID)
+            return;
+        OptionalLong owner = isbnIndex.find(isbn13);
+        if (owner.isPresent() && (id == null || owner.getAsLong() != id))
+            throw new DuplicateIsbnException("A book with isbn: " + isbn + " already exists");
+    }
+
+    private int pageSize(Integer size) {
+        LibraryProperties.Books books = libraryProperties.getBooks();
+        if (size == null)
+            return books.getDefaultPageSize();
+        if (size < 1)
+            throw new InvalidRequestException("Page size must be positive, got: " + size);
+        return Math.min(size, books.getMaxPageSize());
+    }
+
+    // The id is always the last sort key so every row has a unique position
+    private Sort parseSort(String sort) {
+        List<Sort.Order> orders = new ArrayList<>();
+        if (sort != null && !sort.isBlank()) {
+            for (String key : sort.split(",")) {
+                String property = key.trim();
+                Sort.Direction direction = Sort.Direction.ASC;
+                if (property.startsWith("-")) {
+                    direction = Sort.Direction.DESC;
+                    property = property.substring(1);
+                }
+                if (!SORT_KEYS.containsKey(property))
+                    throw new InvalidRequestException("Books can't be sorted by: " + property);
+                orders.add(new Sort.Order(direction, property));
+                if (property.equals("id"))
+                    return Sort.by(orders);
+            }
+        }
+        orders.add(Sort.Order.asc("id"));
+        return Sort.by(orders);
+    }
+
+    private Map<String, Object> decodeCursor(String cursor, Sort order) {
+        Map<String, String> values = KeysetCursor.decode(cursor);
+        Map<String, Object> keys = new LinkedHashMap<>();
+        for (Sort.Order sortOrder : order) {
+            String value = values.get(sortOrder.getProperty());
+            if (value == null)
+                throw new InvalidRequestException("Cursor doesn't match the requested sort: " + cursor);
+            try {
+                keys.put(sortOrder.getProperty(), SORT_KEYS.get(sortOrder.getProperty()).apply(value));
+            } catch (NumberFormatException e) {
+                throw new InvalidRequestException("Invalid cursor: " + cursor);
+            }
+        }
+        if (values.size() != keys.size())
+            throw new InvalidRequestException("Cursor doesn't match the requested sort: " + cursor);
+        return keys;
     }
 }
 
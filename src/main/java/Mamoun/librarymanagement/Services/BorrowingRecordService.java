@@ -1,20 +1,40 @@
 package Mamoun.librarymanagement.Services;
 
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.Copies.CopyAllocator;
 import Mamoun.librarymanagement.DTO.BorrowingRecordDTO;
+import Mamoun.librarymanagement.DTO.LoanResultDTO;
 import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Entities.BookCopy;
 import Mamoun.librarymanagement.Entities.BorrowingRecord;
 import Mamoun.librarymanagement.Entities.Patron;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
 import Mamoun.librarymanagement.Exceptions.BookNotAvailableException;
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
+import Mamoun.librarymanagement.Exceptions.LoanLimitExceededException;
 import Mamoun.librarymanagement.Exceptions.NotFoundException;
 import Mamoun.librarymanagement.Mappers.BorrowingRecordMapper;
+import Mamoun.librarymanagement.Repositories.BookCopyRepository;
 import Mamoun.librarymanagement.Repositories.BookRepository;
 import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
 import Mamoun.librarymanagement.Repositories.PatronRepository;
+import Mamoun.librarymanagement.Stats.InventoryCounters;
+import Mamoun.librarymanagement.Stats.PatronLoanCounts;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 
 @Service
@@ -24,43 +44,291 @@ public class BorrowingRecordService {
     private final BookRepository bookRepository;
     private final PatronRepository patronRepository;
     private final BorrowingRecordMapper borrowingRecordMapper;
+    private final ApplicationEventPublisher eventPublisher;
+    private final LibraryProperties libraryProperties;
+    private final InventoryCounters inventoryCounters;
+    private final PatronLoanCounts patronLoanCounts;
+    private final BookCopyRepository bookCopyRepository;
+    private final CopyAllocator copyAllocator;
+    private final HoldService holdService;
+    private final BookCopyService bookCopyService;
     @Autowired
 
-    public BorrowingRecordService(BorrowingRecordRepository borrowingRecordRepository, BookRepository bookRepository, PatronRepository patronRepository, BorrowingRecordMapper borrowingRecordMapper) {
+    public BorrowingRecordService(BorrowingRecordRepository borrowingRecordRepository, BookRepository bookRepository, PatronRepository patronRepository, BorrowingRecordMapper borrowingRecordMapper, ApplicationEventPublisher eventPublisher, LibraryProperties libraryProperties, InventoryCounters inventoryCounters, PatronLoanCounts patronLoanCounts, BookCopyRepository bookCopyRepository, CopyAllocator copyAllocator, HoldService holdService, BookCopyService bookCopyService) {
         this.borrowingRecordRepository = borrowingRecordRepository;
         this.bookRepository = bookRepository;
         this.patronRepository = patronRepository;
         this.borrowingRecordMapper = borrowingRecordMapper;
+        this.eventPublisher = eventPublisher;
+        this.libraryProperties = libraryProperties;
+        this.inventoryCounters = inventoryCounters;
+        this.patronLoanCounts = patronLoanCounts;
+        this.bookCopyRepository = bookCopyRepository;
+        this.copyAllocator = copyAllocator;
+        this.holdService = holdService;
+        this.bookCopyService = bookCopyService;
     }
 
 
-@Transactional
+    // The book is claimed with one conditional update, so concurrent borrowers can't both see it available.
+    // The patron's loan slot is reserved in memory first and given back if the borrow fails.
+    // A title stocked as copies is turned away, its copies are lent by borrowCopy.
+    @Transactional
     public BorrowingRecordDTO borrowBook(long bookId , long patronId){
-       Book book = bookRepository.findById(bookId).orElseThrow(() -> new NotFoundException("Book not found with id: " + bookId));
        Patron patron = patronRepository.findById(patronId).orElseThrow(()->new NotFoundException("patron not found with id: " + patronId));
-       if(book.isBorrowed()){
+       if(patronLoanCounts.reserve(patronId, 1) == 0)
+           throw new LoanLimitExceededException(loanLimitMessage(patronId));
+       if(bookRepository.markBorrowed(bookId) == 0){
+           if(!bookRepository.existsById(bookId))
+               throw new NotFoundException("Book not found with id: " + bookId);
+           if(bookCopyRepository.existsByBookId(bookId))
+               throw new BookNotAvailableException(stockedAsCopiesMessage(bookId));
            throw new BookNotAvailableException("book with id: " + bookId +" is already borrowed at the moment");
        }
-       book.setBorrowed(true);
-       BorrowingRecord borrowingRecord = new BorrowingRecord(book,patron,LocalDate.now(),LocalDate.of(10000,12,31));
+       Book book = bookRepository.getReferenceById(bookId);
+       LocalDate today = LocalDate.now();
+       BorrowingRecord borrowingRecord = new BorrowingRecord(book,patron,today,dueDate(today),null);
        BorrowingRecord savedRecord = borrowingRecordRepository.save(borrowingRecord);
+       eventPublisher.publishEvent(BookChangedEvent.ofLoan(BookChangedEvent.Type.BORROWED, List.of(bookId), patronId));
+       recordLoans(1);
        return borrowingRecordMapper.toBorrowingRecordDTo(savedRecord);
     }
+
+    // Lends any free copy of the title. The copy comes off the allocator's lock-free queue, so concurrent
+    // borrowers of a popular title claim different rows and none waits on another's update. A patron
+    // holds at most one copy of a title: the lookup turns most repeats away early, the open loan
+    // constraint settles concurrent ones when the loan is flushed. The copy loan's event carries the copy,
+    // the title itself goes out once its last copy is lent.
+    @Transactional
+    public BorrowingRecordDTO borrowCopy(long bookId, long patronId){
+        Patron patron = patronRepository.findById(patronId).orElseThrow(()->new NotFoundException("patron not found with id: " + patronId));
+        if(borrowingRecordRepository.findActiveByBookIdAndPatronId(bookId, patronId).isPresent())
+            throw new BookNotAvailableException("patron with id: " + patronId + " already holds book with id: " + bookId);
+        if(patronLoanCounts.reserve(patronId, 1) == 0)
+            throw new LoanLimitExceededException(loanLimitMessage(patronId));
+        long copyId = claimCopy(bookId);
+        if(copyId == CopyAllocator.NONE){
+            if(!bookRepository.existsById(bookId))
+                throw new NotFoundException("Book not found with id: " + bookId);
+            throw new BookNotAvailableException("no copy of book with id: " + bookId + " is available at the moment");
+        }
+        LocalDate today = LocalDate.now();
+        BorrowingRecord borrowingRecord = new BorrowingRecord(bookRepository.getReferenceById(bookId),patron,today,dueDate(today),null);
+        borrowingRecord.setCopy(bookCopyRepository.getReferenceById(copyId));
+        BorrowingRecord savedRecord;
+        try {
+            savedRecord = borrowingRecordRepository.saveAndFlush(borrowingRecord);
+        } catch (DataIntegrityViolationException e) {
+            throw new BookNotAvailableException("patron with id: " + patronId + " already holds book with id: " + bookId);
+        }
+        eventPublisher.publishEvent(BookChangedEvent.ofCopyLoans(BookChangedEvent.Type.BORROWED, List.of(bookId), List.of(copyId), patronId));
+        inventoryCounters.record(InventoryCounters.Counter.OPEN_LOANS, 1);
+        bookCopyService.copyLent(bookId);
+        return borrowingRecordMapper.toBorrowingRecordDTo(savedRecord);
+    }
+
+    // A copy whose conditional update fails was taken by someone the allocator didn't see, the next one is tried
+    private long claimCopy(long bookId) {
+        for (long copyId = copyAllocator.poll(bookId); copyId != CopyAllocator.NONE; copyId = copyAllocator.poll(bookId)) {
+            if (bookCopyRepository.markBorrowed(copyId) == 1)
+                return copyId;
+        }
+        return CopyAllocator.NONE;
+    }
+
+    // The book row is locked before the open loan is read, so a second return of the same loan waits for
+    // the first and then finds nothing left to close. The loan is closed with a conditional update, only
+    // a loan it actually closed frees the patron's slot. The book goes to the oldest waiting hold in the
+    // same transaction and a hold can't be placed while it goes back on the shelf.
     @Transactional
     public BorrowingRecordDTO returnBook (long bookId ,long patronId ){
-        Book book = bookRepository.findById(bookId).orElseThrow(() -> new NotFoundException("Book not found with id: " + bookId));
+        Book book = bookRepository.findByIdForUpdate(bookId).orElseThrow(() -> new NotFoundException("Book not found with id: " + bookId));
+        BorrowingRecord borrowingRecord = borrowingRecordRepository.findActiveByBookIdAndPatronId(bookId, patronId)
+                .orElseThrow(() -> returnFailure(bookId, patronId));
+        LocalDate today = LocalDate.now();
+        if (borrowingRecordRepository.closeActive(List.of(borrowingRecord.getId()), today) == 0)
+            throw returnFailure(bookId, patronId);
+
+        BookCopy copy = borrowingRecord.getCopy();
+        if (copy == null) {
+            book.setBorrowed(false);
+            recordLoans(-1);
+            eventPublisher.publishEvent(BookChangedEvent.ofLoan(BookChangedEvent.Type.RETURNED, List.of(bookId), patronId));
+        } else {
+            inventoryCounters.record(InventoryCounters.Counter.OPEN_LOANS, -1);
+            eventPublisher.publishEvent(BookChangedEvent.ofCopyLoans(BookChangedEvent.Type.RETURNED, List.of(bookId), List.of(copy.getId()), patronId));
+        }
+        if (holdService.handOver(book, copy) == null && copy != null)
+            returnCopies(book, List.of(copy.getId()));
+        patronLoanCounts.release(patronId, 1);
+        return returnedDTO(borrowingRecord, today);
+    }
+
+    private RuntimeException returnFailure(long bookId, long patronId) {
+        Optional<Book> book = bookRepository.findById(bookId);
+        if (book.isEmpty())
+            return new NotFoundException("Book not found with id: " + bookId);
+        if (!patronRepository.existsById(patronId))
+            return new NotFoundException("patron not found with id: " + patronId);
+        if (!book.get().isBorrowed())
+            return new BookNotAvailableException("book with id: " + bookId +" is already in stock at the moment");
+        return new NotFoundException("No active borrowing record found for the book and patron");
+    }
+
+    // All books are read and row-locked by one IN query, the free ones are flipped together and flushed as one
+    // update batch, and the new records go out as one insert batch. Unavailable books are reported, not thrown,
+    // and so are free books beyond the patron's loan limit, which are skipped in the order they were asked for.
+    // Titles stocked as copies are reported too, their copies are lent one at a time by borrowCopy.
+    @Transactional
+    public List<LoanResultDTO> borrowBooks(long patronId, List<Long> bookIds) {
+        Set<Long> ids = batchIds(bookIds);
         Patron patron = patronRepository.findById(patronId).orElseThrow(()->new NotFoundException("patron not found with id: " + patronId));
-        if(!book.isBorrowed()){
-            throw new BookNotAvailableException("book with id: " + bookId +" is already in stock at the moment");
+        Map<Long, Book> books = new HashMap<>();
+        for (Book book : bookRepository.findAllByIdForUpdate(ids))
+            books.put(book.getId(), book);
+
+        List<Long> unborrowed = ids.stream().filter(id -> books.containsKey(id) && !books.get(id).isBorrowed()).toList();
+        Set<Long> stockedAsCopies = unborrowed.isEmpty() ? Set.of() : new HashSet<>(bookCopyRepository.findBookIdsWithCopies(unborrowed));
+        List<Book> free = unborrowed.stream().filter(id -> !stockedAsCopies.contains(id)).map(books::get).toList();
+        int granted = free.isEmpty() ? 0 : patronLoanCounts.reserve(patronId, free.size());
+        LocalDate today = LocalDate.now();
+        LocalDate dueDate = dueDate(today);
+        List<BorrowingRecord> records = new ArrayList<>(granted);
+        for (Book book : free.subList(0, granted)) {
+            book.setBorrowed(true);
+            records.add(new BorrowingRecord(book, patron, today, dueDate, null));
+        }
+        borrowingRecordRepository.saveAll(records);
+        Map<Long, BorrowingRecord> claimed = new HashMap<>();
+        for (BorrowingRecord record : records)
+            claimed.put(record.getBook().getId(), record);
+
+        List<LoanResultDTO> results = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            BorrowingRecord record = claimed.get(id);
+            if (record != null)
+                results.add(LoanResultDTO.succeeded(id, LoanResultDTO.Status.BORROWED, borrowingRecordMapper.toBorrowingRecordDTo(record)));
+            else if (!books.containsKey(id))
+                results.add(LoanResultDTO.failed(id, LoanResultDTO.Status.NOT_FOUND, "Book not found with id: " + id));
+            else if (books.get(id).isBorrowed())
+                results.add(LoanResultDTO.failed(id, LoanResultDTO.Status.NOT_AVAILABLE, "book with id: " + id + " is already borrowed at the moment"));
+            else if (stockedAsCopies.contains(id))
+                results.add(LoanResultDTO.failed(id, LoanResultDTO.Status.NOT_AVAILABLE, stockedAsCopiesMessage(id)));
+            else
+                results.add(LoanResultDTO.failed(id, LoanResultDTO.Status.LOAN_LIMIT_REACHED, loanLimitMessage(patronId)));
         }
-        BorrowingRecord borrowingRecord = borrowingRecordRepository
-                .findFirstByBookIdAndPatronIdOrderByBorrowingDateDesc(bookId, patronId)
-                .orElseThrow(() -> new NotFoundException("No active borrowing record found for the book and patron"));
-
-        book.setBorrowed(false);
-        borrowingRecord.setReturnDate(LocalDate.now());
-        BorrowingRecord savedBorrowingRecord = borrowingRecordRepository.save(borrowingRecord);
-        return borrowingRecordMapper.toBorrowingRecordDTo(savedBorrowingRecord);
+        if (!claimed.isEmpty())
+            eventPublisher.publishEvent(BookChangedEvent.ofLoan(BookChangedEvent.Type.BORROWED, List.copyOf(claimed.keySet()), patronId));
+        recordLoans(claimed.size());
+        return results;
+    }
+
+    // The requested books are row-locked in id order first, then the patron's open loans for them come back
+    // in one query and are closed by one conditional update. Overlapping batches and single returns wait on
+    // the book locks, so a loan is never closed twice. The locked books also tell a missing book from one
+    // the patron doesn't hold, and are handed over to waiting holds.
+    @Transactional
+    public List<LoanResultDTO> returnBooks(long patronId, List<Long> bookIds) {
+        Set<Long> ids = batchIds(bookIds);
+        if (!patronRepository.existsById(patronId))
+            throw new NotFoundException("patron not found with id: " + patronId);
+
+        Set<Long> existing = new HashSet<>();
+        bookRepository.findAllByIdForUpdate(ids).forEach(book -> existing.add(book.getId()));
+        List<BorrowingRecord> records = existing.isEmpty()
+                ? List.of()
+                : borrowingRecordRepository.findActiveByPatronIdAndBookIdIn(patronId, existing);
+        LocalDate today = LocalDate.now();
+        if (!records.isEmpty()) {
+            int closed = borrowingRecordRepository.closeActive(records.stream().map(BorrowingRecord::getId).toList(), today);
+            if (closed != records.size())
+                throw new IllegalStateException("Closed " + closed + " of " + records.size() + " loans read under the book locks");
+        }
+
+        Map<Long, BorrowingRecord> returned = new HashMap<>();
+        List<Long> returnedBooks = new ArrayList<>();
+        List<Long> copyTitles = new ArrayList<>();
+        List<Long> returnedCopies = new ArrayList<>();
+        for (BorrowingRecord record : records) {
+            returned.put(record.getBook().getId(), record);
+            if (record.getCopy() == null) {
+                record.getBook().setBorrowed(false);
+                returnedBooks.add(record.getBook().getId());
+            } else {
+                copyTitles.add(record.getBook().getId());
+                returnedCopies.add(record.getCopy().getId());
+            }
+        }
+
+        List<LoanResultDTO> results = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            BorrowingRecord record = returned.get(id);
+            if (record != null)
+                results.add(LoanResultDTO.succeeded(id, LoanResultDTO.Status.RETURNED, returnedDTO(record, today)));
+            else if (!existing.contains(id))
+                results.add(LoanResultDTO.failed(id, LoanResultDTO.Status.NOT_FOUND, "Book not found with id: " + id));
+            else
+                results.add(LoanResultDTO.failed(id, LoanResultDTO.Status.NO_ACTIVE_LOAN, "No active borrowing record found for book with id: " + id + " and the patron"));
+        }
+        if (!returnedBooks.isEmpty())
+            eventPublisher.publishEvent(BookChangedEvent.ofLoan(BookChangedEvent.Type.RETURNED, returnedBooks, patronId));
+        if (!returnedCopies.isEmpty())
+            eventPublisher.publishEvent(BookChangedEvent.ofCopyLoans(BookChangedEvent.Type.RETURNED, copyTitles, returnedCopies, patronId));
+        recordLoans(-returnedBooks.size());
+        inventoryCounters.record(InventoryCounters.Counter.OPEN_LOANS, -returnedCopies.size());
+        for (BorrowingRecord record : records) {
+            if (holdService.handOver(record.getBook(), record.getCopy()) == null && record.getCopy() != null)
+                returnCopies(record.getBook(), List.of(record.getCopy().getId()));
+        }
+        patronLoanCounts.release(patronId, returned.size());
+        return results;
     }
-}
 
+    // Copies nobody was waiting for go back on the shelf in one update and to the allocator once that has
+    // committed. The book row is locked, the title is back in stock with them.
+    private void returnCopies(Book book, List<Long> copyIds) {
+        bookCopyRepository.markReturned(copyIds);
+        copyAllocator.offerAfterCommit(book.getId(), copyIds);
+        bookCopyService.copiesShelved(book);
+    }
+
+    // The record was closed by a bulk update, its managed copy still reads as open
+    private BorrowingRecordDTO returnedDTO(BorrowingRecord record, LocalDate returnDate) {
+        BorrowingRecordDTO dto = borrowingRecordMapper.toBorrowingRecordDTo(record);
+        dto.setActive(false);
+        dto.setReturnDate(returnDate);
+        return dto;
+    }
+
+    private String stockedAsCopiesMessage(long bookId) {
+        return "book with id: " + bookId + " is stocked as copies, borrow a copy of it instead";
+    }
+
+    private String loanLimitMessage(long patronId) {
+        return "patron with id: " + patronId + " already holds the maximum of "
+                + libraryProperties.getBorrowings().getMaxLoansPerPatron() + " books";
+    }
+
+    // Every loan holds exactly one book, so both counters move together
+    private void recordLoans(long delta) {
+        inventoryCounters.record(InventoryCounters.Counter.BORROWED_BOOKS, delta);
+        inventoryCounters.record(InventoryCounters.Counter.OPEN_LOANS, delta);
+    }
+
+    private LocalDate dueDate(LocalDate borrowingDate) {
+        return borrowingDate.plus(libraryProperties.getBorrowings().getLoanPeriod());
+    }
+
+    // Repeated ids are collapsed so each book is reported once, in the order it was first asked for
+    private Set<Long> batchIds(List<Long> bookIds) {
+        int maxBatchSize = libraryProperties.getBorrowings().getMaxBatchSize();
+        if (bookIds == null || bookIds.isEmpty())
+            throw new InvalidRequestException("At least one book id is required");
+        Set<Long> ids = new LinkedHashSet<>(bookIds);
+        if (ids.contains(null))
+            throw new InvalidRequestException("Book ids must not be null");
+        if (ids.size() > maxBatchSize)
+            throw new InvalidRequestException("At most " + maxBatchSize + " books can be handled at once, got: " + ids.size());
+        return ids;
+    }
+}
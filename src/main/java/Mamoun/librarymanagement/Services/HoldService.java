@@ -0,0 +1,156 @@
+package Mamoun.librarymanagement.Services;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.DTO.HoldDTO;
+import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Entities.BookCopy;
+import Mamoun.librarymanagement.Entities.BorrowingRecord;
+import Mamoun.librarymanagement.Entities.Hold;
+import Mamoun.librarymanagement.Entities.Patron;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Exceptions.HoldConflictException;
+import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Holds.HoldQueues;
+import Mamoun.librarymanagement.Repositories.BookCopyRepository;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
+import Mamoun.librarymanagement.Repositories.HoldRepository;
+import Mamoun.librarymanagement.Repositories.PatronRepository;
+import Mamoun.librarymanagement.Stats.InventoryCounters;
+import Mamoun.librarymanagement.Stats.PatronLoanCounts;
+import jakarta.transaction.Transactional;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+@Service
+public class HoldService {
+
+    private final HoldRepository holdRepository;
+    private final BookRepository bookRepository;
+    private final BookCopyRepository bookCopyRepository;
+    private final PatronRepository patronRepository;
+    private final BorrowingRecordRepository borrowingRecordRepository;
+    private final HoldQueues holdQueues;
+    private final PatronLoanCounts patronLoanCounts;
+    private final InventoryCounters inventoryCounters;
+    private final ApplicationEventPublisher eventPublisher;
+    private final LibraryProperties libraryProperties;
+
+    @Autowired
+    public HoldService(HoldRepository holdRepository, BookRepository bookRepository, BookCopyRepository bookCopyRepository, PatronRepository patronRepository, BorrowingRecordRepository borrowingRecordRepository, HoldQueues holdQueues, PatronLoanCounts patronLoanCounts, InventoryCounters inventoryCounters, ApplicationEventPublisher eventPublisher, LibraryProperties libraryProperties) {
+        this.holdRepository = holdRepository;
+        this.bookRepository = bookRepository;
+        this.bookCopyRepository = bookCopyRepository;
+        this.patronRepository = patronRepository;
+        this.borrowingRecordRepository = borrowingRecordRepository;
+        this.holdQueues = holdQueues;
+        this.patronLoanCounts = patronLoanCounts;
+        this.inventoryCounters = inventoryCounters;
+        this.eventPublisher = eventPublisher;
+        this.libraryProperties = libraryProperties;
+    }
+
+    // Queues the patron for a title that is out. The book row is locked, so a return either sees the
+    // new hold or has already put the book back, in which case the hold is refused and the patron borrows it.
+    // A title stocked as copies is out when none of its copies is on the shelf.
+    @Transactional
+    public HoldDTO placeHold(long bookId, long patronId) {
+        Patron patron = patronRepository.findById(patronId).orElseThrow(() -> new NotFoundException("patron not found with id: " + patronId));
+        Book book = bookRepository.findByIdForUpdate(bookId).orElseThrow(() -> new NotFoundException("Book not found with id: " + bookId));
+        boolean available = bookCopyRepository.existsByBookId(bookId) ? bookCopyRepository.existsFreeByBookId(bookId) : !book.isBorrowed();
+        if (available)
+            throw new HoldConflictException("book with id: " + bookId + " is available, borrow it instead");
+        if (borrowingRecordRepository.findActiveByBookIdAndPatronId(bookId, patronId).isPresent())
+            throw new HoldConflictException("patron with id: " + patronId + " already holds book with id: " + bookId);
+        if (holdRepository.existsByBookIdAndPatronIdAndStatus(bookId, patronId, Hold.Status.WAITING))
+            throw new HoldConflictException("patron with id: " + patronId + " is already waiting for book with id: " + bookId);
+
+        Hold hold = holdRepository.save(Hold.builder().book(book).patron(patron).placedAt(LocalDateTime.now()).status(Hold.Status.WAITING).build());
+        holdQueues.add(bookId, hold.getId(), patronId);
+        return toHoldDTO(hold, bookId, patronId);
+    }
+
+    public HoldDTO getHold(long holdId) {
+        Hold hold = holdRepository.findById(holdId).orElseThrow(() -> new NotFoundException("hold not found with id: " + holdId));
+        return toHoldDTO(hold, hold.getBook().getId(), hold.getPatron().getId());
+    }
+
+    // The hold as soon as it stops waiting. The waiter is registered before the hold is read, so a
+    // hand-over committing in between still wakes it.
+    public CompletableFuture<HoldDTO> awaitHold(long holdId) {
+        CompletableFuture<HoldQueues.Outcome> settled = holdQueues.settled(holdId);
+        HoldDTO hold = getHold(holdId);
+        if (hold.getStatus() != Hold.Status.WAITING)
+            return CompletableFuture.completedFuture(hold);
+        return settled.thenApply(outcome -> outcome == null ? hold : hold.toBuilder()
+                .status(outcome.status()).position(null).loanId(outcome.loanId()).build());
+    }
+
+    @Transactional
+    public HoldDTO cancelHold(long holdId) {
+        Hold hold = holdRepository.findById(holdId).orElseThrow(() -> new NotFoundException("hold not found with id: " + holdId));
+        long bookId = hold.getBook().getId();
+        if (holdRepository.changeStatus(holdId, Hold.Status.WAITING, Hold.Status.CANCELLED) == 0)
+            throw new HoldConflictException("hold with id: " + holdId + " is no longer waiting");
+        holdQueues.settleAfterCommit(bookId, holdId, new HoldQueues.Outcome(Hold.Status.CANCELLED, null));
+        HoldDTO cancelled = toHoldDTO(hold, bookId, hold.getPatron().getId());
+        cancelled.setStatus(Hold.Status.CANCELLED);
+        cancelled.setPosition(null);
+        return cancelled;
+    }
+
+    // Lends a book or copy that just came back, or a new copy, to the oldest hold whose patron has a free
+    // loan slot, in the caller's transaction. The caller holds the book row lock, so no hold is placed meanwhile.
+    // Patrons at their loan limit keep their place. Returns the new loan, null when nobody could take it.
+    public BorrowingRecord handOver(Book book, BookCopy copy) {
+        long bookId = book.getId();
+        for (HoldQueues.Waiting next : holdQueues.waiting(bookId)) {
+            // Borrowed a copy of the title since the hold was placed, a second open loan would break the constraint
+            if (borrowingRecordRepository.findActiveByBookIdAndPatronId(bookId, next.patronId()).isPresent())
+                continue;
+            if (patronLoanCounts.reserve(next.patronId(), 1) == 0)
+                continue;
+            if (holdRepository.changeStatus(next.holdId(), Hold.Status.WAITING, Hold.Status.FULFILLED) == 0) {
+                patronLoanCounts.release(next.patronId(), 1);
+                holdQueues.drop(bookId, next);
+                continue;
+            }
+            LocalDate today = LocalDate.now();
+            BorrowingRecord loan = new BorrowingRecord(book, patronRepository.getReferenceById(next.patronId()), today,
+                    today.plus(libraryProperties.getBorrowings().getLoanPeriod()), null);
+            loan.setCopy(copy);
+            borrowingRecordRepository.save(loan);
+            holdRepository.attachLoan(next.holdId(), loan);
+            holdQueues.settleAfterCommit(bookId, next.holdId(), new HoldQueues.Outcome(Hold.Status.FULFILLED, loan.getId()));
+            if (copy == null) {
+                book.setBorrowed(true);
+                inventoryCounters.record(InventoryCounters.Counter.BORROWED_BOOKS, 1);
+                eventPublisher.publishEvent(BookChangedEvent.ofLoan(BookChangedEvent.Type.BORROWED, List.of(bookId), next.patronId()));
+            } else {
+                eventPublisher.publishEvent(BookChangedEvent.ofCopyLoans(BookChangedEvent.Type.BORROWED, List.of(bookId), List.of(copy.getId()), next.patronId()));
+            }
+            inventoryCounters.record(InventoryCounters.Counter.OPEN_LOANS, 1);
+            return loan;
+        }
+        return null;
+    }
+
+    private HoldDTO toHoldDTO(Hold hold, long bookId, long patronId) {
+        boolean waiting = hold.getStatus() == Hold.Status.WAITING;
+        return HoldDTO.builder()
+                .id(hold.getId())
+                .bookId(bookId)
+                .patronId(patronId)
+                .placedAt(hold.getPlacedAt())
+                .status(hold.getStatus())
+                .position(waiting ? holdQueues.position(bookId, hold.getId()) : null)
+                .loanId(hold.getLoan() == null ? null : hold.getLoan().getId())
+                .build();
+    }
+}
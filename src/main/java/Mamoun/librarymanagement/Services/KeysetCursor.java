@@ -0,0 +1,43 @@
+package Mamoun.librarymanagement.Services;
+
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+// Opaque, URL-safe continuation token holding the sort key values of the last row of a page
+final class KeysetCursor {
+
+    private KeysetCursor() {
+    }
+
+    static String encode(Map<String, ?> keys) {
+        StringJoiner joiner = new StringJoiner("&");
+        keys.forEach((name, value) -> joiner.add(
+                URLEncoder.encode(name, UTF_8) + "=" + URLEncoder.encode(String.valueOf(value), UTF_8)));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(joiner.toString().getBytes(UTF_8));
+    }
+
+    static Map<String, String> decode(String cursor) {
+        Map<String, String> keys = new LinkedHashMap<>();
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), UTF_8);
+            for (String pair : decoded.split("&")) {
+                int separator = pair.indexOf('=');
+                if (separator <= 0)
+                    throw new InvalidRequestException("Invalid cursor: " + cursor);
+                keys.put(URLDecoder.decode(pair.substring(0, separator), UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), UTF_8));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRequestException("Invalid cursor: " + cursor);
+        }
+        return keys;
+    }
+}
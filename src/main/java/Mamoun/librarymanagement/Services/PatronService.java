@@ -1,16 +1,25 @@
 package Mamoun.librarymanagement.Services;
 
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.DTO.BorrowingHistoryDTO;
+import Mamoun.librarymanagement.DTO.KeysetPageDTO;
 import Mamoun.librarymanagement.Entities.Patron;
 import Mamoun.librarymanagement.DTO.PatronDTO;
 import Mamoun.librarymanagement.Exceptions.DeleteException;
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
 import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Exceptions.PreconditionFailedException;
 import Mamoun.librarymanagement.Mappers.PatronMapper;
 import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
 import Mamoun.librarymanagement.Repositories.PatronRepository;
+import Mamoun.librarymanagement.Stats.InventoryCounters;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -21,11 +30,15 @@ public class PatronService {
     private final PatronMapper patronMapper;
 
     private final BorrowingRecordRepository borrowingRecordRepository;
+    private final LibraryProperties libraryProperties;
+    private final InventoryCounters inventoryCounters;
     @Autowired
-    public PatronService(PatronRepository patronRepository, PatronMapper patronMapper , BorrowingRecordRepository borrowingRecordRepository) {
+    public PatronService(PatronRepository patronRepository, PatronMapper patronMapper , BorrowingRecordRepository borrowingRecordRepository, LibraryProperties libraryProperties, InventoryCounters inventoryCounters) {
         this.patronRepository = patronRepository;
         this.patronMapper = patronMapper;
         this.borrowingRecordRepository = borrowingRecordRepository;
+        this.libraryProperties = libraryProperties;
+        this.inventoryCounters = inventoryCounters;
     }
 
     public List<PatronDTO> getAllPatrons(){
@@ -41,27 +54,77 @@ public class PatronService {
         throw new NotFoundException("Patron not found with id: " + id);
 
     }
+    // Current version of a patron, read without loading it
+    public long getPatronVersion(long id) {
+        return patronRepository.findVersionById(id).orElseThrow(() -> new NotFoundException("Patron not found with id: " + id));
+    }
+    // One page of the patron's loans, newest first. A row more than the page is read to know if another page follows.
+    public KeysetPageDTO<BorrowingHistoryDTO> getBorrowings(long patronId, String cursor, Integer size) {
+        if (!patronRepository.existsById(patronId))
+            throw new NotFoundException("Patron not found with id: " + patronId);
+        int pageSize = pageSize(size);
+        long beforeId = cursor == null ? Long.MAX_VALUE : decodeCursor(cursor);
+        List<BorrowingHistoryDTO> rows = borrowingRecordRepository.findHistoryByPatronId(patronId, beforeId, Limit.of(pageSize + 1));
+        if (rows.size() <= pageSize)
+            return new KeysetPageDTO<>(rows, null);
+        List<BorrowingHistoryDTO> content = rows.subList(0, pageSize);
+        return new KeysetPageDTO<>(content, KeysetCursor.encode(Map.of("id", content.get(pageSize - 1).getId())));
+    }
     @Transactional
     public PatronDTO addPatron(PatronDTO patronDTO) {
             Patron patron = patronMapper.toPatron(patronDTO);
             Patron savedPatron = patronRepository.save(patron);
+            inventoryCounters.record(InventoryCounters.Counter.PATRONS, 1);
             return patronMapper.toPatronDTO(savedPatron);
     }
+    // With an expected version the update only applies to that version, without one to whatever version is current
     @Transactional
-    public PatronDTO updatePatron(long id , PatronDTO patronDTO){
-        if(patronRepository.existsById(id)){
-            Patron patron = patronMapper.toPatron(patronDTO);
-            patron.setId(id);
-            Patron savedPatron = patronRepository.save(patron);
+    public PatronDTO updatePatron(long id , PatronDTO patronDTO, Long expectedVersion){
+        long version = patronRepository.findVersionById(id)
+                .orElseThrow(() -> new NotFoundException("Patron with id: " + id + " is not found"));
+        if (expectedVersion != null && expectedVersion != version)
+            throw new PreconditionFailedException("Patron with id: " + id + " is no longer at version " + expectedVersion);
+        Patron patron = patronMapper.toPatron(patronDTO);
+        patron.setId(id);
+        patron.setVersion(version);
+        try {
+            Patron savedPatron = patronRepository.saveAndFlush(patron);
             return patronMapper.toPatronDTO(savedPatron);
+        } catch (OptimisticLockingFailureException e) {
+            if (expectedVersion == null)
+                throw e;
+            throw new PreconditionFailedException("Patron with id: " + id + " is no longer at version " + expectedVersion);
         }
-        throw new NotFoundException("Patron with id: " + id + " is not found");
     }
     @Transactional
     public void deletePatron(long id){
         if(borrowingRecordRepository.existsByPatronId(id))
             throw new DeleteException("Patron with id: " + id + " can't be deleted because it has a borrowing record");
+        // Deleting a missing patron succeeds quietly, it just mustn't be counted
+        if (!patronRepository.existsById(id))
+            return;
         patronRepository.deleteById(id);
+        inventoryCounters.record(InventoryCounters.Counter.PATRONS, -1);
+    }
+
+    private int pageSize(Integer size) {
+        LibraryProperties.Borrowings borrowings = libraryProperties.getBorrowings();
+        if (size == null)
+            return borrowings.getDefaultPageSize();
+        if (size < 1)
+            throw new InvalidRequestException("Page size must be positive, got: " + size);
+        return Math.min(size, borrowings.getMaxPageSize());
+    }
+
+    private long decodeCursor(String cursor) {
+        Map<String, String> keys = KeysetCursor.decode(cursor);
+        if (keys.size() != 1 || !keys.containsKey("id"))
+            throw new InvalidRequestException("Invalid cursor: " + cursor);
+        try {
+            return Long.parseLong(keys.get("id"));
+        } catch (NumberFormatException e) {
+            throw new InvalidRequestException("Invalid cursor: " + cursor);
+        }
     }
 
 }
@@ -0,0 +1,169 @@
+package Mamoun.librarymanagement.Stats;
+
+import Mamoun.librarymanagement.DTO.StatsDTO;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
+import Mamoun.librarymanagement.Repositories.PatronRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Running totals of the catalog, patrons and loans, so statistics never run an aggregate query.
+// The services record their changes inside their transaction and the counters only move once it
+// commits. A periodic reconciliation compares them with SQL counts and corrects any drift.
+@Component
+public class InventoryCounters implements SmartInitializingSingleton, MeterBinder {
+
+    public enum Counter {
+        BOOKS,
+        BORROWED_BOOKS,
+        PATRONS,
+        OPEN_LOANS
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryCounters.class);
+    private static final int COUNTERS = Counter.values().length;
+
+    private final BookRepository bookRepository;
+    private final PatronRepository patronRepository;
+    private final BorrowingRecordRepository borrowingRecordRepository;
+    private final PatronLoanCounts patronLoanCounts;
+    private final TransactionTemplate transactionTemplate;
+
+    private final AtomicLongArray values = new AtomicLongArray(COUNTERS);
+    // Transactions holding recorded changes that have not completed yet
+    private final AtomicLong inFlight = new AtomicLong();
+    // Bumped whenever a transaction with recorded changes completes
+    private final AtomicLong completions = new AtomicLong();
+    private final AtomicLong corrections = new AtomicLong();
+    private final AtomicLong skippedReconciliations = new AtomicLong();
+
+    @Autowired
+    public InventoryCounters(BookRepository bookRepository, PatronRepository patronRepository,
+                             BorrowingRecordRepository borrowingRecordRepository, PatronLoanCounts patronLoanCounts,
+                             PlatformTransactionManager transactionManager) {
+        this.bookRepository = bookRepository;
+        this.patronRepository = patronRepository;
+        this.borrowingRecordRepository = borrowingRecordRepository;
+        this.patronLoanCounts = patronLoanCounts;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    // Loaded before the web server starts, nothing can be writing yet
+    @Override
+    public void afterSingletonsInstantiated() {
+        long[] counted = count();
+        for (int i = 0; i < COUNTERS; i++)
+            values.set(i, counted[i]);
+    }
+
+    // Inside a transaction the change is applied after it commits and dropped if it rolls back
+    public void record(Counter counter, long delta) {
+        if (delta == 0)
+            return;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            values.addAndGet(counter.ordinal(), delta);
+            return;
+        }
+        PendingChanges pending = (PendingChanges) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new PendingChanges();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+            inFlight.incrementAndGet();
+        }
+        pending.deltas[counter.ordinal()] += delta;
+    }
+
+    public long get(Counter counter) {
+        return values.get(counter.ordinal());
+    }
+
+    // The counters are read one after the other, a commit in between can make them disagree by its change.
+    // Active patrons come from the per-patron loan counts, which already know who holds a book.
+    public StatsDTO snapshot() {
+        long books = get(Counter.BOOKS);
+        long borrowed = get(Counter.BORROWED_BOOKS);
+        return new StatsDTO(books, borrowed, books - borrowed, get(Counter.PATRONS), patronLoanCounts.activePatrons(), get(Counter.OPEN_LOANS));
+    }
+
+    // Counts every table and overwrites the counters that drifted. Only done when no transaction
+    // with recorded changes was open or completed while counting, otherwise a change could be
+    // both in the counts and still on its way to the counters. Returns whether it reconciled.
+    @Scheduled(fixedDelayString = "${library.stats.reconcile-interval}", initialDelayString = "${library.stats.reconcile-interval}")
+    public boolean reconcile() {
+        long completedBefore = completions.get();
+        if (inFlight.get() != 0) {
+            skippedReconciliations.incrementAndGet();
+            return false;
+        }
+        long[] counted = count();
+        if (inFlight.get() != 0 || completions.get() != completedBefore) {
+            skippedReconciliations.incrementAndGet();
+            return false;
+        }
+        for (Counter counter : Counter.values()) {
+            long previous = values.getAndSet(counter.ordinal(), counted[counter.ordinal()]);
+            if (previous != counted[counter.ordinal()]) {
+                corrections.incrementAndGet();
+                log.warn("Inventory counter {} was {}, corrected to {}", counter, previous, counted[counter.ordinal()]);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Counter counter : Counter.values())
+            Gauge.builder("library.inventory", values, counters -> counters.get(counter.ordinal()))
+                    .tag("counter", counter.name().toLowerCase())
+                    .register(registry);
+        FunctionCounter.builder("library.inventory.corrections", corrections, AtomicLong::get)
+                .description("Counters found to differ from the database when reconciling")
+                .register(registry);
+        FunctionCounter.builder("library.inventory.reconciliations.skipped", skippedReconciliations, AtomicLong::get)
+                .description("Reconciliations skipped because writes were in progress")
+                .register(registry);
+    }
+
+    private long[] count() {
+        return transactionTemplate.execute(status -> new long[]{
+                bookRepository.count(),
+                bookRepository.countByIsBorrowedTrue(),
+                patronRepository.count(),
+                borrowingRecordRepository.countByActiveTrue()
+        });
+    }
+
+    private final class PendingChanges implements TransactionSynchronization {
+
+        private final long[] deltas = new long[COUNTERS];
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(InventoryCounters.this);
+            if (status == STATUS_COMMITTED) {
+                for (int i = 0; i < COUNTERS; i++)
+                    if (deltas[i] != 0)
+                        values.addAndGet(i, deltas[i]);
+            }
+            completions.incrementAndGet();
+            inFlight.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package Mamoun.librarymanagement.Stats;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+
+// Open loans per patron, so the loan limit is checked without counting borrowing records.
+// Only patrons holding books have an entry. The map locks per bin, so patrons borrowing at
+// the same time rarely wait on each other while one patron's updates are serialized.
+// Borrows reserve their slots up front and give them back if the transaction rolls back,
+// returns free them once committed, so two borrows racing for the last slot can't both win.
+// A periodic reconciliation compares the counts with the open borrowing records and corrects
+// any patron that drifted.
+@Component
+public class PatronLoanCounts implements SmartInitializingSingleton, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(PatronLoanCounts.class);
+
+    private final BorrowingRecordRepository borrowingRecordRepository;
+    private final LibraryProperties libraryProperties;
+    private final TransactionTemplate transactionTemplate;
+
+    private final ConcurrentHashMap<Long, Integer> openLoans = new ConcurrentHashMap<>();
+    private final AtomicLong rejections = new AtomicLong();
+    // Transactions holding reserved or released slots that have not completed yet
+    private final AtomicLong inFlight = new AtomicLong();
+    // Bumped whenever a count changes for good, by a completed transaction or a call outside one
+    private final AtomicLong completions = new AtomicLong();
+    private final AtomicLong corrections = new AtomicLong();
+    private final AtomicLong skippedReconciliations = new AtomicLong();
+
+    @Autowired
+    public PatronLoanCounts(BorrowingRecordRepository borrowingRecordRepository, LibraryProperties libraryProperties,
+                            PlatformTransactionManager transactionManager) {
+        this.borrowingRecordRepository = borrowingRecordRepository;
+        this.libraryProperties = libraryProperties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    // Loaded before the web server starts, nothing can be borrowing yet
+    @Override
+    public void afterSingletonsInstantiated() {
+        openLoans.putAll(count());
+    }
+
+    public int openLoans(long patronId) {
+        return openLoans.getOrDefault(patronId, 0);
+    }
+
+    // Patrons holding at least one book, including slots reserved by borrows still in flight
+    public int activePatrons() {
+        return openLoans.size();
+    }
+
+    // Takes up to wanted of the patron's free slots and returns how many it got
+    public int reserve(long patronId, int wanted) {
+        int limit = libraryProperties.getBorrowings().getMaxLoansPerPatron();
+        int[] granted = new int[1];
+        openLoans.compute(patronId, (id, held) -> {
+            int current = held == null ? 0 : held;
+            granted[0] = Math.max(0, Math.min(wanted, limit - current));
+            int total = current + granted[0];
+            return total == 0 ? null : total;
+        });
+        if (granted[0] < wanted)
+            rejections.addAndGet(wanted - granted[0]);
+        if (granted[0] > 0) {
+            int reserved = granted[0];
+            if (TransactionSynchronizationManager.isSynchronizationActive())
+                onCompletion(status -> {
+                    if (status != TransactionSynchronization.STATUS_COMMITTED)
+                        free(patronId, reserved);
+                });
+            else
+                completions.incrementAndGet();
+        }
+        return granted[0];
+    }
+
+    // Inside a transaction the slots are freed once it commits, until then they still count
+    public void release(long patronId, int returned) {
+        if (returned <= 0)
+            return;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            free(patronId, returned);
+            completions.incrementAndGet();
+            return;
+        }
+        onCompletion(status -> {
+            if (status == TransactionSynchronization.STATUS_COMMITTED)
+                free(patronId, returned);
+        });
+    }
+
+    // Counts the open loans of every patron and corrects the ones that drifted. Only done when no
+    // transaction holding slots was open or completed while counting, otherwise a loan could be in
+    // the counts and not yet in the map or the other way round. A patron whose count moved since
+    // counting began keeps it until the next run. Returns whether it reconciled.
+    @Scheduled(fixedDelayString = "${library.stats.reconcile-interval}", initialDelayString = "${library.stats.reconcile-interval}")
+    public boolean reconcile() {
+        long completedBefore = completions.get();
+        if (inFlight.get() != 0) {
+            skippedReconciliations.incrementAndGet();
+            return false;
+        }
+        Map<Long, Integer> seen = new HashMap<>(openLoans);
+        Map<Long, Integer> counted = count();
+        if (inFlight.get() != 0 || completions.get() != completedBefore) {
+            skippedReconciliations.incrementAndGet();
+            return false;
+        }
+        Set<Long> patrons = new HashSet<>(seen.keySet());
+        patrons.addAll(counted.keySet());
+        for (Long patronId : patrons) {
+            Integer previous = seen.get(patronId);
+            Integer actual = counted.get(patronId);
+            if (previous == null ? correctMissing(patronId, actual) : correct(patronId, previous, actual)) {
+                corrections.incrementAndGet();
+                log.warn("Open loans of patron {} were {}, corrected to {}", patronId,
+                        previous == null ? 0 : previous, actual == null ? 0 : actual);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("library.loans.patrons", this, PatronLoanCounts::activePatrons)
+                .description("Patrons holding at least one book")
+                .register(registry);
+        FunctionCounter.builder("library.loans.limit.rejections", rejections, AtomicLong::get)
+                .description("Books refused because the patron was at the loan limit")
+                .register(registry);
+        FunctionCounter.builder("library.loans.corrections", corrections, AtomicLong::get)
+                .description("Patron loan counts found to differ from the database when reconciling")
+                .register(registry);
+        FunctionCounter.builder("library.loans.reconciliations.skipped", skippedReconciliations, AtomicLong::get)
+                .description("Reconciliations skipped because loans were being borrowed or returned")
+                .register(registry);
+    }
+
+    private void free(long patronId, int count) {
+        openLoans.computeIfPresent(patronId, (id, held) -> held > count ? held - count : null);
+    }
+
+    private void onCompletion(IntConsumer change) {
+        inFlight.incrementAndGet();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                change.accept(status);
+                completions.incrementAndGet();
+                inFlight.decrementAndGet();
+            }
+        });
+    }
+
+    // Both only write if the patron's entry is still what was seen before counting
+    private boolean correctMissing(long patronId, Integer actual) {
+        return actual != null && openLoans.putIfAbsent(patronId, actual) == null;
+    }
+
+    private boolean correct(long patronId, int previous, Integer actual) {
+        if (actual == null)
+            return openLoans.remove(patronId, previous);
+        return previous != actual && openLoans.replace(patronId, previous, actual);
+    }
+
+    private Map<Long, Integer> count() {
+        return transactionTemplate.execute(status -> {
+            Map<Long, Integer> counted = new HashMap<>();
+            try (Stream<BorrowingRecordRepository.PatronOpenLoans> rows = borrowingRecordRepository.streamOpenLoansByPatron()) {
+                rows.forEach(row -> counted.put(row.getPatronId(), Math.toIntExact(row.getOpenLoans())));
+            }
+            return counted;
+        });
+    }
+}
@@ -0,0 +1,115 @@
+package Mamoun.librarymanagement.Admission;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdmissionControlTest {
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+    private AdmissionControl admissionControl;
+
+    @BeforeEach
+    void setUp() {
+        LibraryProperties properties = new LibraryProperties();
+        LibraryProperties.Admission.Group catalog = new LibraryProperties.Admission.Group();
+        catalog.setPaths(List.of("/api/books/**"));
+        catalog.setMethods(List.of("get"));
+        catalog.getPerClient().setRate(2);
+        catalog.getPerClient().setBurst(3);
+        LibraryProperties.Admission.Group loans = new LibraryProperties.Admission.Group();
+        loans.setPaths(List.of("/api/borrow/**"));
+        loans.getPerPatron().setRate(1);
+        loans.getPerPatron().setBurst(1);
+        properties.getAdmission().getGroups().put("catalog", catalog);
+        properties.getAdmission().getGroups().put("loans", loans);
+        admissionControl = new AdmissionControl(properties, now::get);
+    }
+
+    @Test
+    void match_FirstGroupWithMethodAndPath() {
+        assertThat(admissionControl.match("GET", "/api/books")).extracting(AdmissionControl.Group::name).isEqualTo("catalog");
+        assertThat(admissionControl.match("GET", "/api/books/7/availability")).extracting(AdmissionControl.Group::name).isEqualTo("catalog");
+        assertThat(admissionControl.match("POST", "/api/borrow/1/patron/2")).extracting(AdmissionControl.Group::name).isEqualTo("loans");
+        assertThat(admissionControl.match("POST", "/api/books")).isNull();
+        assertThat(admissionControl.match("GET", "/api/stats")).isNull();
+    }
+
+    @Test
+    void admit_BurstThenRefillsAtTheRate() {
+        AdmissionControl.Group catalog = admissionControl.match("GET", "/api/books");
+
+        for (int i = 0; i < 3; i++)
+            assertThat(admissionControl.admit(catalog, "client", null)).isEqualTo(AdmissionControl.ADMITTED);
+        long wait = admissionControl.admit(catalog, "client", null);
+        assertThat(wait).isEqualTo(TimeUnit.MILLISECONDS.toNanos(500));
+
+        now.addAndGet(wait);
+        assertThat(admissionControl.admit(catalog, "client", null)).isEqualTo(AdmissionControl.ADMITTED);
+        assertThat(admissionControl.admit(catalog, "client", null)).isPositive();
+    }
+
+    @Test
+    void admit_ClientsHaveTheirOwnBuckets() {
+        AdmissionControl.Group catalog = admissionControl.match("GET", "/api/books");
+        for (int i = 0; i < 3; i++)
+            admissionControl.admit(catalog, "busy", null);
+
+        assertThat(admissionControl.admit(catalog, "busy", null)).isPositive();
+        assertThat(admissionControl.admit(catalog, "quiet", null)).isEqualTo(AdmissionControl.ADMITTED);
+    }
+
+    @Test
+    void admit_PatronLimitAppliesAcrossClients() {
+        AdmissionControl.Group loans = admissionControl.match("POST", "/api/borrow/1/patron/2");
+
+        assertThat(admissionControl.admit(loans, "first", "2")).isEqualTo(AdmissionControl.ADMITTED);
+        assertThat(admissionControl.admit(loans, "second", "2")).isEqualTo(TimeUnit.SECONDS.toNanos(1));
+        assertThat(admissionControl.admit(loans, "second", "3")).isEqualTo(AdmissionControl.ADMITTED);
+        assertThat(admissionControl.admit(loans, "second", null)).isEqualTo(AdmissionControl.ADMITTED);
+    }
+
+    @Test
+    void admit_PatronRefusal_GivesTheClientItsTokenBack() {
+        LibraryProperties properties = new LibraryProperties();
+        LibraryProperties.Admission.Group loans = new LibraryProperties.Admission.Group();
+        loans.setPaths(List.of("/api/borrow/**"));
+        loans.getPerClient().setRate(1);
+        loans.getPerClient().setBurst(2);
+        loans.getPerPatron().setRate(1);
+        loans.getPerPatron().setBurst(1);
+        properties.getAdmission().getGroups().put("loans", loans);
+        admissionControl = new AdmissionControl(properties, now::get);
+        AdmissionControl.Group group = admissionControl.match("POST", "/api/borrow/1/patron/2");
+
+        assertThat(admissionControl.admit(group, "kiosk", "2")).isEqualTo(AdmissionControl.ADMITTED);
+        for (int i = 0; i < 5; i++)
+            assertThat(admissionControl.admit(group, "kiosk", "2")).isPositive();
+
+        assertThat(admissionControl.admit(group, "kiosk", "3")).isEqualTo(AdmissionControl.ADMITTED);
+    }
+
+    @Test
+    void bindTo_CountsAdmittedAndRejectedRequests() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        admissionControl.bindTo(registry);
+        AdmissionControl.Group loans = admissionControl.match("POST", "/api/borrow/1/patron/2");
+
+        admissionControl.admit(loans, "client", "2");
+        admissionControl.admit(loans, "client", "2");
+
+        assertThat(registry.get("library.admission.admitted").tag("group", "loans").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("library.admission.rejections").tag("group", "loans").tag("scope", "patron")
+                .functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("library.admission.rejections").tag("group", "loans").tag("scope", "client")
+                .functionCounter().count()).isZero();
+        assertThat(registry.get("library.admission.buckets").gauge().value()).isEqualTo(1);
+    }
+}
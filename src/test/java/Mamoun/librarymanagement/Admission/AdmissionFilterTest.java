@@ -0,0 +1,76 @@
+package Mamoun.librarymanagement.Admission;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultMatcher;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:admissiondb",
+        "library.admission.trusted-proxies=127.0.0.1",
+        "library.admission.groups.catalog.per-client.rate=0.1",
+        "library.admission.groups.catalog.per-client.burst=2",
+        "library.admission.groups.loans.per-patron.rate=0.1",
+        "library.admission.groups.loans.per-patron.burst=1"
+})
+@AutoConfigureMockMvc
+class AdmissionFilterTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void getAllBooks_ClientOverItsLimit_GetsTooManyRequests() throws Exception {
+        for (int i = 0; i < 2; i++)
+            mockMvc.perform(get("/api/books").header("X-Client-Id", "busy-integration"))
+                    .andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/books").header("X-Client-Id", "busy-integration"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "10"));
+        mockMvc.perform(get("/api/books").header("X-Client-Id", "other-integration"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void borrow_PatronOverItsLimit_GetsTooManyRequestsFromAnyClient() throws Exception {
+        mockMvc.perform(post("/api/borrow/1/patron/42").header("X-Client-Id", "kiosk"))
+                .andExpect(admitted());
+
+        mockMvc.perform(post("/api/borrow/2/patron/42").header("X-Client-Id", "mobile"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+        mockMvc.perform(post("/api/borrow/2/patron/43").header("X-Client-Id", "mobile"))
+                .andExpect(admitted());
+    }
+
+    @Test
+    void clientHeader_FromAnUntrustedAddress_IsRefused() throws Exception {
+        mockMvc.perform(get("/api/books").header("X-Client-Id", "spoofed").with(request -> {
+                    request.setRemoteAddr("10.0.0.5");
+                    return request;
+                }))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void unlimitedEndpoint_IsNotCounted() throws Exception {
+        for (int i = 0; i < 5; i++)
+            mockMvc.perform(get("/actuator/health")).andExpect(status().isOk());
+    }
+
+    // The borrows themselves fail since no such books exist, only admission matters here
+    private static ResultMatcher admitted() {
+        return result -> assertThat(result.getResponse().getStatus()).isNotEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+    }
+}
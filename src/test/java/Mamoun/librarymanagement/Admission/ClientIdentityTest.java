@@ -0,0 +1,62 @@
+package Mamoun.librarymanagement.Admission;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClientIdentityTest {
+
+    private ClientIdentity clientIdentity;
+
+    @BeforeEach
+    void setUp() {
+        LibraryProperties properties = new LibraryProperties();
+        properties.getAdmission().setTrustedProxies(List.of("10.0.0.1"));
+        clientIdentity = new ClientIdentity(properties);
+    }
+
+    @Test
+    void resolve_HeaderFromTrustedProxy_NamesTheClient() {
+        MockHttpServletRequest request = request("10.0.0.1", "kiosk");
+
+        assertThat(clientIdentity.resolve(request)).isEqualTo("client:kiosk");
+        assertThat(clientIdentity.untrusted(request)).isFalse();
+    }
+
+    @Test
+    void resolve_HeaderFromAnyoneElse_IsIgnored() {
+        MockHttpServletRequest request = request("10.0.0.9", "kiosk");
+
+        assertThat(clientIdentity.resolve(request)).isEqualTo("address:10.0.0.9");
+        assertThat(clientIdentity.untrusted(request)).isTrue();
+    }
+
+    @Test
+    void resolve_NoHeader_KeyedByRemoteAddress() {
+        MockHttpServletRequest request = request("10.0.0.9", null);
+
+        assertThat(clientIdentity.resolve(request)).isEqualTo("address:10.0.0.9");
+        assertThat(clientIdentity.untrusted(request)).isFalse();
+    }
+
+    @Test
+    void resolve_AuthenticatedPrincipal_WinsOverTheHeader() {
+        MockHttpServletRequest request = request("10.0.0.1", "kiosk");
+        request.setUserPrincipal(() -> "librarian");
+
+        assertThat(clientIdentity.resolve(request)).isEqualTo("principal:librarian");
+    }
+
+    private static MockHttpServletRequest request(String remoteAddress, String clientId) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/books");
+        request.setRemoteAddr(remoteAddress);
+        if (clientId != null)
+            request.addHeader("X-Client-Id", clientId);
+        return request;
+    }
+}
@@ -0,0 +1,298 @@
+package Mamoun.librarymanagement.Benchmarks;
+
+import Mamoun.librarymanagement.LibraryManagementApplication;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Boots the application on a random port with a seeded H2 and drives a weighted mix of book, patron, borrow and
+// return calls from many virtual-thread clients. Prints throughput, p50/p99/p999 latency and error rate per endpoint
+// and writes each endpoint's HdrHistogram percentile distribution to target/load-report/<endpoint>.hgrm.
+// Clients are closed-loop: a slow server also slows the offered load, so only compare runs at the same client count.
+// Run with: mvn test -Pbenchmark -Dtest=ApiLoadBenchmarkTest
+// Tune with -Dbenchmark.load.clients, .seconds, .warmup-seconds, .seed, .books, .patrons and .mix (name=weight,...)
+@Tag("benchmark")
+class ApiLoadBenchmarkTest {
+
+    private static final int CLIENTS = Integer.getInteger("benchmark.load.clients", 200);
+    private static final Duration WARMUP = Duration.ofSeconds(Integer.getInteger("benchmark.load.warmup-seconds", 5));
+    private static final Duration DURATION = Duration.ofSeconds(Integer.getInteger("benchmark.load.seconds", 20));
+    private static final long SEED = Long.getLong("benchmark.load.seed", 42L);
+    private static final int BOOKS = Integer.getInteger("benchmark.load.books", 5_000);
+    private static final int PATRONS = Integer.getInteger("benchmark.load.patrons", 100);
+    private static final String MIX = System.getProperty("benchmark.load.mix",
+            "getBook=35,listBooks=15,searchBooks=10,getPatron=10,patronBorrowings=5,borrow=15,return=10");
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+    private static final int SEED_BATCH = 1_000;
+    private static final Path REPORT_DIR = Path.of("target", "load-report");
+
+    private static final String[] TITLE_WORDS = {"river", "shadow", "garden", "empire", "winter", "ocean", "silent", "golden",
+            "machine", "letters", "night", "journey", "stone", "harbor", "forest", "glass"};
+    private static final String[] AUTHOR_NAMES = {"Austen", "Tolstoy", "Morrison", "Achebe", "Borges", "Woolf", "Mahfouz", "Calvino"};
+    private static final String[] SORTS = {"id", "-id", "title", "author", "-publicationYear"};
+
+    // The statuses are what counts as a success for the endpoint
+    private enum Endpoint {
+        GET_BOOK("getBook", 200),
+        LIST_BOOKS("listBooks", 200),
+        SEARCH_BOOKS("searchBooks", 200),
+        GET_PATRON("getPatron", 200),
+        PATRON_BORROWINGS("patronBorrowings", 200),
+        // Another client may hold the book already
+        BORROW("borrow", 201, 409),
+        RETURN("return", 200);
+
+        private final String key;
+        private final Set<Integer> successes;
+
+        Endpoint(String key, Integer... successes) {
+            this.key = key;
+            this.successes = Set.of(successes);
+        }
+
+        static Endpoint of(String key) {
+            for (Endpoint endpoint : values())
+                if (endpoint.key.equals(key))
+                    return endpoint;
+            throw new IllegalArgumentException("Unknown endpoint in benchmark.load.mix: " + key);
+        }
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<Endpoint, Recorder> latencies = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, LongAdder> errors = new EnumMap<>(Endpoint.class);
+
+    @Test
+    void mixedApiLoad() throws Exception {
+        Endpoint[] wheel = parseMix(MIX);
+        for (Endpoint endpoint : Endpoint.values()) {
+            latencies.put(endpoint, new Recorder(3));
+            errors.put(endpoint, new LongAdder());
+        }
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(LibraryManagementApplication.class)
+                .properties("server.port=0",
+                        "spring.threads.virtual.enabled=true",
+                        "spring.datasource.url=jdbc:h2:mem:api-load",
+                        "spring.jpa.open-in-view=false",
+                        "library.admission.enabled=false")
+                .run()) {
+            String baseUrl = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+            HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                    .executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+            long[] bookIds = seedBooks(http, baseUrl);
+            long[] patronIds = seedPatrons(http, baseUrl);
+
+            long start = System.nanoTime();
+            long measureFrom = start + WARMUP.toNanos();
+            long deadline = measureFrom + DURATION.toNanos();
+            try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<?>> futures = new ArrayList<>(CLIENTS);
+                for (int i = 0; i < CLIENTS; i++) {
+                    Client client = new Client(http, baseUrl, bookIds, patronIds[i % patronIds.length], patronIds,
+                            wheel, new Random(SEED + i), deadline);
+                    futures.add(clients.submit(() -> {
+                        client.run();
+                        return null;
+                    }));
+                }
+                // Whatever was recorded during the warmup is dropped with the first interval
+                TimeUnit.NANOSECONDS.sleep(measureFrom - System.nanoTime());
+                latencies.values().forEach(Recorder::getIntervalHistogram);
+                errors.values().forEach(LongAdder::reset);
+                for (Future<?> future : futures)
+                    future.get();
+            }
+            assertThat(report()).isPositive();
+        }
+    }
+
+    // Expands "name=weight,..." into a wheel the clients spin with one random index
+    private static Endpoint[] parseMix(String mix) {
+        List<Endpoint> wheel = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            Endpoint endpoint = Endpoint.of(parts[0].trim());
+            int weight = Integer.parseInt(parts[1].trim());
+            for (int i = 0; i < weight; i++)
+                wheel.add(endpoint);
+        }
+        assertThat(wheel).as("benchmark.load.mix").isNotEmpty();
+        return wheel.toArray(Endpoint[]::new);
+    }
+
+    private long[] seedBooks(HttpClient http, String baseUrl) throws Exception {
+        Random random = new Random(SEED);
+        long[] ids = new long[BOOKS];
+        for (int from = 0; from < BOOKS; from += SEED_BATCH) {
+            List<Map<String, Object>> batch = new ArrayList<>();
+            for (int i = from; i < Math.min(from + SEED_BATCH, BOOKS); i++) {
+                String title = "The " + word(random, TITLE_WORDS) + " " + word(random, TITLE_WORDS) + " " + i;
+                batch.add(Map.of("title", title, "author", word(random, AUTHOR_NAMES), "publicationYear", 1900 + random.nextInt(125),
+                        "isbn", "load-" + i, "borrowed", false));
+            }
+            JsonNode added = post(http, baseUrl + "/api/books/bulk", batch, 201);
+            for (int i = 0; i < added.size(); i++)
+                ids[from + i] = added.get(i).get("id").asLong();
+        }
+        return ids;
+    }
+
+    private long[] seedPatrons(HttpClient http, String baseUrl) throws Exception {
+        long[] ids = new long[PATRONS];
+        for (int i = 0; i < PATRONS; i++)
+            ids[i] = post(http, baseUrl + "/api/patrons", Map.of("name", "Load patron " + i, "contactInformation", "555-" + i), 201)
+                    .get("id").asLong();
+        return ids;
+    }
+
+    private JsonNode post(HttpClient http, String url, Object body, int expectedStatus) throws Exception {
+        HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body))).build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(response.statusCode()).as("seeding %s: %s", url, response.body()).isEqualTo(expectedStatus);
+        return objectMapper.readTree(response.body());
+    }
+
+    private static String word(Random random, String[] words) {
+        return words[random.nextInt(words.length)];
+    }
+
+    // Prints one row per endpoint and writes the full distributions, returns the number of measured requests
+    private long report() throws IOException {
+        Files.createDirectories(REPORT_DIR);
+        double seconds = DURATION.toNanos() / 1e9;
+        long total = 0;
+        long totalErrors = 0;
+        System.out.printf("%d clients for %ds after %ds warmup, mix %s%n", CLIENTS, DURATION.toSeconds(), WARMUP.toSeconds(), MIX);
+        System.out.printf("%-18s %9s %9s %9s %9s %9s %9s %8s%n", "endpoint", "requests", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors");
+        for (Endpoint endpoint : Endpoint.values()) {
+            Histogram histogram = latencies.get(endpoint).getIntervalHistogram();
+            long count = histogram.getTotalCount();
+            if (count == 0)
+                continue;
+            long failed = errors.get(endpoint).sum();
+            System.out.printf("%-18s %9d %9.0f %9.2f %9.2f %9.2f %9.2f %7.2f%%%n", endpoint.key, count, count / seconds,
+                    millis(histogram, 50), millis(histogram, 99), millis(histogram, 99.9), histogram.getMaxValue() / 1000.0,
+                    100.0 * failed / count);
+            try (PrintStream out = new PrintStream(Files.newOutputStream(REPORT_DIR.resolve(endpoint.key + ".hgrm")))) {
+                histogram.outputPercentileDistribution(out, 1000.0);
+            }
+            total += count;
+            totalErrors += failed;
+        }
+        System.out.printf("%-18s %9d %9.0f %49.2f%%%n", "total", total, total / seconds, total == 0 ? 0 : 100.0 * totalErrors / total);
+        System.out.println("Percentile distributions (ms) written to " + REPORT_DIR.toAbsolutePath());
+        return total;
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    // One simulated user: spins the mix wheel, borrows under its own patron and only returns books it holds
+    private final class Client {
+        private final HttpClient http;
+        private final String baseUrl;
+        private final long[] bookIds;
+        private final long patronId;
+        private final long[] patronIds;
+        private final Endpoint[] wheel;
+        private final Random random;
+        private final long deadline;
+        private final List<Long> holdings = new ArrayList<>();
+
+        Client(HttpClient http, String baseUrl, long[] bookIds, long patronId, long[] patronIds, Endpoint[] wheel, Random random, long deadline) {
+            this.http = http;
+            this.baseUrl = baseUrl;
+            this.bookIds = bookIds;
+            this.patronId = patronId;
+            this.patronIds = patronIds;
+            this.wheel = wheel;
+            this.random = random;
+            this.deadline = deadline;
+        }
+
+        void run() {
+            while (System.nanoTime() < deadline) {
+                Endpoint endpoint = wheel[random.nextInt(wheel.length)];
+                if (endpoint == Endpoint.RETURN && holdings.isEmpty())
+                    endpoint = Endpoint.BORROW;
+                switch (endpoint) {
+                    case GET_BOOK -> call(endpoint, get("/api/books/" + randomBook()));
+                    case LIST_BOOKS -> call(endpoint, get("/api/books?size=20&sort=" + word(random, SORTS)));
+                    case SEARCH_BOOKS -> call(endpoint, get("/api/books/search?q=" + word(random, TITLE_WORDS)));
+                    case GET_PATRON -> call(endpoint, get("/api/patrons/" + patronIds[random.nextInt(patronIds.length)]));
+                    case PATRON_BORROWINGS -> call(endpoint, get("/api/patrons/" + patronId + "/borrowings?size=20"));
+                    case BORROW -> {
+                        long bookId = randomBook();
+                        if (call(endpoint, request("/api/borrow/" + bookId + "/patron/" + patronId).POST(HttpRequest.BodyPublishers.noBody())) == 201)
+                            holdings.add(bookId);
+                    }
+                    case RETURN -> {
+                        long bookId = holdings.remove(random.nextInt(holdings.size()));
+                        call(endpoint, request("/api/return/" + bookId + "/patron/" + patronId).PUT(HttpRequest.BodyPublishers.noBody()));
+                    }
+                }
+            }
+        }
+
+        private long randomBook() {
+            return bookIds[random.nextInt(bookIds.length)];
+        }
+
+        private HttpRequest.Builder get(String path) {
+            return request(path).GET();
+        }
+
+        private HttpRequest.Builder request(String path) {
+            return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(REQUEST_TIMEOUT);
+        }
+
+        // Returns the status, or -1 when the request didn't complete
+        private int call(Endpoint endpoint, HttpRequest.Builder request) {
+            int status = -1;
+            long start = System.nanoTime();
+            try {
+                status = http.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+            } catch (IOException e) {
+                // Counted as an error below
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            latencies.get(endpoint).recordValue(Math.max(1, (System.nanoTime() - start) / 1_000));
+            if (!endpoint.successes.contains(status))
+                errors.get(endpoint).increment();
+            return status;
+        }
+    }
+}
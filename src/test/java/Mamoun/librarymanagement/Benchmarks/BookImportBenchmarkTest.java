@@ -0,0 +1,74 @@
+package Mamoun.librarymanagement.Benchmarks;
+
+import Mamoun.librarymanagement.DTO.BookDTO;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Compares rows/sec of POST /api/books called once per book against POST /api/books/bulk.
+// Run with: mvn test -Pbenchmark -Dtest=BookImportBenchmarkTest
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "library.admission.enabled=false")
+class BookImportBenchmarkTest {
+
+    private static final int ROWS = Integer.getInteger("benchmark.import.rows", 5_000);
+    private static final int BULK_REQUEST_SIZE = 5_000;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    void singleRowEndpointVersusBulkEndpoint() {
+        // Warm up both paths so JIT and connection pool are ready
+        importOneByOne(books("warmup-single", 500));
+        importInBulk(books("warmup-bulk", 500));
+
+        double singleRowRate = ROWS / seconds(() -> importOneByOne(books("single", ROWS)));
+        double bulkRate = ROWS / seconds(() -> importInBulk(books("bulk", ROWS)));
+
+        System.out.printf("Book import, %d rows: single-row endpoint %.0f rows/s, bulk endpoint %.0f rows/s (%.1fx)%n",
+                ROWS, singleRowRate, bulkRate, bulkRate / singleRowRate);
+    }
+
+    private void importOneByOne(List<BookDTO> books) {
+        for (BookDTO book : books) {
+            ResponseEntity<BookDTO> response = restTemplate.postForEntity("/api/books", book, BookDTO.class);
+            assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        }
+    }
+
+    private void importInBulk(List<BookDTO> books) {
+        for (int from = 0; from < books.size(); from += BULK_REQUEST_SIZE) {
+            ResponseEntity<List<BookDTO>> response = restTemplate.exchange("/api/books/bulk", HttpMethod.POST,
+                    new HttpEntity<>(books.subList(from, Math.min(from + BULK_REQUEST_SIZE, books.size()))),
+                    new ParameterizedTypeReference<>() {
+                    });
+            assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        }
+    }
+
+    private static List<BookDTO> books(String prefix, int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> BookDTO.builder().title(prefix + " title " + i).author(prefix + " author " + i)
+                        .publicationYear(2000 + i % 25).isbn(prefix + "-" + i).isBorrowed(false).build())
+                .toList();
+    }
+
+    private static double seconds(Runnable work) {
+        long start = System.nanoTime();
+        work.run();
+        return (System.nanoTime() - start) / 1e9;
+    }
+}
@@ -0,0 +1,83 @@
+package Mamoun.librarymanagement.Benchmarks;
+
+import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Entities.Patron;
+import Mamoun.librarymanagement.Exceptions.BookNotAvailableException;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import Mamoun.librarymanagement.Repositories.PatronRepository;
+import Mamoun.librarymanagement.Services.BorrowingRecordService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Borrow attempts/sec when every borrower goes for the same book at once and all but one are turned
+// away by the conditional update. One patron could win every round, so the loan limit is set well
+// above the default rounds.
+// Run with: mvn test -Pbenchmark -Dtest=ContendedBorrowBenchmarkTest
+@Tag("benchmark")
+@SpringBootTest(properties = "library.borrowings.max-loans-per-patron=1000")
+class ContendedBorrowBenchmarkTest {
+
+    private static final int BORROWERS = Integer.getInteger("benchmark.contended.borrowers", 16);
+    private static final int ROUNDS = Integer.getInteger("benchmark.contended.rounds", 200);
+
+    @Autowired
+    private BorrowingRecordService borrowingRecordService;
+
+    @Autowired
+    private BookRepository bookRepository;
+
+    @Autowired
+    private PatronRepository patronRepository;
+
+    @Test
+    void borrowBook_ConcurrentBorrowers() throws Exception {
+        List<Patron> patrons = new ArrayList<>();
+        for (int i = 0; i < BORROWERS; i++)
+            patrons.add(patronRepository.save(Patron.builder().name("Contender " + i).contactInformation("555-" + i).build()));
+
+        // Warm up so JIT and connection pool are ready
+        race(patrons, "warmup", Math.min(ROUNDS, 20));
+        double seconds = race(patrons, "contended", ROUNDS);
+        System.out.printf("borrowBook under contention: %d borrowers x %d rounds, %.0f attempts/s%n",
+                BORROWERS, ROUNDS, ROUNDS * BORROWERS / seconds);
+    }
+
+    // Seconds spent racing, book setup excluded
+    private double race(List<Patron> patrons, String prefix, int rounds) throws Exception {
+        double seconds = 0;
+        try (ExecutorService executor = Executors.newFixedThreadPool(BORROWERS)) {
+            for (int round = 0; round < rounds; round++) {
+                Book book = bookRepository.save(Book.builder().title("Contended " + prefix).author("Author")
+                        .isbn(prefix + "-" + round + "-" + System.nanoTime()).publicationYear(2024).isBorrowed(false).build());
+                CountDownLatch startGate = new CountDownLatch(1);
+                List<Future<?>> attempts = new ArrayList<>();
+                for (Patron patron : patrons) {
+                    attempts.add(executor.submit(() -> {
+                        startGate.await();
+                        try {
+                            borrowingRecordService.borrowBook(book.getId(), patron.getId());
+                        } catch (BookNotAvailableException e) {
+                            // Lost the race
+                        }
+                        return null;
+                    }));
+                }
+                long start = System.nanoTime();
+                startGate.countDown();
+                for (Future<?> attempt : attempts)
+                    attempt.get();
+                seconds += (System.nanoTime() - start) / 1e9;
+            }
+        }
+        return seconds;
+    }
+}
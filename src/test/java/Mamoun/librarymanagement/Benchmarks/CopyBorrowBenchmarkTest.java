@@ -0,0 +1,124 @@
+package Mamoun.librarymanagement.Benchmarks;
+
+import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Entities.Patron;
+import Mamoun.librarymanagement.Exceptions.BookNotAvailableException;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import Mamoun.librarymanagement.Repositories.PatronRepository;
+import Mamoun.librarymanagement.Services.BookCopyService;
+import Mamoun.librarymanagement.Services.BorrowingRecordService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Compares borrows/sec when a popular title is stocked as duplicate book rows, each borrower
+// picking rows at random until one is free, against one title with copies handed out by
+// the copy allocator. Every round as many patrons as copies borrow at the same time.
+// Run with: mvn test -Pbenchmark -Dtest=CopyBorrowBenchmarkTest
+@Tag("benchmark")
+@SpringBootTest
+class CopyBorrowBenchmarkTest {
+
+    private static final int COPIES = Integer.getInteger("benchmark.copies", 40);
+    private static final int ROUNDS = Integer.getInteger("benchmark.copies.rounds", 25);
+
+    @Autowired
+    private BorrowingRecordService borrowingRecordService;
+
+    @Autowired
+    private BookCopyService bookCopyService;
+
+    @Autowired
+    private BookRepository bookRepository;
+
+    @Autowired
+    private PatronRepository patronRepository;
+
+    @Test
+    void duplicateRowsVersusCopies() throws Exception {
+        // Warm up both paths so JIT and connection pool are ready
+        AtomicInteger warmupConflicts = new AtomicInteger();
+        for (int round = 0; round < 3; round++) {
+            borrowDuplicateRows("warmup", warmupConflicts);
+            borrowCopies("warmup");
+        }
+
+        AtomicInteger conflicts = new AtomicInteger();
+        double rowSeconds = 0;
+        double copySeconds = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            rowSeconds += borrowDuplicateRows("rows-" + round, conflicts);
+            copySeconds += borrowCopies("copies-" + round);
+        }
+
+        double rowRate = ROUNDS * COPIES / rowSeconds;
+        double copyRate = ROUNDS * COPIES / copySeconds;
+        System.out.printf("Borrowing %d copies x %d rounds: duplicate rows %.0f borrows/s (%d conflicts), copies %.0f borrows/s (%.1fx)%n",
+                COPIES, ROUNDS, rowRate, conflicts.get(), copyRate, copyRate / rowRate);
+    }
+
+    private double borrowDuplicateRows(String prefix, AtomicInteger conflicts) throws Exception {
+        List<Long> rows = new ArrayList<>();
+        for (int i = 0; i < COPIES; i++)
+            rows.add(bookRepository.save(Book.builder().title("Popular " + prefix).author("Author")
+                    .isbn(prefix + "-" + i + "-" + System.nanoTime()).publicationYear(2024).isBorrowed(false).build()).getId());
+        return race(prefix, patronId -> {
+            while (true) {
+                try {
+                    borrowingRecordService.borrowBook(rows.get(ThreadLocalRandom.current().nextInt(rows.size())), patronId);
+                    return;
+                } catch (BookNotAvailableException e) {
+                    conflicts.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    private double borrowCopies(String prefix) throws Exception {
+        Book book = bookRepository.save(Book.builder().title("Popular " + prefix).author("Author")
+                .isbn(prefix + "-" + System.nanoTime()).publicationYear(2024).isBorrowed(false).build());
+        bookCopyService.addCopies(book.getId(), COPIES);
+        return race(prefix, patronId -> borrowingRecordService.borrowCopy(book.getId(), patronId));
+    }
+
+    // Seconds until every one of COPIES new patrons has borrowed once
+    private double race(String prefix, Borrow borrow) throws Exception {
+        List<Patron> patrons = new ArrayList<>();
+        for (int i = 0; i < COPIES; i++)
+            patrons.add(patronRepository.save(Patron.builder().name(prefix + " patron " + i).contactInformation("555-" + i).build()));
+        CountDownLatch startGate = new CountDownLatch(1);
+        List<Future<?>> borrowers = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(COPIES)) {
+            for (Patron patron : patrons) {
+                borrowers.add(executor.submit(() -> {
+                    startGate.await();
+                    borrow.run(patron.getId());
+                    return null;
+                }));
+            }
+            long start = System.nanoTime();
+            startGate.countDown();
+            for (Future<?> borrower : borrowers)
+                borrower.get();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            assertThat(borrowers).allMatch(Future::isDone);
+            return seconds;
+        }
+    }
+
+    private interface Borrow {
+        void run(long patronId);
+    }
+}
@@ -0,0 +1,85 @@
+package Mamoun.librarymanagement.Benchmarks;
+
+import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.DTO.BorrowingRecordDTO;
+import Mamoun.librarymanagement.DTO.PatronDTO;
+import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Entities.BorrowingRecord;
+import Mamoun.librarymanagement.Entities.Patron;
+import Mamoun.librarymanagement.Mappers.BookMapper;
+import Mamoun.librarymanagement.Mappers.BorrowingRecordMapper;
+import Mamoun.librarymanagement.Mappers.PatronMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+
+    private final BookMapper bookMapper = new BookMapper();
+    private final PatronMapper patronMapper = new PatronMapper();
+    private final BorrowingRecordMapper borrowingRecordMapper = new BorrowingRecordMapper();
+
+    private Book book;
+    private BookDTO bookDTO;
+    private Patron patron;
+    private PatronDTO patronDTO;
+    private BorrowingRecord borrowingRecord;
+    private BorrowingRecordDTO borrowingRecordDTO;
+
+    @Setup
+    public void setUp() {
+        book = Book.builder().id(1L).title("Title").author("Author").publicationYear(2024).isbn("978-3-16-148410-0").isBorrowed(true).build();
+        bookDTO = bookMapper.toBookDTO(book);
+        patron = Patron.builder().id(1L).name("Patron").contactInformation("+201001234567").build();
+        patronDTO = patronMapper.toPatronDTO(patron);
+        borrowingRecord = new BorrowingRecord(book, patron, LocalDate.now(), null);
+        borrowingRecord.setId(1L);
+        borrowingRecordDTO = borrowingRecordMapper.toBorrowingRecordDTo(borrowingRecord);
+    }
+
+    @Benchmark
+    public BookDTO bookToDTO() {
+        return bookMapper.toBookDTO(book);
+    }
+
+    @Benchmark
+    public Book bookFromDTO() {
+        return bookMapper.toBook(bookDTO);
+    }
+
+    @Benchmark
+    public PatronDTO patronToDTO() {
+        return patronMapper.toPatronDTO(patron);
+    }
+
+    @Benchmark
+    public Patron patronFromDTO() {
+        return patronMapper.toPatron(patronDTO);
+    }
+
+    @Benchmark
+    public BorrowingRecordDTO borrowingRecordToDTO() {
+        return borrowingRecordMapper.toBorrowingRecordDTo(borrowingRecord);
+    }
+
+    @Benchmark
+    public BorrowingRecord borrowingRecordFromDTO() {
+        return borrowingRecordMapper.toBorrowingRecord(borrowingRecordDTO, book, patron);
+    }
+}
@@ -0,0 +1,64 @@
+package Mamoun.librarymanagement.Benchmarks;
+
+import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Mappers.BookMapper;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import Mamoun.librarymanagement.Search.BookSearchIndex;
+import jakarta.persistence.EntityManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+// Search latency over a synthetic catalog of a million books
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class SearchIndexBenchmark {
+
+    private static final int BOOKS = 1_000_000;
+    private static final String[] WORDS = {"history", "war", "peace", "garden", "night", "river", "stone", "empire",
+            "shadow", "winter", "summer", "city", "ocean", "silent", "golden", "lost", "secret", "journey", "king", "star"};
+
+    // Common term, two common terms, a selective query, and three dense terms no title holds together
+    @Param({"river", "golden empire", "empire 777", "silent ocean journey"})
+    private String query;
+
+    private BookSearchIndex index;
+
+    @Setup
+    public void setUp() {
+        index = new BookSearchIndex(mock(BookRepository.class), new BookMapper(), mock(EntityManager.class), mock(PlatformTransactionManager.class));
+        SplittableRandom random = new SplittableRandom(42);
+        List<BookDTO> books = new ArrayList<>(BOOKS);
+        for (long id = 1; id <= BOOKS; id++) {
+            String title = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + id;
+            books.add(new BookDTO(id, title, "Author " + random.nextInt(50_000), 2000, "isbn-" + id, false, 0L));
+        }
+        index.onBookChanged(BookChangedEvent.of(BookChangedEvent.Type.ADDED, books));
+    }
+
+    @Benchmark
+    public List<BookSearchIndex.Hit> firstPage() {
+        return index.search(query, Double.POSITIVE_INFINITY, Long.MIN_VALUE, 20);
+    }
+}
@@ -0,0 +1,63 @@
+package Mamoun.librarymanagement.Benchmarks;
+
+import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.DTO.KeysetPageDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+// Jackson cost of the book payloads, configured the way Spring Boot configures its ObjectMapper
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"20", "100", "1000"})
+    private int books;
+
+    private ObjectWriter listWriter;
+    private ObjectWriter pageWriter;
+    private List<BookDTO> bookDTOs;
+    private KeysetPageDTO<BookDTO> page;
+
+    @Setup
+    public void setUp() {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        listWriter = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, BookDTO.class));
+        pageWriter = objectMapper.writer();
+        bookDTOs = IntStream.range(0, books)
+                .mapToObj(i -> BookDTO.builder().id((long) i).title("Title " + i).author("Author " + i)
+                        .publicationYear(2000 + i % 25).isbn("978-3-16-" + i).isBorrowed(i % 3 == 0).build())
+                .toList();
+        page = new KeysetPageDTO<>(bookDTOs, "aWQ9MTAw");
+    }
+
+    @Benchmark
+    public byte[] serializeBookList() throws JsonProcessingException {
+        return listWriter.writeValueAsBytes(bookDTOs);
+    }
+
+    @Benchmark
+    public byte[] serializeBookPage() throws JsonProcessingException {
+        return pageWriter.writeValueAsBytes(page);
+    }
+}
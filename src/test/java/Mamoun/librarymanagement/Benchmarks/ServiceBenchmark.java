@@ -0,0 +1,99 @@
+package Mamoun.librarymanagement.Benchmarks;
+
+import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.DTO.BorrowingRecordDTO;
+import Mamoun.librarymanagement.DTO.KeysetPageDTO;
+import Mamoun.librarymanagement.DTO.PatronDTO;
+import Mamoun.librarymanagement.LibraryManagementApplication;
+import Mamoun.librarymanagement.Services.BookService;
+import Mamoun.librarymanagement.Services.BorrowingRecordService;
+import Mamoun.librarymanagement.Services.PatronService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+// Service calls against the real JPA stack on an embedded H2, without the web layer
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceBenchmark {
+
+    private static final int BOOKS = 10_000;
+
+    private ConfigurableApplicationContext context;
+    private BookService bookService;
+    private BorrowingRecordService borrowingRecordService;
+    private List<Long> bookIds;
+    private long patronId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(LibraryManagementApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.datasource.url=jdbc:h2:mem:jmh", "logging.level.root=WARN")
+                .run();
+        bookService = context.getBean(BookService.class);
+        borrowingRecordService = context.getBean(BorrowingRecordService.class);
+
+        bookIds = bookService.addBooks(IntStream.range(0, BOOKS)
+                        .mapToObj(i -> BookDTO.builder().title("Title " + i).author("Author " + i)
+                                .publicationYear(2000 + i % 25).isbn("jmh-" + i).isBorrowed(false).build())
+                        .toList())
+                .stream().map(BookDTO::getId).toList();
+        patronId = context.getBean(PatronService.class)
+                .addPatron(PatronDTO.builder().name("Benchmark Patron").contactInformation("+201000000000").build())
+                .getId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public BookDTO getBookById() {
+        return bookService.getBookById(randomBookId());
+    }
+
+    @Benchmark
+    public KeysetPageDTO<BookDTO> getFirstPage() {
+        return bookService.getBooks(null, 20, null);
+    }
+
+    @Benchmark
+    public KeysetPageDTO<BookDTO> getFirstPageSortedByTitle() {
+        return bookService.getBooks(null, 20, "title");
+    }
+
+    // Single benchmark thread, so the book is always back in stock before the next borrow
+    @Benchmark
+    public BorrowingRecordDTO borrowAndReturn() {
+        long bookId = randomBookId();
+        borrowingRecordService.borrowBook(bookId, patronId);
+        return borrowingRecordService.returnBook(bookId, patronId);
+    }
+
+    private long randomBookId() {
+        return bookIds.get(ThreadLocalRandom.current().nextInt(bookIds.size()));
+    }
+}
@@ -0,0 +1,119 @@
+package Mamoun.librarymanagement.Benchmarks;
+
+import Mamoun.librarymanagement.LibraryManagementApplication;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Boots the application once on the platform-thread Tomcat pool and once on virtual threads,
+// drives the same read-heavy load at both and prints throughput and p99 latency.
+// Run with: mvn test -Pbenchmark -Dtest=VirtualThreadLoadBenchmarkTest
+@Tag("benchmark")
+class VirtualThreadLoadBenchmarkTest {
+
+    private static final int BOOKS = 500;
+    private static final int CLIENTS = Integer.getInteger("benchmark.load.clients", 1_000);
+    private static final Duration WARMUP = Duration.ofSeconds(5);
+    private static final Duration DURATION = Duration.ofSeconds(Integer.getInteger("benchmark.load.seconds", 20));
+
+    @Test
+    void platformThreadsVersusVirtualThreads() throws Exception {
+        Result platform = run(false);
+        Result virtual = run(true);
+
+        System.out.printf("%d clients, platform threads: %s%n", CLIENTS, platform);
+        System.out.printf("%d clients, virtual threads:  %s%n", CLIENTS, virtual);
+    }
+
+    private Result run(boolean virtualThreads) throws Exception {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(LibraryManagementApplication.class)
+                .properties("server.port=0",
+                        "spring.threads.virtual.enabled=" + virtualThreads,
+                        "spring.datasource.url=jdbc:h2:mem:load-" + virtualThreads,
+                        "spring.jpa.open-in-view=false",
+                        "library.admission.enabled=false")
+                .run()) {
+            String baseUrl = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                    .executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+            seed(client, baseUrl);
+            load(client, baseUrl, WARMUP);
+            return load(client, baseUrl, DURATION);
+        }
+    }
+
+    private void seed(HttpClient client, String baseUrl) throws Exception {
+        String books = IntStream.range(0, BOOKS)
+                .mapToObj(i -> "{\"title\":\"Title " + i + "\",\"author\":\"Author " + i + "\",\"publicationYear\":2000,\"isbn\":\"load-" + i + "\",\"borrowed\":false}")
+                .collect(Collectors.joining(",", "[", "]"));
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/api/books/bulk"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(books)).build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(response.statusCode()).isEqualTo(201);
+    }
+
+    // Every client alternates between a book lookup and a catalog page until the deadline
+    private Result load(HttpClient client, String baseUrl, Duration duration) throws Exception {
+        long deadline = System.nanoTime() + duration.toNanos();
+        AtomicInteger errors = new AtomicInteger();
+        List<long[]> latencies = new ArrayList<>();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                futures.add(clients.submit(() -> {
+                    long[] samples = new long[1024];
+                    int count = 0;
+                    while (System.nanoTime() < deadline) {
+                        String path = count % 2 == 0
+                                ? "/api/books/" + ThreadLocalRandom.current().nextInt(1, BOOKS + 1)
+                                : "/api/books?size=20";
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<Void> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + path)).build(),
+                                    HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() != 200)
+                                errors.incrementAndGet();
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                        if (count == samples.length)
+                            samples = Arrays.copyOf(samples, count * 2);
+                        samples[count++] = System.nanoTime() - start;
+                    }
+                    return Arrays.copyOf(samples, count);
+                }));
+            }
+            for (Future<long[]> future : futures)
+                latencies.add(future.get());
+        }
+        long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        return new Result(all.length / (double) duration.toSeconds(), all[(int) (all.length * 0.99)] / 1e6, errors.get());
+    }
+
+    private record Result(double requestsPerSecond, double p99Millis, int errors) {
+        @Override
+        public String toString() {
+            return String.format("%.0f req/s, p99 %.1f ms, %d errors", requestsPerSecond, p99Millis, errors);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package Mamoun.librarymanagement.Cache;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.DTO.KeysetPageDTO;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BookResponseCacheTest {
+
+    private BookResponseCache cache;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    void setUp() {
+        cache = new BookResponseCache(new ObjectMapper(), new LibraryProperties());
+        loads = new AtomicInteger();
+    }
+
+    @Test
+    void book_RepeatedReads_LoadOnce() {
+        BookResponseCache.CachedBook first = cache.book(1L, countingBook(1L));
+        BookResponseCache.CachedBook second = cache.book(1L, countingBook(1L));
+
+        assertThat(loads).hasValue(1);
+        assertThat(second).isSameAs(first);
+        assertThat(new String(first.body())).contains("\"title\":\"Title 1\"").doesNotContain("version");
+        assertThat(first.version()).isEqualTo(7L);
+    }
+
+    @Test
+    void version_OnlyKnownForCachedBooks() {
+        assertThat(cache.version(1L)).isEmpty();
+
+        cache.book(1L, countingBook(1L));
+
+        assertThat(cache.version(1L)).hasValue(7L);
+        cache.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.BORROWED, 1L));
+        assertThat(cache.version(1L)).isEmpty();
+    }
+
+    @Test
+    void book_LoaderFails_NothingCached() {
+        assertThatThrownBy(() -> cache.book(1L, () -> {
+            throw new NotFoundException("Book not found with id: 1");
+        })).isInstanceOf(NotFoundException.class);
+
+        cache.book(1L, countingBook(1L));
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void onBookChanged_Borrowed_EvictsOnlyEntriesShowingTheBook() {
+        cache.book(1L, countingBook(1L));
+        cache.book(2L, countingBook(2L));
+        cache.page(null, 2, null, countingPage(null, 1L, 2L));
+        cache.page("next", 2, null, countingPage(null, 3L, 4L));
+
+        cache.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.BORROWED, 1L));
+
+        cache.book(1L, countingBook(1L));
+        cache.book(2L, countingBook(2L));
+        cache.page(null, 2, null, countingPage(null, 1L, 2L));
+        cache.page("next", 2, null, countingPage(null, 3L, 4L));
+        assertThat(loads).hasValue(4 + 2);
+    }
+
+    @Test
+    void onBookChanged_Returned_EvictsEveryAvailablePage() {
+        cache.page(null, 2, null, countingPage("c1", 1L, 2L));
+        cache.page(null, 2, null, true, countingPage("c1", 1L, 2L));
+        cache.page("c1", 2, null, true, countingPage(null, 4L));
+
+        cache.onBookChanged(BookChangedEvent.ofLoan(BookChangedEvent.Type.RETURNED, List.of(3L), 1L));
+
+        cache.page(null, 2, null, countingPage("c1", 1L, 2L));
+        cache.page(null, 2, null, true, countingPage("c1", 1L, 2L));
+        cache.page("c1", 2, null, true, countingPage(null, 3L, 4L));
+        assertThat(loads).hasValue(3 + 2);
+    }
+
+    @Test
+    void onBookChanged_Added_EvictsTheLastIdPageAndPagesSortedByOtherKeys() {
+        cache.page(null, 2, null, countingPage("c1", 1L, 2L));
+        cache.page("c1", 2, null, countingPage(null, 3L));
+        cache.page(null, 2, "-id", countingPage("c2", 3L, 2L));
+        cache.page("c2", 2, "-id", countingPage(null, 1L));
+        cache.page(null, 2, "title", countingPage("c3", 2L, 1L));
+
+        cache.onBookChanged(BookChangedEvent.of(BookChangedEvent.Type.ADDED, book(4L)));
+
+        cache.page(null, 2, null, countingPage("c1", 1L, 2L));
+        cache.page("c1", 2, null, countingPage(null, 3L, 4L));
+        cache.page(null, 2, "-id", countingPage("c2", 4L, 3L));
+        cache.page("c2", 2, "-id", countingPage(null, 1L));
+        cache.page(null, 2, "title", countingPage("c3", 2L, 1L));
+        assertThat(loads).hasValue(5 + 3);
+    }
+
+    @Test
+    void onBookChanged_Updated_EvictsPagesSortedByOtherKeys() {
+        cache.page(null, 2, null, countingPage("c1", 1L, 2L));
+        cache.page(null, 2, "author", countingPage("c2", 2L, 3L));
+
+        cache.onBookChanged(BookChangedEvent.of(BookChangedEvent.Type.UPDATED, book(5L)));
+
+        cache.page(null, 2, null, countingPage("c1", 1L, 2L));
+        cache.page(null, 2, "author", countingPage("c2", 2L, 3L));
+        assertThat(loads).hasValue(2 + 1);
+    }
+
+    @Test
+    void book_ChangeWhileLoading_ResultNotKept() {
+        cache.book(1L, () -> {
+            loads.incrementAndGet();
+            // The write commits after this read saw the old row
+            cache.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.BORROWED, 1L));
+            return book(1L);
+        });
+
+        cache.book(1L, countingBook(1L));
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void bindTo_ExposesHitMissAndInvalidationMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+
+        cache.book(1L, countingBook(1L));
+        cache.book(1L, countingBook(1L));
+        cache.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.RETURNED, 1L));
+
+        assertThat(registry.get("cache.gets").tag("cache", "books.detail").tag("result", "hit").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("cache.gets").tag("cache", "books.detail").tag("result", "miss").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("library.cache.invalidations").tag("cache", "books.detail").functionCounter().count()).isEqualTo(1);
+    }
+
+    private Supplier<BookDTO> countingBook(long id) {
+        return () -> {
+            loads.incrementAndGet();
+            return book(id);
+        };
+    }
+
+    private Supplier<KeysetPageDTO<BookDTO>> countingPage(String nextCursor, Long... ids) {
+        return () -> {
+            loads.incrementAndGet();
+            return new KeysetPageDTO<>(List.of(ids).stream().map(this::book).toList(), nextCursor);
+        };
+    }
+
+    private BookDTO book(long id) {
+        return BookDTO.builder().id(id).title("Title " + id).author("Author").publicationYear(2024)
+                .isbn("isbn-" + id).isBorrowed(false).version(7L).build();
+    }
+}
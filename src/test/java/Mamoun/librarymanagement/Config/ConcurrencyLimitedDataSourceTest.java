@@ -0,0 +1,59 @@
+package Mamoun.librarymanagement.Config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+class ConcurrencyLimitedDataSourceTest {
+
+    private DataSource target;
+    private Connection targetConnection;
+    private ConcurrencyLimitedDataSource dataSource;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        target = mock(DataSource.class);
+        targetConnection = mock(Connection.class);
+        when(target.getConnection()).thenReturn(targetConnection);
+        dataSource = new ConcurrencyLimitedDataSource(target, 1, Duration.ofMillis(50));
+    }
+
+    @Test
+    void getConnection_WhenAllPermitsTaken_FailAfterTimeout() throws SQLException {
+        Connection connection = dataSource.getConnection();
+
+        assertThatThrownBy(() -> dataSource.getConnection()).isInstanceOf(SQLTransientConnectionException.class);
+        assertThat(((ConnectionProxy) connection).getTargetConnection()).isSameAs(targetConnection);
+        verify(target, times(1)).getConnection();
+    }
+
+    @Test
+    void close_ReleasesPermitOnlyOnce() throws SQLException {
+        Connection connection = dataSource.getConnection();
+
+        connection.close();
+        connection.close();
+
+        assertThat(dataSource.availablePermits()).isEqualTo(1);
+        verify(targetConnection, times(2)).close();
+        assertThat(dataSource.getConnection()).isNotNull();
+    }
+
+    @Test
+    void getConnection_WhenTargetFails_ReleasePermit() throws SQLException {
+        when(target.getConnection()).thenThrow(new SQLException("pool exhausted"));
+
+        assertThatThrownBy(() -> dataSource.getConnection()).hasMessage("pool exhausted");
+        assertThat(dataSource.availablePermits()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,75 @@
+package Mamoun.librarymanagement.Config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Configuration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LibraryPropertiesTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withUserConfiguration(PropertiesConfig.class);
+
+    @Test
+    void bulkBatchSize_Positive_Binds() {
+        contextRunner.withPropertyValues("library.books.bulk-batch-size=25")
+                .run(context -> assertThat(context.getBean(LibraryProperties.class).getBooks().getBulkBatchSize()).isEqualTo(25));
+    }
+
+    @Test
+    void bulkBatchSize_ZeroOrNegative_FailsAtStartup() {
+        contextRunner.withPropertyValues("library.books.bulk-batch-size=0")
+                .run(context -> assertThat(context).hasFailed());
+        contextRunner.withPropertyValues("library.books.bulk-batch-size=-5")
+                .run(context -> assertThat(context).hasFailed());
+    }
+
+    @Test
+    void pageAndBatchSizes_ZeroOrNegative_FailAtStartup() {
+        for (String property : new String[]{
+                "library.books.default-page-size=0",
+                "library.books.max-page-size=-1",
+                "library.borrowings.default-page-size=0",
+                "library.borrowings.max-page-size=0",
+                "library.borrowings.max-batch-size=0",
+                "library.borrowings.max-loans-per-patron=0"}) {
+            contextRunner.withPropertyValues(property)
+                    .run(context -> assertThat(context).as(property).hasFailed());
+        }
+    }
+
+    @Test
+    void borrowings_Positive_Bind() {
+        contextRunner.withPropertyValues("library.borrowings.max-batch-size=5", "library.borrowings.max-loans-per-patron=3")
+                .run(context -> {
+                    LibraryProperties.Borrowings borrowings = context.getBean(LibraryProperties.class).getBorrowings();
+                    assertThat(borrowings.getMaxBatchSize()).isEqualTo(5);
+                    assertThat(borrowings.getMaxLoansPerPatron()).isEqualTo(3);
+                });
+    }
+
+    @Test
+    void jdbc_ValidLimits_Bind() {
+        contextRunner.withPropertyValues("library.jdbc.max-concurrency=4", "library.jdbc.acquire-timeout=0s")
+                .run(context -> {
+                    LibraryProperties.Jdbc jdbc = context.getBean(LibraryProperties.class).getJdbc();
+                    assertThat(jdbc.getMaxConcurrency()).isEqualTo(4);
+                    assertThat(jdbc.getAcquireTimeout()).isZero();
+                });
+    }
+
+    @Test
+    void jdbc_NoPermitsOrNegativeTimeout_FailsAtStartup() {
+        contextRunner.withPropertyValues("library.jdbc.max-concurrency=0")
+                .run(context -> assertThat(context).hasFailed());
+        contextRunner.withPropertyValues("library.jdbc.acquire-timeout=-1s")
+                .run(context -> assertThat(context).hasFailed());
+    }
+
+    @Configuration
+    @EnableConfigurationProperties(LibraryProperties.class)
+    static class PropertiesConfig {
+    }
+}
@@ -0,0 +1,81 @@
+package Mamoun.librarymanagement.Config;
+
+import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.DTO.PatronDTO;
+import Mamoun.librarymanagement.Exceptions.BookNotAvailableException;
+import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Services.BookService;
+import Mamoun.librarymanagement.Services.BorrowingRecordService;
+import Mamoun.librarymanagement.Services.PatronService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:metricsdb")
+@AutoConfigureMockMvc
+@AutoConfigureObservability
+class ServiceMetricsAspectTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private BookService bookService;
+
+    @Autowired
+    private PatronService patronService;
+
+    @Autowired
+    private BorrowingRecordService borrowingRecordService;
+
+    @Test
+    void serviceCalls_TimedByOutcome() {
+        long bookId = bookService.addBook(BookDTO.builder().title("Title").author("Author")
+                .publicationYear(2024).isbn("metrics-1").isBorrowed(false).build()).getId();
+        long patronId = patronService.addPatron(PatronDTO.builder().name("Patron")
+                .contactInformation("+201001234567").build()).getId();
+
+        borrowingRecordService.borrowBook(bookId, patronId);
+        assertThatThrownBy(() -> borrowingRecordService.borrowBook(bookId, patronId))
+                .isInstanceOf(BookNotAvailableException.class);
+        assertThatThrownBy(() -> bookService.getBookById(-1L)).isInstanceOf(NotFoundException.class);
+
+        assertThat(serviceTimer("BorrowingRecordService", "borrowBook", "ok").count()).isEqualTo(1);
+        assertThat(serviceTimer("BorrowingRecordService", "borrowBook", "conflict").count()).isEqualTo(1);
+        assertThat(serviceTimer("BookService", "getBookById", "not_found").count()).isEqualTo(1);
+        assertThat(meterRegistry.get("spring.data.repository.invocations")
+                .tag("repository", "BookRepository").tag("method", "markBorrowed").tag("outcome", "ok")
+                .timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    void prometheusEndpoint_ExportsHistograms() throws Exception {
+        patronService.getAllPatrons();
+
+        mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("library_service_calls_seconds_bucket{")))
+                .andExpect(content().string(containsString("spring_data_repository_invocations_seconds_bucket{")));
+    }
+
+    private Timer serviceTimer(String service, String method, String outcome) {
+        return meterRegistry.get(ServiceMetricsAspect.METRIC_NAME)
+                .tag("service", service).tag("method", method).tag("outcome", outcome)
+                .timer();
+    }
+}
@@ -0,0 +1,29 @@
+package Mamoun.librarymanagement.Config;
+
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.sql.DataSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {"spring.threads.virtual.enabled=true", "library.jdbc.max-concurrency=4"})
+class VirtualThreadConfigTest {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private BookRepository bookRepository;
+
+    @Test
+    void virtualThreadsEnabled_DataSourceIsGated() {
+        assertThat(dataSource).isInstanceOf(ConcurrencyLimitedDataSource.class);
+
+        bookRepository.count();
+
+        assertThat(((ConcurrencyLimitedDataSource) dataSource).availablePermits()).isEqualTo(4);
+    }
+}
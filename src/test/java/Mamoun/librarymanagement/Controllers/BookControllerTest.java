@@ -1,8 +1,15 @@
 package Mamoun.librarymanagement.Controllers;
 
+import Mamoun.librarymanagement.Cache.BookResponseCache;
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.DTO.AvailabilitySummaryDTO;
+import Mamoun.librarymanagement.DTO.BookAvailabilityDTO;
 import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.DTO.KeysetPageDTO;
 import Mamoun.librarymanagement.Exceptions.DeleteException;
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
 import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Exceptions.PreconditionFailedException;
 import Mamoun.librarymanagement.Services.BookService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
@@ -10,28 +17,41 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.web.client.HttpClientErrorException;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.CoreMatchers.is;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(controllers = BookController.class)
 @AutoConfigureMockMvc(addFilters = false)
+@Import(BookResponseCache.class)
+@EnableConfigurationProperties(LibraryProperties.class)
 @ExtendWith(MockitoExtension.class)
 public class BookControllerTest {
 
@@ -42,11 +62,14 @@ public class BookControllerTest {
     private MockMvc mockMvc;
     @Autowired
     private ObjectMapper objectMapper;
+    @Autowired
+    private BookResponseCache bookResponseCache;
 
     private BookDTO sampleBookDTO;
 
     @BeforeEach
     void setUp() {
+        bookResponseCache.invalidateAll();
         // Sample BookDTO for testing
         sampleBookDTO = BookDTO.builder()
                 .id(1L)
@@ -55,6 +78,7 @@ public class BookControllerTest {
                 .publicationYear(2021)
                 .isbn("1234567890").
                 isBorrowed(false)
+                .version(3L)
                 .build();
     }
 
@@ -73,9 +97,44 @@ public class BookControllerTest {
                 .andExpect(jsonPath("$.author", is(sampleBookDTO.getAuthor())))
                 .andExpect(jsonPath("$.publicationYear", is(sampleBookDTO.getPublicationYear())))
                 .andExpect(jsonPath("$.isbn", is(sampleBookDTO.getIsbn())))
-                .andExpect(jsonPath("$.borrowed", is(sampleBookDTO.isBorrowed())));
+                .andExpect(jsonPath("$.borrowed", is(sampleBookDTO.isBorrowed())))
+                .andExpect(jsonPath("$.version").doesNotExist())
+                .andExpect(header().string("ETag", "\"3\""));
+    }
+
+    @Test
+    void getBookById_IfNoneMatchCurrent_NotModifiedWithoutLoadingTheBook() throws Exception {
+        when(bookService.getBookVersion(1L)).thenReturn(3L);
+
+        mockMvc.perform(get("/api/books/1").header("If-None-Match", "\"2\", W/\"3\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"3\""))
+                .andExpect(content().string(""));
+
+        verify(bookService, never()).getBookById(anyLong());
     }
 
+    @Test
+    void getBookById_IfNoneMatchCached_AnsweredWithoutTheDatabase() throws Exception {
+        when(bookService.getBookById(1L)).thenReturn(sampleBookDTO);
+        mockMvc.perform(get("/api/books/1")).andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/books/1").header("If-None-Match", "\"3\""))
+                .andExpect(status().isNotModified());
+
+        verify(bookService, never()).getBookVersion(anyLong());
+    }
+
+    @Test
+    void getBookById_IfNoneMatchStale_ReturnsTheBook() throws Exception {
+        when(bookService.getBookVersion(1L)).thenReturn(3L);
+        when(bookService.getBookById(1L)).thenReturn(sampleBookDTO);
+
+        mockMvc.perform(get("/api/books/1").header("If-None-Match", "\"2\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"3\""))
+                .andExpect(jsonPath("$.title", is(sampleBookDTO.getTitle())));
+    }
 
     @Test
     void getAllBooks_Successful() throws Exception {
@@ -83,21 +142,150 @@ public class BookControllerTest {
         List<BookDTO> bookList = new ArrayList<>();
         bookList.add(sampleBookDTO);
         bookList.add(sampleBookDTO);
-        when(bookService.getAllBooks()).thenReturn(bookList);
+        when(bookService.getBooks(null, null, null)).thenReturn(new KeysetPageDTO<>(bookList, "next"));
 
         ResultActions response = mockMvc.perform(get("/api/books")
                 .contentType(MediaType.APPLICATION_JSON));
 
         response.andExpect(status().isOk())
-                .andExpect(jsonPath("$[1].id", is(sampleBookDTO.getId().intValue())))
-                .andExpect(jsonPath("$[1].title", is(sampleBookDTO.getTitle())))
-                .andExpect(jsonPath("$[1].author", is(sampleBookDTO.getAuthor())))
-                .andExpect(jsonPath("$[1].publicationYear", is(sampleBookDTO.getPublicationYear())))
-                .andExpect(jsonPath("$[1].isbn", is(sampleBookDTO.getIsbn())))
-                .andExpect(jsonPath("$[1].borrowed", is(sampleBookDTO.isBorrowed())));
+                .andExpect(jsonPath("$.content[1].id", is(sampleBookDTO.getId().intValue())))
+                .andExpect(jsonPath("$.content[1].title", is(sampleBookDTO.getTitle())))
+                .andExpect(jsonPath("$.content[1].author", is(sampleBookDTO.getAuthor())))
+                .andExpect(jsonPath("$.content[1].publicationYear", is(sampleBookDTO.getPublicationYear())))
+                .andExpect(jsonPath("$.content[1].isbn", is(sampleBookDTO.getIsbn())))
+                .andExpect(jsonPath("$.content[1].borrowed", is(sampleBookDTO.isBorrowed())))
+                .andExpect(jsonPath("$.nextCursor", is("next")));
+    }
+
+    @Test
+    void getAllBooks_WithCursorAndSort_PassesThemToService() throws Exception {
+        // Mock service response for a follow-up page
+        when(bookService.getBooks("abc", 5, "-title")).thenReturn(new KeysetPageDTO<>(List.of(sampleBookDTO), null));
+
+        ResultActions response = mockMvc.perform(get("/api/books")
+                .param("cursor", "abc")
+                .param("size", "5")
+                .param("sort", "-title"));
+
+        response.andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].id", is(sampleBookDTO.getId().intValue())))
+                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+    }
+
+    @Test
+    void getAllBooks_AvailableOnly_UsesTheAvailabilityIndex() throws Exception {
+        when(bookService.getAvailableBooks(null, 5, null)).thenReturn(new KeysetPageDTO<>(List.of(sampleBookDTO), "next"));
+
+        mockMvc.perform(get("/api/books").param("available", "true").param("size", "5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].id", is(sampleBookDTO.getId().intValue())))
+                .andExpect(jsonPath("$.nextCursor", is("next")));
+        verify(bookService, never()).getBooks(any(), any(), any());
+    }
+
+    @Test
+    void getAllBooks_AvailableOnlySortedByTitle_BadRequest() throws Exception {
+        when(bookService.getAvailableBooks(null, null, "title"))
+                .thenThrow(new InvalidRequestException("Available books can only be sorted by id"));
+
+        mockMvc.perform(get("/api/books").param("available", "true").param("sort", "title"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void getBookAvailability_Successful() throws Exception {
+        when(bookService.getBookAvailability(1L)).thenReturn(new BookAvailabilityDTO(1L, true));
+
+        mockMvc.perform(get("/api/books/1/availability"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.bookId", is(1)))
+                .andExpect(jsonPath("$.available", is(true)));
+    }
+
+    @Test
+    void getBookAvailability_BookNotFound() throws Exception {
+        when(bookService.getBookAvailability(9L)).thenThrow(new NotFoundException("Book not found with id: 9"));
+
+        mockMvc.perform(get("/api/books/9/availability"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void getAvailabilitySummary_Successful() throws Exception {
+        when(bookService.getAvailabilitySummary()).thenReturn(new AvailabilitySummaryDTO(10, 7, 3));
+
+        mockMvc.perform(get("/api/books/availability"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total", is(10)))
+                .andExpect(jsonPath("$.available", is(7)))
+                .andExpect(jsonPath("$.borrowed", is(3)));
+    }
+
+    @Test
+    void getAllBooks_InvalidCursor() throws Exception {
+        // Mock service response for a cursor that can't be decoded
+        when(bookService.getBooks("bad", null, null)).thenThrow(new InvalidRequestException("Invalid cursor: bad"));
+
+        ResultActions response = mockMvc.perform(get("/api/books").param("cursor", "bad"));
+
+        response.andExpect(status().isBadRequest());
     }
 
 
+    @Test
+    void exportBooks_StreamsOneJsonObjectPerLine() throws Exception {
+        // Mock service pushing two books into the export sink
+        doAnswer(invocation -> {
+            Consumer<BookDTO> sink = invocation.getArgument(0);
+            sink.accept(sampleBookDTO);
+            sink.accept(sampleBookDTO);
+            return null;
+        }).when(bookService).exportBooks(any());
+
+        MvcResult result = mockMvc.perform(get("/api/books/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertThat(result.getRequest().getAsyncContext().getTimeout()).isEqualTo(Duration.ofMinutes(30).toMillis());
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"));
+        String[] lines = result.getResponse().getContentAsString().split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(objectMapper.readValue(lines[1], BookDTO.class).getTitle()).isEqualTo(sampleBookDTO.getTitle());
+    }
+
+    @Test
+    void getBookById_RepeatedReads_ServedFromCache() throws Exception {
+        when(bookService.getBookById(1L)).thenReturn(sampleBookDTO);
+
+        mockMvc.perform(get("/api/books/1")).andExpect(status().isOk());
+        mockMvc.perform(get("/api/books/1"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.title", is(sampleBookDTO.getTitle())));
+
+        verify(bookService, times(1)).getBookById(1L);
+    }
+
+    @Test
+    void searchBooks_Successful() throws Exception {
+        when(bookService.searchBooks("sample", null, 5)).thenReturn(new KeysetPageDTO<>(List.of(sampleBookDTO), "next"));
+
+        mockMvc.perform(get("/api/books/search").param("q", "sample").param("size", "5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].title", is(sampleBookDTO.getTitle())))
+                .andExpect(jsonPath("$.nextCursor", is("next")));
+    }
+
+    @Test
+    void searchBooks_EmptyQuery() throws Exception {
+        when(bookService.searchBooks("", null, null)).thenThrow(new InvalidRequestException("Search query must not be empty"));
+
+        mockMvc.perform(get("/api/books/search").param("q", ""))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void getBookById_BookNotFound() throws Exception {
         // Mock service response
@@ -134,11 +322,37 @@ public class BookControllerTest {
         response.andExpect(status().isBadRequest());
     }
 
+    @Test
+    void addBooks_Successful() throws Exception {
+        // Mock service response for a bulk import
+        when(bookService.addBooks(any())).thenReturn(List.of(sampleBookDTO, sampleBookDTO));
+
+        ResultActions response = mockMvc.perform(post("/api/books/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(List.of(sampleBookDTO, sampleBookDTO))));
+
+        response.andExpect(status().isCreated())
+                .andExpect(jsonPath("$[1].title", is(sampleBookDTO.getTitle())))
+                .andExpect(jsonPath("$[1].isbn", is(sampleBookDTO.getIsbn())));
+    }
+
+    @Test
+    void addBooks_TooManyBooks() throws Exception {
+        // Mock service response for an import above the bulk limit
+        when(bookService.addBooks(any())).thenThrow(new InvalidRequestException("Too many books"));
+
+        ResultActions response = mockMvc.perform(post("/api/books/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(List.of(sampleBookDTO))));
+
+        response.andExpect(status().isBadRequest());
+    }
+
     @Test
     void updateBook_BookFound_Successful() throws Exception {
         // Mock service response for updating a book
         long bookId = 1;
-        when(bookService.updateBook(eq(bookId), any(BookDTO.class))).thenReturn(sampleBookDTO);
+        when(bookService.updateBook(eq(bookId), any(BookDTO.class), isNull())).thenReturn(sampleBookDTO);
 
         ResultActions response = mockMvc.perform(put("/api/books/1")
                 .contentType(MediaType.APPLICATION_JSON)
@@ -150,14 +364,67 @@ public class BookControllerTest {
                 .andExpect(jsonPath("$.author", is(sampleBookDTO.getAuthor())))
                 .andExpect(jsonPath("$.publicationYear", is(sampleBookDTO.getPublicationYear())))
                 .andExpect(jsonPath("$.isbn", is(sampleBookDTO.getIsbn())))
-                .andExpect(jsonPath("$.borrowed", is(sampleBookDTO.isBorrowed())));
+                .andExpect(jsonPath("$.borrowed", is(sampleBookDTO.isBorrowed())))
+                .andExpect(header().string("ETag", "\"3\""));
+    }
+
+    @Test
+    void updateBook_IfMatchCurrent_UpdatesThatVersion() throws Exception {
+        when(bookService.getBookVersion(1L)).thenReturn(2L);
+        when(bookService.updateBook(eq(1L), any(BookDTO.class), eq(2L))).thenReturn(sampleBookDTO);
+
+        mockMvc.perform(put("/api/books/1")
+                        .header("If-Match", "\"2\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(sampleBookDTO)))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"3\""));
+    }
+
+    @Test
+    void updateBook_IfMatchStale_PreconditionFailed() throws Exception {
+        when(bookService.getBookVersion(1L)).thenReturn(3L);
+
+        mockMvc.perform(put("/api/books/1")
+                        .header("If-Match", "\"2\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(sampleBookDTO)))
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(content().string("Book with id: 1 has changed, its current ETag is \"3\""));
+
+        verify(bookService, never()).updateBook(anyLong(), any(), any());
+    }
+
+    @Test
+    void updateBook_IfMatchWeak_PreconditionFailed() throws Exception {
+        when(bookService.getBookVersion(1L)).thenReturn(3L);
+
+        mockMvc.perform(put("/api/books/1")
+                        .header("If-Match", "W/\"3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(sampleBookDTO)))
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    void updateBook_ChangedWhileUpdating_PreconditionFailed() throws Exception {
+        when(bookService.getBookVersion(1L)).thenReturn(3L);
+        when(bookService.updateBook(eq(1L), any(BookDTO.class), eq(3L)))
+                .thenThrow(new PreconditionFailedException("Book with id: 1 is no longer at version 3"));
+
+        mockMvc.perform(put("/api/books/1")
+                        .header("If-Match", "\"3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(sampleBookDTO)))
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(content().string("Book with id: 1 is no longer at version 3"));
     }
 
     @Test
     void updateBook_BookNotFound() throws Exception {
         // Mock service response for updating a non-existing book
         long nonExistingBookId = 100;
-        when(bookService.updateBook(eq(nonExistingBookId), any(BookDTO.class))).thenThrow(new NotFoundException("Book not found"));
+        when(bookService.updateBook(eq(nonExistingBookId), any(BookDTO.class), isNull())).thenThrow(new NotFoundException("Book not found"));
 
         ResultActions response = mockMvc.perform(put("/api/books/100")
                 .contentType(MediaType.APPLICATION_JSON)
@@ -169,7 +436,7 @@ public class BookControllerTest {
     void updateBook_InvalidRequestBody() throws Exception {
         // Mock service response for updating a book
         long bookId = 1;
-        when(bookService.updateBook(eq(bookId), any(BookDTO.class))).thenThrow(new HttpClientErrorException(HttpStatus.BAD_REQUEST, "Invalid request body"));
+        when(bookService.updateBook(eq(bookId), any(BookDTO.class), isNull())).thenThrow(new HttpClientErrorException(HttpStatus.BAD_REQUEST, "Invalid request body"));
 
         ResultActions response = mockMvc.perform(put("/api/books/1")
                 .contentType(MediaType.APPLICATION_JSON)
@@ -0,0 +1,62 @@
+package Mamoun.librarymanagement.Controllers;
+
+import Mamoun.librarymanagement.DTO.BookCopyDTO;
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
+import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Services.BookCopyService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = BookCopyController.class)
+@AutoConfigureMockMvc(addFilters = false)
+@ExtendWith(MockitoExtension.class)
+public class BookCopyControllerTest {
+
+    @MockBean
+    private BookCopyService bookCopyService;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void addCopies_Successful() throws Exception {
+        when(bookCopyService.addCopies(1L, 2)).thenReturn(List.of(new BookCopyDTO(5L, 1L, false), new BookCopyDTO(6L, 1L, false)));
+
+        mockMvc.perform(post("/api/books/1/copies").param("count", "2"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$[1].id", is(6)))
+                .andExpect(jsonPath("$[1].bookId", is(1)));
+    }
+
+    @Test
+    void addCopies_InvalidCount() throws Exception {
+        when(bookCopyService.addCopies(1L, 0)).thenThrow(new InvalidRequestException("Between 1 and 10000 copies"));
+
+        mockMvc.perform(post("/api/books/1/copies").param("count", "0"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Between 1 and 10000 copies"));
+    }
+
+    @Test
+    void getCopies_BookNotFound() throws Exception {
+        when(bookCopyService.getCopies(1L)).thenThrow(new NotFoundException("Book not found with id: 1"));
+
+        mockMvc.perform(get("/api/books/1/copies")).andExpect(status().isNotFound());
+    }
+}
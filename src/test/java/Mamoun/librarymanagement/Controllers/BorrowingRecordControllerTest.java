@@ -1,7 +1,10 @@
 package Mamoun.librarymanagement.Controllers;
 
 import Mamoun.librarymanagement.DTO.BorrowingRecordDTO;
+import Mamoun.librarymanagement.DTO.LoanResultDTO;
 import Mamoun.librarymanagement.Exceptions.BookNotAvailableException;
+import Mamoun.librarymanagement.Exceptions.LoanLimitExceededException;
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
 import Mamoun.librarymanagement.Exceptions.NotFoundException;
 import Mamoun.librarymanagement.Services.BorrowingRecordService;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -18,6 +21,7 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.ResultActions;
 
 import java.time.LocalDate;
+import java.util.List;
 
 import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.eq;
@@ -83,6 +87,26 @@ public class BorrowingRecordControllerTest {
                 .andExpect(content().string("Book not available"));
     }
 
+    @Test
+    void borrowCopy_NoCopyAvailable() throws Exception {
+        when(borrowingRecordService.borrowCopy(1L,1L)).thenThrow(new BookNotAvailableException("no copy of book with id: 1 is available at the moment"));
+
+        ResultActions response = mockMvc.perform(post("/api/borrow/title/1/patron/1"));
+
+        response.andExpect(status().isConflict())
+                .andExpect(content().string("no copy of book with id: 1 is available at the moment"));
+    }
+
+    @Test
+    void borrowBook_LoanLimitReached() throws Exception {
+        when(borrowingRecordService.borrowBook(1L,1L)).thenThrow(new LoanLimitExceededException("Loan limit reached"));
+
+        ResultActions response = mockMvc.perform(post("/api/borrow/1/patron/1"));
+
+        response.andExpect(status().isConflict())
+                .andExpect(content().string("Loan limit reached"));
+    }
+
     @Test
     void returnBook_Successful() throws Exception {
         // Mock service response for returning a book successfully
@@ -121,4 +145,62 @@ public class BorrowingRecordControllerTest {
         response.andExpect(status().isConflict())
                 .andExpect(content().string("Book not available"));
     }
+
+    @Test
+    void borrowBooks_Successful() throws Exception {
+        when(borrowingRecordService.borrowBooks(1L, List.of(1L, 2L))).thenReturn(List.of(
+                LoanResultDTO.succeeded(1L, LoanResultDTO.Status.BORROWED, borrowingRecordDTO),
+                LoanResultDTO.failed(2L, LoanResultDTO.Status.NOT_AVAILABLE, "book with id: 2 is already borrowed at the moment")));
+
+        ResultActions response = mockMvc.perform(post("/api/borrow/patron/{patronId}", 1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(List.of(1L, 2L))));
+
+        response.andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].bookId", is(1)))
+                .andExpect(jsonPath("$[0].status", is("BORROWED")))
+                .andExpect(jsonPath("$[0].record.id", is((int) borrowingRecordDTO.getId())))
+                .andExpect(jsonPath("$[1].bookId", is(2)))
+                .andExpect(jsonPath("$[1].status", is("NOT_AVAILABLE")))
+                .andExpect(jsonPath("$[1].message", is("book with id: 2 is already borrowed at the moment")));
+    }
+
+    @Test
+    void borrowBooks_InvalidRequest() throws Exception {
+        when(borrowingRecordService.borrowBooks(1L, List.of())).thenThrow(new InvalidRequestException("At least one book id is required"));
+
+        ResultActions response = mockMvc.perform(post("/api/borrow/patron/{patronId}", 1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[]"));
+
+        response.andExpect(status().isBadRequest())
+                .andExpect(content().string("At least one book id is required"));
+    }
+
+    @Test
+    void returnBooks_Successful() throws Exception {
+        when(borrowingRecordService.returnBooks(1L, List.of(1L, 3L))).thenReturn(List.of(
+                LoanResultDTO.succeeded(1L, LoanResultDTO.Status.RETURNED, borrowingRecordDTO),
+                LoanResultDTO.failed(3L, LoanResultDTO.Status.NOT_FOUND, "Book not found with id: 3")));
+
+        ResultActions response = mockMvc.perform(put("/api/return/patron/{patronId}", 1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(List.of(1L, 3L))));
+
+        response.andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status", is("RETURNED")))
+                .andExpect(jsonPath("$[1].status", is("NOT_FOUND")));
+    }
+
+    @Test
+    void returnBooks_PatronNotFound() throws Exception {
+        when(borrowingRecordService.returnBooks(1L, List.of(1L))).thenThrow(new NotFoundException("patron not found with id: 1"));
+
+        ResultActions response = mockMvc.perform(put("/api/return/patron/{patronId}", 1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[1]"));
+
+        response.andExpect(status().isNotFound())
+                .andExpect(content().string("patron not found with id: 1"));
+    }
 }
@@ -0,0 +1,130 @@
+package Mamoun.librarymanagement.Controllers;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.DTO.HoldDTO;
+import Mamoun.librarymanagement.Entities.Hold;
+import Mamoun.librarymanagement.Exceptions.HoldConflictException;
+import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Services.HoldService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.CoreMatchers.is;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = HoldController.class)
+@AutoConfigureMockMvc(addFilters = false)
+@ExtendWith(MockitoExtension.class)
+@EnableConfigurationProperties(LibraryProperties.class)
+public class HoldControllerTest {
+
+    @MockBean
+    private HoldService holdService;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    private final HoldDTO waiting = new HoldDTO(7L, 1L, 2L, LocalDateTime.now(), Hold.Status.WAITING, 1, null);
+
+    @Test
+    void placeHold_Successful() throws Exception {
+        when(holdService.placeHold(1L, 2L)).thenReturn(waiting);
+
+        mockMvc.perform(post("/api/holds/book/1/patron/2"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.id", is(7)))
+                .andExpect(jsonPath("$.status", is("WAITING")))
+                .andExpect(jsonPath("$.position", is(1)));
+    }
+
+    @Test
+    void placeHold_BookAvailable() throws Exception {
+        when(holdService.placeHold(1L, 2L)).thenThrow(new HoldConflictException("book with id: 1 is available, borrow it instead"));
+
+        mockMvc.perform(post("/api/holds/book/1/patron/2"))
+                .andExpect(status().isConflict())
+                .andExpect(content().string("book with id: 1 is available, borrow it instead"));
+    }
+
+    @Test
+    void getHold_WithoutWait_AnswersAtOnce() throws Exception {
+        when(holdService.getHold(7L)).thenReturn(waiting);
+
+        MvcResult result = mockMvc.perform(get("/api/holds/7")).andExpect(request().asyncStarted()).andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status", is("WAITING")));
+    }
+
+    @Test
+    void getHold_LongPoll_AnswersWhenTheHoldIsFulfilled() throws Exception {
+        CompletableFuture<HoldDTO> settled = new CompletableFuture<>();
+        when(holdService.awaitHold(7L)).thenReturn(settled);
+
+        MvcResult result = mockMvc.perform(get("/api/holds/7").param("waitSeconds", "10"))
+                .andExpect(request().asyncStarted()).andReturn();
+        settled.complete(new HoldDTO(7L, 1L, 2L, LocalDateTime.now(), Hold.Status.FULFILLED, null, 42L));
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status", is("FULFILLED")))
+                .andExpect(jsonPath("$.loanId", is(42)));
+    }
+
+    @Test
+    void getHold_HugeWait_IsCappedAtMaxWait() throws Exception {
+        when(holdService.awaitHold(7L)).thenReturn(new CompletableFuture<>());
+
+        MvcResult result = mockMvc.perform(get("/api/holds/7").param("waitSeconds", String.valueOf(Long.MAX_VALUE / 100)))
+                .andExpect(request().asyncStarted()).andReturn();
+
+        assertThat(result.getRequest().getAsyncContext().getTimeout()).isEqualTo(Duration.ofSeconds(30).toMillis());
+    }
+
+    @Test
+    void getHold_NegativeWait_BadRequest() throws Exception {
+        MvcResult result = mockMvc.perform(get("/api/holds/7").param("waitSeconds", "-1")).andReturn();
+
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isBadRequest());
+        verifyNoInteractions(holdService);
+    }
+
+    @Test
+    void getHold_NotFound() throws Exception {
+        when(holdService.awaitHold(7L)).thenThrow(new NotFoundException("hold not found with id: 7"));
+
+        MvcResult result = mockMvc.perform(get("/api/holds/7").param("waitSeconds", "10")).andReturn();
+
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isNotFound());
+    }
+
+    @Test
+    void cancelHold_NoLongerWaiting() throws Exception {
+        when(holdService.cancelHold(7L)).thenThrow(new HoldConflictException("hold with id: 7 is no longer waiting"));
+
+        mockMvc.perform(delete("/api/holds/7")).andExpect(status().isConflict());
+    }
+}
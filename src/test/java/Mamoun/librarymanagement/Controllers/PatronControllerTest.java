@@ -1,5 +1,7 @@
 package Mamoun.librarymanagement.Controllers;
 
+import Mamoun.librarymanagement.DTO.BorrowingHistoryDTO;
+import Mamoun.librarymanagement.DTO.KeysetPageDTO;
 import Mamoun.librarymanagement.DTO.PatronDTO;
 import Mamoun.librarymanagement.Exceptions.DeleteException;
 import Mamoun.librarymanagement.Exceptions.NotFoundException;
@@ -20,14 +22,19 @@ import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 import org.springframework.web.client.HttpClientErrorException;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -55,6 +62,7 @@ public class PatronControllerTest {
                 .id(1L)
                 .name("Sample Patron")
                 .contactInformation("1234567890")
+                .version(4L)
                 .build();
     }
     @Test
@@ -89,7 +97,30 @@ public class PatronControllerTest {
 
         response.andExpect(status().isOk())
                 .andExpect(jsonPath("$.name", is(samplePatronDTO.getName())))
-                .andExpect(jsonPath("$.contactInformation", is(samplePatronDTO.getContactInformation())));
+                .andExpect(jsonPath("$.contactInformation", is(samplePatronDTO.getContactInformation())))
+                .andExpect(jsonPath("$.version").doesNotExist())
+                .andExpect(header().string("ETag", "\"4\""));
+    }
+
+    @Test
+    void getPatronById_IfNoneMatchCurrent_NotModifiedWithoutLoadingThePatron() throws Exception {
+        when(patronService.getPatronVersion(1L)).thenReturn(4L);
+
+        mockMvc.perform(get("/api/patrons/1").header("If-None-Match", "\"4\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"4\""));
+
+        verify(patronService, never()).getPatronById(anyLong());
+    }
+
+    @Test
+    void getPatronById_IfNoneMatchStale_ReturnsThePatron() throws Exception {
+        when(patronService.getPatronVersion(1L)).thenReturn(4L);
+        when(patronService.getPatronById(1L)).thenReturn(samplePatronDTO);
+
+        mockMvc.perform(get("/api/patrons/1").header("If-None-Match", "\"3\""))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name", is(samplePatronDTO.getName())));
     }
     @Test
     void getPatronById_PatronFound_NotFound() throws Exception {
@@ -134,7 +165,7 @@ public class PatronControllerTest {
     void updatePatron_PatronFound_Successful() throws Exception {
         // Mock service response for updating a patron
         long patronId = 1;
-        when(patronService.updatePatron(eq(patronId), any(PatronDTO.class))).thenReturn(samplePatronDTO);
+        when(patronService.updatePatron(eq(patronId), any(PatronDTO.class), isNull())).thenReturn(samplePatronDTO);
 
         ResultActions response = mockMvc.perform(put("/api/patrons/1")
                 .contentType(MediaType.APPLICATION_JSON)
@@ -143,14 +174,41 @@ public class PatronControllerTest {
         response.andExpect(status().isOk())
                 .andExpect(jsonPath("$.id", is(samplePatronDTO.getId().intValue())))
                 .andExpect(jsonPath("$.name", is(samplePatronDTO.getName())))
-                .andExpect(jsonPath("$.contactInformation", is(samplePatronDTO.getContactInformation())));
+                .andExpect(jsonPath("$.contactInformation", is(samplePatronDTO.getContactInformation())))
+                .andExpect(header().string("ETag", "\"4\""));
+    }
+
+    @Test
+    void updatePatron_IfMatchCurrent_UpdatesThatVersion() throws Exception {
+        when(patronService.getPatronVersion(1L)).thenReturn(3L);
+        when(patronService.updatePatron(eq(1L), any(PatronDTO.class), eq(3L))).thenReturn(samplePatronDTO);
+
+        mockMvc.perform(put("/api/patrons/1")
+                        .header("If-Match", "\"3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(samplePatronDTO)))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"4\""));
+    }
+
+    @Test
+    void updatePatron_IfMatchStale_PreconditionFailed() throws Exception {
+        when(patronService.getPatronVersion(1L)).thenReturn(4L);
+
+        mockMvc.perform(put("/api/patrons/1")
+                        .header("If-Match", "\"3\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(samplePatronDTO)))
+                .andExpect(status().isPreconditionFailed());
+
+        verify(patronService, never()).updatePatron(anyLong(), any(), any());
     }
 
     @Test
     void updatePatron_PatronNotFound() throws Exception {
         // Mock service response for updating a non-existing patron
         long nonExistingPatronId = 100;
-        when(patronService.updatePatron(eq(nonExistingPatronId), any(PatronDTO.class))).thenThrow(new NotFoundException("Patron not found"));
+        when(patronService.updatePatron(eq(nonExistingPatronId), any(PatronDTO.class), isNull())).thenThrow(new NotFoundException("Patron not found"));
 
         ResultActions response = mockMvc.perform(put("/api/patrons/100")
                 .contentType(MediaType.APPLICATION_JSON)
@@ -163,7 +221,7 @@ public class PatronControllerTest {
     void updatePatron_InvalidRequestBody() throws Exception {
         // Mock service response for updating a patron with invalid request body
         long patronId = 1;
-        when(patronService.updatePatron(eq(patronId), any(PatronDTO.class))).thenThrow(new HttpClientErrorException(HttpStatus.BAD_REQUEST, "Invalid request body"));
+        when(patronService.updatePatron(eq(patronId), any(PatronDTO.class), isNull())).thenThrow(new HttpClientErrorException(HttpStatus.BAD_REQUEST, "Invalid request body"));
 
         ResultActions response = mockMvc.perform(put("/api/patrons/1")
                 .contentType(MediaType.APPLICATION_JSON)
@@ -195,4 +253,24 @@ public class PatronControllerTest {
 
 
 
+
+    @Test
+    void getBorrowings_Successful() throws Exception {
+        BorrowingHistoryDTO loan = new BorrowingHistoryDTO(5L, 2L, 1L, "Sample Title", LocalDate.now(), LocalDate.now().plusDays(14), null, true);
+        when(patronService.getBorrowings(1L, "abc", 10)).thenReturn(new KeysetPageDTO<>(List.of(loan), "next"));
+
+        mockMvc.perform(get("/api/patrons/1/borrowings").param("cursor", "abc").param("size", "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].id", is(5)))
+                .andExpect(jsonPath("$.content[0].bookTitle", is("Sample Title")))
+                .andExpect(jsonPath("$.nextCursor", is("next")));
+    }
+
+    @Test
+    void getBorrowings_PatronNotFound() throws Exception {
+        when(patronService.getBorrowings(1L, null, null)).thenThrow(new NotFoundException("Patron not found with id: 1"));
+
+        mockMvc.perform(get("/api/patrons/1/borrowings"))
+                .andExpect(status().isNotFound());
+    }
 }
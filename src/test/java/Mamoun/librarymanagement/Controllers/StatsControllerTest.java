@@ -0,0 +1,55 @@
+package Mamoun.librarymanagement.Controllers;
+
+import Mamoun.librarymanagement.DTO.StatsDTO;
+import Mamoun.librarymanagement.Stats.InventoryCounters;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = StatsController.class)
+@AutoConfigureMockMvc(addFilters = false)
+@ExtendWith(MockitoExtension.class)
+public class StatsControllerTest {
+
+    @MockBean
+    private InventoryCounters inventoryCounters;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void getStats_Successful() throws Exception {
+        when(inventoryCounters.snapshot()).thenReturn(new StatsDTO(10, 3, 7, 4, 2, 3));
+
+        ResultActions response = mockMvc.perform(get("/api/stats")
+                .contentType(MediaType.APPLICATION_JSON));
+
+        response.andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalBooks", is(10)))
+                .andExpect(jsonPath("$.borrowedBooks", is(3)))
+                .andExpect(jsonPath("$.availableBooks", is(7)))
+                .andExpect(jsonPath("$.patrons", is(4)))
+                .andExpect(jsonPath("$.activePatrons", is(2)))
+                .andExpect(jsonPath("$.openLoans", is(3)));
+    }
+
+    @Test
+    void getStats_Failure() throws Exception {
+        when(inventoryCounters.snapshot()).thenThrow(new IllegalStateException("boom"));
+
+        mockMvc.perform(get("/api/stats")).andExpect(status().isInternalServerError());
+    }
+}
@@ -0,0 +1,151 @@
+package Mamoun.librarymanagement.Copies;
+
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Repositories.BookCopyRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CopyAllocatorTest {
+
+    @Mock
+    private BookCopyRepository bookCopyRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private CopyAllocator allocator;
+
+    @BeforeEach
+    void setUp() {
+        allocator = new CopyAllocator(bookCopyRepository, transactionManager);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+            TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    void afterSingletonsInstantiated_QueuesEveryFreeCopyUnderItsTitle() {
+        when(bookCopyRepository.streamFreeCopies()).thenReturn(Stream.of(freeCopy(1, 10), freeCopy(1, 11), freeCopy(2, 20)));
+
+        allocator.afterSingletonsInstantiated();
+
+        assertThat(allocator.available(1)).isEqualTo(2);
+        assertThat(allocator.available(2)).isEqualTo(1);
+        assertThat(allocator.poll(2)).isEqualTo(20);
+        assertThat(allocator.poll(2)).isEqualTo(CopyAllocator.NONE);
+        assertThat(allocator.poll(3)).isEqualTo(CopyAllocator.NONE);
+    }
+
+    @Test
+    void poll_RolledBackTransaction_PutsCopyBack() {
+        allocator.offerAfterCommit(1, List.of(10L));
+        TransactionSynchronizationManager.initSynchronization();
+
+        assertThat(allocator.poll(1)).isEqualTo(10);
+        assertThat(allocator.available(1)).isZero();
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertThat(allocator.available(1)).isEqualTo(1);
+    }
+
+    @Test
+    void poll_CommittedTransaction_KeepsCopyOut() {
+        allocator.offerAfterCommit(1, List.of(10L));
+        TransactionSynchronizationManager.initSynchronization();
+
+        assertThat(allocator.poll(1)).isEqualTo(10);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertThat(allocator.available(1)).isZero();
+    }
+
+    @Test
+    void offerAfterCommit_InsideTransaction_WaitsForCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        allocator.offerAfterCommit(1, List.of(10L, 11L));
+
+        assertThat(allocator.available(1)).isZero();
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        assertThat(allocator.available(1)).isEqualTo(2);
+    }
+
+    @Test
+    void onBookChanged_DeletedTitle_DropsItsCopies() {
+        allocator.offerAfterCommit(1, List.of(10L, 11L));
+
+        allocator.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.DELETED, 1));
+
+        assertThat(allocator.available(1)).isZero();
+        assertThat(allocator.poll(1)).isEqualTo(CopyAllocator.NONE);
+    }
+
+    @Test
+    void poll_ConcurrentBorrowers_NeverShareACopy() throws Exception {
+        int copies = 1_000;
+        allocator.offerAfterCommit(1, LongStream.rangeClosed(1, copies).boxed().toList());
+        Set<Long> handedOut = ConcurrentHashMap.newKeySet();
+        CountDownLatch startGate = new CountDownLatch(1);
+        List<Future<Integer>> borrowers = new ArrayList<>();
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int thread = 0; thread < 8; thread++) {
+                borrowers.add(executor.submit(() -> {
+                    startGate.await();
+                    int duplicates = 0;
+                    for (long copyId = allocator.poll(1); copyId != CopyAllocator.NONE; copyId = allocator.poll(1))
+                        duplicates += handedOut.add(copyId) ? 0 : 1;
+                    return duplicates;
+                }));
+            }
+            startGate.countDown();
+            for (Future<Integer> borrower : borrowers)
+                assertThat(borrower.get()).isZero();
+        }
+
+        assertThat(handedOut).hasSize(copies);
+    }
+
+    private static void complete(int status) {
+        TransactionSynchronizationManager.getSynchronizations().forEach(synchronization -> synchronization.afterCompletion(status));
+    }
+
+    private static BookCopyRepository.FreeCopy freeCopy(long bookId, long id) {
+        return new BookCopyRepository.FreeCopy() {
+            @Override
+            public Long getBookId() {
+                return bookId;
+            }
+
+            @Override
+            public Long getId() {
+                return id;
+            }
+        };
+    }
+}
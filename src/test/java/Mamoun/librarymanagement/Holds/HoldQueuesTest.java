@@ -0,0 +1,146 @@
+package Mamoun.librarymanagement.Holds;
+
+import Mamoun.librarymanagement.Entities.Hold;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Repositories.HoldRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class HoldQueuesTest {
+
+    @Mock
+    private HoldRepository holdRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private HoldQueues queues;
+
+    @BeforeEach
+    void setUp() {
+        queues = new HoldQueues(holdRepository, transactionManager);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+            TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    void afterSingletonsInstantiated_QueuesWaitingHoldsInOrder() {
+        when(holdRepository.streamByStatus(Hold.Status.WAITING))
+                .thenReturn(Stream.of(waitingHold(3L, 1L, 10L), waitingHold(5L, 1L, 11L), waitingHold(6L, 2L, 10L)));
+
+        queues.afterSingletonsInstantiated();
+
+        assertThat(queues.waiting(1L)).extracting(HoldQueues.Waiting::holdId).containsExactly(3L, 5L);
+        assertThat(queues.position(1L, 5L)).isEqualTo(2);
+        assertThat(queues.waitingCount(2L)).isEqualTo(1);
+        assertThat(queues.waiting(3L)).isEmpty();
+    }
+
+    @Test
+    void add_RolledBackTransaction_LeavesTheQueue() {
+        TransactionSynchronizationManager.initSynchronization();
+        queues.add(1L, 3L, 10L);
+        assertThat(queues.position(1L, 3L)).isEqualTo(1);
+        CompletableFuture<HoldQueues.Outcome> settled = queues.settled(3L);
+
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertThat(queues.waitingCount(1L)).isZero();
+        assertThat(settled).isCompletedWithValue(new HoldQueues.Outcome(Hold.Status.CANCELLED, null));
+    }
+
+    @Test
+    void settleAfterCommit_WakesWaitersOnlyOnCommit() {
+        queues.add(1L, 3L, 10L);
+        queues.add(1L, 4L, 11L);
+        CompletableFuture<HoldQueues.Outcome> settled = queues.settled(3L);
+
+        TransactionSynchronizationManager.initSynchronization();
+        queues.settleAfterCommit(1L, 3L, new HoldQueues.Outcome(Hold.Status.FULFILLED, 42L));
+        assertThat(settled).isNotDone();
+        assertThat(queues.position(1L, 4L)).isEqualTo(2);
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        assertThat(settled).isCompletedWithValue(new HoldQueues.Outcome(Hold.Status.FULFILLED, 42L));
+        assertThat(queues.position(1L, 4L)).isEqualTo(1);
+        assertThat(queues.settled(3L)).isCompletedWithValue(null);
+    }
+
+    @Test
+    void settleAfterCommit_RolledBack_KeepsTheHoldWaiting() {
+        queues.add(1L, 3L, 10L);
+
+        TransactionSynchronizationManager.initSynchronization();
+        queues.settleAfterCommit(1L, 3L, new HoldQueues.Outcome(Hold.Status.FULFILLED, 42L));
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertThat(queues.position(1L, 3L)).isEqualTo(1);
+        assertThat(queues.settled(3L)).isNotDone();
+    }
+
+    @Test
+    void onBookChanged_Deleted_CancelsItsHolds() {
+        queues.add(1L, 3L, 10L);
+        queues.add(2L, 4L, 10L);
+        CompletableFuture<HoldQueues.Outcome> settled = queues.settled(3L);
+
+        queues.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.DELETED, 1L));
+
+        assertThat(queues.waitingCount(1L)).isZero();
+        assertThat(queues.waitingCount(2L)).isEqualTo(1);
+        assertThat(settled).isCompletedWithValue(new HoldQueues.Outcome(Hold.Status.CANCELLED, null));
+    }
+
+    @Test
+    void drop_TakesAStaleHoldOutAtOnce() {
+        queues.add(1L, 3L, 10L);
+        queues.add(1L, 4L, 11L);
+
+        TransactionSynchronizationManager.initSynchronization();
+        queues.drop(1L, queues.waiting(1L).iterator().next());
+
+        assertThat(queues.waiting(1L)).extracting(HoldQueues.Waiting::holdId).containsExactly(4L);
+    }
+
+    private static void complete(int status) {
+        TransactionSynchronizationManager.getSynchronizations().forEach(synchronization -> synchronization.afterCompletion(status));
+    }
+
+    private static HoldRepository.WaitingHold waitingHold(long id, long bookId, long patronId) {
+        return new HoldRepository.WaitingHold() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public Long getBookId() {
+                return bookId;
+            }
+
+            @Override
+            public Long getPatronId() {
+                return patronId;
+            }
+        };
+    }
+}
@@ -0,0 +1,129 @@
+package Mamoun.librarymanagement.Idempotency;
+
+import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.DTO.PatronDTO;
+import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
+import Mamoun.librarymanagement.Repositories.PatronRepository;
+import Mamoun.librarymanagement.Services.BookService;
+import Mamoun.librarymanagement.Services.PatronService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:idempotencydb")
+@AutoConfigureMockMvc
+class IdempotencyAspectTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private BookService bookService;
+
+    @Autowired
+    private PatronService patronService;
+
+    @Autowired
+    private BorrowingRecordRepository borrowingRecordRepository;
+
+    @Autowired
+    private PatronRepository patronRepository;
+
+    @Test
+    void borrow_RetriedWithSameKey_ReplaysTheOriginalResponse() throws Exception {
+        long bookId = book("idempotent-1");
+        long patronId = patron();
+        long loansBefore = borrowingRecordRepository.count();
+        String path = "/api/borrow/" + bookId + "/patron/" + patronId;
+
+        MvcResult first = mockMvc.perform(post(path).header(IdempotencyAspect.HEADER, "borrow-1"))
+                .andExpect(status().isCreated())
+                .andExpect(header().doesNotExist(IdempotencyStore.REPLAYED_HEADER))
+                .andReturn();
+        mockMvc.perform(post(path).header(IdempotencyAspect.HEADER, "borrow-1"))
+                .andExpect(status().isCreated())
+                .andExpect(header().string(IdempotencyStore.REPLAYED_HEADER, "true"))
+                .andExpect(content().json(first.getResponse().getContentAsString(), true));
+
+        assertThat(borrowingRecordRepository.count()).isEqualTo(loansBefore + 1);
+    }
+
+    @Test
+    void borrow_RetriedWithoutKey_RunsAgain() throws Exception {
+        long bookId = book("idempotent-2");
+        long patronId = patron();
+        String path = "/api/borrow/" + bookId + "/patron/" + patronId;
+
+        mockMvc.perform(post(path)).andExpect(status().isCreated());
+        mockMvc.perform(post(path)).andExpect(status().isConflict());
+    }
+
+    @Test
+    void addPatron_RetriedWithSameKey_CreatesOnePatron() throws Exception {
+        long patronsBefore = patronRepository.count();
+        String body = "{\"name\":\"Retried\",\"contactInformation\":\"+201001234567\"}";
+
+        for (int attempt = 0; attempt < 3; attempt++)
+            mockMvc.perform(post("/api/patrons").header(IdempotencyAspect.HEADER, "patron-1")
+                            .contentType(MediaType.APPLICATION_JSON).content(body))
+                    .andExpect(status().isCreated());
+
+        assertThat(patronRepository.count()).isEqualTo(patronsBefore + 1);
+    }
+
+    @Test
+    void addPatron_SameKeyDifferentBody_IsUnprocessable() throws Exception {
+        long patronsBefore = patronRepository.count();
+
+        mockMvc.perform(post("/api/patrons").header(IdempotencyAspect.HEADER, "patron-2")
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"name\":\"First\",\"contactInformation\":\"+201001234567\"}"))
+                .andExpect(status().isCreated());
+        mockMvc.perform(post("/api/patrons").header(IdempotencyAspect.HEADER, "patron-2")
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"name\":\"Second\",\"contactInformation\":\"+201001234567\"}"))
+                .andExpect(status().isUnprocessableEntity());
+
+        assertThat(patronRepository.count()).isEqualTo(patronsBefore + 1);
+    }
+
+    @Test
+    void borrow_SameKeyFromAnotherClient_RunsAgain() throws Exception {
+        long bookId = book("idempotent-3");
+        long patronId = patron();
+        String path = "/api/borrow/" + bookId + "/patron/" + patronId;
+
+        mockMvc.perform(post(path).header(IdempotencyAspect.HEADER, "borrow-3"))
+                .andExpect(status().isCreated());
+        mockMvc.perform(post(path).header(IdempotencyAspect.HEADER, "borrow-3").with(request -> {
+                    request.setRemoteAddr("10.0.0.5");
+                    return request;
+                }))
+                .andExpect(status().isConflict())
+                .andExpect(header().doesNotExist(IdempotencyStore.REPLAYED_HEADER));
+    }
+
+    @Test
+    void invalidKey_IsRejected() throws Exception {
+        mockMvc.perform(post("/api/borrow/1/patron/1").header(IdempotencyAspect.HEADER, "k".repeat(256)))
+                .andExpect(status().isBadRequest());
+    }
+
+    private long book(String isbn) {
+        return bookService.addBook(BookDTO.builder().title("Title").author("Author")
+                .publicationYear(2024).isbn(isbn).isBorrowed(false).build()).getId();
+    }
+
+    private long patron() {
+        return patronService.addPatron(PatronDTO.builder().name("Patron")
+                .contactInformation("+201001234567").build()).getId();
+    }
+}
@@ -0,0 +1,149 @@
+package Mamoun.librarymanagement.Idempotency;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IdempotencyStoreTest {
+
+    private static final IdempotencyStore.Key KEY = new IdempotencyStore.Key("address:10.0.0.1", "POST", "/api/borrow/1/patron/2", "key-1");
+    private static final String BODY = "";
+
+    private IdempotencyStore store;
+    private AtomicInteger calls;
+
+    @BeforeEach
+    void setUp() {
+        store = new IdempotencyStore(new LibraryProperties());
+        calls = new AtomicInteger();
+    }
+
+    @Test
+    void execute_SameKey_ReplaysTheFirstResponse() throws Throwable {
+        ResponseEntity<?> first = store.execute(KEY, BODY, () -> respond(HttpStatus.CREATED, "first"));
+        ResponseEntity<?> replay = store.execute(KEY, BODY, () -> respond(HttpStatus.CREATED, "second"));
+
+        assertThat(calls).hasValue(1);
+        assertThat(first.getHeaders().containsKey(IdempotencyStore.REPLAYED_HEADER)).isFalse();
+        assertThat(replay.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(replay.getBody()).isEqualTo("first");
+        assertThat(replay.getHeaders().getFirst(IdempotencyStore.REPLAYED_HEADER)).isEqualTo("true");
+    }
+
+    @Test
+    void execute_ClientErrorResponse_IsReplayed() throws Throwable {
+        store.execute(KEY, BODY, () -> respond(HttpStatus.CONFLICT, "not available"));
+        ResponseEntity<?> replay = store.execute(KEY, BODY, () -> respond(HttpStatus.CREATED, "borrowed"));
+
+        assertThat(calls).hasValue(1);
+        assertThat(replay.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+    }
+
+    @Test
+    void execute_DifferentPath_RunsAgain() throws Throwable {
+        store.execute(KEY, BODY, () -> respond(HttpStatus.CREATED, "first"));
+        ResponseEntity<?> other = store.execute(new IdempotencyStore.Key("address:10.0.0.1", "PUT", "/api/return/1/patron/2", "key-1"),
+                BODY, () -> respond(HttpStatus.OK, "returned"));
+
+        assertThat(calls).hasValue(2);
+        assertThat(other.getBody()).isEqualTo("returned");
+    }
+
+    @Test
+    void execute_DifferentClient_RunsAgain() throws Throwable {
+        store.execute(KEY, BODY, () -> respond(HttpStatus.CREATED, "first"));
+        ResponseEntity<?> other = store.execute(new IdempotencyStore.Key("address:10.0.0.2", "POST", "/api/borrow/1/patron/2", "key-1"),
+                BODY, () -> respond(HttpStatus.CREATED, "second"));
+
+        assertThat(calls).hasValue(2);
+        assertThat(other.getBody()).isEqualTo("second");
+    }
+
+    @Test
+    void execute_SameKeyDifferentBody_IsUnprocessable() throws Throwable {
+        store.execute(KEY, "body-1", () -> respond(HttpStatus.CREATED, "first"));
+        ResponseEntity<?> reused = store.execute(KEY, "body-2", () -> respond(HttpStatus.CREATED, "second"));
+
+        assertThat(calls).hasValue(1);
+        assertThat(reused.getStatusCode()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+        assertThat(reused.getHeaders().containsKey(IdempotencyStore.REPLAYED_HEADER)).isFalse();
+    }
+
+    @Test
+    void execute_ServerErrorResponse_IsNotKept() throws Throwable {
+        store.execute(KEY, BODY, () -> respond(HttpStatus.INTERNAL_SERVER_ERROR, "failed"));
+        ResponseEntity<?> retry = store.execute(KEY, BODY, () -> respond(HttpStatus.CREATED, "borrowed"));
+
+        assertThat(calls).hasValue(2);
+        assertThat(retry.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(retry.getHeaders().containsKey(IdempotencyStore.REPLAYED_HEADER)).isFalse();
+    }
+
+    @Test
+    void execute_Exception_IsNotKept() throws Throwable {
+        assertThatThrownBy(() -> store.execute(KEY, BODY, () -> {
+            calls.incrementAndGet();
+            throw new IllegalStateException("boom");
+        })).isInstanceOf(IllegalStateException.class);
+
+        ResponseEntity<?> retry = store.execute(KEY, BODY, () -> respond(HttpStatus.CREATED, "borrowed"));
+
+        assertThat(calls).hasValue(2);
+        assertThat(retry.getBody()).isEqualTo("borrowed");
+    }
+
+    @Test
+    void execute_ConcurrentDuplicates_RunOnce() throws Exception {
+        int duplicates = 8;
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(duplicates);
+        try {
+            Future<ResponseEntity<?>> first = executor.submit(() -> executeUnchecked(() -> {
+                started.countDown();
+                release.await();
+                return respond(HttpStatus.CREATED, "borrowed");
+            }));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            @SuppressWarnings("unchecked")
+            Future<ResponseEntity<?>>[] others = new Future[duplicates - 1];
+            for (int i = 0; i < others.length; i++)
+                others[i] = executor.submit(() -> executeUnchecked(() -> respond(HttpStatus.CREATED, "again")));
+            release.countDown();
+
+            assertThat(first.get(5, TimeUnit.SECONDS).getBody()).isEqualTo("borrowed");
+            for (Future<ResponseEntity<?>> other : others)
+                assertThat(other.get(5, TimeUnit.SECONDS).getBody()).isEqualTo("borrowed");
+            assertThat(calls).hasValue(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ResponseEntity<?> executeUnchecked(IdempotencyStore.Call call) throws Exception {
+        try {
+            return store.execute(KEY, BODY, call);
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ResponseEntity<?> respond(HttpStatus status, String body) {
+        calls.incrementAndGet();
+        return new ResponseEntity<>(body, status);
+    }
+}
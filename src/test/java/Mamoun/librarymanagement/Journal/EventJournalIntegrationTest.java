@@ -0,0 +1,88 @@
+package Mamoun.librarymanagement.Journal;
+
+import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Entities.Patron;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import Mamoun.librarymanagement.Repositories.PatronRepository;
+import Mamoun.librarymanagement.Services.BookCopyService;
+import Mamoun.librarymanagement.Services.BorrowingRecordService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class EventJournalIntegrationTest {
+
+    @TempDir
+    static Path journalDirectory;
+
+    @Autowired
+    private EventJournal eventJournal;
+
+    @Autowired
+    private BorrowingRecordService borrowingRecordService;
+
+    @Autowired
+    private BookCopyService bookCopyService;
+
+    @Autowired
+    private BookRepository bookRepository;
+
+    @Autowired
+    private PatronRepository patronRepository;
+
+    @DynamicPropertySource
+    static void journalProperties(DynamicPropertyRegistry registry) {
+        registry.add("library.journal.enabled", () -> "true");
+        registry.add("library.journal.directory", journalDirectory::toString);
+    }
+
+    @Test
+    void borrowAndReturn_AreJournaledAfterCommit() throws Exception {
+        Patron patron = patronRepository.save(Patron.builder().name("Journaled").contactInformation("555-0100").build());
+        Book book = bookRepository.save(Book.builder().title("Journaled").author("Author")
+                .isbn("journaled-" + System.nanoTime()).publicationYear(2024).isBorrowed(false).build());
+        long before = eventJournal.lastSequence();
+
+        borrowingRecordService.borrowBook(book.getId(), patron.getId());
+        borrowingRecordService.returnBook(book.getId(), patron.getId());
+
+        assertThat(eventJournal.awaitSequence(before + 2, Duration.ofSeconds(5))).isTrue();
+        List<JournalEvent> events = eventJournal.read(before + 1, 100).stream()
+                .filter(event -> event.bookId() == book.getId())
+                .toList();
+        assertThat(events).extracting(JournalEvent::type)
+                .containsExactly(BookChangedEvent.Type.BORROWED, BookChangedEvent.Type.RETURNED);
+        assertThat(events).extracting(JournalEvent::patronId).containsOnly(patron.getId());
+    }
+
+    @Test
+    void copyBorrowAndReturn_AreJournaled() throws Exception {
+        Patron patron = patronRepository.save(Patron.builder().name("Copy journaled").contactInformation("555-0101").build());
+        Book book = bookRepository.save(Book.builder().title("Copy journaled").author("Author")
+                .isbn("copy-journaled-" + System.nanoTime()).publicationYear(2024).isBorrowed(false).build());
+        bookCopyService.addCopies(book.getId(), 2);
+        long before = eventJournal.lastSequence();
+
+        borrowingRecordService.borrowCopy(book.getId(), patron.getId());
+        borrowingRecordService.returnBooks(patron.getId(), List.of(book.getId()));
+
+        assertThat(eventJournal.awaitSequence(before + 2, Duration.ofSeconds(5))).isTrue();
+        List<JournalEvent> events = eventJournal.read(before + 1, 100).stream()
+                .filter(event -> event.bookId() == book.getId())
+                .toList();
+        assertThat(events).extracting(JournalEvent::type)
+                .containsExactly(BookChangedEvent.Type.BORROWED, BookChangedEvent.Type.RETURNED);
+        assertThat(events).extracting(JournalEvent::patronId).containsOnly(patron.getId());
+    }
+}
@@ -0,0 +1,195 @@
+package Mamoun.librarymanagement.Journal;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EventJournalTest {
+
+    // Room for four records per segment, so a handful of events rolls several times
+    private static final long SMALL_SEGMENT = JournalSegment.HEADER_SIZE + 4 * JournalSegment.RECORD_SIZE;
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void onBookChanged_WritesOneEventPerBookInOrder() throws Exception {
+        try (EventJournal journal = new EventJournal(properties(DataSize.ofKilobytes(64)))) {
+            journal.onBookChanged(BookChangedEvent.ofIds(BookChangedEvent.Type.ADDED, List.of(1L, 2L)));
+            journal.onBookChanged(BookChangedEvent.ofLoan(BookChangedEvent.Type.BORROWED, List.of(2L), 7L));
+            journal.onBookChanged(BookChangedEvent.ofLoan(BookChangedEvent.Type.RETURNED, List.of(2L), 7L));
+
+            assertThat(journal.awaitSequence(4, Duration.ofSeconds(5))).isTrue();
+            List<JournalEvent> events = journal.read(1, 10);
+
+            assertThat(events).extracting(JournalEvent::sequence).containsExactly(1L, 2L, 3L, 4L);
+            assertThat(events).extracting(JournalEvent::type).containsExactly(
+                    BookChangedEvent.Type.ADDED, BookChangedEvent.Type.ADDED,
+                    BookChangedEvent.Type.BORROWED, BookChangedEvent.Type.RETURNED);
+            assertThat(events).extracting(JournalEvent::bookId).containsExactly(1L, 2L, 2L, 2L);
+            assertThat(events).extracting(JournalEvent::patronId).containsExactly(0L, 0L, 7L, 7L);
+            assertThat(events.get(0).timestamp()).isPositive();
+            assertThat(journal.read(3, 1)).extracting(JournalEvent::sequence).containsExactly(3L);
+            assertThat(journal.read(5, 10)).isEmpty();
+        }
+    }
+
+    @Test
+    void onBookChanged_FullSegment_RollsAndReadsAcrossSegments() throws Exception {
+        try (EventJournal journal = new EventJournal(properties(DataSize.ofBytes(SMALL_SEGMENT)))) {
+            for (long id = 1; id <= 10; id++)
+                journal.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.UPDATED, id));
+
+            assertThat(journal.awaitSequence(10, Duration.ofSeconds(5))).isTrue();
+            assertThat(journal.read(1, 100)).extracting(JournalEvent::bookId)
+                    .containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L);
+            assertThat(journal.read(4, 3)).extracting(JournalEvent::sequence).containsExactly(4L, 5L, 6L);
+        }
+        assertThat(segmentFiles()).extracting(file -> file.getFileName().toString()).containsExactly(
+                "00000000000000000001.journal", "00000000000000000005.journal", "00000000000000000009.journal");
+    }
+
+    @Test
+    void onBookChanged_BeyondMaxSegments_DeletesTheOldest() throws Exception {
+        try (EventJournal journal = new EventJournal(properties(DataSize.ofBytes(SMALL_SEGMENT), 2))) {
+            for (long id = 1; id <= 10; id++)
+                journal.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.UPDATED, id));
+
+            assertThat(journal.awaitSequence(10, Duration.ofSeconds(5))).isTrue();
+            assertThat(journal.firstSequence()).isEqualTo(5);
+            // A reader behind the retained history picks up at the oldest event still kept
+            assertThat(journal.read(1, 100)).extracting(JournalEvent::sequence).containsExactly(5L, 6L, 7L, 8L, 9L, 10L);
+            assertThat(journal.read(6, 2)).extracting(JournalEvent::bookId).containsExactly(6L, 7L);
+        }
+        assertThat(segmentFiles()).extracting(file -> file.getFileName().toString()).containsExactly(
+                "00000000000000000005.journal", "00000000000000000009.journal");
+    }
+
+    @Test
+    void constructor_MoreSegmentsThanKept_DeletesTheOldest() throws Exception {
+        try (EventJournal journal = new EventJournal(properties(DataSize.ofBytes(SMALL_SEGMENT)))) {
+            for (long id = 1; id <= 10; id++)
+                journal.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.ADDED, id));
+            assertThat(journal.awaitSequence(10, Duration.ofSeconds(5))).isTrue();
+        }
+
+        try (EventJournal journal = new EventJournal(properties(DataSize.ofBytes(SMALL_SEGMENT), 1))) {
+            assertThat(journal.firstSequence()).isEqualTo(9);
+            assertThat(journal.lastSequence()).isEqualTo(10);
+            assertThat(journal.read(9, 10)).extracting(JournalEvent::bookId).containsExactly(9L, 10L);
+        }
+        assertThat(segmentFiles()).hasSize(1);
+    }
+
+    @Test
+    void constructor_ExistingJournal_ContinuesAfterLastRecord() throws Exception {
+        try (EventJournal journal = new EventJournal(properties(DataSize.ofBytes(SMALL_SEGMENT)))) {
+            for (long id = 1; id <= 6; id++)
+                journal.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.ADDED, id));
+            assertThat(journal.awaitSequence(6, Duration.ofSeconds(5))).isTrue();
+        }
+
+        try (EventJournal journal = new EventJournal(properties(DataSize.ofBytes(SMALL_SEGMENT)))) {
+            assertThat(journal.lastSequence()).isEqualTo(6);
+            journal.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.DELETED, 3));
+
+            assertThat(journal.awaitSequence(7, Duration.ofSeconds(5))).isTrue();
+            assertThat(journal.read(1, 100)).extracting(JournalEvent::sequence).containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L);
+            assertThat(journal.read(7, 1)).extracting(JournalEvent::type).containsExactly(BookChangedEvent.Type.DELETED);
+        }
+    }
+
+    @Test
+    void constructor_TornLastRecord_IsDroppedAndOverwritten() throws Exception {
+        try (EventJournal journal = new EventJournal(properties(DataSize.ofBytes(SMALL_SEGMENT)))) {
+            for (long id = 1; id <= 3; id++)
+                journal.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.ADDED, id));
+            assertThat(journal.awaitSequence(3, Duration.ofSeconds(5))).isTrue();
+        }
+        // Flip a byte of the third record's book id, as a crash half way through it would
+        try (FileChannel channel = FileChannel.open(segmentFiles().get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), JournalSegment.HEADER_SIZE + 2L * JournalSegment.RECORD_SIZE + 16);
+        }
+
+        try (EventJournal journal = new EventJournal(properties(DataSize.ofBytes(SMALL_SEGMENT)))) {
+            assertThat(journal.lastSequence()).isEqualTo(2);
+            journal.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.UPDATED, 9));
+
+            assertThat(journal.awaitSequence(3, Duration.ofSeconds(5))).isTrue();
+            assertThat(journal.read(1, 10)).extracting(JournalEvent::bookId).containsExactly(1L, 2L, 9L);
+        }
+    }
+
+    @Test
+    void awaitSequence_WakesTailingReaderWhenEventIsWritten() throws Exception {
+        try (EventJournal journal = new EventJournal(properties(DataSize.ofKilobytes(64)))) {
+            assertThat(journal.awaitSequence(1, Duration.ofMillis(50))).isFalse();
+
+            CompletableFuture<Boolean> tail = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return journal.awaitSequence(1, Duration.ofSeconds(10));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            journal.onBookChanged(BookChangedEvent.ofLoan(BookChangedEvent.Type.BORROWED, List.of(4L), 2L));
+
+            assertThat(tail.get(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(journal.read(1, 1)).extracting(JournalEvent::bookId).containsExactly(4L);
+        }
+    }
+
+    @Test
+    void constructor_DirectoryInUse_Throws() throws Exception {
+        try (EventJournal journal = new EventJournal(properties(DataSize.ofKilobytes(64)))) {
+            assertThatThrownBy(() -> new EventJournal(properties(DataSize.ofKilobytes(64))))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("already in use");
+        }
+    }
+
+    @Test
+    void read_SequenceBeforeStart_Throws() throws Exception {
+        try (EventJournal journal = new EventJournal(properties(DataSize.ofKilobytes(64)))) {
+            assertThatThrownBy(() -> journal.read(0, 10)).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    private LibraryProperties properties(DataSize segmentSize) {
+        return properties(segmentSize, 0);
+    }
+
+    private LibraryProperties properties(DataSize segmentSize, int maxSegments) {
+        LibraryProperties properties = new LibraryProperties();
+        LibraryProperties.Journal journal = properties.getJournal();
+        journal.setDirectory(directory.toString());
+        journal.setSegmentSize(segmentSize);
+        journal.setQueueCapacity(16);
+        journal.setFlushInterval(Duration.ofMillis(20));
+        journal.setMaxSegments(maxSegments);
+        return properties;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".journal")).sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package Mamoun.librarymanagement.Overdue;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.DTO.OverdueLoanDTO;
+import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.Limit;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OverdueLoanScannerTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2024, 6, 1);
+    private static final LocalDate FIRST_DUE_DATE = LocalDate.of(1, 1, 1);
+
+    @Mock
+    private BorrowingRecordRepository borrowingRecordRepository;
+
+    @Mock
+    private ObjectProvider<OverdueNoticeSink> noticeSinks;
+
+    private final List<List<OverdueLoanDTO>> sent = new ArrayList<>();
+    private final LibraryProperties libraryProperties = new LibraryProperties();
+    private OverdueLoanScanner scanner;
+
+    @BeforeEach
+    void init() {
+        libraryProperties.getOverdue().setChunkSize(2);
+        when(noticeSinks.getIfAvailable(any())).thenReturn(sent::add);
+        scanner = new OverdueLoanScanner(borrowingRecordRepository, noticeSinks, libraryProperties);
+    }
+
+    @Test
+    void scan_WalksOverdueLoansChunkByChunk() {
+        OverdueLoanDTO first = overdue(7, TODAY.minusDays(9));
+        OverdueLoanDTO second = overdue(3, TODAY.minusDays(4));
+        OverdueLoanDTO third = overdue(5, TODAY.minusDays(4));
+        when(borrowingRecordRepository.findOverdue(TODAY, FIRST_DUE_DATE, 0L, Limit.of(2))).thenReturn(List.of(first, second));
+        when(borrowingRecordRepository.findOverdue(TODAY, TODAY.minusDays(4), 3L, Limit.of(2))).thenReturn(List.of(third));
+
+        OverdueLoanScanner.ScanResult result = scanner.scan(TODAY).orElseThrow();
+
+        assertThat(result.overdueLoans()).isEqualTo(3);
+        assertThat(result.chunks()).isEqualTo(2);
+        assertThat(sent).containsExactly(List.of(first, second), List.of(third));
+    }
+
+    @Test
+    void scan_FullLastChunk_StopsOnEmptyChunk() {
+        when(borrowingRecordRepository.findOverdue(TODAY, FIRST_DUE_DATE, 0L, Limit.of(2)))
+                .thenReturn(List.of(overdue(1, TODAY.minusDays(2)), overdue(2, TODAY.minusDays(1))));
+        when(borrowingRecordRepository.findOverdue(TODAY, TODAY.minusDays(1), 2L, Limit.of(2))).thenReturn(List.of());
+
+        OverdueLoanScanner.ScanResult result = scanner.scan(TODAY).orElseThrow();
+
+        assertThat(result.overdueLoans()).isEqualTo(2);
+        assertThat(result.chunks()).isEqualTo(1);
+        assertThat(sent).hasSize(1);
+    }
+
+    @Test
+    void scan_WhileAnotherScanRuns_IsSkipped() {
+        AtomicReference<Boolean> nestedSkipped = new AtomicReference<>();
+        when(borrowingRecordRepository.findOverdue(TODAY, FIRST_DUE_DATE, 0L, Limit.of(2))).thenAnswer(invocation -> {
+            nestedSkipped.set(scanner.scan(TODAY).isEmpty());
+            return List.of();
+        });
+
+        assertThat(scanner.scan(TODAY)).isPresent();
+        assertThat(nestedSkipped.get()).isTrue();
+        // The next scan may run again
+        assertThat(scanner.scan(TODAY)).isPresent();
+    }
+
+    @Test
+    void bindTo_ReportsProgressAndDuration() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        scanner.bindTo(registry);
+        when(borrowingRecordRepository.findOverdue(TODAY, FIRST_DUE_DATE, 0L, Limit.of(2))).thenReturn(List.of(overdue(1, TODAY.minusDays(1))));
+
+        scanner.scan(TODAY);
+
+        assertThat(registry.get("library.overdue.scan").functionTimer().count()).isEqualTo(1);
+        assertThat(registry.get("library.overdue.scan").functionTimer().totalTime(TimeUnit.NANOSECONDS)).isPositive();
+        assertThat(registry.get("library.overdue.scan.progress").gauge().value()).isEqualTo(1);
+        assertThat(registry.get("library.overdue.notices").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("library.overdue.scan.running").gauge().value()).isZero();
+    }
+
+    @Test
+    void scan_NothingOverdue_SendsNothing() {
+        when(borrowingRecordRepository.findOverdue(TODAY, FIRST_DUE_DATE, 0L, Limit.of(2))).thenReturn(List.of());
+
+        assertThat(scanner.scan(TODAY)).get().extracting(OverdueLoanScanner.ScanResult::overdueLoans).isEqualTo(0L);
+        assertThat(sent).isEmpty();
+    }
+
+    private static OverdueLoanDTO overdue(long id, LocalDate dueDate) {
+        return new OverdueLoanDTO(id, id, 1L, "Title " + id, "Patron", "+1", dueDate.minusDays(14), dueDate);
+    }
+}
@@ -0,0 +1,82 @@
+package Mamoun.librarymanagement.Repositories;
+
+import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Entities.BookCopy;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@DataJpaTest
+public class BookCopyRepositoryTest {
+
+    @Autowired
+    private BookCopyRepository bookCopyRepository;
+    @Autowired
+    private BookRepository bookRepository;
+    @Autowired
+    private EntityManager entityManager;
+
+    private Book book;
+    private BookCopy first;
+    private BookCopy second;
+
+    @BeforeEach
+    public void setUp() {
+        book = bookRepository.save(Book.builder().title("Title 1").author("Author 1").isbn("M-123").publicationYear(2024).isBorrowed(false).build());
+        first = bookCopyRepository.save(BookCopy.builder().book(book).borrowed(false).build());
+        second = bookCopyRepository.save(BookCopy.builder().book(book).borrowed(false).build());
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    public void whenMarkingBorrowed_thenOnlyTheFirstClaimWins() {
+        assertThat(bookCopyRepository.markBorrowed(first.getId())).isEqualTo(1);
+        assertThat(bookCopyRepository.markBorrowed(first.getId())).isEqualTo(0);
+        assertThat(bookCopyRepository.markBorrowed(-1)).isEqualTo(0);
+
+        entityManager.clear();
+        assertThat(bookCopyRepository.findAllByBookId(book.getId()))
+                .extracting(BookCopy::isBorrowed)
+                .containsExactly(true, false);
+    }
+
+    @Test
+    public void whenStreamingFreeCopies_thenBorrowedCopiesAreLeftOut() {
+        bookCopyRepository.markBorrowed(first.getId());
+
+        try (Stream<BookCopyRepository.FreeCopy> copies = bookCopyRepository.streamFreeCopies()) {
+            assertThat(copies.toList())
+                    .extracting(BookCopyRepository.FreeCopy::getBookId, BookCopyRepository.FreeCopy::getId)
+                    .containsExactly(tuple(book.getId(), second.getId()));
+        }
+    }
+
+    @Test
+    public void whenMarkingReturned_thenCopiesAreFreeAgain() {
+        bookCopyRepository.markBorrowed(first.getId());
+        bookCopyRepository.markBorrowed(second.getId());
+
+        assertThat(bookCopyRepository.markReturned(List.of(first.getId(), second.getId()))).isEqualTo(2);
+
+        entityManager.clear();
+        assertThat(bookCopyRepository.findAllByBookId(book.getId())).noneMatch(BookCopy::isBorrowed);
+    }
+
+    @Test
+    public void whenDeletingTheBook_thenItsCopiesGoToo() {
+        bookRepository.deleteById(book.getId());
+        entityManager.flush();
+        entityManager.clear();
+
+        assertThat(bookCopyRepository.count()).isZero();
+    }
+}
@@ -6,10 +6,19 @@ import jakarta.transaction.Transactional;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
-
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @DataJpaTest
 public class BookRepositoryTest {
@@ -89,6 +98,84 @@ public class BookRepositoryTest {
 
         assertThat(bookRepository.findById(book.getId())).isEmpty();
     }
-}
 
+    @Test
+    public void whenFindAllByKeyset_thenPagesFollowSortOrder() {
+        bookRepository.save(Book.builder().title("B").author("Author 1").isbn("M-123").publicationYear(2024).isBorrowed(false).build());
+        bookRepository.save(Book.builder().title("A").author("Author 2").isbn("M-124").publicationYear(2024).isBorrowed(false).build());
+        bookRepository.save(Book.builder().title("C").author("Author 3").isbn("M-125").publicationYear(2024).isBorrowed(false).build());
+        Sort sort = Sort.by(Sort.Order.asc("title"), Sort.Order.asc("id"));
+
+        Window<Book> firstPage = bookRepository.findAllBy(ScrollPosition.keyset(), sort, Limit.of(2));
+        KeysetScrollPosition last = (KeysetScrollPosition) firstPage.positionAt(firstPage.size() - 1);
+        Window<Book> secondPage = bookRepository.findAllBy(ScrollPosition.forward(last.getKeys()), sort, Limit.of(2));
+
+        assertThat(firstPage.hasNext()).isTrue();
+        assertThat(firstPage).extracting(Book::getTitle).containsExactly("A", "B");
+        assertThat(secondPage.hasNext()).isFalse();
+        assertThat(secondPage).extracting(Book::getTitle).containsExactly("C");
+    }
+
+    @Test
+    public void whenStreamAllByOrderByIdAsc_thenBooksStreamInIdOrder() {
+        Book book1 = bookRepository.save(Book.builder().title("Title 1").author("Author 1").isbn("M-123").publicationYear(2024).isBorrowed(false).build());
+        Book book2 = bookRepository.save(Book.builder().title("Title 2").author("Author 2").isbn("M-124").publicationYear(2024).isBorrowed(false).build());
+
+        List<Long> ids;
+        try (Stream<Book> books = bookRepository.streamAllByOrderByIdAsc()) {
+            ids = books.map(Book::getId).toList();
+        }
+
+        assertThat(ids).containsExactly(book1.getId(), book2.getId());
+    }
+
+    @Test
+    @Transactional
+    public void whenStreamIdAndBorrowed_thenEveryBookComesWithItsFlag() {
+        Book onShelf = bookRepository.save(Book.builder().title("Title 1").author("Author 1").isbn("M-123").publicationYear(2024).isBorrowed(false).build());
+        Book lent = bookRepository.save(Book.builder().title("Title 2").author("Author 2").isbn("M-124").publicationYear(2024).isBorrowed(true).build());
+
+        List<String> rows;
+        try (Stream<BookRepository.IdAndBorrowed> books = bookRepository.streamIdAndBorrowedBy()) {
+            rows = books.map(book -> book.getId() + ":" + book.isBorrowed()).toList();
+        }
+
+        assertThat(rows).containsExactlyInAnyOrder(onShelf.getId() + ":false", lent.getId() + ":true");
+    }
+
+    @Test
+    public void whenCountingBorrowed_thenOnlyLentBooksAreCounted() {
+        Book onShelf = bookRepository.save(Book.builder().title("Title 1").author("Author 1").isbn("M-123").publicationYear(2024).isBorrowed(false).build());
+        Book lent = bookRepository.save(Book.builder().title("Title 2").author("Author 2").isbn("M-124").publicationYear(2024).isBorrowed(true).build());
+
+        assertThat(bookRepository.countByIsBorrowedTrue()).isEqualTo(1);
+        assertThat(bookRepository.findBorrowedById(onShelf.getId())).contains(false);
+        assertThat(bookRepository.findBorrowedById(lent.getId())).contains(true);
+        assertThat(bookRepository.findBorrowedById(-1L)).isEmpty();
+    }
+
+    @Test
+    public void whenBookChanges_thenVersionIsBumped() {
+        Book book = bookRepository.saveAndFlush(Book.builder().title("Title 1").author("Author 1").isbn("M-123").publicationYear(2024).isBorrowed(false).build());
+        assertThat(bookRepository.findVersionById(book.getId())).contains(0L);
+
+        book.setTitle("Updated Title");
+        bookRepository.saveAndFlush(book);
+        assertThat(bookRepository.findVersionById(book.getId())).contains(1L);
 
+        bookRepository.markBorrowed(book.getId());
+        assertThat(bookRepository.findVersionById(book.getId())).contains(2L);
+        assertThat(bookRepository.findVersionById(-1L)).isEmpty();
+    }
+
+    @Test
+    public void whenSavingAStaleCopy_thenTheUpdateIsRejected() {
+        Book book = bookRepository.saveAndFlush(Book.builder().title("Title 1").author("Author 1").isbn("M-123").publicationYear(2024).isBorrowed(false).build());
+        book.setTitle("Updated Title");
+        bookRepository.saveAndFlush(book);
+
+        Book stale = Book.builder().id(book.getId()).title("Stale Title").author("Author 1").isbn("M-123").publicationYear(2024).isBorrowed(false).version(0L).build();
+
+        assertThatThrownBy(() -> bookRepository.saveAndFlush(stale)).isInstanceOf(ObjectOptimisticLockingFailureException.class);
+    }
+}
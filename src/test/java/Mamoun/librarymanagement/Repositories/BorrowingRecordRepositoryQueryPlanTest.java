@@ -0,0 +1,80 @@
+package Mamoun.librarymanagement.Repositories;
+
+import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Entities.BorrowingRecord;
+import Mamoun.librarymanagement.Entities.Patron;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Fails when a BorrowingRecord lookup stops using its index and falls back to a table scan
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=Mamoun.librarymanagement.Repositories.RecordingStatementInspector")
+public class BorrowingRecordRepositoryQueryPlanTest {
+
+    @Autowired
+    private BorrowingRecordRepository borrowingRecordRepository;
+    @Autowired
+    private BookRepository bookRepository;
+    @Autowired
+    private PatronRepository patronRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < 20; i++) {
+            Book book = bookRepository.save(Book.builder().title("Title " + i).author("Author").isbn("M-" + i).publicationYear(2024).isBorrowed(false).build());
+            Patron patron = patronRepository.save(Patron.builder().name("Patron " + i).contactInformation("+20100" + i).build());
+            borrowingRecordRepository.save(new BorrowingRecord(book, patron, LocalDate.now().minusDays(i), i % 4 == 0 ? null : LocalDate.now()));
+        }
+        borrowingRecordRepository.flush();
+        RecordingStatementInspector.clear();
+    }
+
+    @Test
+    void findActiveByBookIdAndPatronId_UsesActiveBookIndex() {
+        borrowingRecordRepository.findActiveByBookIdAndPatronId(1L, 1L);
+
+        assertThat(planOfLastBorrowingRecordQuery()).contains("IDX_BORROWING_RECORD_ACTIVE_BOOK:").doesNotContain("tableScan");
+    }
+
+    @Test
+    void existsByBookId_UsesBookIndex() {
+        borrowingRecordRepository.existsByBookId(1L);
+
+        assertThat(planOfLastBorrowingRecordQuery()).contains("IDX_BORROWING_RECORD_BOOK:").doesNotContain("tableScan");
+    }
+
+    @Test
+    void existsByPatronId_UsesPatronIndex() {
+        borrowingRecordRepository.existsByPatronId(1L);
+
+        assertThat(planOfLastBorrowingRecordQuery()).contains("IDX_BORROWING_RECORD_PATRON:").doesNotContain("tableScan");
+    }
+
+    @Test
+    void findHistoryByPatronId_UsesPatronIndexInOneStatement() {
+        borrowingRecordRepository.findHistoryByPatronId(1L, Long.MAX_VALUE, Limit.of(20));
+
+        assertThat(RecordingStatementInspector.statements()).hasSize(1);
+        assertThat(planOfLastBorrowingRecordQuery()).contains("IDX_BORROWING_RECORD_PATRON:").doesNotContain("tableScan");
+    }
+
+    private String planOfLastBorrowingRecordQuery() {
+        String sql = RecordingStatementInspector.statements().stream()
+                .filter(statement -> statement.startsWith("select") && statement.contains("from borrowing_record"))
+                .reduce((first, second) -> second)
+                .orElseThrow(() -> new AssertionError("No borrowing_record query was executed"));
+        Object[] parameters = new Object[(int) sql.chars().filter(c -> c == '?').count()];
+        Arrays.fill(parameters, 1L);
+        return jdbcTemplate.queryForObject("EXPLAIN " + sql, String.class, parameters);
+    }
+}
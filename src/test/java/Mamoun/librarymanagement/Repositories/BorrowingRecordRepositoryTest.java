@@ -1,5 +1,7 @@
 package Mamoun.librarymanagement.Repositories;
 
+import Mamoun.librarymanagement.DTO.BorrowingHistoryDTO;
+import Mamoun.librarymanagement.DTO.OverdueLoanDTO;
 import Mamoun.librarymanagement.Entities.Book;
 import Mamoun.librarymanagement.Entities.BorrowingRecord;
 import Mamoun.librarymanagement.Entities.Patron;
@@ -7,9 +9,14 @@ import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Limit;
 import org.springframework.transaction.annotation.Transactional;
 import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import static org.assertj.core.api.Assertions.assertThat;
 
 @DataJpaTest
@@ -68,15 +75,14 @@ public class BorrowingRecordRepositoryTest {
 
     @Test
     @Transactional
-    public void whenFindFirstByBookIdAndPatronIdOrderByBorrowingDateDesc_thenBorrowingRecordIsFound() {
+    public void whenFindActiveByBookIdAndPatronId_thenOnlyTheOpenLoanIsFound() {
         // Arrange
-        Book book = Book.builder().title("Title 1").author("Author 1").isbn("M-123").publicationYear(2024).isBorrowed(false).build();
+        Book book = Book.builder().title("Title 1").author("Author 1").isbn("M-123").publicationYear(2024).isBorrowed(true).build();
         Patron patron = Patron.builder().name("Patron 2").contactInformation("+234851456981").build();
         bookRepository.save(book);
         patronRepository.save(patron);
-        LocalDate borrowingDate = LocalDate.now();
-        LocalDate returnDate = LocalDate.now().plusDays(7);
-        BorrowingRecord borrowingRecord = BorrowingRecord.builder().book(book).patron(patron).borrowingDate(borrowingDate).returnDate(returnDate).build();
+        BorrowingRecord returnedRecord = new BorrowingRecord(book, patron, LocalDate.now().minusDays(30), LocalDate.now().minusDays(20));
+        BorrowingRecord openRecord = BorrowingRecord.builder().book(book).patron(patron).borrowingDate(LocalDate.now()).active(true).build();
 
         // Check if the book and patron exist before saving the borrowing record
         Optional<Book> optionalBook = bookRepository.findById(book.getId());
@@ -85,17 +91,31 @@ public class BorrowingRecordRepositoryTest {
         assertThat(optionalPatron).isPresent();
 
         // Act
-        BorrowingRecord savedRecord = borrowingRecordRepository.save(borrowingRecord);
-        Optional<BorrowingRecord> foundRecord = borrowingRecordRepository.findFirstByBookIdAndPatronIdOrderByBorrowingDateDesc(book.getId(), patron.getId());
+        borrowingRecordRepository.save(returnedRecord);
+        BorrowingRecord savedRecord = borrowingRecordRepository.save(openRecord);
+        Optional<BorrowingRecord> foundRecord = borrowingRecordRepository.findActiveByBookIdAndPatronId(book.getId(), patron.getId());
 
         // Assert
+        assertThat(returnedRecord.isActive()).isFalse();
         assertThat(foundRecord).isPresent();
         assertThat(foundRecord.get().getId()).isEqualTo(savedRecord.getId());
         assertThat(foundRecord.get().getBorrowingDate()).isEqualTo(savedRecord.getBorrowingDate());
-        assertThat(foundRecord.get().getReturnDate()).isEqualTo(savedRecord.getReturnDate());
+        assertThat(foundRecord.get().getReturnDate()).isNull();
         assertThat(foundRecord.get().getBook()).isEqualTo(savedRecord.getBook());
         assertThat(foundRecord.get().getPatron()).isEqualTo(savedRecord.getPatron());
     }
+
+    @Test
+    @Transactional
+    public void whenFindActiveByBookIdAndPatronId_withOnlyReturnedLoans_thenNothingIsFound() {
+        Book book = Book.builder().title("Title 1").author("Author 1").isbn("M-123").publicationYear(2024).isBorrowed(false).build();
+        Patron patron = Patron.builder().name("Patron 2").contactInformation("+234851456981").build();
+        bookRepository.save(book);
+        patronRepository.save(patron);
+        borrowingRecordRepository.save(new BorrowingRecord(book, patron, LocalDate.now().minusDays(7), LocalDate.now()));
+
+        assertThat(borrowingRecordRepository.findActiveByBookIdAndPatronId(book.getId(), patron.getId())).isEmpty();
+    }
     @Test
     void existsByBookId_ExistingBookId_ReturnsTrue() {
         // Given
@@ -149,7 +169,116 @@ public class BorrowingRecordRepositoryTest {
         // Then
         assertThat(exists).isEqualTo(false);
     }
-}
 
+    @Test
+    @Transactional
+    public void whenFindHistoryByPatronId_thenNewestLoansOfThePatronAreProjected() {
+        // Arrange
+        Book book = Book.builder().title("Title 1").author("Author 1").isbn("M-123").publicationYear(2024).isBorrowed(true).build();
+        Patron patron = Patron.builder().name("Patron 2").contactInformation("+234851456981").build();
+        Patron otherPatron = Patron.builder().name("Patron 3").contactInformation("+234851456982").build();
+        bookRepository.save(book);
+        patronRepository.save(patron);
+        patronRepository.save(otherPatron);
+        BorrowingRecord oldest = borrowingRecordRepository.save(new BorrowingRecord(book, patron, LocalDate.now().minusDays(30), LocalDate.now().minusDays(20)));
+        BorrowingRecord middle = borrowingRecordRepository.save(new BorrowingRecord(book, patron, LocalDate.now().minusDays(10), LocalDate.now().minusDays(5)));
+        borrowingRecordRepository.save(new BorrowingRecord(book, otherPatron, LocalDate.now().minusDays(4), LocalDate.now().minusDays(2)));
+        BorrowingRecord newest = borrowingRecordRepository.save(new BorrowingRecord(book, patron, LocalDate.now(), null));
 
+        // Act
+        List<BorrowingHistoryDTO> firstPage = borrowingRecordRepository.findHistoryByPatronId(patron.getId(), Long.MAX_VALUE, Limit.of(2));
+        List<BorrowingHistoryDTO> secondPage = borrowingRecordRepository.findHistoryByPatronId(patron.getId(), middle.getId(), Limit.of(2));
+
+        // Assert
+        assertThat(firstPage).extracting(BorrowingHistoryDTO::getId).containsExactly(newest.getId(), middle.getId());
+        assertThat(firstPage.get(0).getBookTitle()).isEqualTo("Title 1");
+        assertThat(firstPage.get(0).getBookId()).isEqualTo(book.getId());
+        assertThat(firstPage.get(0).getPatronId()).isEqualTo(patron.getId());
+        assertThat(firstPage.get(0).isActive()).isTrue();
+        assertThat(firstPage.get(0).getReturnDate()).isNull();
+        assertThat(secondPage).extracting(BorrowingHistoryDTO::getId).containsExactly(oldest.getId());
+    }
 
+    @Test
+    @Transactional
+    public void whenFindActiveByPatronIdAndBookIdIn_thenOnlyThePatronsOpenLoansAreFound() {
+        Book held = bookRepository.save(Book.builder().title("Title 1").author("Author 1").isbn("M-1").publicationYear(2024).isBorrowed(true).build());
+        Book returned = bookRepository.save(Book.builder().title("Title 2").author("Author 2").isbn("M-2").publicationYear(2024).isBorrowed(false).build());
+        Book heldByOther = bookRepository.save(Book.builder().title("Title 3").author("Author 3").isbn("M-3").publicationYear(2024).isBorrowed(true).build());
+        Patron patron = patronRepository.save(Patron.builder().name("Patron 1").contactInformation("+1").build());
+        Patron other = patronRepository.save(Patron.builder().name("Patron 2").contactInformation("+2").build());
+        BorrowingRecord open = borrowingRecordRepository.save(new BorrowingRecord(held, patron, LocalDate.now(), null));
+        borrowingRecordRepository.save(new BorrowingRecord(returned, patron, LocalDate.now().minusDays(9), LocalDate.now()));
+        borrowingRecordRepository.save(new BorrowingRecord(heldByOther, other, LocalDate.now(), null));
+
+        List<BorrowingRecord> found = borrowingRecordRepository.findActiveByPatronIdAndBookIdIn(patron.getId(),
+                List.of(held.getId(), returned.getId(), heldByOther.getId()));
+
+        assertThat(found).extracting(BorrowingRecord::getId).containsExactly(open.getId());
+    }
+
+    @Test
+    @Transactional
+    public void whenFindAllByIdForUpdate_thenBooksComeBackInIdOrder() {
+        Book first = bookRepository.save(Book.builder().title("Title 1").author("Author 1").isbn("M-1").publicationYear(2024).isBorrowed(false).build());
+        Book second = bookRepository.save(Book.builder().title("Title 2").author("Author 2").isbn("M-2").publicationYear(2024).isBorrowed(false).build());
+
+        List<Book> locked = bookRepository.findAllByIdForUpdate(List.of(second.getId(), first.getId(), -1L));
+
+        assertThat(locked).extracting(Book::getId).containsExactly(first.getId(), second.getId());
+    }
+
+    @Test
+    @Transactional
+    public void whenFindOverdue_thenOpenLoansPastDueComeBackInKeysetChunks() {
+        Patron patron = patronRepository.save(Patron.builder().name("Patron 1").contactInformation("+1").build());
+        LocalDate today = LocalDate.now();
+        List<BorrowingRecord> overdue = List.of(
+                loan(patron, "M-1", today.minusDays(20), null),
+                loan(patron, "M-2", today.minusDays(10), null),
+                loan(patron, "M-3", today.minusDays(10), null));
+        loan(patron, "M-4", today, null);
+        loan(patron, "M-5", today.minusDays(30), today.minusDays(25));
+        borrowingRecordRepository.save(new BorrowingRecord(bookRepository.save(Book.builder().title("Undated").author("Author")
+                .isbn("M-6").publicationYear(2024).isBorrowed(true).build()), patron, today.minusDays(60), null));
+
+        List<OverdueLoanDTO> firstChunk = borrowingRecordRepository.findOverdue(today, LocalDate.of(1, 1, 1), 0L, Limit.of(2));
+        OverdueLoanDTO last = firstChunk.get(1);
+        List<OverdueLoanDTO> secondChunk = borrowingRecordRepository.findOverdue(today, last.getDueDate(), last.getId(), Limit.of(2));
+
+        assertThat(firstChunk).extracting(OverdueLoanDTO::getId).containsExactly(overdue.get(0).getId(), overdue.get(1).getId());
+        assertThat(secondChunk).extracting(OverdueLoanDTO::getId).containsExactly(overdue.get(2).getId());
+        assertThat(firstChunk.get(0).getBookTitle()).isEqualTo("Title M-1");
+        assertThat(firstChunk.get(0).getPatronContactInformation()).isEqualTo("+1");
+        assertThat(firstChunk.get(0).getDueDate()).isEqualTo(today.minusDays(20));
+    }
+
+    @Test
+    @Transactional
+    public void whenCountingOpenLoans_thenOnlyActiveLoansCountPerPatron() {
+        Patron patron = patronRepository.save(Patron.builder().name("Patron 1").contactInformation("+1").build());
+        Patron other = patronRepository.save(Patron.builder().name("Patron 2").contactInformation("+2").build());
+        Patron returnedAll = patronRepository.save(Patron.builder().name("Patron 3").contactInformation("+3").build());
+        LocalDate today = LocalDate.now();
+        loan(patron, "M-1", today, null);
+        loan(patron, "M-2", today, null);
+        loan(patron, "M-3", today, today);
+        loan(other, "M-4", today, null);
+        loan(returnedAll, "M-5", today, today);
+
+        Map<Long, Long> openLoans;
+        try (Stream<BorrowingRecordRepository.PatronOpenLoans> rows = borrowingRecordRepository.streamOpenLoansByPatron()) {
+            openLoans = rows.collect(Collectors.toMap(BorrowingRecordRepository.PatronOpenLoans::getPatronId,
+                    BorrowingRecordRepository.PatronOpenLoans::getOpenLoans));
+        }
+
+        assertThat(openLoans).containsOnly(Map.entry(patron.getId(), 2L), Map.entry(other.getId(), 1L));
+        assertThat(borrowingRecordRepository.countByActiveTrue()).isEqualTo(3);
+    }
+
+    private BorrowingRecord loan(Patron patron, String isbn, LocalDate dueDate, LocalDate returnDate) {
+        Book book = bookRepository.save(Book.builder().title("Title " + isbn).author("Author").isbn(isbn).publicationYear(2024)
+                .isBorrowed(returnDate == null).build());
+        return borrowingRecordRepository.save(new BorrowingRecord(book, patron, dueDate.minusDays(14), dueDate, returnDate));
+    }
+}
@@ -0,0 +1,95 @@
+package Mamoun.librarymanagement.Search;
+
+import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class AvailabilityIndexTest {
+
+    private AvailabilityIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new AvailabilityIndex(mock(BookRepository.class), mock(PlatformTransactionManager.class));
+        for (long id = 1; id <= 10; id++)
+            index.put(id, id % 3 == 0);
+    }
+
+    @Test
+    void status_FollowsLoansAndDeletes() {
+        assertThat(index.status(1)).isEqualTo(AvailabilityIndex.Status.AVAILABLE);
+        assertThat(index.status(3)).isEqualTo(AvailabilityIndex.Status.BORROWED);
+        assertThat(index.status(11)).isEqualTo(AvailabilityIndex.Status.MISSING);
+
+        index.onBookChanged(BookChangedEvent.ofLoan(BookChangedEvent.Type.BORROWED, List.of(1L), 7L));
+        index.onBookChanged(BookChangedEvent.ofLoan(BookChangedEvent.Type.RETURNED, List.of(3L), 7L));
+        index.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.DELETED, 2L));
+
+        assertThat(index.status(1)).isEqualTo(AvailabilityIndex.Status.BORROWED);
+        assertThat(index.status(3)).isEqualTo(AvailabilityIndex.Status.AVAILABLE);
+        assertThat(index.status(2)).isEqualTo(AvailabilityIndex.Status.MISSING);
+    }
+
+    @Test
+    void onBookChanged_CopyLoan_LeavesTheTitleAlone() {
+        index.onBookChanged(BookChangedEvent.ofCopyLoans(BookChangedEvent.Type.BORROWED, List.of(1L), List.of(21L), 7L));
+        index.onBookChanged(BookChangedEvent.ofCopyLoans(BookChangedEvent.Type.RETURNED, List.of(3L), List.of(31L), 7L));
+
+        assertThat(index.status(1)).isEqualTo(AvailabilityIndex.Status.AVAILABLE);
+        assertThat(index.status(3)).isEqualTo(AvailabilityIndex.Status.BORROWED);
+    }
+
+    @Test
+    void onBookChanged_LoanOfDeletedBook_IsIgnored() {
+        index.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.DELETED, 4L));
+        index.onBookChanged(BookChangedEvent.ofLoan(BookChangedEvent.Type.BORROWED, List.of(4L), 7L));
+
+        assertThat(index.status(4)).isEqualTo(AvailabilityIndex.Status.MISSING);
+        assertThat(index.borrowedCount()).isEqualTo(3);
+    }
+
+    @Test
+    void counts_TrackAddsAndUpdates() {
+        assertThat(index.size()).isEqualTo(10);
+        assertThat(index.availableCount()).isEqualTo(7);
+        assertThat(index.borrowedCount()).isEqualTo(3);
+
+        index.onBookChanged(BookChangedEvent.of(BookChangedEvent.Type.ADDED, book(11L, false)));
+        index.onBookChanged(BookChangedEvent.of(BookChangedEvent.Type.UPDATED, book(6L, false)));
+
+        assertThat(index.size()).isEqualTo(11);
+        assertThat(index.availableCount()).isEqualTo(9);
+        assertThat(index.borrowedCount()).isEqualTo(2);
+    }
+
+    @Test
+    void availableIds_SkipsBorrowedBooksWithinTheRange() {
+        assertThat(index.availableIds(1, 10, 100)).containsExactly(1, 2, 4, 5, 7, 8, 10);
+        assertThat(index.availableIds(3, 8, 100)).containsExactly(4, 5, 7, 8);
+        assertThat(index.availableIds(1, 10, 3)).containsExactly(1, 2, 4);
+        assertThat(index.availableIds(11, Long.MAX_VALUE, 10)).isEmpty();
+    }
+
+    @Test
+    void availableIds_DenseRangeMostlyBorrowed_FindsTheFewOnTheShelf() {
+        // Enough books for bitmap chunks, every one borrowed but a few
+        for (long id = 11; id <= 140_000; id++)
+            index.put(id, id % 10_000 != 7);
+
+        assertThat(index.availableIds(11, Long.MAX_VALUE, 100)).containsExactly(
+                10_007, 20_007, 30_007, 40_007, 50_007, 60_007, 70_007, 80_007, 90_007, 100_007, 110_007, 120_007, 130_007);
+        assertThat(index.availableIds(60_000, 80_007, 100)).containsExactly(60_007, 70_007, 80_007);
+    }
+
+    private static BookDTO book(long id, boolean isBorrowed) {
+        return new BookDTO(id, "Title " + id, "Author", 2024, "isbn-" + id, isBorrowed, 0L);
+    }
+}
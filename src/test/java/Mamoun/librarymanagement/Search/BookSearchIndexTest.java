@@ -0,0 +1,124 @@
+package Mamoun.librarymanagement.Search;
+
+import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Mappers.BookMapper;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BookSearchIndexTest {
+
+    private BookRepository bookRepository;
+    private BookSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        bookRepository = mock(BookRepository.class);
+        index = new BookSearchIndex(bookRepository, new BookMapper(), mock(EntityManager.class), mock(PlatformTransactionManager.class));
+    }
+
+    @Test
+    void afterSingletonsInstantiated_IndexesEveryStoredBook() {
+        when(bookRepository.streamAllByOrderByIdAsc()).thenReturn(Stream.of(
+                new Book(1L, "Dune", "Frank Herbert", 1965, "isbn-1", false, 0L),
+                new Book(2L, "Children of Dune", "Frank Herbert", 1976, "isbn-2", true, 0L)));
+
+        index.afterSingletonsInstantiated();
+
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(ids(index.search("dune", Double.POSITIVE_INFINITY, Long.MIN_VALUE, 10))).containsExactly(1L, 2L);
+    }
+
+    @Test
+    void search_MatchesEveryTermIgnoringCaseAndAccents() {
+        add(book(1L, "Les Misérables", "Victor Hugo"));
+        add(book(2L, "Notre-Dame de Paris", "Victor Hugo"));
+        add(book(3L, "Victor and the Miserable Cat", "Someone Else"));
+
+        assertThat(ids(search("MISERABLES hugo"))).containsExactly(1L);
+        assertThat(ids(search("notre dame"))).containsExactly(2L);
+        assertThat(ids(search("victor"))).containsExactlyInAnyOrder(1L, 2L, 3L);
+        assertThat(search("tolstoy")).isEmpty();
+        assertThat(search(" ,;")).isEmpty();
+    }
+
+    @Test
+    void search_RanksTitleMatchesAboveAuthorMatches() {
+        add(book(1L, "Some Novel", "Jack London"));
+        add(book(2L, "London Fields", "Martin Amis"));
+
+        assertThat(ids(search("london"))).containsExactly(2L, 1L);
+    }
+
+    @Test
+    void search_FullPage_StillFindsBetterHitsWithHigherIds() {
+        add(book(1L, "Jack and the Beanstalk", "Anonymous"));
+        add(book(2L, "Jack", "Jack Reacher"));
+        add(book(3L, "Jack Again", "Nobody"));
+
+        assertThat(ids(index.search("jack", Double.POSITIVE_INFINITY, Long.MIN_VALUE, 1))).containsExactly(2L);
+    }
+
+    @Test
+    void search_AfterLastHit_ContinuesWithTheNextPage() {
+        for (long id = 1; id <= 5; id++)
+            add(book(id, "Volume " + id, "Same Author"));
+
+        List<BookSearchIndex.Hit> firstPage = index.search("volume", Double.POSITIVE_INFINITY, Long.MIN_VALUE, 2);
+        BookSearchIndex.Hit last = firstPage.get(1);
+        List<BookSearchIndex.Hit> secondPage = index.search("volume", last.score(), last.book().getId(), 2);
+
+        assertThat(ids(firstPage)).containsExactly(1L, 2L);
+        assertThat(ids(secondPage)).containsExactly(3L, 4L);
+    }
+
+    @Test
+    void onBookChanged_FollowsUpdatesDeletesAndLoans() {
+        index.onBookChanged(BookChangedEvent.of(BookChangedEvent.Type.ADDED, List.of(book(1L, "Old Title", "Author"), book(2L, "Other", "Author"))));
+        index.onBookChanged(BookChangedEvent.of(BookChangedEvent.Type.UPDATED, book(1L, "New Title", "Author")));
+        index.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.DELETED, 2L));
+        index.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.BORROWED, 1L));
+
+        assertThat(search("old")).isEmpty();
+        assertThat(search("other")).isEmpty();
+        assertThat(search("new")).singleElement().satisfies(hit -> assertThat(hit.book().isBorrowed()).isTrue());
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    void put_BooksAddedOutOfIdOrder_StayFindable() {
+        add(book(10L, "Shared", "A"));
+        add(book(3L, "Shared", "B"));
+        add(book(7L, "Shared", "C"));
+        index.remove(3L);
+
+        assertThat(ids(search("shared"))).containsExactly(7L, 10L);
+    }
+
+    private void add(BookDTO book) {
+        index.onBookChanged(BookChangedEvent.of(BookChangedEvent.Type.ADDED, book));
+    }
+
+    private List<BookSearchIndex.Hit> search(String query) {
+        return index.search(query, Double.POSITIVE_INFINITY, Long.MIN_VALUE, 10);
+    }
+
+    private static List<Long> ids(List<BookSearchIndex.Hit> hits) {
+        return hits.stream().map(hit -> hit.book().getId()).toList();
+    }
+
+    private static BookDTO book(long id, String title, String author) {
+        return new BookDTO(id, title, author, 2024, "isbn-" + id, false, 0L);
+    }
+}
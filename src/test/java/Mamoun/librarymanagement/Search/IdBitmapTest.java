@@ -0,0 +1,103 @@
+package Mamoun.librarymanagement.Search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IdBitmapTest {
+
+    @Test
+    void addRemoveContainsNext_MatchTreeSetUnderRandomOperations() {
+        IdBitmap bitmap = new IdBitmap();
+        TreeSet<Long> expected = new TreeSet<>();
+        SplittableRandom random = new SplittableRandom(11);
+
+        for (int i = 0; i < 300_000; i++) {
+            // Dense ids in the first chunks turn them into bitmaps and back, sparse far ids stay arrays
+            long id = random.nextInt(4) == 0 ? random.nextLong(1L << 40) : random.nextInt(200_000);
+            if (random.nextInt(3) == 0)
+                assertThat(bitmap.remove(id)).isEqualTo(expected.remove(id));
+            else
+                assertThat(bitmap.add(id)).isEqualTo(expected.add(id));
+        }
+
+        assertThat(bitmap.cardinality()).isEqualTo(expected.size());
+        for (long id = 0; id < 200_000; id++)
+            assertThat(bitmap.contains(id)).isEqualTo(expected.contains(id));
+        long id = bitmap.next(0);
+        for (long value : expected) {
+            assertThat(id).isEqualTo(value);
+            id = bitmap.next(id + 1);
+        }
+        assertThat(id).isEqualTo(-1);
+    }
+
+    @Test
+    void andNot_MatchesTreeSetDifference_AcrossChunkKinds() {
+        IdBitmap books = new IdBitmap();
+        IdBitmap borrowed = new IdBitmap();
+        TreeSet<Long> expected = new TreeSet<>();
+        SplittableRandom random = new SplittableRandom(17);
+        // The first chunk is dense in both sets, the second dense in one and sparse in the other, the far ids sparse
+        TreeSet<Long> out = new TreeSet<>();
+        for (int i = 0; i < 100_000; i++) {
+            long id = random.nextInt(4) == 0 ? random.nextLong(1L << 40) : random.nextInt(140_000);
+            books.add(id);
+            expected.add(id);
+            if (id < 65_536 ? random.nextInt(2) == 0 : id < 140_000 && random.nextInt(50) == 0) {
+                borrowed.add(id);
+                out.add(id);
+            }
+        }
+        expected.removeAll(out);
+
+        assertThat(books.andNot(borrowed, 0, Long.MAX_VALUE, Integer.MAX_VALUE))
+                .containsExactly(expected.stream().mapToLong(Long::longValue).toArray());
+        assertThat(books.andNot(borrowed, 1_000, 100_000, Integer.MAX_VALUE))
+                .containsExactly(expected.subSet(1_000L, true, 100_000L, true).stream().mapToLong(Long::longValue).toArray());
+        assertThat(books.andNot(borrowed, 60_000, Long.MAX_VALUE, 100))
+                .containsExactly(expected.tailSet(60_000L).stream().limit(100).mapToLong(Long::longValue).toArray());
+        assertThat(books.andNot(borrowed, 70, 69, 100)).isEmpty();
+        assertThat(books.andNot(borrowed, 0, Long.MAX_VALUE, 0)).isEmpty();
+    }
+
+    @Test
+    void remove_DenseChunk_KeepsItsCountAndTurnsBackIntoAnArray() {
+        IdBitmap bitmap = new IdBitmap();
+        for (long id = 0; id < 5_000; id++)
+            bitmap.add(id);
+        for (long id = 0; id < 5_000; id += 2)
+            bitmap.remove(id);
+
+        assertThat(bitmap.cardinality()).isEqualTo(2_500);
+        assertThat(bitmap.next(0)).isEqualTo(1);
+        assertThat(bitmap.contains(4_999)).isTrue();
+        assertThat(bitmap.contains(4_998)).isFalse();
+    }
+
+    @Test
+    void remove_DenseChunkEmptied_DropsTheChunk() {
+        IdBitmap bitmap = new IdBitmap();
+        for (long id = 65_536; id < 65_536 + 10_000; id++)
+            bitmap.add(id);
+        for (long id = 65_536; id < 65_536 + 10_000; id++)
+            bitmap.remove(id);
+
+        assertThat(bitmap.cardinality()).isZero();
+        assertThat(bitmap.next(0)).isEqualTo(-1);
+        assertThat(bitmap.add(70_000)).isTrue();
+        assertThat(bitmap.next(0)).isEqualTo(70_000);
+    }
+
+    @Test
+    void add_NegativeId_Throws() {
+        IdBitmap bitmap = new IdBitmap();
+
+        assertThatThrownBy(() -> bitmap.add(-1)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(bitmap.contains(-1)).isFalse();
+    }
+}
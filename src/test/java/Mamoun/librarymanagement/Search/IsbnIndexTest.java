@@ -0,0 +1,77 @@
+package Mamoun.librarymanagement.Search;
+
+import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.OptionalLong;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class IsbnIndexTest {
+
+    private BookRepository bookRepository;
+    private IsbnIndex index;
+
+    @BeforeEach
+    void setUp() {
+        bookRepository = mock(BookRepository.class);
+        index = new IsbnIndex(bookRepository, mock(PlatformTransactionManager.class));
+    }
+
+    @Test
+    void afterSingletonsInstantiated_IndexesValidIsbnsOnly() {
+        when(bookRepository.streamIdAndIsbnBy()).thenReturn(Stream.of(idAndIsbn(1L, "9783161484100"), idAndIsbn(2L, "M-123")));
+
+        index.afterSingletonsInstantiated();
+
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.find(9783161484100L)).isEqualTo(OptionalLong.of(1L));
+    }
+
+    @Test
+    void onBookChanged_FollowsAddsUpdatesAndDeletes() {
+        index.onBookChanged(BookChangedEvent.of(BookChangedEvent.Type.ADDED, book(1L, "9783161484100")));
+        index.onBookChanged(BookChangedEvent.of(BookChangedEvent.Type.ADDED, book(2L, "9780306406157")));
+        index.onBookChanged(BookChangedEvent.of(BookChangedEvent.Type.UPDATED, book(1L, "9780804429573")));
+        index.onBookChanged(BookChangedEvent.ofId(BookChangedEvent.Type.DELETED, 2L));
+
+        assertThat(index.find(9783161484100L)).isEmpty();
+        assertThat(index.find(9780804429573L)).isEqualTo(OptionalLong.of(1L));
+        assertThat(index.find(9780306406157L)).isEmpty();
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    void onBookChanged_UpdatedToInvalidIsbn_DropsTheOldOne() {
+        index.onBookChanged(BookChangedEvent.of(BookChangedEvent.Type.ADDED, book(1L, "9783161484100")));
+        index.onBookChanged(BookChangedEvent.of(BookChangedEvent.Type.UPDATED, book(1L, "unknown")));
+
+        assertThat(index.find(9783161484100L)).isEmpty();
+        assertThat(index.size()).isZero();
+    }
+
+    private static BookDTO book(long id, String isbn) {
+        return new BookDTO(id, "Title", "Author", 2024, isbn, false, 0L);
+    }
+
+    private static BookRepository.IdAndIsbn idAndIsbn(long id, String isbn) {
+        return new BookRepository.IdAndIsbn() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public String getIsbn() {
+                return isbn;
+            }
+        };
+    }
+}
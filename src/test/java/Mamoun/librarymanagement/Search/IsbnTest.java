@@ -0,0 +1,36 @@
+package Mamoun.librarymanagement.Search;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IsbnTest {
+
+    @Test
+    void parse_Isbn13WithHyphens_ReturnsDigits() {
+        assertThat(Isbn.parse("978-3-16-148410-0")).isEqualTo(9783161484100L);
+        assertThat(Isbn.parse("979 10 90636 07 1")).isEqualTo(9791090636071L);
+    }
+
+    @Test
+    void parse_Isbn10_ConvertedToIsbn13() {
+        assertThat(Isbn.parse("0-306-40615-2")).isEqualTo(9780306406157L);
+        assertThat(Isbn.parse("080442957X")).isEqualTo(9780804429573L);
+    }
+
+    @Test
+    void parse_InvalidIsbn_ReturnsInvalid() {
+        assertThat(Isbn.parse("978-3-16-148410-1")).isEqualTo(Isbn.INVALID);
+        assertThat(Isbn.parse("0-306-40615-3")).isEqualTo(Isbn.INVALID);
+        assertThat(Isbn.parse("1234567890123")).isEqualTo(Isbn.INVALID);
+        assertThat(Isbn.parse("M-123")).isEqualTo(Isbn.INVALID);
+        assertThat(Isbn.parse("97831614841000")).isEqualTo(Isbn.INVALID);
+        assertThat(Isbn.parse(null)).isEqualTo(Isbn.INVALID);
+    }
+
+    @Test
+    void canonical_KeepsNonIsbnValuesUnchanged() {
+        assertThat(Isbn.canonical("0-306-40615-2")).isEqualTo("9780306406157");
+        assertThat(Isbn.canonical("M-123")).isEqualTo("M-123");
+    }
+}
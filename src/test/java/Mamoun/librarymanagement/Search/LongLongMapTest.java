@@ -0,0 +1,36 @@
+package Mamoun.librarymanagement.Search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LongLongMapTest {
+
+    @Test
+    void putGetRemove_MatchesHashMapUnderRandomOperations() {
+        LongLongMap map = new LongLongMap(4);
+        Map<Long, Long> expected = new HashMap<>();
+        SplittableRandom random = new SplittableRandom(7);
+
+        for (int i = 0; i < 200_000; i++) {
+            // A narrow key range forces collisions, resizes and backward shifts
+            long key = 1 + random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                Long previous = expected.remove(key);
+                assertThat(map.remove(key)).isEqualTo(previous == null ? LongLongMap.MISSING : previous);
+            } else {
+                long value = random.nextLong(1_000_000);
+                Long previous = expected.put(key, value);
+                assertThat(map.put(key, value)).isEqualTo(previous == null ? LongLongMap.MISSING : previous);
+            }
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        for (long key = 1; key <= 5_000; key++)
+            assertThat(map.get(key)).isEqualTo(expected.getOrDefault(key, LongLongMap.MISSING));
+    }
+}
@@ -0,0 +1,79 @@
+package Mamoun.librarymanagement.Services;
+
+import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.DTO.LoanResultDTO;
+import Mamoun.librarymanagement.Entities.Patron;
+import Mamoun.librarymanagement.Exceptions.BookNotAvailableException;
+import Mamoun.librarymanagement.Repositories.PatronRepository;
+import Mamoun.librarymanagement.Stats.InventoryCounters;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+class BookCopyServiceIntegrationTest {
+
+    @Autowired
+    private BookCopyService bookCopyService;
+
+    @Autowired
+    private BookService bookService;
+
+    @Autowired
+    private BorrowingRecordService borrowingRecordService;
+
+    @Autowired
+    private PatronRepository patronRepository;
+
+    @Autowired
+    private InventoryCounters inventoryCounters;
+
+    @Test
+    void titleStockedAsCopies_GoesOutWithItsLastCopy() {
+        long bookId = bookService.addBook(BookDTO.builder().title("Stocked title").author("Author")
+                .isbn("copies-" + System.nanoTime()).publicationYear(2024).build()).getId();
+        bookCopyService.addCopies(bookId, 2);
+        Patron first = patron("First copy reader");
+        Patron second = patron("Second copy reader");
+        long borrowedBooks = inventoryCounters.get(InventoryCounters.Counter.BORROWED_BOOKS);
+
+        borrowingRecordService.borrowCopy(bookId, first.getId());
+        assertThat(bookService.getBookAvailability(bookId).isAvailable()).isTrue();
+        borrowingRecordService.borrowCopy(bookId, second.getId());
+
+        assertThat(bookService.getBookAvailability(bookId).isAvailable()).isFalse();
+        assertThat(bookService.getBookById(bookId).isBorrowed()).isTrue();
+        assertThat(inventoryCounters.get(InventoryCounters.Counter.BORROWED_BOOKS)).isEqualTo(borrowedBooks + 1);
+
+        borrowingRecordService.returnBook(bookId, first.getId());
+
+        assertThat(bookService.getBookAvailability(bookId).isAvailable()).isTrue();
+        assertThat(bookService.getBookById(bookId).isBorrowed()).isFalse();
+        assertThat(inventoryCounters.get(InventoryCounters.Counter.BORROWED_BOOKS)).isEqualTo(borrowedBooks);
+    }
+
+    @Test
+    void titleStockedAsCopies_IsNotLentAsASingleBook() {
+        long bookId = bookService.addBook(BookDTO.builder().title("Copies only").author("Author")
+                .isbn("copies-" + System.nanoTime()).publicationYear(2024).build()).getId();
+        bookCopyService.addCopies(bookId, 1);
+        Patron patron = patron("Single book reader");
+
+        assertThatThrownBy(() -> borrowingRecordService.borrowBook(bookId, patron.getId()))
+                .isInstanceOf(BookNotAvailableException.class);
+        List<LoanResultDTO> results = borrowingRecordService.borrowBooks(patron.getId(), List.of(bookId));
+
+        assertThat(results).extracting(LoanResultDTO::getStatus).containsExactly(LoanResultDTO.Status.NOT_AVAILABLE);
+        assertThat(bookCopyService.getCopies(bookId)).noneMatch(copy -> copy.isBorrowed());
+        assertThat(bookService.getBookAvailability(bookId).isAvailable()).isTrue();
+    }
+
+    private Patron patron(String name) {
+        return patronRepository.save(Patron.builder().name(name).contactInformation("555-0200").build());
+    }
+}
@@ -0,0 +1,222 @@
+package Mamoun.librarymanagement.Services;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.Copies.CopyAllocator;
+import Mamoun.librarymanagement.DTO.BookCopyDTO;
+import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Entities.BookCopy;
+import Mamoun.librarymanagement.Entities.BorrowingRecord;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Exceptions.BookNotAvailableException;
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
+import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Repositories.BookCopyRepository;
+import Mamoun.librarymanagement.Mappers.BookMapper;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import Mamoun.librarymanagement.Search.AvailabilityIndex;
+import Mamoun.librarymanagement.Stats.InventoryCounters;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class BookCopyServiceTest {
+
+    @Mock
+    private BookCopyRepository bookCopyRepository;
+
+    @Mock
+    private BookRepository bookRepository;
+
+    @Mock
+    private CopyAllocator copyAllocator;
+
+    @Mock
+    private HoldService holdService;
+
+    @Mock
+    private AvailabilityIndex availabilityIndex;
+
+    @Mock
+    private BookMapper bookMapper;
+
+    @Mock
+    private InventoryCounters inventoryCounters;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Spy
+    private LibraryProperties libraryProperties = new LibraryProperties();
+
+    @InjectMocks
+    private BookCopyService bookCopyService;
+
+    private AutoCloseable mocks;
+    private Book book;
+
+    @BeforeEach
+    void setUp() {
+        mocks = MockitoAnnotations.openMocks(this);
+        book = Book.builder().id(1L).title("title1").author("author1").isbn("12345").publicationYear(2024).build();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        mocks.close();
+    }
+
+    @Test
+    void addCopies_InsertsAndOffersThemToTheAllocator() {
+        AtomicLong ids = new AtomicLong(100);
+        when(bookRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(book));
+        when(bookCopyRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<BookCopy> copies = invocation.getArgument(0);
+            copies.forEach(copy -> copy.setId(ids.incrementAndGet()));
+            return copies;
+        });
+
+        List<BookCopyDTO> copies = bookCopyService.addCopies(1L, 3);
+
+        assertThat(copies).extracting(BookCopyDTO::getId).containsExactly(101L, 102L, 103L);
+        assertThat(copies).allMatch(copy -> copy.getBookId() == 1L && !copy.isBorrowed());
+        verify(copyAllocator).offerAfterCommit(1L, List.of(101L, 102L, 103L));
+    }
+
+    @Test
+    void addCopies_HoldsWaiting_FirstCopiesGoToTheHolders() {
+        AtomicLong ids = new AtomicLong(100);
+        when(bookRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(book));
+        when(bookCopyRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<BookCopy> copies = invocation.getArgument(0);
+            copies.forEach(copy -> copy.setId(ids.incrementAndGet()));
+            return copies;
+        });
+        when(holdService.handOver(eq(book), any(BookCopy.class)))
+                .thenReturn(new BorrowingRecord(), (BorrowingRecord) null);
+
+        List<BookCopyDTO> copies = bookCopyService.addCopies(1L, 3);
+
+        assertThat(copies).extracting(BookCopyDTO::isBorrowed).containsExactly(true, false, false);
+        // Once nobody could take a copy the rest go straight to the shelf
+        verify(holdService, times(2)).handOver(eq(book), any(BookCopy.class));
+        verify(copyAllocator).offerAfterCommit(1L, List.of(102L, 103L));
+    }
+
+    @Test
+    void addCopies_TitleOutWithEveryCopy_PutsItBackInStock() {
+        book.setBorrowed(true);
+        when(bookRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(book));
+        when(bookCopyRepository.existsByBookId(1L)).thenReturn(true);
+        when(bookCopyRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<BookCopy> copies = invocation.getArgument(0);
+            copies.forEach(copy -> copy.setId(101L));
+            return copies;
+        });
+        when(bookRepository.saveAndFlush(book)).thenReturn(book);
+        when(bookMapper.toBookDTO(book)).thenReturn(new BookDTO());
+
+        bookCopyService.addCopies(1L, 1);
+
+        assertThat(book.isBorrowed()).isFalse();
+        verify(inventoryCounters).record(InventoryCounters.Counter.BORROWED_BOOKS, -1);
+        verify(eventPublisher).publishEvent(argThat((BookChangedEvent event) -> event.getType() == BookChangedEvent.Type.UPDATED));
+    }
+
+    @Test
+    void addCopies_BookLentAsSingleRow_NotAvailable() {
+        book.setBorrowed(true);
+        when(bookRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(book));
+        when(bookCopyRepository.existsByBookId(1L)).thenReturn(false);
+
+        assertThatThrownBy(() -> bookCopyService.addCopies(1L, 2)).isInstanceOf(BookNotAvailableException.class);
+        verify(bookCopyRepository, never()).saveAll(anyList());
+    }
+
+    @Test
+    void copyLent_LastCopy_TakesTheTitleOut() {
+        when(copyAllocator.available(1L)).thenReturn(0);
+        when(availabilityIndex.status(1L)).thenReturn(AvailabilityIndex.Status.AVAILABLE);
+        when(bookRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(book));
+        when(bookRepository.saveAndFlush(book)).thenReturn(book);
+        when(bookMapper.toBookDTO(book)).thenReturn(new BookDTO());
+
+        bookCopyService.copyLent(1L);
+
+        assertThat(book.isBorrowed()).isTrue();
+        verify(inventoryCounters).record(InventoryCounters.Counter.BORROWED_BOOKS, 1);
+        verify(eventPublisher).publishEvent(argThat((BookChangedEvent event) -> event.getType() == BookChangedEvent.Type.UPDATED));
+    }
+
+    @Test
+    void copyLent_CopiesLeft_LeavesTheTitleAlone() {
+        when(copyAllocator.available(1L)).thenReturn(2);
+        when(availabilityIndex.status(1L)).thenReturn(AvailabilityIndex.Status.AVAILABLE);
+
+        bookCopyService.copyLent(1L);
+
+        verify(bookRepository, never()).findByIdForUpdate(anyLong());
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    void copyLent_TitleLeftOutWithCopiesOnTheShelf_PutsItBack() {
+        book.setBorrowed(true);
+        when(copyAllocator.available(1L)).thenReturn(1);
+        when(availabilityIndex.status(1L)).thenReturn(AvailabilityIndex.Status.BORROWED);
+        when(bookRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(book));
+        when(bookRepository.saveAndFlush(book)).thenReturn(book);
+        when(bookMapper.toBookDTO(book)).thenReturn(new BookDTO());
+
+        bookCopyService.copyLent(1L);
+
+        assertThat(book.isBorrowed()).isFalse();
+        verify(inventoryCounters).record(InventoryCounters.Counter.BORROWED_BOOKS, -1);
+    }
+
+    @Test
+    void addCopies_InvalidCount() {
+        libraryProperties.getBooks().setMaxBulkSize(10);
+
+        assertThatThrownBy(() -> bookCopyService.addCopies(1L, 0)).isInstanceOf(InvalidRequestException.class);
+        assertThatThrownBy(() -> bookCopyService.addCopies(1L, 11)).isInstanceOf(InvalidRequestException.class);
+        verify(bookCopyRepository, never()).saveAll(anyList());
+    }
+
+    @Test
+    void addCopies_BookNotFound() {
+        when(bookRepository.findByIdForUpdate(1L)).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> bookCopyService.addCopies(1L, 2)).isInstanceOf(NotFoundException.class);
+        verify(copyAllocator, never()).offerAfterCommit(anyLong(), anyList());
+    }
+
+    @Test
+    void getCopies_ReturnsEveryCopyOfTheTitle() {
+        when(bookRepository.existsById(1L)).thenReturn(true);
+        when(bookCopyRepository.findAllByBookId(1L)).thenReturn(List.of(
+                BookCopy.builder().id(5L).book(book).borrowed(true).build(),
+                BookCopy.builder().id(6L).book(book).borrowed(false).build()));
+
+        List<BookCopyDTO> copies = bookCopyService.getCopies(1L);
+
+        assertThat(copies).extracting(BookCopyDTO::getId).containsExactly(5L, 6L);
+        assertThat(copies).extracting(BookCopyDTO::isBorrowed).containsExactly(true, false);
+    }
+}
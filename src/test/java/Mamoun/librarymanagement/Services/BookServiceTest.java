@@ -1,22 +1,45 @@
 package Mamoun.librarymanagement.Services;
 
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.DTO.AvailabilitySummaryDTO;
 import Mamoun.librarymanagement.DTO.BookDTO;
+import Mamoun.librarymanagement.DTO.KeysetPageDTO;
 import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
 import Mamoun.librarymanagement.Exceptions.DeleteException;
+import Mamoun.librarymanagement.Exceptions.DuplicateIsbnException;
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
 import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Exceptions.PreconditionFailedException;
 import Mamoun.librarymanagement.Mappers.BookMapper;
+import Mamoun.librarymanagement.Repositories.BookCopyRepository;
 import Mamoun.librarymanagement.Repositories.BookRepository;
 import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
+import Mamoun.librarymanagement.Search.AvailabilityIndex;
+import Mamoun.librarymanagement.Search.BookSearchIndex;
+import Mamoun.librarymanagement.Search.IsbnIndex;
+import Mamoun.librarymanagement.Stats.InventoryCounters;
 import Mamoun.librarymanagement.Services.BookService;
+import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.stream.Stream;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
@@ -33,6 +56,30 @@ class BookServiceTest {
     @Mock
     private BookMapper bookMapper;
 
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private BookSearchIndex bookSearchIndex;
+
+    @Mock
+    private IsbnIndex isbnIndex;
+
+    @Mock
+    private AvailabilityIndex availabilityIndex;
+
+    @Mock
+    private InventoryCounters inventoryCounters;
+
+    @Mock
+    private BookCopyRepository bookCopyRepository;
+
+    @Spy
+    private LibraryProperties libraryProperties = new LibraryProperties();
+
     @InjectMocks
     private BookService bookService;
     private BookDTO bookDTO , updatedBookDTO;
@@ -50,24 +97,167 @@ class BookServiceTest {
     }
 
     @Test
-    void getAllBooks_WhenBooksExist_ReturnListOfBooks() {
+    void getBooks_WhenMoreBooksExist_ReturnPageWithNextCursor() {
         // Arrange
-        List<Book> books = new ArrayList<>();
-        books.add(book);
-
-        when(bookRepository.findAll()).thenReturn(books);
+        Window<Book> window = Window.from(List.of(book), index -> ScrollPosition.forward(Map.of("id", book.getId())), true);
+        when(bookRepository.findAllBy(ScrollPosition.keyset(), Sort.by("id"), Limit.of(20))).thenReturn(window);
         when(bookMapper.toBookDTO(any())).thenReturn(bookDTO);
 
         // Act
-        List<BookDTO> result = bookService.getAllBooks();
+        KeysetPageDTO<BookDTO> result = bookService.getBooks(null, null, null);
+
+        // Assert
+        assertThat(result.getContent()).containsExactly(bookDTO);
+        assertThat(result.getNextCursor()).isNotNull();
+        assertThat(KeysetCursor.decode(result.getNextCursor())).containsEntry("id", "1");
+    }
+
+    @Test
+    void getBooks_WithCursor_ContinueAfterCursorPosition() {
+        // Arrange
+        String cursor = KeysetCursor.encode(Map.of("title", "Book 1", "id", 1L));
+        Sort sort = Sort.by(Sort.Order.desc("title"), Sort.Order.asc("id"));
+        ScrollPosition position = ScrollPosition.forward(Map.of("title", "Book 1", "id", 1L));
+        when(bookRepository.findAllBy(position, sort, Limit.of(5))).thenReturn(Window.from(List.of(), index -> position, false));
+
+        // Act
+        KeysetPageDTO<BookDTO> result = bookService.getBooks(cursor, 5, "-title");
 
         // Assert
-        assertThat(result).isNotEmpty();
-        assertThat(result).hasSize(1);
-        assertThat(result.get(0)).isEqualTo(bookDTO);
-        verify(bookRepository, times(1)).findAll();
+        assertThat(result.getContent()).isEmpty();
+        assertThat(result.getNextCursor()).isNull();
+    }
+
+    @Test
+    void getBooks_WithPageSizeAboveMaximum_CapPageSize() {
+        // Arrange
+        when(bookRepository.findAllBy(ScrollPosition.keyset(), Sort.by("id"), Limit.of(100)))
+                .thenReturn(Window.from(List.of(), index -> ScrollPosition.keyset(), false));
+
+        // Act
+        bookService.getBooks(null, 10_000, null);
+
+        // Assert
+        verify(bookRepository, times(1)).findAllBy(ScrollPosition.keyset(), Sort.by("id"), Limit.of(100));
+    }
+
+    @Test
+    void getAvailableBooks_LoadsOnlyThePageOfAvailableIds() {
+        Book second = Book.builder().id(4L).title("Book 4").author("Author 4").publicationYear(2022).isbn("4").isBorrowed(false).build();
+        // Borrowed after the index was read
+        Book taken = Book.builder().id(7L).title("Book 7").author("Author 7").publicationYear(2022).isbn("7").isBorrowed(true).build();
+        String cursor = KeysetCursor.encode(Map.of("id", 0L));
+        when(availabilityIndex.availableIds(1, Long.MAX_VALUE, 4)).thenReturn(new long[]{1, 4, 7, 9});
+        when(bookRepository.findAllById(List.of(1L, 4L, 7L))).thenReturn(List.of(taken, book, second));
+        when(bookMapper.toBookDTO(book)).thenReturn(bookDTO);
+        BookDTO secondDTO = BookDTO.builder().id(4L).title("Book 4").author("Author 4").publicationYear(2022).isbn("4").build();
+        when(bookMapper.toBookDTO(second)).thenReturn(secondDTO);
+
+        KeysetPageDTO<BookDTO> result = bookService.getAvailableBooks(cursor, 3, null);
+
+        assertThat(result.getContent()).containsExactly(bookDTO, secondDTO);
+        assertThat(KeysetCursor.decode(result.getNextCursor())).containsEntry("id", "7");
+        verify(bookRepository, never()).findAllBy(any(), any(), any());
+    }
+
+    @Test
+    void getAvailableBooks_LastPage_HasNoCursor() {
+        when(availabilityIndex.availableIds(11, Long.MAX_VALUE, 21)).thenReturn(new long[0]);
+        when(bookRepository.findAllById(List.of())).thenReturn(List.of());
+
+        KeysetPageDTO<BookDTO> result = bookService.getAvailableBooks(KeysetCursor.encode(Map.of("id", 10L)), null, "id");
+
+        assertThat(result.getContent()).isEmpty();
+        assertThat(result.getNextCursor()).isNull();
+    }
+
+    @Test
+    void getAvailableBooks_SortedByOtherKey_ThrowInvalidRequestException() {
+        assertThatThrownBy(() -> bookService.getAvailableBooks(null, null, "title"))
+                .isInstanceOf(InvalidRequestException.class);
+        assertThatThrownBy(() -> bookService.getAvailableBooks(null, null, "-id"))
+                .isInstanceOf(InvalidRequestException.class);
+    }
+
+    @Test
+    void getBookAvailability_AnsweredFromTheIndex() {
+        when(availabilityIndex.status(1L)).thenReturn(AvailabilityIndex.Status.BORROWED);
+        when(availabilityIndex.status(2L)).thenReturn(AvailabilityIndex.Status.MISSING);
+
+        assertThat(bookService.getBookAvailability(1L).isAvailable()).isFalse();
+        assertThatThrownBy(() -> bookService.getBookAvailability(2L)).isInstanceOf(NotFoundException.class);
+        verify(bookRepository, never()).findById(any());
+    }
+
+    @Test
+    void getAvailabilitySummary_AddsUpTheCounts() {
+        when(availabilityIndex.availableCount()).thenReturn(7L);
+        when(availabilityIndex.borrowedCount()).thenReturn(3L);
+
+        AvailabilitySummaryDTO summary = bookService.getAvailabilitySummary();
+
+        assertThat(summary.getTotal()).isEqualTo(10);
+        assertThat(summary.getAvailable()).isEqualTo(7);
+        assertThat(summary.getBorrowed()).isEqualTo(3);
+    }
+
+    @Test
+    void getBooks_WithUnknownSortKey_ThrowInvalidRequestException() {
+        assertThatThrownBy(() -> bookService.getBooks(null, null, "isbn"))
+                .isInstanceOf(InvalidRequestException.class);
+    }
+
+    @Test
+    void getBooks_WithCursorForDifferentSort_ThrowInvalidRequestException() {
+        String cursor = KeysetCursor.encode(Map.of("id", 1L));
+
+        assertThatThrownBy(() -> bookService.getBooks(cursor, null, "title"))
+                .isInstanceOf(InvalidRequestException.class);
+    }
+
+    @Test
+    void getBooks_WithMalformedCursor_ThrowInvalidRequestException() {
+        assertThatThrownBy(() -> bookService.getBooks("%%%", null, null))
+                .isInstanceOf(InvalidRequestException.class);
+    }
+
+
+    @Test
+    void searchBooks_WhenMoreHitsExist_ContinueFromCursor() {
+        bookDTO.setId(1L);
+        when(bookSearchIndex.search("dune", Double.POSITIVE_INFINITY, Long.MIN_VALUE, 2))
+                .thenReturn(List.of(new BookSearchIndex.Hit(bookDTO, 3.5), new BookSearchIndex.Hit(updatedBookDTO, 1.25)));
+
+        KeysetPageDTO<BookDTO> page = bookService.searchBooks("dune", null, 1);
+
+        assertThat(page.getContent()).containsExactly(bookDTO);
+        assertThat(page.getNextCursor()).isNotNull();
+
+        bookService.searchBooks("dune", page.getNextCursor(), 1);
+        verify(bookSearchIndex).search("dune", 3.5, 1L, 2);
     }
 
+    @Test
+    void searchBooks_WithBlankQuery_ThrowInvalidRequestException() {
+        assertThatThrownBy(() -> bookService.searchBooks(" ", null, null)).isInstanceOf(InvalidRequestException.class);
+    }
+
+    @Test
+    void exportBooks_WhenBooksExist_DetachAndEmitEachBook() {
+        // Arrange
+        when(bookRepository.streamAllByOrderByIdAsc()).thenReturn(Stream.of(book, updatedBook));
+        when(bookMapper.toBookDTO(book)).thenReturn(bookDTO);
+        when(bookMapper.toBookDTO(updatedBook)).thenReturn(updatedBookDTO);
+        List<BookDTO> exported = new ArrayList<>();
+
+        // Act
+        bookService.exportBooks(exported::add);
+
+        // Assert
+        assertThat(exported).containsExactly(bookDTO, updatedBookDTO);
+        verify(entityManager, times(1)).detach(book);
+        verify(entityManager, times(1)).detach(updatedBook);
+    }
 
     @Test
     void getBookById_WhenBookExists_ReturnBookDTO() {
@@ -114,25 +304,138 @@ class BookServiceTest {
         verify(bookRepository, times(1)).save(book);
     }
 
+    @Test
+    void addBook_WithClientIdAndVersion_InsertsANewBook() {
+        Book sent = Book.builder().id(7L).version(3L).title("Book 1").author("Author 1").publicationYear(2022).isbn("978-3-16-148410-0").build();
+        when(bookMapper.toBook(bookDTO)).thenReturn(sent);
+        when(bookRepository.save(sent)).thenReturn(sent);
+        when(bookMapper.toBookDTO(sent)).thenReturn(bookDTO);
+
+        bookService.addBook(bookDTO);
+
+        verify(bookRepository).save(argThat(saved -> saved.getId() == null && saved.getVersion() == null));
+    }
+
+    @Test
+    void addBook_WithIsbnOfAnotherBook_ThrowDuplicateIsbnException() {
+        when(bookMapper.toBook(bookDTO)).thenReturn(book);
+        when(isbnIndex.find(9783161484100L)).thenReturn(OptionalLong.of(7L));
+
+        assertThatThrownBy(() -> bookService.addBook(bookDTO)).isInstanceOf(DuplicateIsbnException.class);
+        verify(bookRepository, never()).save(any());
+    }
+
+    @Test
+    void getBookIdByIsbn_ResolvesIsbn10AndIsbn13() {
+        when(isbnIndex.find(9780306406157L)).thenReturn(OptionalLong.of(4L));
+
+        assertThat(bookService.getBookIdByIsbn("0-306-40615-2")).isEqualTo(4L);
+        assertThat(bookService.getBookIdByIsbn("978-0-306-40615-7")).isEqualTo(4L);
+        assertThatThrownBy(() -> bookService.getBookIdByIsbn("9783161484100")).isInstanceOf(NotFoundException.class);
+        assertThatThrownBy(() -> bookService.getBookIdByIsbn("not-an-isbn")).isInstanceOf(InvalidRequestException.class);
+    }
+
+    @Test
+    @Transactional
+    void addBooks_WithMoreBooksThanBatchSize_SaveAndFlushPerBatch() {
+        // Arrange
+        libraryProperties.getBooks().setBulkBatchSize(2);
+        when(bookMapper.toBook(any())).thenAnswer(invocation -> Book.builder().id(99L).title("Book 1").build());
+        when(bookMapper.toBookDTO(any())).thenReturn(bookDTO);
+
+        List<BookDTO> imported = List.of(
+                BookDTO.builder().title("Book 1").author("Author 1").publicationYear(2022).isbn("978-3-16-148410-0").isBorrowed(false).build(),
+                BookDTO.builder().title("Book 2").author("Author 1").publicationYear(2022).isbn("0-306-40615-2").isBorrowed(false).build(),
+                BookDTO.builder().title("Book 3").author("Author 1").publicationYear(2022).isbn("M-123").isBorrowed(false).build());
+
+        // Act
+        List<BookDTO> result = bookService.addBooks(imported);
+
+        // Assert
+        assertThat(result).hasSize(3);
+        verify(bookRepository, times(2)).saveAll(argThat(books -> {
+            books.forEach(book -> assertThat(book.getId()).isNull());
+            return true;
+        }));
+        verify(bookRepository, times(2)).flush();
+        verify(entityManager, times(2)).clear();
+    }
+
+    @Test
+    void addBooks_WithSameIsbnTwice_ThrowDuplicateIsbnException() {
+        BookDTO sameBookAsIsbn10 = BookDTO.builder().title("Book 1").author("Author 1").publicationYear(2022).isbn("0-306-40615-2").isBorrowed(false).build();
+        BookDTO sameBookAsIsbn13 = BookDTO.builder().title("Book 1").author("Author 1").publicationYear(2022).isbn("9780306406157").isBorrowed(false).build();
+
+        assertThatThrownBy(() -> bookService.addBooks(List.of(sameBookAsIsbn10, sameBookAsIsbn13))).isInstanceOf(DuplicateIsbnException.class);
+        verify(bookRepository, never()).saveAll(any());
+    }
+
+    @Test
+    @Transactional
+    void addBooks_WithTooManyBooks_ThrowInvalidRequestException() {
+        libraryProperties.getBooks().setMaxBulkSize(1);
+
+        assertThatThrownBy(() -> bookService.addBooks(List.of(bookDTO, bookDTO)))
+                .isInstanceOf(InvalidRequestException.class);
+        verify(bookRepository, never()).saveAll(any());
+    }
+
     @Test
     @Transactional
 
     void updateBook_WithValidIdAndBookDTO_ReturnUpdatedBookDTO() {
         // Arrange
         Long id = 1L;
-        when(bookRepository.existsById(id)).thenReturn(true);
+        when(bookRepository.findVersionById(id)).thenReturn(Optional.of(5L));
         when(bookMapper.toBook(updatedBookDTO)).thenReturn(updatedBook);
-        when(bookRepository.save(updatedBook)).thenReturn(updatedBook);
+        when(bookRepository.saveAndFlush(updatedBook)).thenReturn(updatedBook);
         when(bookMapper.toBookDTO(updatedBook)).thenReturn(updatedBookDTO);
 
         // Act
-        BookDTO result = bookService.updateBook(id, updatedBookDTO);
+        BookDTO result = bookService.updateBook(id, updatedBookDTO, null);
 
         // Assert
         assertThat(result).isNotNull();
         assertThat(result).isEqualTo(updatedBookDTO);
 
-        verify(bookRepository, times(1)).save(updatedBook);
+        verify(bookRepository, times(1)).saveAndFlush(argThat(saved -> saved == updatedBook && saved.getVersion() == 5L));
+    }
+
+    @Test
+    void updateBook_StockedAsCopies_KeepsTheBorrowedFlag() {
+        updatedBook.setBorrowed(true);
+        when(bookRepository.findVersionById(1L)).thenReturn(Optional.of(5L));
+        when(bookRepository.findBorrowedById(1L)).thenReturn(Optional.of(false));
+        when(bookCopyRepository.existsByBookId(1L)).thenReturn(true);
+        when(bookMapper.toBook(updatedBookDTO)).thenReturn(updatedBook);
+        when(bookRepository.saveAndFlush(updatedBook)).thenReturn(updatedBook);
+        when(bookMapper.toBookDTO(updatedBook)).thenReturn(updatedBookDTO);
+
+        bookService.updateBook(1L, updatedBookDTO, null);
+
+        verify(bookRepository).saveAndFlush(argThat(saved -> !saved.isBorrowed()));
+        verify(inventoryCounters, never()).record(any(), anyLong());
+    }
+
+    @Test
+    void updateBook_ExpectedVersionStale_ThrowPreconditionFailed() {
+        when(bookRepository.findVersionById(1L)).thenReturn(Optional.of(5L));
+
+        assertThatThrownBy(() -> bookService.updateBook(1L, updatedBookDTO, 4L))
+                .isInstanceOf(PreconditionFailedException.class);
+        verify(bookRepository, never()).saveAndFlush(any());
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    void updateBook_ChangedWhileMerging_ThrowPreconditionFailed() {
+        when(bookRepository.findVersionById(1L)).thenReturn(Optional.of(5L));
+        when(bookMapper.toBook(updatedBookDTO)).thenReturn(updatedBook);
+        when(bookRepository.saveAndFlush(updatedBook)).thenThrow(new ObjectOptimisticLockingFailureException(Book.class, 1L));
+
+        assertThatThrownBy(() -> bookService.updateBook(1L, updatedBookDTO, 5L))
+                .isInstanceOf(PreconditionFailedException.class);
+        verify(eventPublisher, never()).publishEvent(any());
     }
 
     @Test
@@ -141,9 +444,9 @@ class BookServiceTest {
     void updateBook_WithInvalidId_ThrowNotFoundException() {
         // Arrange
         Long id = 1L;
-        when(bookRepository.existsById(id)).thenReturn(false);
+        when(bookRepository.findVersionById(id)).thenReturn(Optional.empty());
         // Act & Assert
-        assertThatThrownBy(() -> bookService.updateBook(id, updatedBookDTO))
+        assertThatThrownBy(() -> bookService.updateBook(id, updatedBookDTO, null))
                 .isInstanceOf(NotFoundException.class)
                 .hasMessage("Book not found with id: " + id);
     }
@@ -156,6 +459,8 @@ class BookServiceTest {
         bookService.deleteBook(id);
         // Assert
         verify(bookRepository, times(1)).deleteById(id);
+        verify(eventPublisher, times(1)).publishEvent(argThat((BookChangedEvent event) ->
+                event.getType() == BookChangedEvent.Type.DELETED && event.getBookIds().equals(List.of(id))));
     }
 
     @Transactional
@@ -0,0 +1,246 @@
+package Mamoun.librarymanagement.Services;
+
+import Mamoun.librarymanagement.DTO.BorrowingRecordDTO;
+import Mamoun.librarymanagement.DTO.LoanResultDTO;
+import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Entities.Patron;
+import Mamoun.librarymanagement.Exceptions.BookNotAvailableException;
+import Mamoun.librarymanagement.Exceptions.LoanLimitExceededException;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import Mamoun.librarymanagement.Repositories.PatronRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// A patron can win every round, so the loan limit is set to the number of rounds
+@SpringBootTest(properties = "library.borrowings.max-loans-per-patron=" + BorrowingRecordServiceConcurrencyTest.ROUNDS)
+class BorrowingRecordServiceConcurrencyTest {
+
+    private static final int BORROWERS = 16;
+    static final int ROUNDS = 25;
+
+    @Autowired
+    private BorrowingRecordService borrowingRecordService;
+
+    @Autowired
+    private BookRepository bookRepository;
+
+    @Autowired
+    private PatronRepository patronRepository;
+
+    @Autowired
+    private BookCopyService bookCopyService;
+
+    @Test
+    void borrowBook_ConcurrentBorrowers_ExactlyOneWinsEachRound() throws Exception {
+        List<Patron> patrons = new ArrayList<>();
+        for (int i = 0; i < BORROWERS; i++)
+            patrons.add(patronRepository.save(Patron.builder().name("Borrower " + i).contactInformation("555-" + i).build()));
+
+        AtomicInteger rejected = new AtomicInteger();
+        try (ExecutorService executor = Executors.newFixedThreadPool(BORROWERS)) {
+            for (int round = 0; round < ROUNDS; round++) {
+                Book book = bookRepository.save(Book.builder().title("Contended " + round).author("Author")
+                        .isbn("contended-" + round + "-" + System.nanoTime()).publicationYear(2024).isBorrowed(false).build());
+                CountDownLatch startGate = new CountDownLatch(1);
+                List<Future<Boolean>> attempts = new ArrayList<>();
+                for (Patron patron : patrons) {
+                    attempts.add(executor.submit(() -> {
+                        startGate.await();
+                        try {
+                            borrowingRecordService.borrowBook(book.getId(), patron.getId());
+                            return true;
+                        } catch (BookNotAvailableException e) {
+                            rejected.incrementAndGet();
+                            return false;
+                        }
+                    }));
+                }
+                startGate.countDown();
+
+                int winners = 0;
+                for (Future<Boolean> attempt : attempts)
+                    winners += attempt.get() ? 1 : 0;
+                assertThat(winners).as("winners of round %d", round).isEqualTo(1);
+                assertThat(bookRepository.findById(book.getId())).get().extracting(Book::isBorrowed).isEqualTo(true);
+            }
+        }
+
+        assertThat(rejected.get()).isEqualTo(ROUNDS * (BORROWERS - 1));
+    }
+
+    @Test
+    void borrowBooks_OverlappingBatches_EachBookClaimedOnce() throws Exception {
+        int bookCount = 40;
+        List<Long> bookIds = new ArrayList<>();
+        for (int i = 0; i < bookCount; i++)
+            bookIds.add(bookRepository.save(Book.builder().title("Batch " + i).author("Author")
+                    .isbn("batch-" + i + "-" + System.nanoTime()).publicationYear(2024).isBorrowed(false).build()).getId());
+        List<Patron> patrons = new ArrayList<>();
+        for (int i = 0; i < BORROWERS; i++)
+            patrons.add(patronRepository.save(Patron.builder().name("Batch borrower " + i).contactInformation("556-" + i).build()));
+
+        // Every batch asks for the same books in its own order, so unordered locking would deadlock
+        Random random = new Random(42);
+        CountDownLatch startGate = new CountDownLatch(1);
+        List<Future<List<LoanResultDTO>>> batches = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(BORROWERS)) {
+            for (Patron patron : patrons) {
+                List<Long> batch = new ArrayList<>(bookIds);
+                Collections.shuffle(batch, random);
+                batches.add(executor.submit(() -> {
+                    startGate.await();
+                    return borrowingRecordService.borrowBooks(patron.getId(), batch);
+                }));
+            }
+            startGate.countDown();
+
+            int borrowed = 0;
+            for (Future<List<LoanResultDTO>> batch : batches) {
+                for (LoanResultDTO result : batch.get()) {
+                    if (result.getStatus() == LoanResultDTO.Status.BORROWED)
+                        borrowed++;
+                    else
+                        assertThat(result.getStatus()).isIn(LoanResultDTO.Status.NOT_AVAILABLE, LoanResultDTO.Status.LOAN_LIMIT_REACHED);
+                }
+            }
+            assertThat(borrowed).isEqualTo(bookCount);
+        }
+        assertThat(bookRepository.findAllById(bookIds)).allMatch(Book::isBorrowed);
+    }
+
+    @Test
+    void borrowBook_OnePatronManyThreads_NeverExceedsLoanLimit() throws Exception {
+        Patron patron = patronRepository.save(Patron.builder().name("Greedy borrower").contactInformation("557-0").build());
+        List<Long> bookIds = new ArrayList<>();
+        for (int i = 0; i < 2 * ROUNDS; i++)
+            bookIds.add(bookRepository.save(Book.builder().title("Limited " + i).author("Author")
+                    .isbn("limited-" + i + "-" + System.nanoTime()).publicationYear(2024).isBorrowed(false).build()).getId());
+
+        CountDownLatch startGate = new CountDownLatch(1);
+        List<Future<Boolean>> attempts = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(BORROWERS)) {
+            for (Long bookId : bookIds) {
+                attempts.add(executor.submit(() -> {
+                    startGate.await();
+                    try {
+                        borrowingRecordService.borrowBook(bookId, patron.getId());
+                        return true;
+                    } catch (LoanLimitExceededException e) {
+                        return false;
+                    }
+                }));
+            }
+            startGate.countDown();
+
+            int borrowed = 0;
+            for (Future<Boolean> attempt : attempts)
+                borrowed += attempt.get() ? 1 : 0;
+            assertThat(borrowed).isEqualTo(ROUNDS);
+        }
+
+        // A return frees a slot once it has committed
+        Long held = bookRepository.findAllById(bookIds).stream().filter(Book::isBorrowed).findFirst().orElseThrow().getId();
+        Long free = bookRepository.findAllById(bookIds).stream().filter(book -> !book.isBorrowed()).findFirst().orElseThrow().getId();
+        borrowingRecordService.returnBook(held, patron.getId());
+        borrowingRecordService.borrowBook(free, patron.getId());
+    }
+
+    @Test
+    void borrowCopy_MoreBorrowersThanCopies_EachCopyLentOnce() throws Exception {
+        int copies = BORROWERS / 4;
+        Book book = bookRepository.save(Book.builder().title("Popular title").author("Author")
+                .isbn("popular-" + System.nanoTime()).publicationYear(2024).isBorrowed(false).build());
+        bookCopyService.addCopies(book.getId(), copies);
+        List<Patron> patrons = new ArrayList<>();
+        for (int i = 0; i < BORROWERS; i++)
+            patrons.add(patronRepository.save(Patron.builder().name("Copy borrower " + i).contactInformation("558-" + i).build()));
+
+        Patron holder = null;
+        Patron waiting = null;
+        CountDownLatch startGate = new CountDownLatch(1);
+        List<Future<BorrowingRecordDTO>> attempts = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(BORROWERS)) {
+            for (Patron patron : patrons) {
+                attempts.add(executor.submit(() -> {
+                    startGate.await();
+                    try {
+                        return borrowingRecordService.borrowCopy(book.getId(), patron.getId());
+                    } catch (BookNotAvailableException e) {
+                        return null;
+                    }
+                }));
+            }
+            startGate.countDown();
+
+            Set<Long> lent = new HashSet<>();
+            for (int i = 0; i < attempts.size(); i++) {
+                BorrowingRecordDTO loan = attempts.get(i).get();
+                if (loan == null) {
+                    waiting = patrons.get(i);
+                    continue;
+                }
+                assertThat(lent.add(loan.getCopyId())).as("copy %d lent twice", loan.getCopyId()).isTrue();
+                holder = patrons.get(i);
+            }
+            assertThat(lent).hasSize(copies);
+        }
+        assertThat(bookCopyService.getCopies(book.getId())).allMatch(copy -> copy.isBorrowed());
+        // Whoever took the last copy took the title out with it
+        assertThat(bookRepository.findById(book.getId())).get().extracting(Book::isBorrowed).isEqualTo(true);
+
+        // A returned copy can be borrowed again
+        borrowingRecordService.returnBook(book.getId(), holder.getId());
+        assertThat(bookRepository.findById(book.getId())).get().extracting(Book::isBorrowed).isEqualTo(false);
+        assertThat(borrowingRecordService.borrowCopy(book.getId(), waiting.getId()).getCopyId()).isNotNull();
+    }
+
+    @Test
+    void borrowCopy_OnePatronManyThreads_OneCopyPerTitle() throws Exception {
+        int copies = BORROWERS / 4;
+        Patron patron = patronRepository.save(Patron.builder().name("Copy hoarder").contactInformation("559-0").build());
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(copies)) {
+            // Losing attempts hold a loan slot until they roll back, so the patron stays well under the limit
+            for (int round = 0; round < ROUNDS / 2; round++) {
+                Book book = bookRepository.save(Book.builder().title("Hoarded " + round).author("Author")
+                        .isbn("hoarded-" + round + "-" + System.nanoTime()).publicationYear(2024).isBorrowed(false).build());
+                bookCopyService.addCopies(book.getId(), copies);
+                CountDownLatch startGate = new CountDownLatch(1);
+                List<Future<Boolean>> attempts = new ArrayList<>();
+                for (int i = 0; i < copies; i++) {
+                    attempts.add(executor.submit(() -> {
+                        startGate.await();
+                        try {
+                            borrowingRecordService.borrowCopy(book.getId(), patron.getId());
+                            return true;
+                        } catch (BookNotAvailableException e) {
+                            return false;
+                        }
+                    }));
+                }
+                startGate.countDown();
+
+                int winners = 0;
+                for (Future<Boolean> attempt : attempts)
+                    winners += attempt.get() ? 1 : 0;
+                assertThat(winners).as("winners of round %d", round).isEqualTo(1);
+                assertThat(bookCopyService.getCopies(book.getId())).filteredOn(copy -> copy.isBorrowed()).hasSize(1);
+            }
+        }
+    }
+}
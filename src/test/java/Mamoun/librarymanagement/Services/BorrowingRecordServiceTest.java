@@ -1,24 +1,43 @@
 package Mamoun.librarymanagement.Services;
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.Copies.CopyAllocator;
 import Mamoun.librarymanagement.DTO.BorrowingRecordDTO;
+import Mamoun.librarymanagement.DTO.LoanResultDTO;
 import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Entities.BookCopy;
 import Mamoun.librarymanagement.Entities.BorrowingRecord;
 import Mamoun.librarymanagement.Entities.Patron;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
 import Mamoun.librarymanagement.Exceptions.BookNotAvailableException;
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
+import Mamoun.librarymanagement.Exceptions.LoanLimitExceededException;
 import Mamoun.librarymanagement.Exceptions.NotFoundException;
 import Mamoun.librarymanagement.Mappers.BorrowingRecordMapper;
+import Mamoun.librarymanagement.Repositories.BookCopyRepository;
 import Mamoun.librarymanagement.Repositories.BookRepository;
 import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
 import Mamoun.librarymanagement.Repositories.PatronRepository;
+import Mamoun.librarymanagement.Stats.InventoryCounters;
+import Mamoun.librarymanagement.Stats.PatronLoanCounts;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.mockito.InOrder;
+import org.springframework.dao.DataIntegrityViolationException;
 import java.time.LocalDate;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @SpringBootTest
@@ -36,9 +55,39 @@ class BorrowingRecordServiceTest {
     @Mock
     private BorrowingRecordMapper borrowingRecordMapper;
 
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private InventoryCounters inventoryCounters;
+
+    @Mock
+    private PatronLoanCounts patronLoanCounts;
+
+    @Mock
+    private BookCopyRepository bookCopyRepository;
+
+    @Mock
+    private CopyAllocator copyAllocator;
+
+    @Mock
+    private HoldService holdService;
+
+    @Mock
+    private BookCopyService bookCopyService;
+
+    @Spy
+    private LibraryProperties libraryProperties = new LibraryProperties();
+
     @InjectMocks
     private BorrowingRecordService borrowingRecordService;
 
+    @BeforeEach
+    void setUp() {
+        // Every patron has room for every book unless a test says otherwise
+        when(patronLoanCounts.reserve(anyLong(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+    }
+
     @Test
     void borrowBook_Successful() {
         long bookId = 1;
@@ -47,16 +96,22 @@ class BorrowingRecordServiceTest {
         Book book = Book.builder().id(bookId).title("title1").author("author1").isbn("12345").publicationYear(2024).build();
         Patron patron = Patron.builder().id(patronId).name("name1").contactInformation("123456789").build();
         BorrowingRecord borrowingRecord = new BorrowingRecord(book, patron, LocalDate.now(), LocalDate.now().plusDays(10));
+        borrowingRecord.setId(borrowingRecordId);
 
-        when(bookRepository.findById(bookId)).thenReturn(Optional.of(book));
         when(patronRepository.findById(patronId)).thenReturn(Optional.of(patron));
-        borrowingRecord.setId(borrowingRecordId);
-        when(borrowingRecordRepository.findById(borrowingRecordId)).thenReturn(Optional.of(borrowingRecord));
+        when(bookRepository.markBorrowed(bookId)).thenReturn(1);
+        when(bookRepository.getReferenceById(bookId)).thenReturn(book);
+        when(borrowingRecordRepository.save(any(BorrowingRecord.class))).thenReturn(borrowingRecord);
         BorrowingRecordDTO borrowingRecordDTO = borrowingRecordService.borrowBook(bookId, patronId);
 
-        assertThat(book.isBorrowed()).isTrue();
         assertThat(borrowingRecordDTO).isEqualTo(borrowingRecordMapper.toBorrowingRecordDTo(borrowingRecord));
-        verify(borrowingRecordRepository, times(1)).save(any(BorrowingRecord.class));
+        verify(bookRepository, never()).findById(anyLong());
+        verify(borrowingRecordRepository, times(1)).save(argThat(record -> record.getBook() == book && record.getPatron() == patron
+                && record.isActive() && record.getReturnDate() == null && record.getDueDate().equals(LocalDate.now().plusDays(14))));
+        verify(eventPublisher, times(1)).publishEvent(argThat((BookChangedEvent event) ->
+                event.getType() == BookChangedEvent.Type.BORROWED && event.getBookIds().equals(List.of(bookId))));
+        verify(inventoryCounters).record(InventoryCounters.Counter.BORROWED_BOOKS, 1);
+        verify(inventoryCounters).record(InventoryCounters.Counter.OPEN_LOANS, 1);
     }
 
     @Test
@@ -64,7 +119,9 @@ class BorrowingRecordServiceTest {
         long bookId = 1;
         long patronId = 1;
 
-        when(bookRepository.findById(bookId)).thenReturn(Optional.empty());
+        when(patronRepository.findById(patronId)).thenReturn(Optional.of(new Patron()));
+        when(bookRepository.markBorrowed(bookId)).thenReturn(0);
+        when(bookRepository.existsById(bookId)).thenReturn(false);
 
         assertThatThrownBy(() -> borrowingRecordService.borrowBook(bookId, patronId)).isInstanceOf(NotFoundException.class);
         verify(borrowingRecordRepository, never()).save(any());
@@ -75,10 +132,10 @@ class BorrowingRecordServiceTest {
         long bookId = 1;
         long patronId = 1;
 
-        when(bookRepository.findById(bookId)).thenReturn(Optional.of(new Book()));
         when(patronRepository.findById(patronId)).thenReturn(Optional.empty());
 
         assertThatThrownBy(() -> borrowingRecordService.borrowBook(bookId, patronId)).isInstanceOf(NotFoundException.class);
+        verify(bookRepository, never()).markBorrowed(anyLong());
         verify(borrowingRecordRepository, never()).save(any());
     }
 
@@ -86,37 +143,92 @@ class BorrowingRecordServiceTest {
     void borrowBook_BookAlreadyBorrowed() {
         long bookId = 1;
         long patronId = 1;
-        Book book = Book.builder().id(bookId).title("title1").author("author1").isbn("12345").publicationYear(2024).build();
         Patron patron = Patron.builder().id(patronId).name("name1").contactInformation("123456789").build();
-        book.setBorrowed(true);
-        BorrowingRecord borrowingRecord = new BorrowingRecord(book, patron, LocalDate.now(), LocalDate.now().plusDays(10));
 
-        when(bookRepository.findById(bookId)).thenReturn(Optional.of(book));
         when(patronRepository.findById(patronId)).thenReturn(Optional.of(patron));
-        when(borrowingRecordRepository.findFirstByBookIdAndPatronIdOrderByBorrowingDateDesc(bookId,patronId)).thenReturn(Optional.of((borrowingRecord)));
+        when(bookRepository.markBorrowed(bookId)).thenReturn(0);
+        when(bookRepository.existsById(bookId)).thenReturn(true);
 
-        assertThat(book.isBorrowed()).isEqualTo(true);
         assertThatThrownBy(() -> borrowingRecordService.borrowBook(bookId, patronId)).isInstanceOf(BookNotAvailableException.class);
         verify(borrowingRecordRepository, never()).save(any());
     }
+
+    @Test
+    void borrowBook_StockedAsCopies_NotAvailable() {
+        when(patronRepository.findById(1L)).thenReturn(Optional.of(new Patron()));
+        when(bookRepository.markBorrowed(1L)).thenReturn(0);
+        when(bookRepository.existsById(1L)).thenReturn(true);
+        when(bookCopyRepository.existsByBookId(1L)).thenReturn(true);
+
+        assertThatThrownBy(() -> borrowingRecordService.borrowBook(1L, 1L))
+                .isInstanceOf(BookNotAvailableException.class)
+                .hasMessageContaining("borrow a copy");
+        verify(borrowingRecordRepository, never()).save(any());
+    }
     @Test
     void returnBook_Successful() {
         long bookId = 1;
         long patronId = 1;
         Book book = Book.builder().id(bookId).title("title1").author("author1").isbn("12345").publicationYear(2024).isBorrowed(true).build();
         Patron patron = Patron.builder().id(patronId).name("name1").contactInformation("123456789").build();
-        BorrowingRecord borrowingRecord = new BorrowingRecord(book, patron, LocalDate.now(), LocalDate.now().plusDays(10));
+        BorrowingRecord borrowingRecord = new BorrowingRecord(book, patron, LocalDate.now(), null);
         borrowingRecord.setId(5L);
 
-        when(bookRepository.findById(bookId)).thenReturn(Optional.of(book));
-        when(patronRepository.findById(patronId)).thenReturn(Optional.of(patron));
-        when(borrowingRecordRepository.findFirstByBookIdAndPatronIdOrderByBorrowingDateDesc(bookId, patronId)).thenReturn(Optional.of(borrowingRecord));
+        when(borrowingRecordRepository.findActiveByBookIdAndPatronId(bookId, patronId)).thenReturn(Optional.of(borrowingRecord));
+        when(bookRepository.findByIdForUpdate(bookId)).thenReturn(Optional.of(book));
+        when(borrowingRecordRepository.closeActive(List.of(5L), LocalDate.now())).thenReturn(1);
+        when(borrowingRecordMapper.toBorrowingRecordDTo(borrowingRecord)).thenReturn(BorrowingRecordDTO.builder().id(5L).borrowingDate(LocalDate.now()).active(true).build());
         BorrowingRecordDTO borrowingRecordDTO = borrowingRecordService.returnBook(bookId, patronId);
 
         assertThat(book.isBorrowed()).isFalse();
-        assertThat(borrowingRecord.getReturnDate()).isNotNull();
-        assertThat(borrowingRecordDTO).isEqualTo(borrowingRecordMapper.toBorrowingRecordDTo(borrowingRecord));
-        verify(borrowingRecordRepository, times(1)).save(any(BorrowingRecord.class));
+        assertThat(borrowingRecordDTO.isActive()).isFalse();
+        assertThat(borrowingRecordDTO.getReturnDate()).isEqualTo(LocalDate.now());
+        verify(bookRepository, never()).findById(anyLong());
+        verify(borrowingRecordRepository, never()).save(any(BorrowingRecord.class));
+        verify(holdService).handOver(book, null);
+        verify(patronLoanCounts).release(patronId, 1);
+    }
+
+    @Test
+    void returnBook_HoldWaiting_BookGoesStraightToTheHolder() {
+        long bookId = 1;
+        long patronId = 1;
+        Book book = Book.builder().id(bookId).title("title1").author("author1").isbn("12345").publicationYear(2024).isBorrowed(true).build();
+        BorrowingRecord borrowingRecord = new BorrowingRecord(book, new Patron(), LocalDate.now(), null);
+        when(borrowingRecordRepository.findActiveByBookIdAndPatronId(bookId, patronId)).thenReturn(Optional.of(borrowingRecord));
+        when(bookRepository.findByIdForUpdate(bookId)).thenReturn(Optional.of(book));
+        when(borrowingRecordRepository.closeActive(any(), any())).thenReturn(1);
+        when(borrowingRecordMapper.toBorrowingRecordDTo(borrowingRecord)).thenReturn(new BorrowingRecordDTO());
+        when(holdService.handOver(book, null)).thenAnswer(invocation -> {
+            book.setBorrowed(true);
+            return new BorrowingRecord(book, new Patron(), LocalDate.now(), null);
+        });
+
+        borrowingRecordService.returnBook(bookId, patronId);
+
+        assertThat(book.isBorrowed()).isTrue();
+        // The return is still journaled, the holder's loan is published by the hand-over
+        verify(eventPublisher).publishEvent(argThat((BookChangedEvent event) -> event.getType() == BookChangedEvent.Type.RETURNED));
+        verify(patronLoanCounts).release(patronId, 1);
+    }
+
+    @Test
+    void returnBook_CopyLoan_HoldWaiting_CopyStaysOut() {
+        Book book = Book.builder().id(1L).title("title1").author("author1").isbn("12345").publicationYear(2024).isBorrowed(false).build();
+        BookCopy copy = BookCopy.builder().id(8L).book(book).borrowed(true).build();
+        BorrowingRecord borrowingRecord = new BorrowingRecord(book, new Patron(), LocalDate.now(), null);
+        borrowingRecord.setCopy(copy);
+        when(borrowingRecordRepository.findActiveByBookIdAndPatronId(1L, 1L)).thenReturn(Optional.of(borrowingRecord));
+        when(bookRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(book));
+        when(borrowingRecordRepository.closeActive(any(), any())).thenReturn(1);
+        when(borrowingRecordMapper.toBorrowingRecordDTo(borrowingRecord)).thenReturn(new BorrowingRecordDTO());
+        when(holdService.handOver(book, copy)).thenReturn(new BorrowingRecord(book, new Patron(), LocalDate.now(), null));
+
+        borrowingRecordService.returnBook(1L, 1L);
+
+        verify(bookCopyRepository, never()).markReturned(any());
+        verify(copyAllocator, never()).offerAfterCommit(anyLong(), any());
+        verify(inventoryCounters).record(InventoryCounters.Counter.OPEN_LOANS, -1);
     }
 
     @Test
@@ -124,9 +236,10 @@ class BorrowingRecordServiceTest {
         long bookId = 1;
         long patronId = 1;
 
-        when(bookRepository.findById(bookId)).thenReturn(Optional.empty());
+        when(bookRepository.findByIdForUpdate(bookId)).thenReturn(Optional.empty());
 
-        assertThatThrownBy(() -> borrowingRecordService.returnBook(bookId, patronId)).isInstanceOf(NotFoundException.class);
+        assertThatThrownBy(() -> borrowingRecordService.returnBook(bookId, patronId)).isInstanceOf(NotFoundException.class).hasMessage("Book not found with id: " + bookId);
+        verify(borrowingRecordRepository, never()).findActiveByBookIdAndPatronId(anyLong(), anyLong());
         verify(borrowingRecordRepository, never()).save(any());
     }
 
@@ -134,10 +247,26 @@ class BorrowingRecordServiceTest {
     void returnBook_PatronNotFound() {
         long bookId = 1;
         long patronId = 1;
+        when(bookRepository.findByIdForUpdate(bookId)).thenReturn(Optional.of(new Book()));
+        when(borrowingRecordRepository.findActiveByBookIdAndPatronId(bookId, patronId)).thenReturn(Optional.empty());
         when(bookRepository.findById(bookId)).thenReturn(Optional.of(new Book()));
-        when(patronRepository.findById(patronId)).thenReturn(Optional.empty());
+        when(patronRepository.existsById(patronId)).thenReturn(false);
 
-        assertThatThrownBy(() -> borrowingRecordService.returnBook(bookId, patronId)).isInstanceOf(NotFoundException.class);
+        assertThatThrownBy(() -> borrowingRecordService.returnBook(bookId, patronId)).isInstanceOf(NotFoundException.class).hasMessage("patron not found with id: " + patronId);
+        verify(borrowingRecordRepository, never()).save(any());
+    }
+
+    @Test
+    void returnBook_BookAlreadyInStock() {
+        long bookId = 1;
+        long patronId = 1;
+        Book book = Book.builder().id(bookId).title("title1").author("author1").isbn("12345").publicationYear(2024).isBorrowed(false).build();
+        when(bookRepository.findByIdForUpdate(bookId)).thenReturn(Optional.of(book));
+        when(borrowingRecordRepository.findActiveByBookIdAndPatronId(bookId, patronId)).thenReturn(Optional.empty());
+        when(bookRepository.findById(bookId)).thenReturn(Optional.of(book));
+        when(patronRepository.existsById(patronId)).thenReturn(true);
+
+        assertThatThrownBy(() -> borrowingRecordService.returnBook(bookId, patronId)).isInstanceOf(BookNotAvailableException.class);
         verify(borrowingRecordRepository, never()).save(any());
     }
 
@@ -146,13 +275,301 @@ class BorrowingRecordServiceTest {
         long bookId = 5;
         long patronId = 5;
         Book book = Book.builder().id(bookId).title("title1").author("author1").isbn("12345").publicationYear(2024).isBorrowed(true).build();
-        Patron patron = Patron.builder().id(patronId).name("name1").contactInformation("123456789").build();
 
+        when(bookRepository.findByIdForUpdate(bookId)).thenReturn(Optional.of(book));
+        when(borrowingRecordRepository.findActiveByBookIdAndPatronId(bookId, patronId)).thenReturn(Optional.empty());
         when(bookRepository.findById(bookId)).thenReturn(Optional.of(book));
-        when(patronRepository.findById(patronId)).thenReturn(Optional.of(patron));
-        when(borrowingRecordRepository.findFirstByBookIdAndPatronIdOrderByBorrowingDateDesc(bookId, patronId)).thenReturn(Optional.empty());
+        when(patronRepository.existsById(patronId)).thenReturn(true);
 
         assertThatThrownBy(() -> borrowingRecordService.returnBook(bookId, patronId)).isInstanceOf(NotFoundException.class).hasMessage("No active borrowing record found for the book and patron");
         verify(borrowingRecordRepository, never()).save(any());
     }
+
+    @Test
+    void returnBook_LoanAlreadyClosed_ChangesNothing() {
+        long bookId = 5;
+        long patronId = 5;
+        Book book = Book.builder().id(bookId).title("title1").author("author1").isbn("12345").publicationYear(2024).isBorrowed(true).build();
+        BorrowingRecord borrowingRecord = new BorrowingRecord(book, new Patron(), LocalDate.now(), null);
+        when(bookRepository.findByIdForUpdate(bookId)).thenReturn(Optional.of(book));
+        when(borrowingRecordRepository.findActiveByBookIdAndPatronId(bookId, patronId)).thenReturn(Optional.of(borrowingRecord));
+        when(borrowingRecordRepository.closeActive(any(), any())).thenReturn(0);
+        when(bookRepository.findById(bookId)).thenReturn(Optional.of(book));
+        when(patronRepository.existsById(patronId)).thenReturn(true);
+
+        assertThatThrownBy(() -> borrowingRecordService.returnBook(bookId, patronId)).isInstanceOf(NotFoundException.class);
+        assertThat(book.isBorrowed()).isTrue();
+        verify(holdService, never()).handOver(any(), any());
+        verify(patronLoanCounts, never()).release(anyLong(), anyInt());
+        verify(inventoryCounters, never()).record(any(), anyLong());
+    }
+
+    @Test
+    void borrowBooks_ReportsEachBook() {
+        long patronId = 1;
+        Patron patron = Patron.builder().id(patronId).name("name1").contactInformation("123456789").build();
+        Book available = Book.builder().id(1L).title("title1").author("author1").isbn("1").publicationYear(2024).isBorrowed(false).build();
+        Book borrowed = Book.builder().id(2L).title("title2").author("author2").isbn("2").publicationYear(2024).isBorrowed(true).build();
+
+        when(patronRepository.findById(patronId)).thenReturn(Optional.of(patron));
+        when(bookRepository.findAllByIdForUpdate(any())).thenReturn(List.of(available, borrowed));
+        when(borrowingRecordMapper.toBorrowingRecordDTo(any())).thenReturn(new BorrowingRecordDTO());
+
+        List<LoanResultDTO> results = borrowingRecordService.borrowBooks(patronId, List.of(3L, 1L, 2L, 1L));
+
+        assertThat(results).extracting(LoanResultDTO::getBookId).containsExactly(3L, 1L, 2L);
+        assertThat(results).extracting(LoanResultDTO::getStatus).containsExactly(
+                LoanResultDTO.Status.NOT_FOUND, LoanResultDTO.Status.BORROWED, LoanResultDTO.Status.NOT_AVAILABLE);
+        assertThat(results.get(1).getRecord()).isNotNull();
+        assertThat(results.get(2).getRecord()).isNull();
+        assertThat(available.isBorrowed()).isTrue();
+        verify(bookRepository, times(1)).findAllByIdForUpdate(argThat(ids -> ids.size() == 3));
+        verify(bookRepository, never()).markBorrowed(anyLong());
+        verify(borrowingRecordRepository, times(1)).saveAll(argThat((List<BorrowingRecord> records) -> records.size() == 1
+                && records.get(0).getBook() == available && records.get(0).getPatron() == patron && records.get(0).isActive()
+                && records.get(0).getDueDate().equals(LocalDate.now().plusDays(14))));
+        verify(eventPublisher, times(1)).publishEvent(argThat((BookChangedEvent event) ->
+                event.getType() == BookChangedEvent.Type.BORROWED && event.getBookIds().equals(List.of(1L))));
+        verify(inventoryCounters).record(InventoryCounters.Counter.OPEN_LOANS, 1);
+    }
+
+    @Test
+    void borrowBooks_NothingClaimed_PublishesNothing() {
+        long patronId = 1;
+        Book borrowed = Book.builder().id(2L).title("title2").author("author2").isbn("2").publicationYear(2024).isBorrowed(true).build();
+        when(patronRepository.findById(patronId)).thenReturn(Optional.of(new Patron()));
+        when(bookRepository.findAllByIdForUpdate(any())).thenReturn(List.of(borrowed));
+
+        List<LoanResultDTO> results = borrowingRecordService.borrowBooks(patronId, List.of(2L));
+
+        assertThat(results).extracting(LoanResultDTO::getStatus).containsExactly(LoanResultDTO.Status.NOT_AVAILABLE);
+        verify(eventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    void borrowBooks_StockedAsCopies_ReportedNotLent() {
+        long patronId = 1;
+        Book single = Book.builder().id(1L).title("title1").author("author1").isbn("1").publicationYear(2024).isBorrowed(false).build();
+        Book stocked = Book.builder().id(2L).title("title2").author("author2").isbn("2").publicationYear(2024).isBorrowed(false).build();
+        when(patronRepository.findById(patronId)).thenReturn(Optional.of(new Patron()));
+        when(bookRepository.findAllByIdForUpdate(any())).thenReturn(List.of(single, stocked));
+        when(bookCopyRepository.findBookIdsWithCopies(List.of(1L, 2L))).thenReturn(List.of(2L));
+        when(borrowingRecordMapper.toBorrowingRecordDTo(any())).thenReturn(new BorrowingRecordDTO());
+
+        List<LoanResultDTO> results = borrowingRecordService.borrowBooks(patronId, List.of(1L, 2L));
+
+        assertThat(results).extracting(LoanResultDTO::getStatus).containsExactly(
+                LoanResultDTO.Status.BORROWED, LoanResultDTO.Status.NOT_AVAILABLE);
+        assertThat(results.get(1).getMessage()).contains("borrow a copy");
+        assertThat(stocked.isBorrowed()).isFalse();
+        verify(patronLoanCounts).reserve(patronId, 1);
+        verify(eventPublisher, times(1)).publishEvent(argThat((BookChangedEvent event) -> event.getBookIds().equals(List.of(1L))));
+    }
+
+    @Test
+    void borrowBook_LoanLimitReached() {
+        long patronId = 1;
+        when(patronRepository.findById(patronId)).thenReturn(Optional.of(new Patron()));
+        when(patronLoanCounts.reserve(patronId, 1)).thenReturn(0);
+
+        assertThatThrownBy(() -> borrowingRecordService.borrowBook(1L, patronId))
+                .isInstanceOf(LoanLimitExceededException.class)
+                .hasMessageContaining("maximum of 10 books");
+        verify(bookRepository, never()).markBorrowed(anyLong());
+        verify(borrowingRecordRepository, never()).save(any());
+    }
+
+    @Test
+    void borrowBooks_BeyondLoanLimit_ClaimsInRequestOrder() {
+        long patronId = 1;
+        Patron patron = Patron.builder().id(patronId).name("name1").contactInformation("123456789").build();
+        List<Book> free = List.of(
+                Book.builder().id(1L).title("title1").author("author1").isbn("1").publicationYear(2024).isBorrowed(false).build(),
+                Book.builder().id(2L).title("title2").author("author2").isbn("2").publicationYear(2024).isBorrowed(false).build(),
+                Book.builder().id(3L).title("title3").author("author3").isbn("3").publicationYear(2024).isBorrowed(false).build());
+
+        when(patronRepository.findById(patronId)).thenReturn(Optional.of(patron));
+        when(bookRepository.findAllByIdForUpdate(any())).thenReturn(free);
+        when(patronLoanCounts.reserve(patronId, 3)).thenReturn(2);
+
+        List<LoanResultDTO> results = borrowingRecordService.borrowBooks(patronId, List.of(3L, 1L, 2L));
+
+        assertThat(results).extracting(LoanResultDTO::getStatus).containsExactly(
+                LoanResultDTO.Status.BORROWED, LoanResultDTO.Status.BORROWED, LoanResultDTO.Status.LOAN_LIMIT_REACHED);
+        assertThat(free.get(1).isBorrowed()).isFalse();
+        verify(borrowingRecordRepository, times(1)).saveAll(argThat((List<BorrowingRecord> records) -> records.size() == 2));
+        verify(inventoryCounters).record(InventoryCounters.Counter.OPEN_LOANS, 2);
+    }
+
+    @Test
+    void borrowCopy_StaleCopy_ClaimsTheNextOne() {
+        long bookId = 1;
+        long patronId = 1;
+        Book book = Book.builder().id(bookId).title("title1").author("author1").isbn("12345").publicationYear(2024).build();
+        Patron patron = Patron.builder().id(patronId).name("name1").contactInformation("123456789").build();
+
+        when(patronRepository.findById(patronId)).thenReturn(Optional.of(patron));
+        when(borrowingRecordRepository.findActiveByBookIdAndPatronId(bookId, patronId)).thenReturn(Optional.empty());
+        when(copyAllocator.poll(bookId)).thenReturn(7L, 8L);
+        when(bookCopyRepository.markBorrowed(7L)).thenReturn(0);
+        when(bookCopyRepository.markBorrowed(8L)).thenReturn(1);
+        when(bookRepository.getReferenceById(bookId)).thenReturn(book);
+        when(bookCopyRepository.getReferenceById(8L)).thenReturn(BookCopy.builder().id(8L).book(book).borrowed(true).build());
+        when(borrowingRecordRepository.saveAndFlush(any(BorrowingRecord.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(borrowingRecordMapper.toBorrowingRecordDTo(any())).thenReturn(new BorrowingRecordDTO());
+
+        borrowingRecordService.borrowCopy(bookId, patronId);
+
+        verify(borrowingRecordRepository, times(1)).saveAndFlush(argThat(record -> record.getCopy().getId() == 8L
+                && record.getBook() == book && record.isActive() && record.getDueDate().equals(LocalDate.now().plusDays(14))));
+        verify(bookRepository, never()).markBorrowed(anyLong());
+        verify(eventPublisher).publishEvent(argThat((BookChangedEvent event) -> event.getType() == BookChangedEvent.Type.BORROWED
+                && event.getBookIds().equals(List.of(bookId)) && event.getCopyIds().equals(List.of(8L)) && event.getPatronId() == patronId));
+        verify(inventoryCounters).record(InventoryCounters.Counter.OPEN_LOANS, 1);
+        verify(inventoryCounters, never()).record(eq(InventoryCounters.Counter.BORROWED_BOOKS), anyLong());
+        verify(bookCopyService).copyLent(bookId);
+    }
+
+    @Test
+    void borrowCopy_NoFreeCopy() {
+        when(patronRepository.findById(1L)).thenReturn(Optional.of(new Patron()));
+        when(borrowingRecordRepository.findActiveByBookIdAndPatronId(1L, 1L)).thenReturn(Optional.empty());
+        when(copyAllocator.poll(1L)).thenReturn(CopyAllocator.NONE);
+        when(bookRepository.existsById(1L)).thenReturn(true);
+
+        assertThatThrownBy(() -> borrowingRecordService.borrowCopy(1L, 1L))
+                .isInstanceOf(BookNotAvailableException.class)
+                .hasMessageContaining("no copy");
+        verify(borrowingRecordRepository, never()).saveAndFlush(any());
+    }
+
+    @Test
+    void borrowCopy_AlreadyHeldByPatron() {
+        Book book = Book.builder().id(1L).title("title1").author("author1").isbn("12345").publicationYear(2024).build();
+        when(patronRepository.findById(1L)).thenReturn(Optional.of(new Patron()));
+        when(borrowingRecordRepository.findActiveByBookIdAndPatronId(1L, 1L))
+                .thenReturn(Optional.of(new BorrowingRecord(book, new Patron(), LocalDate.now(), null)));
+
+        assertThatThrownBy(() -> borrowingRecordService.borrowCopy(1L, 1L)).isInstanceOf(BookNotAvailableException.class);
+        verify(copyAllocator, never()).poll(anyLong());
+        verify(patronLoanCounts, never()).reserve(anyLong(), anyInt());
+    }
+
+    @Test
+    void borrowCopy_OpenLoanAddedMeanwhile_NotAvailable() {
+        Book book = Book.builder().id(1L).title("title1").author("author1").isbn("12345").publicationYear(2024).build();
+        when(patronRepository.findById(1L)).thenReturn(Optional.of(new Patron()));
+        when(borrowingRecordRepository.findActiveByBookIdAndPatronId(1L, 1L)).thenReturn(Optional.empty());
+        when(copyAllocator.poll(1L)).thenReturn(7L);
+        when(bookCopyRepository.markBorrowed(7L)).thenReturn(1);
+        when(bookRepository.getReferenceById(1L)).thenReturn(book);
+        when(bookCopyRepository.getReferenceById(7L)).thenReturn(BookCopy.builder().id(7L).book(book).borrowed(true).build());
+        when(borrowingRecordRepository.saveAndFlush(any(BorrowingRecord.class)))
+                .thenThrow(new DataIntegrityViolationException("uk_borrowing_record_open_loan"));
+
+        assertThatThrownBy(() -> borrowingRecordService.borrowCopy(1L, 1L))
+                .isInstanceOf(BookNotAvailableException.class)
+                .hasMessageContaining("already holds");
+        verify(inventoryCounters, never()).record(any(), anyLong());
+    }
+
+    @Test
+    void returnBook_CopyLoan_PutsTheCopyBack() {
+        Book book = Book.builder().id(1L).title("title1").author("author1").isbn("12345").publicationYear(2024).isBorrowed(false).build();
+        BorrowingRecord borrowingRecord = new BorrowingRecord(book, new Patron(), LocalDate.now(), null);
+        borrowingRecord.setCopy(BookCopy.builder().id(8L).book(book).borrowed(true).build());
+        when(borrowingRecordRepository.findActiveByBookIdAndPatronId(1L, 1L)).thenReturn(Optional.of(borrowingRecord));
+        when(bookRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(book));
+        when(borrowingRecordRepository.closeActive(any(), any())).thenReturn(1);
+        when(borrowingRecordMapper.toBorrowingRecordDTo(borrowingRecord)).thenReturn(new BorrowingRecordDTO());
+
+        borrowingRecordService.returnBook(1L, 1L);
+
+        assertThat(book.isBorrowed()).isFalse();
+        verify(bookCopyRepository).markReturned(List.of(8L));
+        verify(copyAllocator).offerAfterCommit(1L, List.of(8L));
+        verify(eventPublisher).publishEvent(argThat((BookChangedEvent event) -> event.getType() == BookChangedEvent.Type.RETURNED
+                && event.isCopyLoan() && event.getCopyIds().equals(List.of(8L))));
+        verify(inventoryCounters).record(InventoryCounters.Counter.OPEN_LOANS, -1);
+        verify(bookCopyService).copiesShelved(book);
+        verify(patronLoanCounts).release(1L, 1);
+    }
+
+    @Test
+    void borrowBooks_PatronNotFound() {
+        when(patronRepository.findById(1L)).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> borrowingRecordService.borrowBooks(1L, List.of(1L))).isInstanceOf(NotFoundException.class);
+        verify(bookRepository, never()).findAllByIdForUpdate(any());
+    }
+
+    @Test
+    void borrowBooks_InvalidBatch() {
+        libraryProperties.getBorrowings().setMaxBatchSize(2);
+        when(patronRepository.findById(1L)).thenReturn(Optional.of(new Patron()));
+
+        assertThatThrownBy(() -> borrowingRecordService.borrowBooks(1L, List.of())).isInstanceOf(InvalidRequestException.class);
+        assertThatThrownBy(() -> borrowingRecordService.borrowBooks(1L, List.of(1L, 2L, 3L))).isInstanceOf(InvalidRequestException.class);
+        // Repeated ids count once against the limit
+        assertThat(borrowingRecordService.borrowBooks(1L, List.of(1L, 1L, 1L, 2L))).hasSize(2);
+        verify(patronRepository, times(1)).findById(1L);
+    }
+
+    @Test
+    void returnBooks_ReportsEachBook() {
+        long patronId = 1;
+        Patron patron = Patron.builder().id(patronId).name("name1").contactInformation("123456789").build();
+        Book held = Book.builder().id(1L).title("title1").author("author1").isbn("1").publicationYear(2024).isBorrowed(true).build();
+        Book notHeld = Book.builder().id(2L).title("title2").author("author2").isbn("2").publicationYear(2024).isBorrowed(true).build();
+        BorrowingRecord record = new BorrowingRecord(held, patron, LocalDate.now().minusDays(3), null);
+
+        record.setId(7L);
+        when(patronRepository.existsById(patronId)).thenReturn(true);
+        when(bookRepository.findAllByIdForUpdate(any())).thenReturn(List.of(held, notHeld));
+        when(borrowingRecordRepository.findActiveByPatronIdAndBookIdIn(eq(patronId), any())).thenReturn(List.of(record));
+        when(borrowingRecordRepository.closeActive(List.of(7L), LocalDate.now())).thenReturn(1);
+        when(borrowingRecordMapper.toBorrowingRecordDTo(record)).thenReturn(BorrowingRecordDTO.builder().id(7L).borrowingDate(LocalDate.now()).active(true).build());
+
+        List<LoanResultDTO> results = borrowingRecordService.returnBooks(patronId, List.of(1L, 2L, 3L));
+
+        assertThat(results).extracting(LoanResultDTO::getStatus).containsExactly(
+                LoanResultDTO.Status.RETURNED, LoanResultDTO.Status.NO_ACTIVE_LOAN, LoanResultDTO.Status.NOT_FOUND);
+        assertThat(results.get(0).getRecord().isActive()).isFalse();
+        assertThat(results.get(0).getRecord().getReturnDate()).isEqualTo(LocalDate.now());
+        assertThat(held.isBorrowed()).isFalse();
+        verify(eventPublisher, times(1)).publishEvent(argThat((BookChangedEvent event) ->
+                event.getType() == BookChangedEvent.Type.RETURNED && event.getBookIds().equals(List.of(1L))));
+        // The books are locked before their loans are read
+        InOrder inOrder = inOrder(bookRepository, borrowingRecordRepository);
+        inOrder.verify(bookRepository).findAllByIdForUpdate(argThat(ids -> ids.size() == 3));
+        inOrder.verify(borrowingRecordRepository).findActiveByPatronIdAndBookIdIn(eq(patronId), eq(Set.of(1L, 2L)));
+        verify(bookRepository, never()).findAllById(any());
+        verify(holdService).handOver(held, null);
+        verify(patronLoanCounts).release(patronId, 1);
+    }
+
+    @Test
+    void returnBooks_AllReturned_SkipsTheExistenceQuery() {
+        long patronId = 1;
+        Book held = Book.builder().id(1L).title("title1").author("author1").isbn("1").publicationYear(2024).isBorrowed(true).build();
+        BorrowingRecord record = new BorrowingRecord(held, new Patron(), LocalDate.now(), null);
+        when(patronRepository.existsById(patronId)).thenReturn(true);
+        when(bookRepository.findAllByIdForUpdate(any())).thenReturn(List.of(held));
+        when(borrowingRecordRepository.findActiveByPatronIdAndBookIdIn(eq(patronId), any())).thenReturn(List.of(record));
+        when(borrowingRecordRepository.closeActive(any(), any())).thenReturn(1);
+        when(borrowingRecordMapper.toBorrowingRecordDTo(record)).thenReturn(new BorrowingRecordDTO());
+
+        List<LoanResultDTO> results = borrowingRecordService.returnBooks(patronId, List.of(1L));
+
+        assertThat(results).extracting(LoanResultDTO::getStatus).containsExactly(LoanResultDTO.Status.RETURNED);
+        verify(bookRepository, never()).findAllById(any());
+    }
+
+    @Test
+    void returnBooks_PatronNotFound() {
+        when(patronRepository.existsById(1L)).thenReturn(false);
+
+        assertThatThrownBy(() -> borrowingRecordService.returnBooks(1L, List.of(1L))).isInstanceOf(NotFoundException.class);
+        verify(borrowingRecordRepository, never()).findActiveByPatronIdAndBookIdIn(anyLong(), any());
+    }
 }
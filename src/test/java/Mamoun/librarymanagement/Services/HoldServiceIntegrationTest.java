@@ -0,0 +1,227 @@
+package Mamoun.librarymanagement.Services;
+
+import Mamoun.librarymanagement.DTO.BorrowingRecordDTO;
+import Mamoun.librarymanagement.DTO.HoldDTO;
+import Mamoun.librarymanagement.DTO.LoanResultDTO;
+import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Entities.Hold;
+import Mamoun.librarymanagement.Entities.Patron;
+import Mamoun.librarymanagement.Exceptions.BookNotAvailableException;
+import Mamoun.librarymanagement.Exceptions.HoldConflictException;
+import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
+import Mamoun.librarymanagement.Repositories.PatronRepository;
+import Mamoun.librarymanagement.Stats.InventoryCounters;
+import Mamoun.librarymanagement.Stats.PatronLoanCounts;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class HoldServiceIntegrationTest {
+
+    private static final int ROUNDS = 25;
+
+    @Autowired
+    private HoldService holdService;
+
+    @Autowired
+    private BorrowingRecordService borrowingRecordService;
+
+    @Autowired
+    private BookCopyService bookCopyService;
+
+    @Autowired
+    private BookRepository bookRepository;
+
+    @Autowired
+    private PatronRepository patronRepository;
+
+    @Autowired
+    private BorrowingRecordRepository borrowingRecordRepository;
+
+    @Autowired
+    private PatronLoanCounts patronLoanCounts;
+
+    @Autowired
+    private InventoryCounters inventoryCounters;
+
+    @Test
+    void returnBook_HandsTheBookToTheOldestHold() throws Exception {
+        Book book = book("Held title");
+        Patron reader = patron("Reader");
+        Patron first = patron("First in line");
+        Patron second = patron("Second in line");
+        borrowingRecordService.borrowBook(book.getId(), reader.getId());
+
+        HoldDTO firstHold = holdService.placeHold(book.getId(), first.getId());
+        HoldDTO secondHold = holdService.placeHold(book.getId(), second.getId());
+        assertThat(secondHold.getPosition()).isEqualTo(2);
+        CompletableFuture<HoldDTO> firstReady = holdService.awaitHold(firstHold.getId());
+        assertThat(firstReady).isNotDone();
+
+        borrowingRecordService.returnBook(book.getId(), reader.getId());
+
+        HoldDTO fulfilled = firstReady.get(5, TimeUnit.SECONDS);
+        assertThat(fulfilled.getStatus()).isEqualTo(Hold.Status.FULFILLED);
+        assertThat(borrowingRecordRepository.findActiveByBookIdAndPatronId(book.getId(), first.getId()))
+                .get().extracting(record -> record.getId()).isEqualTo(fulfilled.getLoanId());
+        assertThat(bookRepository.findById(book.getId())).get().extracting(Book::isBorrowed).isEqualTo(true);
+        assertThat(holdService.getHold(secondHold.getId()).getPosition()).isEqualTo(1);
+
+        borrowingRecordService.returnBook(book.getId(), first.getId());
+        assertThat(holdService.getHold(secondHold.getId()).getStatus()).isEqualTo(Hold.Status.FULFILLED);
+        borrowingRecordService.returnBook(book.getId(), second.getId());
+        assertThat(bookRepository.findById(book.getId())).get().extracting(Book::isBorrowed).isEqualTo(false);
+    }
+
+    @Test
+    void returnCopy_TheSameCopyGoesToTheHolder() {
+        Book book = book("Held copies");
+        bookCopyService.addCopies(book.getId(), 1);
+        Patron reader = patron("Copy reader");
+        Patron waiting = patron("Copy waiter");
+        BorrowingRecordDTO loan = borrowingRecordService.borrowCopy(book.getId(), reader.getId());
+        HoldDTO hold = holdService.placeHold(book.getId(), waiting.getId());
+
+        borrowingRecordService.returnBook(book.getId(), reader.getId());
+
+        assertThat(holdService.getHold(hold.getId()).getStatus()).isEqualTo(Hold.Status.FULFILLED);
+        assertThat(borrowingRecordRepository.findActiveByBookIdAndPatronId(book.getId(), waiting.getId()))
+                .get().extracting(record -> record.getCopy().getId()).isEqualTo(loan.getCopyId());
+        assertThat(bookCopyService.getCopies(book.getId())).allMatch(copy -> copy.isBorrowed());
+    }
+
+    @Test
+    void placeHold_RacingTheReturn_IsEitherFulfilledOrRefused() throws Exception {
+        Book book = book("Raced title");
+        Patron reader = patron("Racing reader");
+        Patron waiting = patron("Racing waiter");
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            for (int round = 0; round < ROUNDS; round++) {
+                borrowingRecordService.borrowBook(book.getId(), reader.getId());
+                CountDownLatch startGate = new CountDownLatch(1);
+                Future<HoldDTO> hold = executor.submit(() -> {
+                    startGate.await();
+                    try {
+                        return holdService.placeHold(book.getId(), waiting.getId());
+                    } catch (HoldConflictException e) {
+                        return null;
+                    }
+                });
+                Future<?> returned = executor.submit(() -> {
+                    startGate.await();
+                    return borrowingRecordService.returnBook(book.getId(), reader.getId());
+                });
+                startGate.countDown();
+                returned.get();
+
+                boolean onShelf = !bookRepository.findById(book.getId()).orElseThrow().isBorrowed();
+                if (hold.get() == null) {
+                    assertThat(onShelf).as("book of round %d is on the shelf", round).isTrue();
+                    continue;
+                }
+                // A hold that was placed is never left waiting for a book on the shelf
+                assertThat(holdService.getHold(hold.get().getId()).getStatus()).isEqualTo(Hold.Status.FULFILLED);
+                assertThat(onShelf).isFalse();
+                borrowingRecordService.returnBook(book.getId(), waiting.getId());
+            }
+        }
+    }
+
+    @Test
+    void returnBook_SubmittedTwice_HandsTheBookOverOnce() throws Exception {
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            for (int round = 0; round < ROUNDS; round++) {
+                Book book = book("Returned twice");
+                Patron reader = patron("Double submitter");
+                Patron first = patron("First waiter");
+                Patron second = patron("Second waiter");
+                borrowingRecordService.borrowBook(book.getId(), reader.getId());
+                HoldDTO firstHold = holdService.placeHold(book.getId(), first.getId());
+                HoldDTO secondHold = holdService.placeHold(book.getId(), second.getId());
+                long openLoans = inventoryCounters.get(InventoryCounters.Counter.OPEN_LOANS);
+
+                CountDownLatch startGate = new CountDownLatch(1);
+                Callable<Boolean> returnBook = () -> {
+                    startGate.await();
+                    try {
+                        borrowingRecordService.returnBook(book.getId(), reader.getId());
+                        return true;
+                    } catch (NotFoundException | BookNotAvailableException e) {
+                        return false;
+                    }
+                };
+                Future<Boolean> one = executor.submit(returnBook);
+                Future<Boolean> other = executor.submit(returnBook);
+                startGate.countDown();
+
+                assertThat(List.of(one.get(), other.get())).as("returns of round %d", round).containsExactlyInAnyOrder(true, false);
+                assertThat(holdService.getHold(firstHold.getId()).getStatus()).isEqualTo(Hold.Status.FULFILLED);
+                assertThat(holdService.getHold(secondHold.getId()).getStatus()).isEqualTo(Hold.Status.WAITING);
+                assertThat(borrowingRecordRepository.findActiveByBookIdAndPatronId(book.getId(), second.getId())).isEmpty();
+                assertThat(bookRepository.findById(book.getId())).get().extracting(Book::isBorrowed).isEqualTo(true);
+                assertThat(patronLoanCounts.openLoans(reader.getId())).isZero();
+                assertThat(patronLoanCounts.openLoans(first.getId())).isEqualTo(1);
+                assertThat(inventoryCounters.get(InventoryCounters.Counter.OPEN_LOANS)).isEqualTo(openLoans);
+            }
+        }
+    }
+
+    @Test
+    void returnBooks_OverlappingBatches_CloseEachLoanOnce() throws Exception {
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            for (int round = 0; round < ROUNDS; round++) {
+                Book held = book("Batch held");
+                Book plain = book("Batch plain");
+                Patron reader = patron("Batch submitter");
+                Patron waiting = patron("Batch waiter");
+                borrowingRecordService.borrowBooks(reader.getId(), List.of(held.getId(), plain.getId()));
+                HoldDTO hold = holdService.placeHold(held.getId(), waiting.getId());
+                long borrowedBooks = inventoryCounters.get(InventoryCounters.Counter.BORROWED_BOOKS);
+
+                CountDownLatch startGate = new CountDownLatch(1);
+                Callable<List<LoanResultDTO>> returnBooks = () -> {
+                    startGate.await();
+                    return borrowingRecordService.returnBooks(reader.getId(), List.of(held.getId(), plain.getId()));
+                };
+                Future<List<LoanResultDTO>> one = executor.submit(returnBooks);
+                Future<List<LoanResultDTO>> other = executor.submit(returnBooks);
+                startGate.countDown();
+
+                List<LoanResultDTO> results = new ArrayList<>(one.get());
+                results.addAll(other.get());
+                assertThat(results).filteredOn(result -> result.getStatus() == LoanResultDTO.Status.RETURNED)
+                        .as("returned books of round %d", round)
+                        .extracting(LoanResultDTO::getBookId).containsExactlyInAnyOrder(held.getId(), plain.getId());
+                assertThat(holdService.getHold(hold.getId()).getStatus()).isEqualTo(Hold.Status.FULFILLED);
+                assertThat(bookRepository.findById(plain.getId())).get().extracting(Book::isBorrowed).isEqualTo(false);
+                assertThat(patronLoanCounts.openLoans(reader.getId())).isZero();
+                assertThat(patronLoanCounts.openLoans(waiting.getId())).isEqualTo(1);
+                assertThat(inventoryCounters.get(InventoryCounters.Counter.BORROWED_BOOKS)).isEqualTo(borrowedBooks - 1);
+            }
+        }
+    }
+
+    private Book book(String title) {
+        return bookRepository.save(Book.builder().title(title).author("Author")
+                .isbn("hold-" + System.nanoTime()).publicationYear(2024).isBorrowed(false).build());
+    }
+
+    private Patron patron(String name) {
+        return patronRepository.save(Patron.builder().name(name).contactInformation("555-0100").build());
+    }
+}
@@ -0,0 +1,304 @@
+package Mamoun.librarymanagement.Services;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.DTO.HoldDTO;
+import Mamoun.librarymanagement.Entities.Book;
+import Mamoun.librarymanagement.Entities.BookCopy;
+import Mamoun.librarymanagement.Entities.BorrowingRecord;
+import Mamoun.librarymanagement.Entities.Hold;
+import Mamoun.librarymanagement.Entities.Patron;
+import Mamoun.librarymanagement.Events.BookChangedEvent;
+import Mamoun.librarymanagement.Exceptions.HoldConflictException;
+import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Holds.HoldQueues;
+import Mamoun.librarymanagement.Repositories.BookCopyRepository;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
+import Mamoun.librarymanagement.Repositories.HoldRepository;
+import Mamoun.librarymanagement.Repositories.PatronRepository;
+import Mamoun.librarymanagement.Stats.InventoryCounters;
+import Mamoun.librarymanagement.Stats.PatronLoanCounts;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class HoldServiceTest {
+
+    @Mock
+    private HoldRepository holdRepository;
+
+    @Mock
+    private BookRepository bookRepository;
+
+    @Mock
+    private BookCopyRepository bookCopyRepository;
+
+    @Mock
+    private PatronRepository patronRepository;
+
+    @Mock
+    private BorrowingRecordRepository borrowingRecordRepository;
+
+    @Mock
+    private HoldQueues holdQueues;
+
+    @Mock
+    private PatronLoanCounts patronLoanCounts;
+
+    @Mock
+    private InventoryCounters inventoryCounters;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Spy
+    private LibraryProperties libraryProperties = new LibraryProperties();
+
+    @InjectMocks
+    private HoldService holdService;
+
+    private AutoCloseable mocks;
+    private Book book;
+    private Patron patron;
+
+    @BeforeEach
+    void setUp() {
+        mocks = MockitoAnnotations.openMocks(this);
+        book = Book.builder().id(1L).title("title1").author("author1").isbn("12345").publicationYear(2024).isBorrowed(true).build();
+        patron = Patron.builder().id(2L).name("name1").contactInformation("123456789").build();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        mocks.close();
+    }
+
+    @Test
+    void placeHold_BookOut_QueuesThePatron() {
+        when(patronRepository.findById(2L)).thenReturn(Optional.of(patron));
+        when(bookRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(book));
+        when(borrowingRecordRepository.findActiveByBookIdAndPatronId(1L, 2L)).thenReturn(Optional.empty());
+        when(holdRepository.save(any(Hold.class))).thenAnswer(invocation -> {
+            Hold hold = invocation.getArgument(0);
+            hold.setId(7L);
+            return hold;
+        });
+        when(holdQueues.position(1L, 7L)).thenReturn(3);
+
+        HoldDTO hold = holdService.placeHold(1L, 2L);
+
+        assertThat(hold.getStatus()).isEqualTo(Hold.Status.WAITING);
+        assertThat(hold.getPosition()).isEqualTo(3);
+        assertThat(hold.getLoanId()).isNull();
+        verify(holdQueues).add(1L, 7L, 2L);
+    }
+
+    @Test
+    void placeHold_BookOnTheShelf_IsRefused() {
+        book.setBorrowed(false);
+        when(patronRepository.findById(2L)).thenReturn(Optional.of(patron));
+        when(bookRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(book));
+
+        assertThatThrownBy(() -> holdService.placeHold(1L, 2L))
+                .isInstanceOf(HoldConflictException.class)
+                .hasMessageContaining("borrow it instead");
+        verify(holdRepository, never()).save(any());
+    }
+
+    @Test
+    void placeHold_CopyOnTheShelf_IsRefused() {
+        book.setBorrowed(false);
+        when(patronRepository.findById(2L)).thenReturn(Optional.of(patron));
+        when(bookRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(book));
+        when(bookCopyRepository.existsByBookId(1L)).thenReturn(true);
+        when(bookCopyRepository.existsFreeByBookId(1L)).thenReturn(true);
+
+        assertThatThrownBy(() -> holdService.placeHold(1L, 2L)).isInstanceOf(HoldConflictException.class);
+        verify(holdQueues, never()).add(anyLong(), anyLong(), anyLong());
+    }
+
+    @Test
+    void placeHold_AlreadyWaiting_IsRefused() {
+        when(patronRepository.findById(2L)).thenReturn(Optional.of(patron));
+        when(bookRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(book));
+        when(borrowingRecordRepository.findActiveByBookIdAndPatronId(1L, 2L)).thenReturn(Optional.empty());
+        when(holdRepository.existsByBookIdAndPatronIdAndStatus(1L, 2L, Hold.Status.WAITING)).thenReturn(true);
+
+        assertThatThrownBy(() -> holdService.placeHold(1L, 2L))
+                .isInstanceOf(HoldConflictException.class)
+                .hasMessageContaining("already waiting");
+    }
+
+    @Test
+    void placeHold_BookNotFound() {
+        when(patronRepository.findById(2L)).thenReturn(Optional.of(patron));
+        when(bookRepository.findByIdForUpdate(1L)).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> holdService.placeHold(1L, 2L)).isInstanceOf(NotFoundException.class);
+    }
+
+    @Test
+    void handOver_GivesTheBookToTheFirstPatronWithAFreeSlot() {
+        HoldQueues.Waiting atLimit = waiting(7L, 3L);
+        HoldQueues.Waiting next = waiting(8L, 2L);
+        when(holdQueues.waiting(1L)).thenReturn(List.of(atLimit, next));
+        when(patronLoanCounts.reserve(3L, 1)).thenReturn(0);
+        when(patronLoanCounts.reserve(2L, 1)).thenReturn(1);
+        when(holdRepository.changeStatus(8L, Hold.Status.WAITING, Hold.Status.FULFILLED)).thenReturn(1);
+        when(patronRepository.getReferenceById(2L)).thenReturn(patron);
+        book.setBorrowed(false);
+
+        BorrowingRecord loan = holdService.handOver(book, null);
+
+        assertThat(loan.getPatron()).isSameAs(patron);
+        assertThat(loan.isActive()).isTrue();
+        assertThat(loan.getDueDate()).isEqualTo(LocalDate.now().plusDays(14));
+        assertThat(book.isBorrowed()).isTrue();
+        verify(holdRepository, never()).changeStatus(eq(7L), any(), any());
+        verify(borrowingRecordRepository).save(loan);
+        verify(holdRepository).attachLoan(8L, loan);
+        verify(holdQueues).settleAfterCommit(eq(1L), eq(8L), argThat(outcome -> outcome.status() == Hold.Status.FULFILLED));
+        verify(eventPublisher).publishEvent(argThat((BookChangedEvent event) ->
+                event.getType() == BookChangedEvent.Type.BORROWED && event.getPatronId() == 2L));
+        verify(inventoryCounters).record(InventoryCounters.Counter.BORROWED_BOOKS, 1);
+        verify(inventoryCounters).record(InventoryCounters.Counter.OPEN_LOANS, 1);
+    }
+
+    @Test
+    void handOver_StaleHold_IsDroppedAndItsSlotFreed() {
+        HoldQueues.Waiting stale = waiting(7L, 2L);
+        when(holdQueues.waiting(1L)).thenReturn(List.of(stale));
+        when(patronLoanCounts.reserve(2L, 1)).thenReturn(1);
+        when(holdRepository.changeStatus(7L, Hold.Status.WAITING, Hold.Status.FULFILLED)).thenReturn(0);
+
+        assertThat(holdService.handOver(book, null)).isNull();
+
+        verify(patronLoanCounts).release(2L, 1);
+        verify(holdQueues).drop(1L, stale);
+        verify(borrowingRecordRepository, never()).save(any());
+    }
+
+    @Test
+    void handOver_Copy_LendsTheSameCopyAndLeavesTheBookRowAlone() {
+        book.setBorrowed(false);
+        BookCopy copy = BookCopy.builder().id(5L).book(book).borrowed(true).build();
+        HoldQueues.Waiting next = waiting(7L, 2L);
+        when(holdQueues.waiting(1L)).thenReturn(List.of(next));
+        when(patronLoanCounts.reserve(2L, 1)).thenReturn(1);
+        when(holdRepository.changeStatus(7L, Hold.Status.WAITING, Hold.Status.FULFILLED)).thenReturn(1);
+
+        BorrowingRecord loan = holdService.handOver(book, copy);
+
+        assertThat(loan.getCopy()).isSameAs(copy);
+        assertThat(book.isBorrowed()).isFalse();
+        verify(eventPublisher).publishEvent(argThat((BookChangedEvent event) ->
+                event.getType() == BookChangedEvent.Type.BORROWED && event.getCopyIds().equals(List.of(5L)) && event.getPatronId() == 2L));
+        verify(inventoryCounters, never()).record(eq(InventoryCounters.Counter.BORROWED_BOOKS), anyLong());
+    }
+
+    @Test
+    void handOver_HolderAlreadyHasTheTitle_IsPassedOver() {
+        book.setBorrowed(false);
+        BookCopy copy = BookCopy.builder().id(5L).book(book).borrowed(true).build();
+        HoldQueues.Waiting holding = waiting(7L, 3L);
+        HoldQueues.Waiting next = waiting(8L, 2L);
+        when(holdQueues.waiting(1L)).thenReturn(List.of(holding, next));
+        when(borrowingRecordRepository.findActiveByBookIdAndPatronId(1L, 3L))
+                .thenReturn(Optional.of(new BorrowingRecord(book, new Patron(), LocalDate.now(), null)));
+        when(patronLoanCounts.reserve(2L, 1)).thenReturn(1);
+        when(holdRepository.changeStatus(8L, Hold.Status.WAITING, Hold.Status.FULFILLED)).thenReturn(1);
+        when(patronRepository.getReferenceById(2L)).thenReturn(patron);
+
+        BorrowingRecord loan = holdService.handOver(book, copy);
+
+        assertThat(loan.getPatron()).isSameAs(patron);
+        verify(patronLoanCounts, never()).reserve(eq(3L), anyInt());
+        verify(holdRepository, never()).changeStatus(eq(7L), any(), any());
+    }
+
+    @Test
+    void handOver_NobodyWaiting() {
+        when(holdQueues.waiting(1L)).thenReturn(List.of());
+
+        assertThat(holdService.handOver(book, null)).isNull();
+        verifyNoInteractions(borrowingRecordRepository, patronLoanCounts);
+    }
+
+    @Test
+    void cancelHold_NoLongerWaiting() {
+        when(holdRepository.findById(7L)).thenReturn(Optional.of(hold(Hold.Status.FULFILLED)));
+        when(holdRepository.changeStatus(7L, Hold.Status.WAITING, Hold.Status.CANCELLED)).thenReturn(0);
+
+        assertThatThrownBy(() -> holdService.cancelHold(7L)).isInstanceOf(HoldConflictException.class);
+        verify(holdQueues, never()).settleAfterCommit(anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void cancelHold_Waiting() {
+        when(holdRepository.findById(7L)).thenReturn(Optional.of(hold(Hold.Status.WAITING)));
+        when(holdRepository.changeStatus(7L, Hold.Status.WAITING, Hold.Status.CANCELLED)).thenReturn(1);
+
+        HoldDTO cancelled = holdService.cancelHold(7L);
+
+        assertThat(cancelled.getStatus()).isEqualTo(Hold.Status.CANCELLED);
+        assertThat(cancelled.getPosition()).isNull();
+        verify(holdQueues).settleAfterCommit(1L, 7L, new HoldQueues.Outcome(Hold.Status.CANCELLED, null));
+    }
+
+    @Test
+    void awaitHold_CompletesWhenTheHoldIsFulfilled() {
+        CompletableFuture<HoldQueues.Outcome> settled = new CompletableFuture<>();
+        when(holdQueues.settled(7L)).thenReturn(settled);
+        when(holdRepository.findById(7L)).thenReturn(Optional.of(hold(Hold.Status.WAITING)));
+        when(holdQueues.position(1L, 7L)).thenReturn(1);
+
+        CompletableFuture<HoldDTO> hold = holdService.awaitHold(7L);
+        assertThat(hold).isNotDone();
+
+        settled.complete(new HoldQueues.Outcome(Hold.Status.FULFILLED, 42L));
+
+        assertThat(hold).isCompleted();
+        assertThat(hold.join().getStatus()).isEqualTo(Hold.Status.FULFILLED);
+        assertThat(hold.join().getLoanId()).isEqualTo(42L);
+        assertThat(hold.join().getPosition()).isNull();
+    }
+
+    @Test
+    void awaitHold_AlreadySettled_CompletesAtOnce() {
+        when(holdQueues.settled(7L)).thenReturn(CompletableFuture.completedFuture(null));
+        when(holdRepository.findById(7L)).thenReturn(Optional.of(hold(Hold.Status.CANCELLED)));
+
+        assertThat(holdService.awaitHold(7L)).isCompleted();
+    }
+
+    private Hold hold(Hold.Status status) {
+        return Hold.builder().id(7L).book(book).patron(patron).placedAt(LocalDateTime.now()).status(status).build();
+    }
+
+    private static HoldQueues.Waiting waiting(long holdId, long patronId) {
+        HoldQueues.Waiting waiting = mock(HoldQueues.Waiting.class);
+        when(waiting.holdId()).thenReturn(holdId);
+        when(waiting.patronId()).thenReturn(patronId);
+        return waiting;
+    }
+}
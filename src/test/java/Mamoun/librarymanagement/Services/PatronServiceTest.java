@@ -1,19 +1,28 @@
 package Mamoun.librarymanagement.Services;
 
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.DTO.BorrowingHistoryDTO;
+import Mamoun.librarymanagement.DTO.KeysetPageDTO;
 import Mamoun.librarymanagement.DTO.PatronDTO;
 import Mamoun.librarymanagement.Entities.Patron;
 import Mamoun.librarymanagement.Exceptions.DeleteException;
+import Mamoun.librarymanagement.Exceptions.InvalidRequestException;
 import Mamoun.librarymanagement.Exceptions.NotFoundException;
+import Mamoun.librarymanagement.Exceptions.PreconditionFailedException;
 import Mamoun.librarymanagement.Mappers.PatronMapper;
 import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
 import Mamoun.librarymanagement.Repositories.PatronRepository;
 import Mamoun.librarymanagement.Services.PatronService;
+import Mamoun.librarymanagement.Stats.InventoryCounters;
 import jakarta.transaction.Transactional;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.data.domain.Limit;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -34,6 +43,12 @@ class PatronServiceTest {
     @Mock
     private PatronMapper patronMapper;
 
+    @Mock
+    private InventoryCounters inventoryCounters;
+
+    @Spy
+    private LibraryProperties libraryProperties = new LibraryProperties();
+
     @InjectMocks
     private PatronService patronService;
 
@@ -118,18 +133,27 @@ class PatronServiceTest {
     void updatePatron_WithValidIdAndPatronDTO_ReturnUpdatedPatronDTO() {
         // Arrange
         Long id = 1L;
-        when(patronRepository.existsById(id)).thenReturn(true);
+        when(patronRepository.findVersionById(id)).thenReturn(Optional.of(2L));
         when(patronMapper.toPatron(updatedPatronDTO)).thenReturn(updatedPatron);
-        when(patronRepository.save(updatedPatron)).thenReturn(updatedPatron);
+        when(patronRepository.saveAndFlush(updatedPatron)).thenReturn(updatedPatron);
         when(patronMapper.toPatronDTO(updatedPatron)).thenReturn(updatedPatronDTO);
 
         // Act
-        PatronDTO result = patronService.updatePatron(id, updatedPatronDTO);
+        PatronDTO result = patronService.updatePatron(id, updatedPatronDTO, null);
 
         // Assert
         assertThat(result).isNotNull();
         assertThat(result).isEqualTo(updatedPatronDTO);
-        verify(patronRepository, times(1)).save(updatedPatron);
+        verify(patronRepository, times(1)).saveAndFlush(argThat(saved -> saved == updatedPatron && saved.getVersion() == 2L));
+    }
+
+    @Test
+    void updatePatron_ExpectedVersionStale_ThrowPreconditionFailed() {
+        when(patronRepository.findVersionById(1L)).thenReturn(Optional.of(2L));
+
+        assertThatThrownBy(() -> patronService.updatePatron(1L, updatedPatronDTO, 1L))
+                .isInstanceOf(PreconditionFailedException.class);
+        verify(patronRepository, never()).saveAndFlush(any());
     }
 
     @Transactional
@@ -137,10 +161,10 @@ class PatronServiceTest {
     void updatePatron_WithInvalidId_ThrowNotFoundException() {
         // Arrange
         Long id = 1L;
-        when(patronRepository.existsById(id)).thenReturn(false);
+        when(patronRepository.findVersionById(id)).thenReturn(Optional.empty());
 
         // Act & Assert
-        assertThatThrownBy(() -> patronService.updatePatron(id, updatedPatronDTO))
+        assertThatThrownBy(() -> patronService.updatePatron(id, updatedPatronDTO, null))
                 .isInstanceOf(NotFoundException.class);
     }
 
@@ -152,9 +176,11 @@ class PatronServiceTest {
 
         // Act
         when(borrowingRecordRepository.existsByBookId(1L)).thenReturn(false);
+        when(patronRepository.existsById(id)).thenReturn(true);
         patronService.deletePatron(id);
         // Assert
         verify(patronRepository, times(1)).deleteById(id);
+        verify(inventoryCounters).record(InventoryCounters.Counter.PATRONS, -1);
     }
     @Transactional
     @Test
@@ -167,4 +193,41 @@ class PatronServiceTest {
                 .isInstanceOf(DeleteException.class);
     }
 
+
+    @Test
+    void getBorrowings_WhenMoreLoansExist_ReturnPageWithNextCursor() {
+        when(patronRepository.existsById(1L)).thenReturn(true);
+        when(borrowingRecordRepository.findHistoryByPatronId(1L, Long.MAX_VALUE, Limit.of(3)))
+                .thenReturn(List.of(loan(9L), loan(7L), loan(4L)));
+
+        KeysetPageDTO<BorrowingHistoryDTO> page = patronService.getBorrowings(1L, null, 2);
+
+        assertThat(page.getContent()).extracting(BorrowingHistoryDTO::getId).containsExactly(9L, 7L);
+        assertThat(page.getNextCursor()).isNotNull();
+
+        when(borrowingRecordRepository.findHistoryByPatronId(1L, 7L, Limit.of(3))).thenReturn(List.of(loan(4L)));
+        KeysetPageDTO<BorrowingHistoryDTO> nextPage = patronService.getBorrowings(1L, page.getNextCursor(), 2);
+
+        assertThat(nextPage.getContent()).extracting(BorrowingHistoryDTO::getId).containsExactly(4L);
+        assertThat(nextPage.getNextCursor()).isNull();
+    }
+
+    @Test
+    void getBorrowings_WithPatronNotFound_ThrowNotFoundException() {
+        when(patronRepository.existsById(1L)).thenReturn(false);
+
+        assertThatThrownBy(() -> patronService.getBorrowings(1L, null, null)).isInstanceOf(NotFoundException.class);
+        verify(borrowingRecordRepository, never()).findHistoryByPatronId(anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void getBorrowings_WithMalformedCursor_ThrowInvalidRequestException() {
+        when(patronRepository.existsById(1L)).thenReturn(true);
+
+        assertThatThrownBy(() -> patronService.getBorrowings(1L, "dGl0bGU9eA", null)).isInstanceOf(InvalidRequestException.class);
+    }
+
+    private BorrowingHistoryDTO loan(long id) {
+        return new BorrowingHistoryDTO(id, 1L, 1L, "Title", LocalDate.now(), LocalDate.now().plusDays(14), null, true);
+    }
 }
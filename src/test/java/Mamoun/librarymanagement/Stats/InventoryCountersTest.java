@@ -0,0 +1,157 @@
+package Mamoun.librarymanagement.Stats;
+
+import Mamoun.librarymanagement.DTO.StatsDTO;
+import Mamoun.librarymanagement.Repositories.BookRepository;
+import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
+import Mamoun.librarymanagement.Repositories.PatronRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class InventoryCountersTest {
+
+    @Mock
+    private BookRepository bookRepository;
+
+    @Mock
+    private PatronRepository patronRepository;
+
+    @Mock
+    private BorrowingRecordRepository borrowingRecordRepository;
+
+    @Mock
+    private PatronLoanCounts patronLoanCounts;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private InventoryCounters counters;
+
+    @BeforeEach
+    void setUp() {
+        counters = new InventoryCounters(bookRepository, patronRepository, borrowingRecordRepository, patronLoanCounts, transactionManager);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+            TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    void afterSingletonsInstantiated_LoadsCountsFromDatabase() {
+        stubCounts(10, 3, 4, 3);
+        when(patronLoanCounts.activePatrons()).thenReturn(2);
+
+        counters.afterSingletonsInstantiated();
+
+        StatsDTO stats = counters.snapshot();
+        assertThat(stats.getTotalBooks()).isEqualTo(10);
+        assertThat(stats.getBorrowedBooks()).isEqualTo(3);
+        assertThat(stats.getAvailableBooks()).isEqualTo(7);
+        assertThat(stats.getPatrons()).isEqualTo(4);
+        assertThat(stats.getActivePatrons()).isEqualTo(2);
+        assertThat(stats.getOpenLoans()).isEqualTo(3);
+    }
+
+    @Test
+    void record_OutsideTransaction_AppliesImmediately() {
+        counters.record(InventoryCounters.Counter.BOOKS, 5);
+        counters.record(InventoryCounters.Counter.BOOKS, -2);
+
+        assertThat(counters.get(InventoryCounters.Counter.BOOKS)).isEqualTo(3);
+    }
+
+    @Test
+    void record_InsideTransaction_AppliesOnlyOnCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        counters.record(InventoryCounters.Counter.BORROWED_BOOKS, 1);
+        counters.record(InventoryCounters.Counter.OPEN_LOANS, 1);
+        counters.record(InventoryCounters.Counter.BORROWED_BOOKS, 1);
+
+        assertThat(TransactionSynchronizationManager.getSynchronizations()).hasSize(1);
+        assertThat(counters.get(InventoryCounters.Counter.BORROWED_BOOKS)).isZero();
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertThat(counters.get(InventoryCounters.Counter.BORROWED_BOOKS)).isEqualTo(2);
+        assertThat(counters.get(InventoryCounters.Counter.OPEN_LOANS)).isEqualTo(1);
+    }
+
+    @Test
+    void record_RolledBackTransaction_IsDropped() {
+        TransactionSynchronizationManager.initSynchronization();
+        counters.record(InventoryCounters.Counter.PATRONS, 1);
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertThat(counters.get(InventoryCounters.Counter.PATRONS)).isZero();
+        assertThat(TransactionSynchronizationManager.hasResource(counters)).isFalse();
+    }
+
+    @Test
+    void reconcile_Drift_OverwritesCountersAndCountsCorrections() {
+        counters.record(InventoryCounters.Counter.BOOKS, 12);
+        counters.record(InventoryCounters.Counter.PATRONS, 2);
+        stubCounts(10, 0, 2, 0);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        counters.bindTo(registry);
+
+        assertThat(counters.reconcile()).isTrue();
+
+        assertThat(counters.get(InventoryCounters.Counter.BOOKS)).isEqualTo(10);
+        assertThat(counters.get(InventoryCounters.Counter.PATRONS)).isEqualTo(2);
+        assertThat(registry.get("library.inventory.corrections").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("library.inventory").tag("counter", "books").gauge().value()).isEqualTo(10);
+    }
+
+    @Test
+    void reconcile_TransactionOpen_IsSkipped() {
+        TransactionSynchronizationManager.initSynchronization();
+        counters.record(InventoryCounters.Counter.BOOKS, 1);
+
+        assertThat(counters.reconcile()).isFalse();
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertThat(counters.get(InventoryCounters.Counter.BOOKS)).isEqualTo(1);
+    }
+
+    @Test
+    void reconcile_CommitWhileCounting_IsSkipped() {
+        when(bookRepository.count()).thenReturn(1L);
+        when(bookRepository.countByIsBorrowedTrue()).thenReturn(0L);
+        when(borrowingRecordRepository.countByActiveTrue()).thenReturn(0L);
+        // The commit lands after the books were counted, so the counts already miss it
+        when(patronRepository.count()).thenAnswer(invocation -> {
+            TransactionSynchronizationManager.initSynchronization();
+            counters.record(InventoryCounters.Counter.BOOKS, 1);
+            complete(TransactionSynchronization.STATUS_COMMITTED);
+            TransactionSynchronizationManager.clearSynchronization();
+            return 0L;
+        });
+
+        assertThat(counters.reconcile()).isFalse();
+
+        assertThat(counters.get(InventoryCounters.Counter.BOOKS)).isEqualTo(1);
+    }
+
+    private void stubCounts(long books, long borrowedBooks, long patrons, long openLoans) {
+        when(bookRepository.count()).thenReturn(books);
+        when(bookRepository.countByIsBorrowedTrue()).thenReturn(borrowedBooks);
+        when(patronRepository.count()).thenReturn(patrons);
+        when(borrowingRecordRepository.countByActiveTrue()).thenReturn(openLoans);
+    }
+
+    private static void complete(int status) {
+        TransactionSynchronizationManager.getSynchronizations().forEach(synchronization -> synchronization.afterCompletion(status));
+    }
+}
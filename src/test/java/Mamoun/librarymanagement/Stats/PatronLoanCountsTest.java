@@ -0,0 +1,164 @@
+package Mamoun.librarymanagement.Stats;
+
+import Mamoun.librarymanagement.Config.LibraryProperties;
+import Mamoun.librarymanagement.Repositories.BorrowingRecordRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class PatronLoanCountsTest {
+
+    @Mock
+    private BorrowingRecordRepository borrowingRecordRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final LibraryProperties libraryProperties = new LibraryProperties();
+    private PatronLoanCounts counts;
+
+    @BeforeEach
+    void setUp() {
+        libraryProperties.getBorrowings().setMaxLoansPerPatron(3);
+        counts = new PatronLoanCounts(borrowingRecordRepository, libraryProperties, transactionManager);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive())
+            TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    void afterSingletonsInstantiated_SeedsOpenLoansFromDatabase() {
+        when(borrowingRecordRepository.streamOpenLoansByPatron()).thenReturn(Stream.of(openLoans(1L, 2), openLoans(2L, 3)));
+
+        counts.afterSingletonsInstantiated();
+
+        assertThat(counts.openLoans(1)).isEqualTo(2);
+        assertThat(counts.openLoans(2)).isEqualTo(3);
+        assertThat(counts.openLoans(3)).isZero();
+        assertThat(counts.reserve(2, 1)).isZero();
+    }
+
+    @Test
+    void reserve_GrantsOnlyTheFreeSlots() {
+        assertThat(counts.reserve(1, 2)).isEqualTo(2);
+        assertThat(counts.reserve(1, 2)).isEqualTo(1);
+        assertThat(counts.reserve(1, 1)).isZero();
+
+        assertThat(counts.openLoans(1)).isEqualTo(3);
+    }
+
+    @Test
+    void reserve_RolledBackTransaction_GivesSlotsBack() {
+        TransactionSynchronizationManager.initSynchronization();
+        assertThat(counts.reserve(1, 2)).isEqualTo(2);
+        assertThat(counts.openLoans(1)).isEqualTo(2);
+
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertThat(counts.openLoans(1)).isZero();
+    }
+
+    @Test
+    void release_InsideTransaction_FreesSlotsOnlyOnCommit() {
+        counts.reserve(1, 3);
+        TransactionSynchronizationManager.initSynchronization();
+        counts.release(1, 2);
+
+        assertThat(counts.reserve(1, 1)).isZero();
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertThat(counts.openLoans(1)).isEqualTo(1);
+    }
+
+    @Test
+    void release_MoreThanHeld_DropsThePatron() {
+        counts.reserve(1, 1);
+        counts.release(1, 5);
+
+        assertThat(counts.openLoans(1)).isZero();
+        assertThat(counts.reserve(1, 3)).isEqualTo(3);
+    }
+
+    @Test
+    void reconcile_Drift_CorrectsThePatronsAndCountsCorrections() {
+        counts.reserve(1, 2);
+        counts.reserve(2, 1);
+        counts.reserve(3, 3);
+        when(borrowingRecordRepository.streamOpenLoansByPatron()).thenReturn(Stream.of(openLoans(1L, 1), openLoans(3L, 3), openLoans(4L, 2)));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        counts.bindTo(registry);
+
+        assertThat(counts.reconcile()).isTrue();
+
+        assertThat(counts.openLoans(1)).isEqualTo(1);
+        assertThat(counts.openLoans(2)).isZero();
+        assertThat(counts.openLoans(3)).isEqualTo(3);
+        assertThat(counts.openLoans(4)).isEqualTo(2);
+        assertThat(registry.get("library.loans.corrections").functionCounter().count()).isEqualTo(3);
+        assertThat(registry.get("library.loans.patrons").gauge().value()).isEqualTo(3);
+        assertThat(counts.activePatrons()).isEqualTo(3);
+    }
+
+    @Test
+    void reconcile_TransactionOpen_IsSkipped() {
+        TransactionSynchronizationManager.initSynchronization();
+        counts.reserve(1, 1);
+
+        assertThat(counts.reconcile()).isFalse();
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertThat(counts.openLoans(1)).isEqualTo(1);
+    }
+
+    @Test
+    void reconcile_ReturnWhileCounting_IsSkipped() {
+        counts.reserve(1, 2);
+        // The return commits after its loan was counted as open
+        when(borrowingRecordRepository.streamOpenLoansByPatron()).thenAnswer(invocation -> {
+            TransactionSynchronizationManager.initSynchronization();
+            counts.release(1, 1);
+            complete(TransactionSynchronization.STATUS_COMMITTED);
+            TransactionSynchronizationManager.clearSynchronization();
+            return Stream.of(openLoans(1L, 2));
+        });
+
+        assertThat(counts.reconcile()).isFalse();
+
+        assertThat(counts.openLoans(1)).isEqualTo(1);
+    }
+
+    private static void complete(int status) {
+        TransactionSynchronizationManager.getSynchronizations().forEach(synchronization -> synchronization.afterCompletion(status));
+    }
+
+    private static BorrowingRecordRepository.PatronOpenLoans openLoans(long patronId, long loans) {
+        return new BorrowingRecordRepository.PatronOpenLoans() {
+            @Override
+            public Long getPatronId() {
+                return patronId;
+            }
+
+            @Override
+            public long getOpenLoans() {
+                return loans;
+            }
+        };
+    }
+}